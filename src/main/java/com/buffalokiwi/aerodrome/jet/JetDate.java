@@ -15,6 +15,7 @@
 package com.buffalokiwi.aerodrome.jet;
 
 import com.buffalokiwi.api.APIDate;
+import com.buffalokiwi.api.APIDateParser;
 import com.buffalokiwi.api.APILog;
 import java.time.DateTimeException;
 import java.time.Instant;
@@ -89,6 +90,12 @@ public class JetDate extends APIDate implements IJetDate
     if ( value == null || value.isEmpty())
       return null;
     
+    //..Try the shape-based parser first.  This handles every format jet 
+    //  returns, including FMT_STD, without throwing anything.
+    final ZonedDateTime fast = APIDateParser.parseOrNull( value );
+    if ( fast != null )
+      return new JetDate( fast );
+    
     for ( final DateTimeFormatter fmt : FORMATS )
     {
       try {
@@ -0,0 +1,292 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet;
+
+import com.buffalokiwi.api.APIException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * A Spliterator over some paged endpoint like getSkuList() or pollNodes().
+ *
+ * Up to window pages are requested concurrently ahead of the page that is
+ * currently being consumed.  Pages are always returned in order, and the
+ * first page containing less than pageSize items ends the iteration.  Any
+ * pages requested past the end are discarded.
+ *
+ * When used in a parallel stream, trySplit() hands off the next whole page,
+ * so pages can be processed concurrently while the requests stay in order.
+ *
+ * If a page request fails, the APIException is thrown from tryAdvance()
+ * wrapped in a CompletionException.
+ *
+ * @author John Quinn
+ * @param <T> Item type
+ */
+public class PagedSpliterator<T> implements Spliterator<T>
+{
+  /**
+   * Retrieves a single page
+   * @param <T> Item type
+   */
+  @FunctionalInterface
+  public static interface PageSource<T>
+  {
+    /**
+     * Retrieve a page
+     * @param offset start
+     * @param limit page size
+     * @return items
+     * @throws APIException
+     * @throws JetException
+     */
+    public List<T> getPage( final int offset, final int limit )
+      throws APIException, JetException;
+  }
+
+
+  /**
+   * Page source
+   */
+  private final PageSource<T> source;
+
+  /**
+   * Items per page
+   */
+  private final int pageSize;
+
+  /**
+   * Maximum number of pages requested ahead
+   */
+  private final int window;
+
+  /**
+   * Where page requests run
+   */
+  private final Executor executor;
+
+  /**
+   * Pages that have been requested, in order
+   */
+  private final Deque<CompletableFuture<List<T>>> pages = new ArrayDeque<>();
+
+  /**
+   * The offset of the next page to request
+   */
+  private int nextOffset;
+
+  /**
+   * The page currently being consumed
+   */
+  private Iterator<T> current = null;
+
+  /**
+   * Set when a short page has been received
+   */
+  private boolean done = false;
+
+
+  /**
+   * Create a stream over some paged endpoint
+   * @param <T> Item type
+   * @param source page source
+   * @param pageSize items per page
+   * @param window maximum number of pages requested ahead
+   * @param executor where page requests run
+   * @param parallel if the stream should be parallel
+   * @return stream
+   */
+  public static <T> Stream<T> stream( final PageSource<T> source,
+    final int pageSize, final int window, final Executor executor,
+    final boolean parallel )
+  {
+    final PagedSpliterator<T> s = new PagedSpliterator<>( source, pageSize,
+      window, executor );
+
+    return StreamSupport.stream( s, parallel ).onClose( s::cancel );
+  }
+
+
+  /**
+   * Create a new PagedSpliterator starting at offset zero
+   * @param source page source
+   * @param pageSize items per page
+   * @param window maximum number of pages requested ahead
+   * @param executor where page requests run
+   */
+  public PagedSpliterator( final PageSource<T> source, final int pageSize,
+    final int window, final Executor executor )
+  {
+    this( source, 0, pageSize, window, executor );
+  }
+
+
+  /**
+   * Create a new PagedSpliterator
+   * @param source page source
+   * @param offset first offset
+   * @param pageSize items per page
+   * @param window maximum number of pages requested ahead
+   * @param executor where page requests run
+   */
+  public PagedSpliterator( final PageSource<T> source, final int offset,
+    final int pageSize, final int window, final Executor executor )
+  {
+    Utils.checkNull( source, "source" );
+    Utils.checkIntGTEZ( offset, "offset" );
+    Utils.checkIntGTZ( pageSize, "pageSize" );
+    Utils.checkIntGTZ( window, "window" );
+    Utils.checkNull( executor, "executor" );
+
+    this.source = source;
+    this.nextOffset = offset;
+    this.pageSize = pageSize;
+    this.window = window;
+    this.executor = executor;
+  }
+
+
+  @Override
+  public boolean tryAdvance( final Consumer<? super T> action )
+  {
+    Utils.checkNull( action, "action" );
+
+    while ( current == null || !current.hasNext())
+    {
+      final List<T> page = nextPage();
+      if ( page == null )
+        return false;
+
+      current = page.iterator();
+    }
+
+    action.accept( current.next());
+    return true;
+  }
+
+
+  /**
+   * Hands off the next whole page
+   * @return page spliterator or null when there are no more pages
+   */
+  @Override
+  public Spliterator<T> trySplit()
+  {
+    //..Finish the current page here first
+    if ( current != null && current.hasNext())
+      return null;
+
+    final List<T> page = nextPage();
+    if ( page == null )
+      return null;
+
+    return Spliterators.spliterator( page, ORDERED | NONNULL );
+  }
+
+
+  @Override
+  public long estimateSize()
+  {
+    return ( done && pages.isEmpty() && ( current == null || !current.hasNext()))
+      ? 0 : Long.MAX_VALUE;
+  }
+
+
+  @Override
+  public int characteristics()
+  {
+    return ORDERED | NONNULL;
+  }
+
+
+  /**
+   * Cancel any outstanding page requests.
+   * Requests that have already been sent will still finish, but the
+   * results are discarded.
+   */
+  public void cancel()
+  {
+    done = true;
+    while ( !pages.isEmpty())
+    {
+      pages.pollFirst().cancel( false );
+    }
+  }
+
+
+  /**
+   * Retrieve the next page in order, and keep the window full.
+   * @return page or null if there are no more pages
+   * @throws CompletionException if the request failed
+   */
+  private List<T> nextPage() throws CompletionException
+  {
+    fill();
+
+    final CompletableFuture<List<T>> f = pages.pollFirst();
+    if ( f == null )
+      return null;
+
+    final List<T> page;
+    try {
+      page = f.join();
+    } catch( CompletionException e ) {
+      cancel();
+      throw e;
+    }
+
+    if ( page.size() < pageSize )
+    {
+      //..Anything after this is past the end
+      cancel();
+    }
+    else
+      fill();
+
+    return page;
+  }
+
+
+  /**
+   * Request pages until the window is full
+   */
+  private void fill()
+  {
+    while ( !done && pages.size() < window )
+    {
+      final int offset = nextOffset;
+      nextOffset += pageSize;
+
+      pages.addLast( CompletableFuture.supplyAsync(() -> {
+        try {
+          return source.getPage( offset, pageSize );
+        } catch( APIException e ) {
+          throw new CompletionException( e );
+        }
+      }, executor ));
+    }
+  }
+}
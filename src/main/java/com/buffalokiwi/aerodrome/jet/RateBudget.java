@@ -0,0 +1,103 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet;
+
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Spaces out requests so no more than some number are started per second.
+ *
+ * Each call to acquire() reserves the next free slot and sleeps until it
+ * arrives.  When jet pushes back (429, 503, etc), backoff() moves every
+ * future slot out by some delay.
+ *
+ * This is safe to use from multiple threads.
+ *
+ * @author John Quinn
+ */
+public class RateBudget
+{
+  /**
+   * Nanos between slots
+   */
+  private final long interval;
+
+  /**
+   * Next free slot in System.nanoTime() terms.  Guarded by this.
+   */
+  private long next;
+
+
+  /**
+   * Create a new budget
+   * @param requestsPerSecond rate
+   */
+  public RateBudget( final double requestsPerSecond )
+  {
+    if ( requestsPerSecond <= 0 )
+      throw new IllegalArgumentException( "requestsPerSecond must be greater than zero" );
+
+    interval = (long)( TimeUnit.SECONDS.toNanos( 1 ) / requestsPerSecond );
+    next = System.nanoTime();
+  }
+
+
+  /**
+   * Wait for the next request slot.
+   * If the thread is interrupted, this returns early with the interrupt
+   * flag set.
+   */
+  public void acquire()
+  {
+    final long at;
+    synchronized( this )
+    {
+      final long now = System.nanoTime();
+      at = ( next - now > 0 ) ? next : now;
+      next = at + interval;
+    }
+
+    long wait;
+    while (( wait = at - System.nanoTime()) > 0 )
+    {
+      try {
+        TimeUnit.NANOSECONDS.sleep( wait );
+      } catch( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+
+  /**
+   * Push every slot that has not been handed out back by some delay
+   * @param delay delay
+   * @param unit unit
+   */
+  public void backoff( final long delay, final TimeUnit unit )
+  {
+    Utils.checkNull( unit, "unit" );
+
+    final long d = unit.toNanos( delay );
+    synchronized( this )
+    {
+      final long now = System.nanoTime();
+      if ( next - now < d )
+        next = now + d;
+    }
+  }
+}
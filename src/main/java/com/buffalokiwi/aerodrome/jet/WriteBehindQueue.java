@@ -0,0 +1,446 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+
+package com.buffalokiwi.aerodrome.jet;
+
+import com.buffalokiwi.api.APILog;
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Base class for write-behind queues.
+ *
+ * Subclasses keep their pending values in one or more concurrent maps and
+ * add to them with put().  Each pending key holds a permit, and the number
+ * of permits is capped at maxPending.  When the queue is full, callers
+ * adding a new key will block until a flush has made room.  Updates to a
+ * key that is already pending never block.
+ *
+ * flush() is called on a schedule, or as soon as the number of pending keys
+ * reaches the flush threshold.  Subclasses remove the pending values with
+ * drain() and send them, in bulk when there are at least bulkThreshold.
+ *
+ * @author John Quinn
+ */
+public abstract class WriteBehindQueue implements AutoCloseable
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( WriteBehindQueue.class );
+
+
+  /**
+   * Builder for the settings every queue shares
+   * @param <T> Builder type
+   */
+  public abstract static class Builder<T extends Builder<T>>
+  {
+    /**
+     * Reference to this
+     */
+    @SuppressWarnings( "unchecked" )
+    private final T reference = (T)this;
+
+    private int maxPending;
+    private int flushThreshold;
+    private long flushIntervalMillis;
+    private int bulkThreshold;
+    private File workDir = new File( System.getProperty( "java.io.tmpdir" ));
+
+
+    /**
+     * Create a builder with some defaults
+     * @param maxPending max pending
+     * @param flushThreshold flush threshold
+     * @param flushIntervalMillis flush interval
+     * @param bulkThreshold bulk threshold
+     */
+    protected Builder( final int maxPending, final int flushThreshold,
+      final long flushIntervalMillis, final int bulkThreshold )
+    {
+      this.maxPending = maxPending;
+      this.flushThreshold = flushThreshold;
+      this.flushIntervalMillis = flushIntervalMillis;
+      this.bulkThreshold = bulkThreshold;
+    }
+
+
+    /**
+     * Set the maximum number of pending keys
+     * @param max max pending
+     * @return this
+     */
+    public T setMaxPending( final int max )
+    {
+      Utils.checkIntGTZ( max, "max" );
+      maxPending = max;
+      return reference;
+    }
+
+
+    /**
+     * Set the number of pending keys that triggers a flush
+     * @param threshold threshold
+     * @return this
+     */
+    public T setFlushThreshold( final int threshold )
+    {
+      Utils.checkIntGTZ( threshold, "threshold" );
+      flushThreshold = threshold;
+      return reference;
+    }
+
+
+    /**
+     * Set the time between scheduled flushes
+     * @param millis milliseconds
+     * @return this
+     */
+    public T setFlushIntervalMillis( final long millis )
+    {
+      if ( millis < 1 )
+        throw new IllegalArgumentException( "millis must be greater than zero" );
+
+      flushIntervalMillis = millis;
+      return reference;
+    }
+
+
+    /**
+     * Set the number of keys in a single flush that causes a bulk file to be
+     * sent instead of one request per key.
+     * @param threshold threshold
+     * @return this
+     */
+    public T setBulkThreshold( final int threshold )
+    {
+      Utils.checkIntGTZ( threshold, "threshold" );
+      bulkThreshold = threshold;
+      return reference;
+    }
+
+
+    /**
+     * Set the directory used to write bulk files
+     * @param dir directory
+     * @return this
+     */
+    public T setWorkDir( final File dir )
+    {
+      Utils.checkNull( dir, "dir" );
+      if ( !dir.isDirectory() || !dir.canWrite())
+        throw new IllegalArgumentException( "Can't write to " + dir.getPath());
+
+      workDir = dir;
+      return reference;
+    }
+  } //..End Builder
+
+
+  /**
+   * One permit per pending key
+   */
+  private final Semaphore permits;
+
+  /**
+   * Max pending
+   */
+  private final int maxPending;
+
+  /**
+   * Number of pending keys that triggers a flush
+   */
+  private final int flushThreshold;
+
+  /**
+   * Time between scheduled flushes
+   */
+  private final long flushIntervalMillis;
+
+  /**
+   * Number of keys that causes a bulk file to be sent
+   */
+  private final int bulkThreshold;
+
+  /**
+   * Where to write bulk files
+   */
+  private final File workDir;
+
+  /**
+   * Runs the flushes
+   */
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Set when a threshold flush has been requested and hasn't started yet
+   */
+  private final AtomicBoolean flushRequested = new AtomicBoolean( false );
+
+  /**
+   * Held for reading by put() and for writing by close() while it sets
+   * closed, so nothing can be added after the final flush
+   */
+  private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+  /**
+   * Set by close()
+   */
+  private volatile boolean closed = false;
+
+
+  /**
+   * Create the queue.
+   * Subclasses call start() at the end of their constructor.
+   * @param name scheduler thread name
+   * @param b settings
+   */
+  protected WriteBehindQueue( final String name, final Builder<?> b )
+  {
+    maxPending = b.maxPending;
+    permits = new Semaphore( b.maxPending );
+    flushThreshold = b.flushThreshold;
+    flushIntervalMillis = b.flushIntervalMillis;
+    bulkThreshold = b.bulkThreshold;
+    workDir = b.workDir;
+
+    scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+      final Thread t = new Thread( r, name );
+      t.setDaemon( true );
+      return t;
+    });
+  }
+
+
+  /**
+   * Start the flush schedule.
+   * This is separate from the constructor so a flush can't run before the
+   * subclass has been constructed.
+   */
+  protected final void start()
+  {
+    scheduler.scheduleWithFixedDelay( this::scheduledFlush,
+      flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS );
+  }
+
+
+  /**
+   * Send everything that is pending.
+   * This blocks until the flush is done.
+   */
+  public abstract void flush();
+
+
+  /**
+   * Retrieve the number of pending keys
+   * @return pending
+   */
+  public int getPendingCount()
+  {
+    return maxPending - permits.availablePermits();
+  }
+
+
+  /**
+   * Stop the flush schedule and send anything that is pending.
+   * This waits for any put() that is in progress, including one that is
+   * blocked waiting for room.
+   */
+  @Override
+  public void close()
+  {
+    closeLock.writeLock().lock();
+    try {
+      closed = true;
+    } finally {
+      closeLock.writeLock().unlock();
+    }
+
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination( 1, TimeUnit.MINUTES );
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+
+    flush();
+  }
+
+
+  /**
+   * Retrieve the number of keys that causes a bulk file to be sent
+   * @return threshold
+   */
+  protected final int getBulkThreshold()
+  {
+    return bulkThreshold;
+  }
+
+
+  /**
+   * Retrieve the directory used to write bulk files
+   * @return directory
+   */
+  protected final File getWorkDir()
+  {
+    return workDir;
+  }
+
+
+  /**
+   * Add or merge some pending value.
+   * A permit is held for every key in every map.  Adding a new key takes a
+   * permit, and blocks when there aren't any left.
+   * @param <V> value type
+   * @param map map
+   * @param key key
+   * @param merge merges the new value into the pending value, which may be null
+   * @throws IllegalStateException if the queue has been closed
+   */
+  protected final <V> void put( final ConcurrentMap<String,V> map,
+    final String key, final UnaryOperator<V> merge )
+  {
+    //..Flushes keep running until close() has the write lock, so a put
+    //  blocked in acquire() always gets its permit
+    closeLock.readLock().lock();
+    try {
+      if ( closed )
+        throw new IllegalStateException( "This queue has been closed" );
+
+      putOpen( map, key, merge );
+    } finally {
+      closeLock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * put() while holding the read lock
+   * @param <V> value type
+   * @param map map
+   * @param key key
+   * @param merge merge
+   */
+  private <V> void putOpen( final ConcurrentMap<String,V> map,
+    final String key, final UnaryOperator<V> merge )
+  {
+    boolean acquired = false;
+    if ( !map.containsKey( key ))
+    {
+      acquire();
+      acquired = true;
+    }
+
+    final boolean[] created = new boolean[1];
+    map.compute( key, ( k, v ) -> {
+      created[0] = ( v == null );
+      return merge.apply( v );
+    });
+
+    if ( created[0] && !acquired )
+    {
+      //..Flushed between containsKey() and compute()
+      acquire();
+    }
+    else if ( !created[0] && acquired )
+    {
+      //..Someone else added it first
+      permits.release();
+    }
+
+    //..Whoever takes the last permit asks for a flush, or callers waiting in
+    //  acquire() would wait for the next scheduled flush
+    if ( created[0] && ( getPendingCount() >= flushThreshold
+      || permits.availablePermits() == 0 ))
+    {
+      requestFlush();
+    }
+  }
+
+
+  /**
+   * Remove every pending entry from some map and release their permits
+   * @param <V> value type
+   * @param map map
+   * @return entries
+   */
+  protected final <V> Map<String,V> drain( final ConcurrentMap<String,V> map )
+  {
+    final Map<String,V> out = new LinkedHashMap<>();
+    for ( final String key : map.keySet())
+    {
+      final V v = map.remove( key );
+      if ( v != null )
+      {
+        out.put( key, v );
+        permits.release();
+      }
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Take a permit, and flush when the queue is full
+   */
+  private void acquire()
+  {
+    if ( !permits.tryAcquire())
+    {
+      requestFlush();
+      permits.acquireUninterruptibly();
+    }
+  }
+
+
+  /**
+   * Run a flush on the scheduler thread unless one is already waiting
+   */
+  private void requestFlush()
+  {
+    if ( !closed && flushRequested.compareAndSet( false, true ))
+      scheduler.execute( this::scheduledFlush );
+  }
+
+
+  /**
+   * Flush from the scheduler.  Exceptions must not escape or the schedule
+   * is cancelled.
+   */
+  private void scheduledFlush()
+  {
+    flushRequested.set( false );
+    try {
+      flush();
+    } catch( RuntimeException e ) {
+      APILog.error( LOG, e, "Flush failed" );
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.codec;
+
+import com.buffalokiwi.utils.Money;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+
+/**
+ * Reads fields written by FieldWriter.
+ *
+ * Call next() to move to each field, check getTag(), and then call the read
+ * method that matches what was written.  Call skip() for any tag you do not
+ * recognize.
+ *
+ * Corrupt input throws IllegalArgumentException.
+ *
+ * @author John Quinn
+ */
+public class FieldReader
+{
+  /**
+   * Input
+   */
+  private final byte[] buf;
+
+  /**
+   * End of input
+   */
+  private final int end;
+
+  /**
+   * Read position
+   */
+  private int pos;
+
+  /**
+   * Current tag
+   */
+  private int tag = 0;
+
+  /**
+   * Current wire type
+   */
+  private int wireType = -1;
+
+
+  /**
+   * Create a new reader
+   * @param buf input
+   */
+  public FieldReader( final byte[] buf )
+  {
+    this( buf, 0, buf.length );
+  }
+
+
+  /**
+   * Create a new reader
+   * @param buf input
+   * @param off offset
+   * @param len length
+   */
+  public FieldReader( final byte[] buf, final int off, final int len )
+  {
+    if ( buf == null )
+      throw new IllegalArgumentException( "buf cannot be null" );
+    else if ( off < 0 || len < 0 || off + len > buf.length )
+      throw new IllegalArgumentException( "off and len are out of bounds" );
+
+    this.buf = buf;
+    this.pos = off;
+    this.end = off + len;
+  }
+
+
+  /**
+   * Move to the next field
+   * @return false at the end of the input
+   */
+  public boolean next()
+  {
+    if ( pos >= end )
+      return false;
+
+    final long h = readRawVarint();
+    tag = (int)( h >>> 3 );
+    wireType = (int)( h & 7 );
+
+    if ( tag < 1 || ( wireType != FieldWriter.VARINT && wireType != FieldWriter.LENGTH ))
+      throw new IllegalArgumentException( "Corrupt field header at " + pos );
+
+    return true;
+  }
+
+
+  /**
+   * Retrieve the current tag
+   * @return tag
+   */
+  public int getTag()
+  {
+    return tag;
+  }
+
+
+  /**
+   * Retrieve the current wire type
+   * @return FieldWriter.VARINT or FieldWriter.LENGTH
+   */
+  public int getWireType()
+  {
+    return wireType;
+  }
+
+
+  /**
+   * Skip the current field
+   */
+  public void skip()
+  {
+    if ( wireType == FieldWriter.VARINT )
+      readRawVarint();
+    else
+      pos = lengthEnd();
+  }
+
+
+  /**
+   * Read an integer field
+   * @return value
+   */
+  public long readLong()
+  {
+    expect( FieldWriter.VARINT );
+    return unzigzag( readRawVarint());
+  }
+
+
+  /**
+   * Read an int field
+   * @return value
+   */
+  public int readInt()
+  {
+    final long v = readLong();
+    if ( v < Integer.MIN_VALUE || v > Integer.MAX_VALUE )
+      throw new IllegalArgumentException( "Field " + tag + " is not an int" );
+
+    return (int)v;
+  }
+
+
+  /**
+   * Read a boolean field
+   * @return value
+   */
+  public boolean readBool()
+  {
+    return readLong() != 0;
+  }
+
+
+  /**
+   * Read a string field
+   * @return value
+   */
+  public String readString()
+  {
+    final int e = lengthEnd();
+    final String s = new String( buf, pos, e - pos, StandardCharsets.UTF_8 );
+    pos = e;
+    return s;
+  }
+
+
+  /**
+   * Read a byte array field
+   * @return value
+   */
+  public byte[] readBytes()
+  {
+    final int e = lengthEnd();
+    final byte[] b = Arrays.copyOfRange( buf, pos, e );
+    pos = e;
+    return b;
+  }
+
+
+  /**
+   * Read a nested record without copying it
+   * @return reader for the nested record
+   */
+  public FieldReader readMessage()
+  {
+    final int e = lengthEnd();
+    final FieldReader r = new FieldReader( buf, pos, e - pos );
+    pos = e;
+    return r;
+  }
+
+
+  /**
+   * Read money written as cents
+   * @return value
+   */
+  public Money readMoney()
+  {
+    return new Money( BigDecimal.valueOf( readLong(), 2 ));
+  }
+
+
+  /**
+   * Read a decimal
+   * @return value
+   */
+  public BigDecimal readDecimal()
+  {
+    final int e = lengthEnd();
+    final int scale = (int)unzigzag( readRawVarint());
+    if ( pos >= e )
+      throw new IllegalArgumentException( "Corrupt decimal in field " + tag );
+
+    final BigInteger unscaled = new BigInteger( Arrays.copyOfRange( buf, pos, e ));
+    pos = e;
+    return new BigDecimal( unscaled, scale );
+  }
+
+
+  /**
+   * Read a date
+   * @return value
+   */
+  public ZonedDateTime readDate()
+  {
+    final int e = lengthEnd();
+    final long sec = unzigzag( readRawVarint());
+    final long nanos = readRawVarint();
+    final int offset = (int)unzigzag( readRawVarint());
+    if ( pos != e )
+      throw new IllegalArgumentException( "Corrupt date in field " + tag );
+
+    return ZonedDateTime.ofInstant( Instant.ofEpochSecond( sec, nanos ),
+      ZoneOffset.ofTotalSeconds( offset ));
+  }
+
+
+  /**
+   * Read an unsigned varint with no field header
+   * @return value
+   */
+  public long readRawVarint()
+  {
+    long v = 0;
+    for ( int shift = 0; shift < 64; shift += 7 )
+    {
+      if ( pos >= end )
+        throw new IllegalArgumentException( "Unexpected end of record" );
+
+      final byte b = buf[pos++];
+      v |= (long)( b & 0x7F ) << shift;
+      if (( b & 0x80 ) == 0 )
+        return v;
+    }
+
+    throw new IllegalArgumentException( "Corrupt varint at " + pos );
+  }
+
+
+  /**
+   * If there is anything left to read
+   * @return has more
+   */
+  public boolean hasRemaining()
+  {
+    return pos < end;
+  }
+
+
+  /**
+   * Read the length of the current field and return where it ends.
+   * Leaves pos at the start of the value.
+   * @return end
+   */
+  private int lengthEnd()
+  {
+    expect( FieldWriter.LENGTH );
+    final long len = readRawVarint();
+    if ( len < 0 || len > end - pos )
+      throw new IllegalArgumentException( "Corrupt length in field " + tag );
+
+    return pos + (int)len;
+  }
+
+
+  private void expect( final int type )
+  {
+    if ( wireType != type )
+      throw new IllegalArgumentException( "Field " + tag + " has wire type "
+        + wireType + ", not " + type );
+  }
+
+
+  private static long unzigzag( final long v )
+  {
+    return ( v >>> 1 ) ^ -( v & 1 );
+  }
+}
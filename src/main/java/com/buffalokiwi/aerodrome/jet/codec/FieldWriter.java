@@ -0,0 +1,318 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.codec;
+
+import com.buffalokiwi.api.IAPIDate;
+import com.buffalokiwi.utils.Money;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+
+
+/**
+ * Writes a record as a sequence of tagged fields.
+ *
+ * Each field starts with a varint header of (tag &lt;&lt; 3 | wire type).
+ * Integers are zigzag varints, and everything else is length delimited, so
+ * a reader can skip any tag it does not know.  Fields that are left out
+ * decode to their defaults, which keeps sparse records small.
+ *
+ * Money is written as cents, decimals as a scale plus the unscaled bytes,
+ * and dates as epoch seconds, nanos and the offset in seconds.
+ *
+ * This is not thread safe.
+ *
+ * @author John Quinn
+ */
+public class FieldWriter
+{
+  /**
+   * Zigzag varint
+   */
+  public static final int VARINT = 0;
+
+  /**
+   * Varint length followed by that many bytes
+   */
+  public static final int LENGTH = 2;
+
+
+  /**
+   * Output
+   */
+  private byte[] buf;
+
+  /**
+   * Bytes written
+   */
+  private int size = 0;
+
+
+  /**
+   * Create a new writer
+   */
+  public FieldWriter()
+  {
+    this( 64 );
+  }
+
+
+  /**
+   * Create a new writer
+   * @param capacity initial capacity
+   */
+  public FieldWriter( final int capacity )
+  {
+    buf = new byte[Math.max( 16, capacity )];
+  }
+
+
+  /**
+   * Write an integer field
+   * @param tag tag
+   * @param value value
+   * @return this
+   */
+  public FieldWriter writeLong( final int tag, final long value )
+  {
+    header( tag, VARINT );
+    writeRawVarint(( value << 1 ) ^ ( value >> 63 ));
+    return this;
+  }
+
+
+  /**
+   * Write a boolean field
+   * @param tag tag
+   * @param value value
+   * @return this
+   */
+  public FieldWriter writeBool( final int tag, final boolean value )
+  {
+    return writeLong( tag, value ? 1 : 0 );
+  }
+
+
+  /**
+   * Write a string field
+   * @param tag tag
+   * @param value value
+   * @return this
+   */
+  public FieldWriter writeString( final int tag, final String value )
+  {
+    if ( value == null )
+      throw new IllegalArgumentException( "value cannot be null" );
+
+    return writeBytes( tag, value.getBytes( StandardCharsets.UTF_8 ));
+  }
+
+
+  /**
+   * Write a byte array field
+   * @param tag tag
+   * @param value value
+   * @return this
+   */
+  public FieldWriter writeBytes( final int tag, final byte[] value )
+  {
+    return writeBytes( tag, value, 0, value.length );
+  }
+
+
+  /**
+   * Write a nested record
+   * @param tag tag
+   * @param value nested record
+   * @return this
+   */
+  public FieldWriter writeMessage( final int tag, final FieldWriter value )
+  {
+    return writeBytes( tag, value.buf, 0, value.size );
+  }
+
+
+  /**
+   * Write money as cents
+   * @param tag tag
+   * @param value value
+   * @return this
+   * @throws ArithmeticException if the amount has more than 2 decimal places
+   */
+  public FieldWriter writeMoney( final int tag, final Money value )
+  {
+    if ( value == null )
+      throw new IllegalArgumentException( "value cannot be null" );
+
+    return writeLong( tag, value.asBigDecimal().movePointRight( 2 ).longValueExact());
+  }
+
+
+  /**
+   * Write a decimal without losing scale or precision
+   * @param tag tag
+   * @param value value
+   * @return this
+   */
+  public FieldWriter writeDecimal( final int tag, final BigDecimal value )
+  {
+    if ( value == null )
+      throw new IllegalArgumentException( "value cannot be null" );
+
+    final byte[] unscaled = value.unscaledValue().toByteArray();
+    final int scale = value.scale();
+
+    header( tag, LENGTH );
+    writeRawVarint( varintSize( zigzag( scale )) + unscaled.length );
+    writeRawVarint( zigzag( scale ));
+    writeRaw( unscaled, 0, unscaled.length );
+    return this;
+  }
+
+
+  /**
+   * Write a date as epoch seconds, nanos and offset seconds
+   * @param tag tag
+   * @param value value
+   * @return this
+   */
+  public FieldWriter writeDate( final int tag, final IAPIDate value )
+  {
+    if ( value == null )
+      throw new IllegalArgumentException( "value cannot be null" );
+
+    final ZonedDateTime d = value.getLocalDate();
+    final long sec = zigzag( d.toEpochSecond());
+    final long nanos = d.getNano();
+    final long offset = zigzag( d.getOffset().getTotalSeconds());
+
+    header( tag, LENGTH );
+    writeRawVarint( varintSize( sec ) + varintSize( nanos ) + varintSize( offset ));
+    writeRawVarint( sec );
+    writeRawVarint( nanos );
+    writeRawVarint( offset );
+    return this;
+  }
+
+
+  /**
+   * Write an unsigned varint with no field header
+   * @param value value
+   * @return this
+   */
+  public FieldWriter writeRawVarint( long value )
+  {
+    ensure( 10 );
+    while (( value & ~0x7FL ) != 0 )
+    {
+      buf[size++] = (byte)(( value & 0x7F ) | 0x80 );
+      value >>>= 7;
+    }
+
+    buf[size++] = (byte)value;
+    return this;
+  }
+
+
+  /**
+   * Write bytes with no field header
+   * @param b bytes
+   * @param off offset
+   * @param len length
+   * @return this
+   */
+  public FieldWriter writeRaw( final byte[] b, final int off, final int len )
+  {
+    ensure( len );
+    System.arraycopy( b, off, buf, size, len );
+    size += len;
+    return this;
+  }
+
+
+  /**
+   * Retrieve the number of bytes written
+   * @return size
+   */
+  public int size()
+  {
+    return size;
+  }
+
+
+  /**
+   * Discard everything written so the writer can be reused
+   * @return this
+   */
+  public FieldWriter reset()
+  {
+    size = 0;
+    return this;
+  }
+
+
+  /**
+   * Retrieve a copy of the bytes written
+   * @return bytes
+   */
+  public byte[] toByteArray()
+  {
+    return Arrays.copyOf( buf, size );
+  }
+
+
+  private FieldWriter writeBytes( final int tag, final byte[] b, final int off, final int len )
+  {
+    header( tag, LENGTH );
+    writeRawVarint( len );
+    return writeRaw( b, off, len );
+  }
+
+
+  private void header( final int tag, final int wireType )
+  {
+    if ( tag < 1 )
+      throw new IllegalArgumentException( "tag must be greater than zero" );
+
+    writeRawVarint(((long)tag << 3 ) | wireType );
+  }
+
+
+  private void ensure( final int n )
+  {
+    if ( size + n > buf.length )
+      buf = Arrays.copyOf( buf, Math.max( buf.length * 2, size + n ));
+  }
+
+
+  static long zigzag( final long v )
+  {
+    return ( v << 1 ) ^ ( v >> 63 );
+  }
+
+
+  static int varintSize( long v )
+  {
+    int n = 1;
+    while (( v & ~0x7FL ) != 0 )
+    {
+      n++;
+      v >>>= 7;
+    }
+
+    return n;
+  }
+}
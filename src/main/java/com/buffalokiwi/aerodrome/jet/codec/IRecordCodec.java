@@ -0,0 +1,56 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.codec;
+
+
+/**
+ * Turns some record into bytes and back again.
+ *
+ * @param <T> record type
+ * @author John Quinn
+ */
+public interface IRecordCodec<T>
+{
+  /**
+   * Retrieve the record type id written into each encoded record
+   * @return id
+   */
+  public int getTypeId();
+
+
+  /**
+   * Retrieve the newest format version this codec reads and writes
+   * @return version
+   */
+  public int getVersion();
+
+
+  /**
+   * Encode a record
+   * @param rec record
+   * @return bytes
+   */
+  public byte[] encode( final T rec );
+
+
+  /**
+   * Decode a record
+   * @param data bytes from encode()
+   * @return record
+   * @throws IllegalArgumentException if the data is corrupt, holds a different
+   * record type, or was written by a newer version of the codec
+   */
+  public T decode( final byte[] data );
+}
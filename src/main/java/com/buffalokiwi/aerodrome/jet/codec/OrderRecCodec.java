@@ -0,0 +1,547 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.codec;
+
+import com.buffalokiwi.aerodrome.jet.IJetDate;
+import com.buffalokiwi.aerodrome.jet.PersonRec;
+import com.buffalokiwi.aerodrome.jet.ShippingCarrier;
+import com.buffalokiwi.aerodrome.jet.ShippingMethod;
+import com.buffalokiwi.aerodrome.jet.ShippingServiceLevel;
+import com.buffalokiwi.aerodrome.jet.orders.AckStatus;
+import com.buffalokiwi.aerodrome.jet.orders.FeeAdjRec;
+import com.buffalokiwi.aerodrome.jet.orders.ItemAckStatus;
+import com.buffalokiwi.aerodrome.jet.orders.ItemPriceRec;
+import com.buffalokiwi.aerodrome.jet.orders.OrderDetailRec;
+import com.buffalokiwi.aerodrome.jet.orders.OrderExceptionState;
+import com.buffalokiwi.aerodrome.jet.orders.OrderItemRec;
+import com.buffalokiwi.aerodrome.jet.orders.OrderRec;
+import com.buffalokiwi.aerodrome.jet.orders.OrderStatus;
+import com.buffalokiwi.aerodrome.jet.orders.OrderTotalRec;
+import com.buffalokiwi.aerodrome.jet.orders.RedirectNotificationRec;
+import com.buffalokiwi.aerodrome.jet.orders.ShipmentItemRec;
+import com.buffalokiwi.aerodrome.jet.orders.ShipmentRec;
+import com.buffalokiwi.aerodrome.jet.products.StringDictionary;
+import com.buffalokiwi.utils.Money;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Binary codec for OrderRec.
+ *
+ * Every field OrderRec exposes is kept, including the ones toJSON() leaves
+ * out (id, jet_request_directed_cancel) and the full precision of each date.
+ *
+ * @author John Quinn
+ */
+public class OrderRecCodec extends RecordCodec<OrderRec>
+{
+  /**
+   * Current format version
+   */
+  public static final int VERSION = 1;
+
+  private static final int ID = 1;
+  private static final int MERCHANT_ORDER_ID = 2;
+  private static final int REFERENCE_ORDER_ID = 3;
+  private static final int CUSTOMER_REFERENCE_ORDER_ID = 4;
+  private static final int FULFILLMENT_NODE = 5;
+  private static final int ALT_ORDER_ID = 6;
+  private static final int HASH_EMAIL = 7;
+  private static final int STATUS = 8;
+  private static final int EXCEPTION_STATE = 9;
+  private static final int ORDER_PLACED_DATE = 10;
+  private static final int ORDER_TRANSMISSION_DATE = 11;
+  private static final int JET_REQUEST_DIRECTED_CANCEL = 12;
+  private static final int ORDER_DETAIL = 13;
+  private static final int BUYER = 14;
+  private static final int SHIPPING_TO = 15;
+  private static final int SHIPPING_TO_ADDRESS = 16;
+  private static final int ORDER_TOTALS = 17;
+  private static final int HAS_SHIPMENTS = 18;
+  private static final int ORDER_READY_DATE = 19;
+  private static final int ORDER_ACK_DATE = 20;
+  private static final int ACK_STATUS = 21;
+  private static final int SHIPMENT = 22;
+  private static final int ORDER_ITEM = 23;
+
+
+  /**
+   * Create a new codec
+   */
+  public OrderRecCodec()
+  {
+    super( ORDER, VERSION );
+  }
+
+
+  @Override
+  @SuppressWarnings( "deprecation" )
+  protected void write( final OrderRec o, final FieldWriter w,
+    final StringDictionary dict )
+  {
+    if ( o.getId() != 0 )
+      w.writeLong( ID, o.getId());
+
+    str( w, MERCHANT_ORDER_ID, o.getMerchantOrderId());
+    str( w, REFERENCE_ORDER_ID, o.getReferenceOrderId());
+    str( w, CUSTOMER_REFERENCE_ORDER_ID, o.getCustomerReferenceOrderId());
+    dict( w, dict, FULFILLMENT_NODE, o.getFulfillmentNode());
+    str( w, ALT_ORDER_ID, o.getAltOrderId());
+    str( w, HASH_EMAIL, o.getHashEmail());
+    enumValue( w, dict, STATUS, o.getStatus(), OrderStatus.NONE );
+    enumValue( w, dict, EXCEPTION_STATE, o.getExceptionState(), OrderExceptionState.NONE );
+    date( w, ORDER_PLACED_DATE, o.getOrderPlacedDate());
+    date( w, ORDER_TRANSMISSION_DATE, o.getOrderTransmissionDate());
+
+    if ( o.isJetRequestDirectedCancel())
+      w.writeBool( JET_REQUEST_DIRECTED_CANCEL, true );
+
+    final OrderDetailRec d = o.getOrderDetail();
+    if ( d != null )
+    {
+      final FieldWriter m = new FieldWriter( 32 );
+      enumValue( m, dict, 1, d.getRequestShippingCarrier(), ShippingCarrier.NONE );
+      enumValue( m, dict, 2, d.getRequestShippingMethod(), ShippingMethod.NONE );
+      enumValue( m, dict, 3, d.getRequestServiceLevel(), ShippingServiceLevel.NONE );
+      date( m, 4, d.getRequestShipBy());
+      date( m, 5, d.getRequestDeliveryBy());
+      w.writeMessage( ORDER_DETAIL, m );
+    }
+
+    person( w, BUYER, o.getBuyer());
+    person( w, SHIPPING_TO, o.getShippingTo());
+    address( w, dict, SHIPPING_TO_ADDRESS, o.getShippingToAddress());
+
+    final OrderTotalRec t = o.getOrderTotals();
+    if ( t != null )
+    {
+      final FieldWriter m = new FieldWriter( 64 );
+      itemPrice( m, 1, t.getItemPrice());
+      money( m, 2, t.getItemFees());
+      feeAdjustments( m, dict, 3, t.getAdjustments());
+      money( m, 4, t.getRegFees());
+      w.writeMessage( ORDER_TOTALS, m );
+    }
+
+    if ( o.hasShipments())
+      w.writeBool( HAS_SHIPMENTS, true );
+
+    date( w, ORDER_READY_DATE, o.getOrderReadyDate());
+    date( w, ORDER_ACK_DATE, o.getOrderAckDate());
+    enumValue( w, dict, ACK_STATUS, o.getAckStatus(), AckStatus.NONE );
+
+    for ( final ShipmentRec s : o.getShipments())
+    {
+      w.writeMessage( SHIPMENT, shipment( s, dict ));
+    }
+
+    for ( final OrderItemRec i : o.getOrderItems())
+    {
+      w.writeMessage( ORDER_ITEM, orderItem( i, dict ));
+    }
+  }
+
+
+  @Override
+  @SuppressWarnings( "deprecation" )
+  protected OrderRec read( final FieldReader r, final StringDictionary dict,
+    final int version )
+  {
+    final OrderRec.Builder b = new OrderRec.Builder();
+    final List<ShipmentRec> shipments = new ArrayList<>();
+    final List<OrderItemRec> items = new ArrayList<>();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case ID: b.setId( r.readInt()); break;
+        case MERCHANT_ORDER_ID: b.setMerchantOrderId( r.readString()); break;
+        case REFERENCE_ORDER_ID: b.setReferenceOrderId( r.readString()); break;
+        case CUSTOMER_REFERENCE_ORDER_ID: b.setCustomerReferenceOrderId( r.readString()); break;
+        case FULFILLMENT_NODE: b.setFulfillmentNode( dict( r, dict )); break;
+        case ALT_ORDER_ID: b.setAltOrderId( r.readString()); break;
+        case HASH_EMAIL: b.setHashEmail( r.readString()); break;
+        case STATUS: b.setStatus( enumValue( r, dict, OrderStatus.NONE )); break;
+        case EXCEPTION_STATE: b.setExceptionState( enumValue( r, dict, OrderExceptionState.NONE )); break;
+        case ORDER_PLACED_DATE: b.setOrderPlacedDate( date( r )); break;
+        case ORDER_TRANSMISSION_DATE: b.setOrderTransmissionDate( date( r )); break;
+        case JET_REQUEST_DIRECTED_CANCEL: b.setJetRequestDirectedCancel( r.readBool()); break;
+        case ORDER_DETAIL: b.setOrderDetail( orderDetail( r.readMessage(), dict )); break;
+        case BUYER: b.setBuyer( person( r.readMessage())); break;
+        case SHIPPING_TO: b.setShippingTo( person( r.readMessage())); break;
+        case SHIPPING_TO_ADDRESS: b.setShippingToAddress( address( r.readMessage(), dict )); break;
+        case ORDER_TOTALS: b.setOrderTotals( orderTotals( r.readMessage(), dict )); break;
+        case HAS_SHIPMENTS: b.setHasShipments( r.readBool()); break;
+        case ORDER_READY_DATE: b.setOrderReadyDate( date( r )); break;
+        case ORDER_ACK_DATE: b.setOrderAckDate( date( r )); break;
+        case ACK_STATUS: b.setAckStatus( enumValue( r, dict, AckStatus.NONE )); break;
+        case SHIPMENT: shipments.add( shipment( r.readMessage(), dict )); break;
+        case ORDER_ITEM: items.add( orderItem( r.readMessage(), dict )); break;
+        default: r.skip();
+      }
+    }
+
+    b.setShipments( shipments );
+    b.setOrderItems( items );
+    return b.build();
+  }
+
+
+  private static void person( final FieldWriter w, final int tag, final PersonRec p )
+  {
+    if ( p == null )
+      return;
+
+    final FieldWriter m = new FieldWriter( 32 );
+    str( m, 1, p.getName());
+    str( m, 2, p.getPhone());
+    w.writeMessage( tag, m );
+  }
+
+
+  private static PersonRec person( final FieldReader r )
+  {
+    String name = "";
+    String phone = "";
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: name = r.readString(); break;
+        case 2: phone = r.readString(); break;
+        default: r.skip();
+      }
+    }
+
+    return new PersonRec( name, phone );
+  }
+
+
+  private static OrderDetailRec orderDetail( final FieldReader r,
+    final StringDictionary dict )
+  {
+    ShippingCarrier carrier = ShippingCarrier.NONE;
+    ShippingMethod method = ShippingMethod.NONE;
+    ShippingServiceLevel level = ShippingServiceLevel.NONE;
+    IJetDate shipBy = null;
+    IJetDate deliveryBy = null;
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: carrier = enumValue( r, dict, ShippingCarrier.NONE ); break;
+        case 2: method = enumValue( r, dict, ShippingMethod.NONE ); break;
+        case 3: level = enumValue( r, dict, ShippingServiceLevel.NONE ); break;
+        case 4: shipBy = date( r ); break;
+        case 5: deliveryBy = date( r ); break;
+        default: r.skip();
+      }
+    }
+
+    return new OrderDetailRec( carrier, method, level, shipBy, deliveryBy );
+  }
+
+
+  private static void itemPrice( final FieldWriter w, final int tag,
+    final ItemPriceRec p )
+  {
+    if ( p == null )
+      return;
+
+    final FieldWriter m = new FieldWriter( 32 );
+    money( m, 1, p.getPrice());
+    money( m, 2, p.getItemTax());
+    money( m, 3, p.getShippingPrice());
+    money( m, 4, p.getShippingTax());
+    w.writeMessage( tag, m );
+  }
+
+
+  private static ItemPriceRec itemPrice( final FieldReader r )
+  {
+    Money price = new Money();
+    Money tax = new Money();
+    Money shipping = new Money();
+    Money shippingTax = new Money();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: price = r.readMoney(); break;
+        case 2: tax = r.readMoney(); break;
+        case 3: shipping = r.readMoney(); break;
+        case 4: shippingTax = r.readMoney(); break;
+        default: r.skip();
+      }
+    }
+
+    return new ItemPriceRec( price, tax, shipping, shippingTax );
+  }
+
+
+  private static void feeAdjustments( final FieldWriter w,
+    final StringDictionary dict, final int tag, final List<FeeAdjRec> list )
+  {
+    for ( final FeeAdjRec a : list )
+    {
+      final FieldWriter m = new FieldWriter( 32 );
+      dict( m, dict, 1, a.getName());
+      dict( m, dict, 2, a.getType());
+      dict( m, dict, 3, a.getCommissionId());
+      money( m, 4, a.getValue());
+      w.writeMessage( tag, m );
+    }
+  }
+
+
+  private static FeeAdjRec feeAdjustment( final FieldReader r,
+    final StringDictionary dict )
+  {
+    String name = "";
+    String type = "";
+    String cid = "";
+    Money value = new Money();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: name = dict( r, dict ); break;
+        case 2: type = dict( r, dict ); break;
+        case 3: cid = dict( r, dict ); break;
+        case 4: value = r.readMoney(); break;
+        default: r.skip();
+      }
+    }
+
+    return new FeeAdjRec( name, type, cid, value );
+  }
+
+
+  private static OrderTotalRec orderTotals( final FieldReader r,
+    final StringDictionary dict )
+  {
+    ItemPriceRec price = null;
+    Money fees = new Money();
+    final List<FeeAdjRec> adj = new ArrayList<>();
+    Money regFees = new Money();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: price = itemPrice( r.readMessage()); break;
+        case 2: fees = r.readMoney(); break;
+        case 3: adj.add( feeAdjustment( r.readMessage(), dict )); break;
+        case 4: regFees = r.readMoney(); break;
+        default: r.skip();
+      }
+    }
+
+    return new OrderTotalRec( price, fees, adj, regFees );
+  }
+
+
+  private static FieldWriter orderItem( final OrderItemRec i,
+    final StringDictionary dict )
+  {
+    final FieldWriter m = new FieldWriter( 128 );
+    str( m, 1, i.getOrderItemId());
+    str( m, 2, i.getAltOrderItemId());
+    dict( m, dict, 3, i.getMerchantSku());
+    str( m, 4, i.getTitle());
+
+    if ( i.getRequestOrderQty() != 0 )
+      m.writeLong( 5, i.getRequestOrderQty());
+
+    if ( i.getRequestOrderCancelQty() != 0 )
+      m.writeLong( 6, i.getRequestOrderCancelQty());
+
+    str( m, 7, i.getAdjReason());
+    dict( m, dict, 8, i.getTaxCode());
+    str( m, 9, i.getUrl());
+    money( m, 10, i.getPriceAdj());
+    money( m, 11, i.getFees());
+    feeAdjustments( m, dict, 12, i.getAdjustments());
+    str( m, 13, i.getTaxInfo());
+    money( m, 14, i.getRegFees());
+    enumValue( m, dict, 15, i.getItemAckStatus(), ItemAckStatus.NONE );
+    itemPrice( m, 16, i.getItemPrice());
+    return m;
+  }
+
+
+  private static OrderItemRec orderItem( final FieldReader r,
+    final StringDictionary dict )
+  {
+    final OrderItemRec.Builder b = new OrderItemRec.Builder();
+    final List<FeeAdjRec> adj = new ArrayList<>();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: b.setOrderItemId( r.readString()); break;
+        case 2: b.setAltOrderItemId( r.readString()); break;
+        case 3: b.setMerchantSku( dict( r, dict )); break;
+        case 4: b.setTitle( r.readString()); break;
+        case 5: b.setRequestOrderQty( r.readInt()); break;
+        case 6: b.setRequestOrderCancelQty( r.readInt()); break;
+        case 7: b.setAdjReason( r.readString()); break;
+        case 8: b.setTaxCode( dict( r, dict )); break;
+        case 9: b.setUrl( r.readString()); break;
+        case 10: b.setPriceAdj( r.readMoney()); break;
+        case 11: b.setFees( r.readMoney()); break;
+        case 12: adj.add( feeAdjustment( r.readMessage(), dict )); break;
+        case 13: b.setTaxInfo( r.readString()); break;
+        case 14: b.setRegFees( r.readMoney()); break;
+        case 15: b.setItemAckStatus( enumValue( r, dict, ItemAckStatus.NONE )); break;
+        case 16: b.setItemPrice( itemPrice( r.readMessage())); break;
+        default: r.skip();
+      }
+    }
+
+    b.setAdjustments( adj );
+    return b.build();
+  }
+
+
+  @SuppressWarnings( "deprecation" )
+  private static FieldWriter shipment( final ShipmentRec s,
+    final StringDictionary dict )
+  {
+    final FieldWriter m = new FieldWriter( 128 );
+    str( m, 1, s.getShipmentId());
+    str( m, 2, s.getOrderId());
+    str( m, 3, s.getAltOrderId());
+    str( m, 4, s.getAltShipmentId());
+    str( m, 5, s.getTrackingNumber());
+    date( m, 6, s.getShipmentDate());
+    enumValue( m, dict, 7, s.getShippingMethod(), ShippingMethod.NONE );
+    date( m, 8, s.getExpectedDeliveryDate());
+    dict( m, dict, 9, s.getShipFromZip());
+    enumValue( m, dict, 10, s.getCarrier(), ShippingCarrier.NONE );
+    date( m, 11, s.getPickupDate());
+
+    for ( final ShipmentItemRec i : s.getItems())
+    {
+      final FieldWriter im = new FieldWriter( 64 );
+      str( im, 1, i.getAltItemId());
+      dict( im, dict, 2, i.getMerchantSku());
+
+      if ( i.getQuantity() != 0 )
+        im.writeLong( 3, i.getQuantity());
+
+      if ( i.getCancelQuantity() != 0 )
+        im.writeLong( 4, i.getCancelQuantity());
+
+      str( im, 5, i.getRmaNumber());
+
+      //..The builder default is 7, so this is always written
+      im.writeLong( 6, i.getReturnDays());
+      address( im, dict, 7, i.getReturnTo());
+      m.writeMessage( 12, im );
+    }
+
+    final RedirectNotificationRec n = s.getRedirectNotification();
+    if ( n != null )
+    {
+      final FieldWriter nm = new FieldWriter( 32 );
+      dict( nm, dict, 1, n.getRedirectNode());
+      nm.writeBool( 2, n.isIsRedirectForZeroInventory());
+      m.writeMessage( 13, nm );
+    }
+
+    return m;
+  }
+
+
+  @SuppressWarnings( "deprecation" )
+  private static ShipmentRec shipment( final FieldReader r,
+    final StringDictionary dict )
+  {
+    final ShipmentRec.Builder b = new ShipmentRec.Builder();
+    final List<ShipmentItemRec> items = new ArrayList<>();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: b.setShipmentId( r.readString()); break;
+        case 2: b.setOrderId( r.readString()); break;
+        case 3: b.setAltOrderId( r.readString()); break;
+        case 4: b.setAltShipmentId( r.readString()); break;
+        case 5: b.setTrackingNumber( r.readString()); break;
+        case 6: b.setShipmentDate( date( r )); break;
+        case 7: b.setShippingMethod( enumValue( r, dict, ShippingMethod.NONE )); break;
+        case 8: b.setExpectedDeliveryDate( date( r )); break;
+        case 9: b.setShipFromZip( dict( r, dict )); break;
+        case 10: b.setCarrier( enumValue( r, dict, ShippingCarrier.NONE )); break;
+        case 11: b.setPickupDate( date( r )); break;
+        case 12: items.add( shipmentItem( r.readMessage(), dict )); break;
+        case 13: b.setRedirectNotification( redirect( r.readMessage(), dict )); break;
+        default: r.skip();
+      }
+    }
+
+    b.setItems( items );
+    return b.build();
+  }
+
+
+  private static ShipmentItemRec shipmentItem( final FieldReader r,
+    final StringDictionary dict )
+  {
+    final ShipmentItemRec.Builder b = new ShipmentItemRec.Builder();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: b.setAltItemId( r.readString()); break;
+        case 2: b.setMerchantSku( dict( r, dict )); break;
+        case 3: b.setQuantity( r.readInt()); break;
+        case 4: b.setCancelQuantity( r.readInt()); break;
+        case 5: b.setRmaNumber( r.readString()); break;
+        case 6: b.setReturnDays( r.readInt()); break;
+        case 7: b.setReturnTo( address( r.readMessage(), dict )); break;
+        default: r.skip();
+      }
+    }
+
+    return b.build();
+  }
+
+
+  private static RedirectNotificationRec redirect( final FieldReader r,
+    final StringDictionary dict )
+  {
+    final RedirectNotificationRec.Builder b = new RedirectNotificationRec.Builder();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: b.setRedirectNode( dict( r, dict )); break;
+        case 2: b.setZeroInventory( r.readBool()); break;
+        default: r.skip();
+      }
+    }
+
+    return b.build();
+  }
+}
@@ -0,0 +1,417 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.codec;
+
+import com.buffalokiwi.aerodrome.jet.AddressRec;
+import com.buffalokiwi.aerodrome.jet.IJetDate;
+import com.buffalokiwi.aerodrome.jet.JetDate;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.products.StringDictionary;
+import com.buffalokiwi.utils.Money;
+
+
+/**
+ * Base class for the binary record codecs.
+ *
+ * Every encoded record is a small envelope of tagged fields (see
+ * FieldWriter):
+ *
+ * <pre>
+ *   1 format version
+ *   2 record type id
+ *   3 dictionary string (repeated, in id order)
+ *   4 record body
+ * </pre>
+ *
+ * Repeating strings like skus, node ids and enum names are written to the
+ * body as ids into the dictionary, which travels with the record so each
+ * encoded record can be decoded on its own.
+ *
+ * Schema changes:
+ * New fields get new tags.  Readers skip tags they do not know, and fields
+ * that are missing keep their builder default, so older data can always be
+ * read by newer code.  Tags are never reused.  When the meaning of an
+ * existing field changes, bump the version passed to the constructor and
+ * check the version passed to read().  Records written by a newer version
+ * than the codec knows about are rejected.
+ *
+ * Enums are stored by name, and a name that no longer exists decodes to the
+ * builder default.
+ *
+ * Subclasses are stateless and safe to share between threads.
+ *
+ * @param <T> record type
+ * @author John Quinn
+ */
+public abstract class RecordCodec<T> implements IRecordCodec<T>
+{
+  /**
+   * OrderRec type id
+   */
+  public static final int ORDER = 1;
+
+  /**
+   * ReturnRec type id
+   */
+  public static final int RETURN = 2;
+
+  /**
+   * RefundRec type id
+   */
+  public static final int REFUND = 3;
+
+  /**
+   * SettlementRec type id
+   */
+  public static final int SETTLEMENT = 4;
+
+  /**
+   * ProductRec type id
+   */
+  public static final int PRODUCT = 5;
+
+  private static final int ENV_VERSION = 1;
+  private static final int ENV_TYPE = 2;
+  private static final int ENV_STRING = 3;
+  private static final int ENV_BODY = 4;
+
+
+  /**
+   * Record type id
+   */
+  private final int typeId;
+
+  /**
+   * Format version
+   */
+  private final int version;
+
+
+  /**
+   * Create a new codec
+   * @param typeId record type id
+   * @param version format version
+   */
+  protected RecordCodec( final int typeId, final int version )
+  {
+    if ( typeId < 1 )
+      throw new IllegalArgumentException( "typeId must be greater than zero" );
+    else if ( version < 1 )
+      throw new IllegalArgumentException( "version must be greater than zero" );
+
+    this.typeId = typeId;
+    this.version = version;
+  }
+
+
+  /**
+   * Read the record type id from some encoded record without decoding it.
+   * Use this to pick a codec when records of different types are stored
+   * together.
+   * @param data encoded record
+   * @return type id
+   * @throws IllegalArgumentException if there is no type id
+   */
+  public static int peekTypeId( final byte[] data )
+  {
+    Utils.checkNull( data, "data" );
+
+    final FieldReader r = new FieldReader( data );
+    while ( r.next())
+    {
+      if ( r.getTag() == ENV_TYPE )
+        return r.readInt();
+
+      r.skip();
+    }
+
+    throw new IllegalArgumentException( "Missing record type" );
+  }
+
+
+  /**
+   * Write the body of some record
+   * @param rec record
+   * @param w writer
+   * @param dict dictionary for repeating strings
+   */
+  protected abstract void write( final T rec, final FieldWriter w,
+    final StringDictionary dict );
+
+
+  /**
+   * Read the body of some record
+   * @param r reader
+   * @param dict dictionary written with the record
+   * @param version format version the record was written with
+   * @return record
+   */
+  protected abstract T read( final FieldReader r, final StringDictionary dict,
+    final int version );
+
+
+  /**
+   * Retrieve the record type id written into each encoded record
+   * @return id
+   */
+  @Override
+  public int getTypeId()
+  {
+    return typeId;
+  }
+
+
+  /**
+   * Retrieve the format version written into each encoded record
+   * @return version
+   */
+  @Override
+  public int getVersion()
+  {
+    return version;
+  }
+
+
+  /**
+   * Encode a record
+   * @param rec record
+   * @return bytes
+   */
+  @Override
+  public byte[] encode( final T rec )
+  {
+    Utils.checkNull( rec, "rec" );
+
+    final StringDictionary dict = new StringDictionary( 16 );
+    final FieldWriter body = new FieldWriter( 256 );
+    write( rec, body, dict );
+
+    final FieldWriter w = new FieldWriter( body.size() + dict.size() * 16 + 16 );
+    w.writeLong( ENV_VERSION, version );
+    w.writeLong( ENV_TYPE, typeId );
+
+    for ( int i = 0; i < dict.size(); i++ )
+    {
+      w.writeString( ENV_STRING, dict.get( i ));
+    }
+
+    w.writeMessage( ENV_BODY, body );
+    return w.toByteArray();
+  }
+
+
+  /**
+   * Decode a record
+   * @param data bytes from encode()
+   * @return record
+   * @throws IllegalArgumentException if the data is corrupt, holds a different
+   * record type, or was written by a newer version of this codec
+   */
+  @Override
+  public T decode( final byte[] data )
+  {
+    Utils.checkNull( data, "data" );
+
+    final StringDictionary dict = new StringDictionary( 16 );
+    int ver = 0;
+    int type = 0;
+    FieldReader body = null;
+
+    final FieldReader r = new FieldReader( data );
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case ENV_VERSION: ver = r.readInt(); break;
+        case ENV_TYPE: type = r.readInt(); break;
+        case ENV_STRING: dict.intern( r.readString()); break;
+        case ENV_BODY: body = r.readMessage(); break;
+        default: r.skip();
+      }
+    }
+
+    if ( type != typeId )
+      throw new IllegalArgumentException( "Expected record type " + typeId + " but found " + type );
+    else if ( ver < 1 || ver > version )
+      throw new IllegalArgumentException( "Unsupported format version " + ver
+        + " (this codec reads up to " + version + ")" );
+    else if ( body == null )
+      throw new IllegalArgumentException( "Missing record body" );
+
+    return read( body, dict, ver );
+  }
+
+
+  /**
+   * Write a string if it is not empty
+   * @param w writer
+   * @param tag tag
+   * @param s value
+   */
+  protected static void str( final FieldWriter w, final int tag, final String s )
+  {
+    if ( s != null && !s.isEmpty())
+      w.writeString( tag, s );
+  }
+
+
+  /**
+   * Write a dictionary id for a string if it is not empty
+   * @param w writer
+   * @param dict dictionary
+   * @param tag tag
+   * @param s value
+   */
+  protected static void dict( final FieldWriter w, final StringDictionary dict,
+    final int tag, final String s )
+  {
+    if ( s != null && !s.isEmpty())
+      w.writeLong( tag, dict.intern( s ));
+  }
+
+
+  /**
+   * Read a dictionary string
+   * @param r reader
+   * @param dict dictionary
+   * @return value
+   */
+  protected static String dict( final FieldReader r, final StringDictionary dict )
+  {
+    return dict.get( r.readInt());
+  }
+
+
+  /**
+   * Write an enum name unless it is the default
+   * @param w writer
+   * @param dict dictionary
+   * @param tag tag
+   * @param e value
+   * @param def default
+   */
+  protected static void enumValue( final FieldWriter w, final StringDictionary dict,
+    final int tag, final Enum<?> e, final Enum<?> def )
+  {
+    if ( e != null && e != def )
+      w.writeLong( tag, dict.intern( e.name()));
+  }
+
+
+  /**
+   * Read an enum name
+   * @param <E> enum type
+   * @param r reader
+   * @param dict dictionary
+   * @param def value to use when the name does not exist in the enum
+   * @return value
+   */
+  protected static <E extends Enum<E>> E enumValue( final FieldReader r,
+    final StringDictionary dict, final E def )
+  {
+    final String name = dict( r, dict );
+    try {
+      return Enum.valueOf( def.getDeclaringClass(), name );
+    } catch( IllegalArgumentException e ) {
+      return def;
+    }
+  }
+
+
+  /**
+   * Write an amount if it is not zero
+   * @param w writer
+   * @param tag tag
+   * @param m value
+   */
+  protected static void money( final FieldWriter w, final int tag, final Money m )
+  {
+    if ( m != null && m.asBigDecimal().signum() != 0 )
+      w.writeMoney( tag, m );
+  }
+
+
+  /**
+   * Write a date if it is not null
+   * @param w writer
+   * @param tag tag
+   * @param d value
+   */
+  protected static void date( final FieldWriter w, final int tag, final IJetDate d )
+  {
+    if ( d != null )
+      w.writeDate( tag, d );
+  }
+
+
+  /**
+   * Read a date
+   * @param r reader
+   * @return value
+   */
+  protected static JetDate date( final FieldReader r )
+  {
+    return new JetDate( r.readDate());
+  }
+
+
+  /**
+   * Write an address as a nested message
+   * @param w writer
+   * @param dict dictionary
+   * @param tag tag
+   * @param a value or null to write nothing
+   */
+  protected static void address( final FieldWriter w, final StringDictionary dict,
+    final int tag, final AddressRec a )
+  {
+    if ( a == null )
+      return;
+
+    final FieldWriter m = new FieldWriter( 64 );
+    str( m, 1, a.getAddress1());
+    str( m, 2, a.getAddress2());
+    dict( m, dict, 3, a.getCity());
+    dict( m, dict, 4, a.getState());
+    dict( m, dict, 5, a.getZip());
+    w.writeMessage( tag, m );
+  }
+
+
+  /**
+   * Read an address written by address()
+   * @param r reader
+   * @param dict dictionary
+   * @return value
+   */
+  protected static AddressRec address( final FieldReader r, final StringDictionary dict )
+  {
+    final AddressRec.Builder b = new AddressRec.Builder();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: b.setAddress1( r.readString()); break;
+        case 2: b.setAddress2( r.readString()); break;
+        case 3: b.setCity( dict( r, dict )); break;
+        case 4: b.setState( dict( r, dict )); break;
+        case 5: b.setZip( dict( r, dict )); break;
+        default: r.skip();
+      }
+    }
+
+    return b.build();
+  }
+}
@@ -0,0 +1,161 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.codec;
+
+import com.buffalokiwi.aerodrome.jet.orders.CreatedRefundReason;
+import com.buffalokiwi.aerodrome.jet.orders.MRefundFeedback;
+import com.buffalokiwi.aerodrome.jet.orders.RefundAcceptedStatus;
+import com.buffalokiwi.aerodrome.jet.orders.RefundItemRec;
+import com.buffalokiwi.aerodrome.jet.orders.RefundReason;
+import com.buffalokiwi.aerodrome.jet.orders.RefundRec;
+import com.buffalokiwi.aerodrome.jet.orders.RefundStatus;
+import com.buffalokiwi.aerodrome.jet.products.StringDictionary;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+
+/**
+ * Binary codec for RefundRec.
+ *
+ * @author John Quinn
+ */
+public class RefundRecCodec extends RecordCodec<RefundRec>
+{
+  /**
+   * Current format version
+   */
+  public static final int VERSION = 1;
+
+  private static final int ID = 1;
+  private static final int REFUND_STATUS = 2;
+  private static final int REF_MERCHANT_ORDER_ID = 3;
+  private static final int REFUND_AUTH_ID = 4;
+  private static final int ALT_REFUND_ID = 5;
+  private static final int STATUS = 6;
+  private static final int MERCHANT_ORDER_ID = 7;
+  private static final int REFERENCE_ORDER_ID = 8;
+  private static final int ALT_ORDER_ID = 9;
+  private static final int ITEM = 10;
+  private static final int CREATED = 11;
+
+  //..Item tags that follow the ReturnItemRec fields
+  private static final int ITEM_REFUND_REASON = 20;
+  private static final int ITEM_CREATED_REFUND_REASON = 21;
+  private static final int ITEM_REFUND_ID = 22;
+  private static final int ITEM_REFUND_AUTH_ID = 23;
+  private static final int ITEM_FEEDBACK = 24;
+
+
+  /**
+   * Create a new codec
+   */
+  public RefundRecCodec()
+  {
+    super( REFUND, VERSION );
+  }
+
+
+  @Override
+  protected void write( final RefundRec rec, final FieldWriter w,
+    final StringDictionary dict )
+  {
+    if ( rec.getId() != 0 )
+      w.writeLong( ID, rec.getId());
+
+    enumValue( w, dict, REFUND_STATUS, rec.getRefundStatus(), RefundStatus.NONE );
+    str( w, REF_MERCHANT_ORDER_ID, rec.getRefMerchantOrderId());
+    str( w, REFUND_AUTH_ID, rec.getRefundAuthId());
+    str( w, ALT_REFUND_ID, rec.getAltRefundId());
+    enumValue( w, dict, STATUS, rec.getStatus(), RefundAcceptedStatus.NONE );
+    str( w, MERCHANT_ORDER_ID, rec.getMerchantOrderId());
+    str( w, REFERENCE_ORDER_ID, rec.getReferenceOrderId());
+    str( w, ALT_ORDER_ID, rec.getAltOrderId());
+
+    for ( final RefundItemRec<?,?> i : rec.getItems())
+    {
+      final FieldWriter m = new FieldWriter( 128 );
+      ReturnRecCodec.writeItem( i, m, dict );
+      enumValue( m, dict, ITEM_REFUND_REASON, i.getRefundReason(), RefundReason.NONE );
+      enumValue( m, dict, ITEM_CREATED_REFUND_REASON, i.getCreatedReason(), CreatedRefundReason.NONE );
+
+      if ( i.getRefundId() != 0 )
+        m.writeLong( ITEM_REFUND_ID, i.getRefundId());
+
+      str( m, ITEM_REFUND_AUTH_ID, i.getRefundAuthId());
+      enumValue( m, dict, ITEM_FEEDBACK, i.getMFeedback(), MRefundFeedback.NONE );
+      w.writeMessage( ITEM, m );
+    }
+
+    if ( rec.getCreatedDate() != null )
+      w.writeLong( CREATED, rec.getCreatedDate().getTime());
+  }
+
+
+  @Override
+  protected RefundRec read( final FieldReader r, final StringDictionary dict,
+    final int version )
+  {
+    final RefundRec.Builder b = new RefundRec.Builder();
+    final List<RefundItemRec<?,?>> items = new ArrayList<>();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case ID: b.setId( r.readInt()); break;
+        case REFUND_STATUS: b.setRefundStatus( enumValue( r, dict, RefundStatus.NONE )); break;
+        case REF_MERCHANT_ORDER_ID: b.setRefMerchantOrderId( r.readString()); break;
+        case REFUND_AUTH_ID: b.setRefundAuthId( r.readString()); break;
+        case ALT_REFUND_ID: b.setAltRefundId( r.readString()); break;
+        case STATUS: b.setStatus( enumValue( r, dict, RefundAcceptedStatus.NONE )); break;
+        case MERCHANT_ORDER_ID: b.setMerchantOrderId( r.readString()); break;
+        case REFERENCE_ORDER_ID: b.setReferenceOrderId( r.readString()); break;
+        case ALT_ORDER_ID: b.setAltOrderId( r.readString()); break;
+        case ITEM: items.add( readItem( r.readMessage(), dict )); break;
+        case CREATED: b.setCreatedDate( new Date( r.readLong())); break;
+        default: r.skip();
+      }
+    }
+
+    b.setItems( Collections.unmodifiableList( items ));
+    return b.build();
+  }
+
+
+  private static RefundItemRec<?,?> readItem( final FieldReader r,
+    final StringDictionary dict )
+  {
+    final RefundItemRec.Builder<?,?> b = new RefundItemRec.Builder<>();
+    while ( r.next())
+    {
+      if ( ReturnRecCodec.readItemField( r, dict, b ))
+        continue;
+
+      switch( r.getTag())
+      {
+        case ITEM_REFUND_REASON: b.setRefundReason( enumValue( r, dict, RefundReason.NONE )); break;
+        case ITEM_CREATED_REFUND_REASON: b.setCreatedRefundReason( enumValue( r, dict, CreatedRefundReason.NONE )); break;
+        case ITEM_REFUND_ID: b.setRefundId( r.readInt()); break;
+        case ITEM_REFUND_AUTH_ID: b.setRefundAuthId( r.readString()); break;
+        case ITEM_FEEDBACK: b.setMFeedback( enumValue( r, dict, MRefundFeedback.NONE )); break;
+        default: r.skip();
+      }
+    }
+
+    return b.build();
+  }
+}
@@ -0,0 +1,272 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.codec;
+
+import com.buffalokiwi.aerodrome.jet.AddressRec;
+import com.buffalokiwi.aerodrome.jet.ShippingCarrier;
+import com.buffalokiwi.aerodrome.jet.orders.ChargeFeedback;
+import com.buffalokiwi.aerodrome.jet.orders.RefundAmountRec;
+import com.buffalokiwi.aerodrome.jet.orders.RefundFeedback;
+import com.buffalokiwi.aerodrome.jet.orders.ReturnItemRec;
+import com.buffalokiwi.aerodrome.jet.orders.ReturnReason;
+import com.buffalokiwi.aerodrome.jet.orders.ReturnRec;
+import com.buffalokiwi.aerodrome.jet.orders.ReturnStatus;
+import com.buffalokiwi.aerodrome.jet.products.StringDictionary;
+import com.buffalokiwi.utils.Money;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Binary codec for ReturnRec.
+ *
+ * @author John Quinn
+ */
+public class ReturnRecCodec extends RecordCodec<ReturnRec>
+{
+  /**
+   * Current format version
+   */
+  public static final int VERSION = 1;
+
+  private static final int ID = 1;
+  private static final int FEEDBACK = 2;
+  private static final int AGREE_TO_RETURN_CHARGE = 3;
+  private static final int ALT_ORDER_ID = 4;
+  private static final int ALT_RETURN_AUTH_ID = 5;
+  private static final int MERCHANT_ORDER_ID = 6;
+  private static final int MERCHANT_RETURN_AUTH_ID = 7;
+  private static final int MERCHANT_RETURN_CHARGE = 8;
+  private static final int REFERENCE_ORDER_ID = 9;
+  private static final int REFERENCE_RETURN_AUTH_ID = 10;
+  private static final int REFUND_WITHOUT_RETURN = 11;
+  private static final int RETURN_DATE = 12;
+  private static final int STATUS = 13;
+  private static final int CARRIER = 14;
+  private static final int TRACKING_NUMBER = 15;
+  private static final int RETURN_LOCATION = 16;
+  private static final int ITEM = 17;
+  private static final int COMPLETE_DATE = 18;
+
+
+  /**
+   * Create a new codec
+   */
+  public ReturnRecCodec()
+  {
+    super( RETURN, VERSION );
+  }
+
+
+  @Override
+  protected void write( final ReturnRec rec, final FieldWriter w,
+    final StringDictionary dict )
+  {
+    if ( rec.getId() != 0 )
+      w.writeLong( ID, rec.getId());
+
+    enumValue( w, dict, FEEDBACK, rec.getFeedback(), ChargeFeedback.NONE );
+
+    if ( rec.isAgreeToReturnCharge())
+      w.writeBool( AGREE_TO_RETURN_CHARGE, true );
+
+    str( w, ALT_ORDER_ID, rec.getAltOrderId());
+    str( w, ALT_RETURN_AUTH_ID, rec.getAltReturnAuthId());
+    str( w, MERCHANT_ORDER_ID, rec.getMerchantOrderId());
+    str( w, MERCHANT_RETURN_AUTH_ID, rec.getMerchantReturnAuthId());
+    money( w, MERCHANT_RETURN_CHARGE, rec.getMerchantReturnCharge());
+    str( w, REFERENCE_ORDER_ID, rec.getReferenceOrderId());
+    str( w, REFERENCE_RETURN_AUTH_ID, rec.getReferenceReturnAuthId());
+
+    if ( rec.isRefundWithoutReturn())
+      w.writeBool( REFUND_WITHOUT_RETURN, true );
+
+    //..The builder default is "now", so a missing date is read back as null
+    date( w, RETURN_DATE, rec.getReturnDate());
+    enumValue( w, dict, STATUS, rec.getStatus(), ReturnStatus.NONE );
+    enumValue( w, dict, CARRIER, rec.getCarrier(), ShippingCarrier.NONE );
+    str( w, TRACKING_NUMBER, rec.getTrackingNumber());
+
+    for ( final AddressRec a : rec.getReturnLocations())
+    {
+      address( w, dict, RETURN_LOCATION, a );
+    }
+
+    for ( final ReturnItemRec<?,?> i : rec.getReturnItems())
+    {
+      final FieldWriter m = new FieldWriter( 128 );
+      writeItem( i, m, dict );
+      w.writeMessage( ITEM, m );
+    }
+
+    date( w, COMPLETE_DATE, rec.getCompleteDate());
+  }
+
+
+  @Override
+  protected ReturnRec read( final FieldReader r, final StringDictionary dict,
+    final int version )
+  {
+    final ReturnRec.Builder b = new ReturnRec.Builder().setReturnDate( null );
+    final List<AddressRec> locations = new ArrayList<>();
+    final List<ReturnItemRec<?,?>> items = new ArrayList<>();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case ID: b.setId( r.readInt()); break;
+        case FEEDBACK: b.setFeedback( enumValue( r, dict, ChargeFeedback.NONE )); break;
+        case AGREE_TO_RETURN_CHARGE: b.setAgreeToReturnCharge( r.readBool()); break;
+        case ALT_ORDER_ID: b.setAltOrderId( r.readString()); break;
+        case ALT_RETURN_AUTH_ID: b.setAltReturnAuthId( r.readString()); break;
+        case MERCHANT_ORDER_ID: b.setMerchantOrderId( r.readString()); break;
+        case MERCHANT_RETURN_AUTH_ID: b.setMerchantReturnAuthId( r.readString()); break;
+        case MERCHANT_RETURN_CHARGE: b.setMerchantReturnCharge( r.readMoney()); break;
+        case REFERENCE_ORDER_ID: b.setReferenceOrderId( r.readString()); break;
+        case REFERENCE_RETURN_AUTH_ID: b.setReferenceReturnAuthId( r.readString()); break;
+        case REFUND_WITHOUT_RETURN: b.setRefundWithoutReturn( r.readBool()); break;
+        case RETURN_DATE: b.setReturnDate( date( r )); break;
+        case STATUS: b.setStatus( enumValue( r, dict, ReturnStatus.NONE )); break;
+        case CARRIER: b.setCarrier( enumValue( r, dict, ShippingCarrier.NONE )); break;
+        case TRACKING_NUMBER: b.setTrackingNumber( r.readString()); break;
+        case RETURN_LOCATION: locations.add( address( r.readMessage(), dict )); break;
+        case ITEM: items.add( readItem( r.readMessage(), dict )); break;
+        case COMPLETE_DATE: b.setCompleteDate( date( r )); break;
+        default: r.skip();
+      }
+    }
+
+    b.setReturnLocations( locations );
+    b.setReturnItems( Collections.unmodifiableList( items ));
+    return b.build();
+  }
+
+
+  private static ReturnItemRec<?,?> readItem( final FieldReader r,
+    final StringDictionary dict )
+  {
+    final ReturnItemRec.Builder<?,?> b = new ReturnItemRec.Builder<>();
+    while ( r.next())
+    {
+      if ( !readItemField( r, dict, b ))
+        r.skip();
+    }
+
+    return b.build();
+  }
+
+
+  /**
+   * Write the ReturnItemRec fields of some item.  Tags 1 to 19 are used.
+   * @param i item
+   * @param m writer
+   * @param dict dictionary
+   */
+  static void writeItem( final ReturnItemRec<?,?> i, final FieldWriter m,
+    final StringDictionary dict )
+  {
+    if ( i.getId() != 0 )
+      m.writeLong( 1, i.getId());
+
+    str( m, 2, i.getOrderItemId());
+    str( m, 3, i.getAltOrderItemId());
+
+    if ( i.getQtyReturned() != 0 )
+      m.writeLong( 4, i.getQtyReturned());
+
+    if ( i.getOrderReturnRefundQty() != 0 )
+      m.writeLong( 5, i.getOrderReturnRefundQty());
+
+    enumValue( m, dict, 6, i.getFeedback(), RefundFeedback.NONE );
+    str( m, 7, i.getNotes());
+    refundAmount( m, 8, i.getAmount());
+    dict( m, dict, 9, i.getMerchantSku());
+    str( m, 10, i.getMerchantSkuTitle());
+    enumValue( m, dict, 11, i.getReturnReason(), ReturnReason.NONE );
+    refundAmount( m, 12, i.getRequestedRefundAmount());
+  }
+
+
+  /**
+   * Apply the current field to an item builder if it was written by
+   * writeItem()
+   * @param r reader positioned on a field
+   * @param dict dictionary
+   * @param b builder
+   * @return false if the tag is not an item field and was not read
+   */
+  static boolean readItemField( final FieldReader r, final StringDictionary dict,
+    final ReturnItemRec.Builder<?,?> b )
+  {
+    switch( r.getTag())
+    {
+      case 1: b.setId( r.readInt()); break;
+      case 2: b.setOrderItemId( r.readString()); break;
+      case 3: b.setAltOrderItemId( r.readString()); break;
+      case 4: b.setQtyReturned( r.readInt()); break;
+      case 5: b.setOrderReturnRefundQty( r.readInt()); break;
+      case 6: b.setFeedback( enumValue( r, dict, RefundFeedback.NONE )); break;
+      case 7: b.setNotes( r.readString()); break;
+      case 8: b.setAmount( refundAmount( r.readMessage())); break;
+      case 9: b.setMerchantSku( dict( r, dict )); break;
+      case 10: b.setMerchantSkuTitle( r.readString()); break;
+      case 11: b.setReturnReason( enumValue( r, dict, ReturnReason.NONE )); break;
+      case 12: b.setRequestedRefundAmount( refundAmount( r.readMessage())); break;
+      default: return false;
+    }
+
+    return true;
+  }
+
+
+  private static void refundAmount( final FieldWriter w, final int tag,
+    final RefundAmountRec a )
+  {
+    if ( a == null )
+      return;
+
+    final FieldWriter m = new FieldWriter( 32 );
+    money( m, 1, a.getPrincipal());
+    money( m, 2, a.getTax());
+    money( m, 3, a.getShippingCost());
+    money( m, 4, a.getShippingTax());
+    w.writeMessage( tag, m );
+  }
+
+
+  private static RefundAmountRec refundAmount( final FieldReader r )
+  {
+    Money principal = new Money();
+    Money tax = new Money();
+    Money shipping = new Money();
+    Money shippingTax = new Money();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: principal = r.readMoney(); break;
+        case 2: tax = r.readMoney(); break;
+        case 3: shipping = r.readMoney(); break;
+        case 4: shippingTax = r.readMoney(); break;
+        default: r.skip();
+      }
+    }
+
+    return new RefundAmountRec( principal, tax, shipping, shippingTax );
+  }
+}
@@ -0,0 +1,181 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.codec;
+
+import com.buffalokiwi.aerodrome.jet.products.StringDictionary;
+import com.buffalokiwi.aerodrome.jet.settlement.OrderDetailRec;
+import com.buffalokiwi.aerodrome.jet.settlement.ReturnDetailRec;
+import com.buffalokiwi.aerodrome.jet.settlement.SettlementRec;
+import com.buffalokiwi.aerodrome.jet.settlement.SettlementState;
+
+
+/**
+ * Binary codec for SettlementRec.
+ *
+ * @author John Quinn
+ */
+public class SettlementRecCodec extends RecordCodec<SettlementRec>
+{
+  /**
+   * Current format version
+   */
+  public static final int VERSION = 1;
+
+  private static final int REPORT_ID = 1;
+  private static final int STATE = 2;
+  private static final int CURRENCY = 3;
+  private static final int UNAVAILABLE_BALANCE = 4;
+  private static final int PERIOD_START = 5;
+  private static final int PERIOD_END = 6;
+  private static final int ORDER_DETAILS = 7;
+  private static final int ORDER_BALANCE = 8;
+  private static final int RETURN_DETAILS = 9;
+  private static final int RETURN_BALANCE = 10;
+  private static final int JET_ADJUSTMENT = 11;
+  private static final int SETTLEMENT_VALUE = 12;
+
+
+  /**
+   * Create a new codec
+   */
+  public SettlementRecCodec()
+  {
+    super( SETTLEMENT, VERSION );
+  }
+
+
+  @Override
+  protected void write( final SettlementRec rec, final FieldWriter w,
+    final StringDictionary dict )
+  {
+    str( w, REPORT_ID, rec.getReportId());
+    enumValue( w, dict, STATE, rec.getState(), SettlementState.NONE );
+    dict( w, dict, CURRENCY, rec.getCurrency());
+    money( w, UNAVAILABLE_BALANCE, rec.getUnavailableBalance());
+
+    //..The builder defaults are "now", so these are always written
+    w.writeDate( PERIOD_START, rec.getPeriodStart());
+    w.writeDate( PERIOD_END, rec.getPeriodEnd());
+
+    final OrderDetailRec od = rec.getOrderDetails();
+    if ( od != null )
+    {
+      final FieldWriter m = new FieldWriter( 64 );
+      money( m, 1, od.getMerchantPrice());
+      money( m, 2, od.getVariableCommission());
+      money( m, 3, od.getFixedCommission());
+      money( m, 4, od.getTax());
+      money( m, 5, od.getShippingTax());
+      money( m, 6, od.getMerchantReturnCharge());
+      money( m, 7, od.getReturnFee());
+      w.writeMessage( ORDER_DETAILS, m );
+    }
+
+    money( w, ORDER_BALANCE, rec.getOrderBalance());
+
+    final ReturnDetailRec rd = rec.getReturnDetails();
+    if ( rd != null )
+    {
+      final FieldWriter m = new FieldWriter( 64 );
+      money( m, 1, rd.getMerchantPrice());
+      money( m, 2, rd.getVariableCommission());
+      money( m, 3, rd.getFixedCommission());
+      money( m, 4, rd.getTax());
+      money( m, 5, rd.getShippingTax());
+      money( m, 6, rd.getShippingRevenue());
+      money( m, 7, rd.getShippingCharge());
+      money( m, 8, rd.getFulfillmentFee());
+      w.writeMessage( RETURN_DETAILS, m );
+    }
+
+    money( w, RETURN_BALANCE, rec.getReturnBalance());
+    money( w, JET_ADJUSTMENT, rec.getJetAdjustment());
+    money( w, SETTLEMENT_VALUE, rec.getSettlementValue());
+  }
+
+
+  @Override
+  protected SettlementRec read( final FieldReader r, final StringDictionary dict,
+    final int version )
+  {
+    final SettlementRec.Builder b = new SettlementRec.Builder();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case REPORT_ID: b.setReportId( r.readString()); break;
+        case STATE: b.setState( enumValue( r, dict, SettlementState.NONE )); break;
+        case CURRENCY: b.setCurrency( dict( r, dict )); break;
+        case UNAVAILABLE_BALANCE: b.setUnavailableBalance( r.readMoney()); break;
+        case PERIOD_START: b.setPeriodStart( date( r )); break;
+        case PERIOD_END: b.setPeriodEnd( date( r )); break;
+        case ORDER_DETAILS: b.setOrderDetails( orderDetails( r.readMessage())); break;
+        case ORDER_BALANCE: b.setOrderBalance( r.readMoney()); break;
+        case RETURN_DETAILS: b.setReturnDetails( returnDetails( r.readMessage())); break;
+        case RETURN_BALANCE: b.setReturnBalance( r.readMoney()); break;
+        case JET_ADJUSTMENT: b.setJetAdjustment( r.readMoney()); break;
+        case SETTLEMENT_VALUE: b.setSettlementValue( r.readMoney()); break;
+        default: r.skip();
+      }
+    }
+
+    return b.build();
+  }
+
+
+  private static OrderDetailRec orderDetails( final FieldReader r )
+  {
+    final OrderDetailRec.Builder b = new OrderDetailRec.Builder();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: b.setMerchantPrice( r.readMoney()); break;
+        case 2: b.setVariableCommission( r.readMoney()); break;
+        case 3: b.setFixedCommission( r.readMoney()); break;
+        case 4: b.setTax( r.readMoney()); break;
+        case 5: b.setShippingTax( r.readMoney()); break;
+        case 6: b.setMerchantReturnCharge( r.readMoney()); break;
+        case 7: b.setReturnFee( r.readMoney()); break;
+        default: r.skip();
+      }
+    }
+
+    return b.build();
+  }
+
+
+  private static ReturnDetailRec returnDetails( final FieldReader r )
+  {
+    final ReturnDetailRec.Builder b = new ReturnDetailRec.Builder();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: b.setMerchantPrice( r.readMoney()); break;
+        case 2: b.setVariableCommission( r.readMoney()); break;
+        case 3: b.setFixedCommission( r.readMoney()); break;
+        case 4: b.setTax( r.readMoney()); break;
+        case 5: b.setShippingTax( r.readMoney()); break;
+        case 6: b.setShippingRevenue( r.readMoney()); break;
+        case 7: b.setShippingCharge( r.readMoney()); break;
+        case 8: b.setFulfillmentFee( r.readMoney()); break;
+        default: r.skip();
+      }
+    }
+
+    return b.build();
+  }
+}
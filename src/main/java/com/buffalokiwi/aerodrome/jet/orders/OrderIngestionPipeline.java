@@ -0,0 +1,816 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.orders;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Polls for new orders, fetches their detail, hands them to a handler and
+ * acknowledges them.
+ *
+ * Each stage has its own worker pool and a bounded queue:
+ *
+ *   poll    - a single thread calling getOrderStatusTokens() on a schedule
+ *   fetch   - getOrderDetail() for each new order id
+ *   handle  - the user supplied Handler
+ *   ack     - sendPutAckOrder() with the request returned by the handler
+ *
+ * When a queue is full, the stage feeding it blocks until there is room, so
+ * a slow handler or a throttled ack slows down fetching and polling instead
+ * of filling memory.
+ *
+ * An order id is only ever in the pipeline once.  Ids that are still in
+ * flight are skipped by the poller, and ids that finished recently are
+ * skipped until the grace period has passed, since jet may list an order as
+ * ready for a short time after it was acknowledged.  A SeenOrderFilter can
+ * be supplied to remember finished ids for longer.  Ids it only holds in its
+ * Bloom filter are still fetched, and dropped if jet shows they were
+ * acknowledged, so a false positive can't hide a new order.  This means
+ * the stages for a single order always run one after the other and never
+ * overlap.
+ *
+ * Fetch and ack requests that fail are retried with an increasing delay.
+ * If the handler throws, the order is released and picked up by a later
+ * poll.  Once the handler has thrown more than retries times for an order,
+ * the order is parked and no longer polled until unpark() is called.  If an
+ * ack still fails after every retry, the ack request is kept and sent again
+ * the next time the order is polled, so the handler is not run twice for
+ * the same order.
+ *
+ * <pre>
+ * final OrderIngestionPipeline pipeline = new OrderIngestionPipeline.Builder( orderApi,
+ *   order -&gt; {
+ *     //..Store the order somewhere
+ *     return OrderIngestionPipeline.accept( order );
+ *   })
+ *   .setFetchThreads( 8 )
+ *   .build();
+ *
+ * pipeline.start();
+ * ...
+ * pipeline.close();
+ * </pre>
+ *
+ * @author John Quinn
+ */
+public class OrderIngestionPipeline implements AutoCloseable
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( OrderIngestionPipeline.class );
+
+
+  /**
+   * Processes a single order
+   */
+  @FunctionalInterface
+  public static interface Handler
+  {
+    /**
+     * Process an order
+     * @param order order detail
+     * @return the acknowledgement to send, or null to finish the order
+     * without sending one
+     * @throws Exception if the order can't be processed.  It will be picked
+     * up again by a later poll.
+     */
+    public AckRequestRec handle( final OrderRec order ) throws Exception;
+  }
+
+
+  /**
+   * Builder
+   */
+  public static class Builder
+  {
+    private final IJetAPIOrder api;
+    private final Handler handler;
+    private OrderStatus status = OrderStatus.READY;
+    private int fetchThreads = 4;
+    private int handlerThreads = 2;
+    private int ackThreads = 2;
+    private int queueSize = 1000;
+    private long pollIntervalMillis = 60000L;
+    private int retries = 3;
+    private long retryDelayMillis = 1000L;
+    private long gracePeriodMillis = TimeUnit.MINUTES.toMillis( 5 );
+    private SeenOrderFilter seen = null;
+
+
+    /**
+     * Create a new builder
+     * @param api order api
+     * @param handler order handler
+     */
+    public Builder( final IJetAPIOrder api, final Handler handler )
+    {
+      Utils.checkNull( api, "api" );
+      Utils.checkNull( handler, "handler" );
+      this.api = api;
+      this.handler = handler;
+    }
+
+
+    /**
+     * Set the status polled for.  Default is READY.
+     * @param status status
+     * @return this
+     */
+    public Builder setStatus( final OrderStatus status )
+    {
+      Utils.checkNull( status, "status" );
+      this.status = status;
+      return this;
+    }
+
+
+    /**
+     * Set the number of threads fetching order detail
+     * @param threads threads
+     * @return this
+     */
+    public Builder setFetchThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      fetchThreads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set the number of threads running the handler
+     * @param threads threads
+     * @return this
+     */
+    public Builder setHandlerThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      handlerThreads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set the number of threads sending acknowledgements
+     * @param threads threads
+     * @return this
+     */
+    public Builder setAckThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      ackThreads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set the queue size of each stage
+     * @param size size
+     * @return this
+     */
+    public Builder setQueueSize( final int size )
+    {
+      Utils.checkIntGTZ( size, "size" );
+      queueSize = size;
+      return this;
+    }
+
+
+    /**
+     * Set the time between polls
+     * @param millis interval
+     * @return this
+     */
+    public Builder setPollIntervalMillis( final long millis )
+    {
+      if ( millis <= 0 )
+        throw new IllegalArgumentException( "millis must be greater than zero" );
+
+      pollIntervalMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the number of times a failed fetch or ack is tried again
+     * @param retries retries
+     * @return this
+     */
+    public Builder setRetries( final int retries )
+    {
+      if ( retries < 0 )
+        throw new IllegalArgumentException( "retries cannot be less than zero" );
+
+      this.retries = retries;
+      return this;
+    }
+
+
+    /**
+     * Set the delay before the first retry.  Each retry after that waits
+     * twice as long.
+     * @param millis delay
+     * @return this
+     */
+    public Builder setRetryDelayMillis( final long millis )
+    {
+      if ( millis < 0 )
+        throw new IllegalArgumentException( "millis cannot be less than zero" );
+
+      retryDelayMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set how long a finished order id is ignored by the poller
+     * @param millis grace period
+     * @return this
+     */
+    public Builder setGracePeriodMillis( final long millis )
+    {
+      if ( millis < 0 )
+        throw new IllegalArgumentException( "millis cannot be less than zero" );
+
+      gracePeriodMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set a filter of processed order ids.  Finished orders are added to it,
+     * and polled ids it contains are skipped.  Use this to remember orders
+     * past the grace period or across restarts.
+     * @param seen filter
+     * @return this
+     */
+    public Builder setSeenFilter( final SeenOrderFilter seen )
+    {
+      Utils.checkNull( seen, "seen" );
+      this.seen = seen;
+      return this;
+    }
+
+
+    /**
+     * Build the pipeline.  Call start() to begin polling.
+     * @return pipeline
+     */
+    public OrderIngestionPipeline build()
+    {
+      return new OrderIngestionPipeline( this );
+    }
+  }
+
+
+  private final IJetAPIOrder api;
+  private final Handler handler;
+  private final OrderStatus status;
+  private final long pollIntervalMillis;
+  private final int retries;
+  private final long retryDelayMillis;
+  private final long gracePeriodMillis;
+
+  /**
+   * Processed order ids or null
+   */
+  private final SeenOrderFilter seen;
+
+  /**
+   * Poll stage and retry timer
+   */
+  private final ScheduledExecutorService poller;
+
+  /**
+   * Worker stages
+   */
+  private final ThreadPoolExecutor fetcher;
+  private final ThreadPoolExecutor handlers;
+  private final ThreadPoolExecutor ackers;
+
+  /**
+   * Order ids currently in the pipeline
+   */
+  private final Map<String,Boolean> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * When recently finished orders finished, by order id
+   */
+  private final Map<String,Long> finished = new ConcurrentHashMap<>();
+
+  /**
+   * Acks that failed every retry, by order id
+   */
+  private final Map<String,AckRequestRec> unsent = new ConcurrentHashMap<>();
+
+  /**
+   * Number of times the handler has thrown, by order id
+   */
+  private final Map<String,Integer> handlerFailures = new ConcurrentHashMap<>();
+
+  /**
+   * Orders the handler failed more than retries times, with the last error
+   */
+  private final Map<String,Exception> parked = new ConcurrentHashMap<>();
+
+  private final AtomicLong polled = new AtomicLong( 0 );
+  private final AtomicLong handled = new AtomicLong( 0 );
+  private final AtomicLong acked = new AtomicLong( 0 );
+  private final AtomicLong failed = new AtomicLong( 0 );
+
+  /**
+   * Set by close()
+   */
+  private volatile boolean closed = false;
+
+
+  /**
+   * Create a new pipeline
+   * @param b builder
+   */
+  private OrderIngestionPipeline( final Builder b )
+  {
+    api = b.api;
+    handler = b.handler;
+    status = b.status;
+    pollIntervalMillis = b.pollIntervalMillis;
+    retries = b.retries;
+    retryDelayMillis = b.retryDelayMillis;
+    gracePeriodMillis = b.gracePeriodMillis;
+    seen = b.seen;
+
+    poller = Executors.newSingleThreadScheduledExecutor( r -> {
+      final Thread t = new Thread( r, "OrderIngestionPipeline-poll" );
+      t.setDaemon( true );
+      return t;
+    });
+
+    fetcher = stage( "fetch", b.fetchThreads, b.queueSize );
+    handlers = stage( "handle", b.handlerThreads, b.queueSize );
+    ackers = stage( "ack", b.ackThreads, b.queueSize );
+  }
+
+
+  /**
+   * Acknowledge every item in an order as fulfillable
+   * @param order order
+   * @return ack request
+   */
+  public static AckRequestRec accept( final OrderRec order )
+  {
+    Utils.checkNull( order, "order" );
+
+    final List<AckRequestItemRec> items = new ArrayList<>();
+    for ( final OrderItemRec item : order.getOrderItems())
+    {
+      items.add( AckRequestItemRec.fromOrderItem( item, AckRequestItemRec.Status.FULFILLABLE ));
+    }
+
+    return new AckRequestRec( AckStatus.ACCEPTED, order.getMerchantOrderId(), items );
+  }
+
+
+  /**
+   * Start polling on the poll interval
+   */
+  public void start()
+  {
+    if ( closed )
+      throw new IllegalStateException( "This pipeline has been closed" );
+
+    poller.scheduleWithFixedDelay( this::poll, 0, pollIntervalMillis,
+      TimeUnit.MILLISECONDS );
+  }
+
+
+  /**
+   * Poll once in the calling thread.  This blocks when the fetch queue is
+   * full.
+   * @return the number of order ids added to the pipeline
+   */
+  public int poll()
+  {
+    if ( closed )
+      return 0;
+
+    purgeFinished();
+
+    final List<String> tokens;
+    try {
+      tokens = api.getOrderStatusTokens( status );
+    } catch( APIException e ) {
+      APILog.error( LOG, e, "Failed to poll for", status.getText(), "orders" );
+      return 0;
+    }
+
+    int added = 0;
+    for ( final String id : tokens )
+    {
+      if ( inFlight.putIfAbsent( id, Boolean.TRUE ) != null )
+        continue;
+
+      //..Checked after claiming the id, so an order finishing right now
+      //  can't slip back in
+      if ( finished.containsKey( id ) || parked.containsKey( id )
+        || ( seen != null && seen.isRecent( id )))
+      {
+        inFlight.remove( id );
+        continue;
+      }
+
+      //..A Bloom filter hit may be a false positive, so the fetch stage
+      //  checks the order before dropping it
+      final boolean verify = seen != null && seen.contains( id );
+
+      added++;
+      polled.incrementAndGet();
+
+      final AckRequestRec ack = unsent.remove( id );
+      if ( ack != null )
+        submit( ackers, id, () -> ack( id, ack, 0 ));
+      else
+        submit( fetcher, id, () -> fetch( id, verify, 0 ));
+    }
+
+    return added;
+  }
+
+
+  /**
+   * Retrieve the orders that are no longer polled because the handler
+   * failed for them too many times
+   * @return the last handler error by order id
+   */
+  public Map<String,Exception> getParked()
+  {
+    return Collections.unmodifiableMap( new HashMap<>( parked ));
+  }
+
+
+  /**
+   * Let a parked order be picked up by the next poll
+   * @param id order id
+   * @return if the order was parked
+   */
+  public boolean unpark( final String id )
+  {
+    Utils.checkNullEmpty( id, "id" );
+    return parked.remove( id ) != null;
+  }
+
+
+  /**
+   * Retrieve the number of orders in the pipeline
+   * @return count
+   */
+  public int getInFlightCount()
+  {
+    return inFlight.size();
+  }
+
+
+  /**
+   * Retrieve the number of order ids added to the pipeline
+   * @return count
+   */
+  public long getPolledCount()
+  {
+    return polled.get();
+  }
+
+
+  /**
+   * Retrieve the number of orders the handler finished
+   * @return count
+   */
+  public long getHandledCount()
+  {
+    return handled.get();
+  }
+
+
+  /**
+   * Retrieve the number of acknowledgements sent
+   * @return count
+   */
+  public long getAckedCount()
+  {
+    return acked.get();
+  }
+
+
+  /**
+   * Retrieve the number of times an order left the pipeline unfinished
+   * @return count
+   */
+  public long getFailedCount()
+  {
+    return failed.get();
+  }
+
+
+  /**
+   * Stop polling and wait up to one minute for the orders in flight to
+   * finish.
+   */
+  @Override
+  public void close()
+  {
+    close( 1, TimeUnit.MINUTES );
+  }
+
+
+  /**
+   * Stop polling and wait for the orders in flight to finish
+   * @param timeout max wait
+   * @param unit unit
+   */
+  public void close( final long timeout, final TimeUnit unit )
+  {
+    closed = true;
+
+    final long end = System.nanoTime() + unit.toNanos( timeout );
+    try {
+      while ( !inFlight.isEmpty() && end - System.nanoTime() > 0 )
+      {
+        Thread.sleep( 10 );
+      }
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+
+    if ( !inFlight.isEmpty())
+      APILog.warn( LOG, String.valueOf( inFlight.size()), "orders were still in flight at close" );
+
+    poller.shutdownNow();
+    fetcher.shutdownNow();
+    handlers.shutdownNow();
+    ackers.shutdownNow();
+  }
+
+
+  /**
+   * Fetch stage
+   * @param id order id
+   * @param verify if the order is dropped when jet shows it was acknowledged
+   * @param attempt attempt number
+   */
+  private void fetch( final String id, final boolean verify, final int attempt )
+  {
+    final OrderRec order;
+    try {
+      order = api.getOrderDetail( id );
+    } catch( APIException | RuntimeException e ) {
+      if ( !retry( fetcher, id, attempt, e, () -> fetch( id, verify, attempt + 1 )))
+        release( id, "fetch", e );
+
+      return;
+    }
+
+    if ( verify && SeenOrderPoller.isAcknowledged( order ))
+    {
+      //..Already processed.  Adding it again keeps it in the exact map.
+      finish( id );
+      return;
+    }
+
+    submit( handlers, id, () -> handle( id, order ));
+  }
+
+
+  /**
+   * Handler stage
+   * @param id order id
+   * @param order order
+   */
+  private void handle( final String id, final OrderRec order )
+  {
+    final AckRequestRec ack;
+    try {
+      ack = handler.handle( order );
+    } catch( Exception e ) {
+      //..Don't fetch and handle a bad order on every poll forever
+      if ( handlerFailures.merge( id, 1, Integer::sum ) > retries )
+      {
+        handlerFailures.remove( id );
+        parked.put( id, e );
+        APILog.error( LOG, "Order", id, "is parked after", String.valueOf( retries + 1 ),
+          "handler failures.  Call unpark() to try it again" );
+      }
+
+      release( id, "handle", e );
+      return;
+    }
+
+    handlerFailures.remove( id );
+    handled.incrementAndGet();
+
+    if ( ack == null )
+      finish( id );
+    else
+      submit( ackers, id, () -> ack( id, ack, 0 ));
+  }
+
+
+  /**
+   * Ack stage
+   * @param id order id
+   * @param ack request
+   * @param attempt attempt number
+   */
+  private void ack( final String id, final AckRequestRec ack, final int attempt )
+  {
+    try {
+      api.sendPutAckOrder( id, ack );
+    } catch( APIException | RuntimeException e ) {
+      if ( !retry( ackers, id, attempt, e, () -> ack( id, ack, attempt + 1 )))
+      {
+        unsent.put( id, ack );
+        release( id, "ack", e );
+      }
+
+      return;
+    }
+
+    acked.incrementAndGet();
+    finish( id );
+  }
+
+
+  /**
+   * Schedule a retry on some stage
+   * @return false if there are no retries left
+   */
+  private boolean retry( final ThreadPoolExecutor stage, final String id,
+    final int attempt, final Exception e, final Runnable task )
+  {
+    if ( attempt >= retries || closed )
+      return false;
+
+    final long delay = retryDelayMillis << Math.min( attempt, 20 );
+    APILog.warn( LOG, "Order", id, "failed:", e.getMessage(), ".  Retrying in",
+      String.valueOf( delay ), "ms" );
+
+    try {
+      poller.schedule(() -> resubmit( stage, id, task ), delay, TimeUnit.MILLISECONDS );
+      return true;
+    } catch( RejectedExecutionException ex ) {
+      return false;
+    }
+  }
+
+
+  /**
+   * Add a retry to some stage from the poll thread.  This never blocks, so
+   * a full stage can't hold up polling or other retries.  When the stage is
+   * full, the retry is tried again after the retry delay.
+   * @param stage stage
+   * @param id order id
+   * @param task task
+   */
+  private void resubmit( final ThreadPoolExecutor stage, final String id,
+    final Runnable task )
+  {
+    if ( stage.isShutdown())
+    {
+      release( id, "submit", new RejectedExecutionException( "The stage has been shut down" ));
+      return;
+    }
+
+    //..Core threads are started with the stage, so queueing directly is fine
+    if ( stage.getQueue().offer( task ))
+      return;
+
+    try {
+      poller.schedule(() -> resubmit( stage, id, task ), retryDelayMillis,
+        TimeUnit.MILLISECONDS );
+    } catch( RejectedExecutionException e ) {
+      release( id, "submit", e );
+    }
+  }
+
+
+  /**
+   * Add a task to some stage, blocking while the stage queue is full
+   */
+  private void submit( final ThreadPoolExecutor stage, final String id,
+    final Runnable task )
+  {
+    try {
+      stage.execute( task );
+    } catch( RejectedExecutionException e ) {
+      release( id, "submit", e );
+    }
+  }
+
+
+  /**
+   * An order is done
+   * @param id order id
+   */
+  private void finish( final String id )
+  {
+    finished.put( id, System.currentTimeMillis());
+    if ( seen != null )
+      seen.add( id );
+
+    inFlight.remove( id );
+  }
+
+
+  /**
+   * An order left the pipeline without finishing.  The next poll picks it
+   * up again.
+   * @param id order id
+   * @param stage stage name
+   * @param e cause
+   */
+  private void release( final String id, final String stage, final Exception e )
+  {
+    failed.incrementAndGet();
+    APILog.error( LOG, e, "Order", id, "failed in the", stage, "stage" );
+    inFlight.remove( id );
+  }
+
+
+  /**
+   * Drop finished ids older than the grace period
+   */
+  private void purgeFinished()
+  {
+    final long cutoff = System.currentTimeMillis() - gracePeriodMillis;
+    for ( final Iterator<Long> it = finished.values().iterator(); it.hasNext(); )
+    {
+      if ( it.next() < cutoff )
+        it.remove();
+    }
+  }
+
+
+  /**
+   * Create a stage with a fixed number of threads and a bounded queue.
+   * Adding to a full queue blocks the caller.
+   * @param name stage name
+   * @param threads threads
+   * @param queueSize queue size
+   * @return stage
+   */
+  private static ThreadPoolExecutor stage( final String name, final int threads,
+    final int queueSize )
+  {
+    final ThreadPoolExecutor out = new ThreadPoolExecutor( threads, threads, 0, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<>( queueSize ),
+      r -> {
+        final Thread t = new Thread( r, "OrderIngestionPipeline-" + name );
+        t.setDaemon( true );
+        return t;
+      },
+      ( r, exec ) -> {
+        if ( exec.isShutdown())
+          throw new RejectedExecutionException( "The " + name + " stage has been shut down" );
+
+        try {
+          exec.getQueue().put( r );
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new RejectedExecutionException( "Interrupted waiting for the " + name + " stage", e );
+        }
+      });
+
+    //..Retries go straight on the queue, which needs running workers
+    out.prestartAllCoreThreads();
+    return out;
+  }
+}
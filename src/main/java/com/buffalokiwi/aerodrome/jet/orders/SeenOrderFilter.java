@@ -0,0 +1,545 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.orders;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * Remembers which order ids have already been processed.
+ *
+ * The most recent ids are kept exactly in an LRU map capped at maxEntries.
+ * Every id is also added to a Bloom filter that covers the last window of
+ * time.  The filter is split into segments, and the oldest segment is
+ * cleared each time a new one starts, so an id is forgotten by the filter
+ * between window - window / segments and window after it was added.
+ *
+ * An id is seen if it is in the LRU map, or if it was evicted from the map
+ * and the filter still holds it.  The filter can report an id it never saw
+ * at roughly the configured false positive rate.  Since segments expire,
+ * such an id is only skipped until the segments holding the colliding bits
+ * are cleared, at most one window later.  Callers that can't afford to skip
+ * a new id should treat a hit that isRecent() does not confirm as a hint,
+ * and check the order itself before dropping it.
+ *
+ * The filter can be written to and read from a file so a restart does not
+ * fetch every order again.
+ *
+ * This is safe to use from multiple threads.
+ *
+ * @author John Quinn
+ */
+public class SeenOrderFilter
+{
+  /**
+   * File header
+   */
+  private static final byte[] MAGIC = "AEROSEEN".getBytes( StandardCharsets.US_ASCII );
+
+  /**
+   * Current file version
+   */
+  public static final int VERSION = 1;
+
+
+  /**
+   * Builder
+   */
+  public static class Builder
+  {
+    private int maxEntries = 100000;
+    private long windowMillis = TimeUnit.DAYS.toMillis( 7 );
+    private int segments = 4;
+    private int expectedPerWindow = 100000;
+    private double falsePositiveRate = 0.000001;
+
+
+    /**
+     * Set the number of ids kept exactly
+     * @param max max
+     * @return this
+     */
+    public Builder setMaxEntries( final int max )
+    {
+      Utils.checkIntGTZ( max, "max" );
+      maxEntries = max;
+      return this;
+    }
+
+
+    /**
+     * Set how long the Bloom filter remembers an id
+     * @param window window
+     * @param unit unit
+     * @return this
+     */
+    public Builder setWindow( final long window, final TimeUnit unit )
+    {
+      Utils.checkNull( unit, "unit" );
+      if ( window <= 0 )
+        throw new IllegalArgumentException( "window must be greater than zero" );
+
+      windowMillis = unit.toMillis( window );
+      return this;
+    }
+
+
+    /**
+     * Set the number of segments the window is split into
+     * @param segments segments
+     * @return this
+     */
+    public Builder setSegments( final int segments )
+    {
+      if ( segments < 2 )
+        throw new IllegalArgumentException( "segments must be at least 2" );
+
+      this.segments = segments;
+      return this;
+    }
+
+
+    /**
+     * Set the number of ids expected to be added during one window
+     * @param expected expected
+     * @return this
+     */
+    public Builder setExpectedPerWindow( final int expected )
+    {
+      Utils.checkIntGTZ( expected, "expected" );
+      expectedPerWindow = expected;
+      return this;
+    }
+
+
+    /**
+     * Set the target false positive rate of the Bloom filter
+     * @param rate rate
+     * @return this
+     */
+    public Builder setFalsePositiveRate( final double rate )
+    {
+      if ( rate <= 0 || rate >= 1 )
+        throw new IllegalArgumentException( "rate must be between 0 and 1" );
+
+      falsePositiveRate = rate;
+      return this;
+    }
+
+
+    /**
+     * Build the filter
+     * @return filter
+     */
+    public SeenOrderFilter build()
+    {
+      return new SeenOrderFilter( this );
+    }
+  }
+
+
+  /**
+   * Exact ids in access order.  Values are when the id was added.
+   */
+  private final LinkedHashMap<String,Long> recent;
+
+  /**
+   * Filter segments.  Each one is a bitset of bits longs.
+   */
+  private final long[][] bloom;
+
+  /**
+   * When each segment started in epoch millis
+   */
+  private final long[] segmentStart;
+
+  /**
+   * Millis covered by one segment
+   */
+  private final long segmentMillis;
+
+  /**
+   * Bits per segment.  A multiple of 64.
+   */
+  private final int bits;
+
+  /**
+   * Hashes per id
+   */
+  private final int hashes;
+
+  /**
+   * Max exact entries
+   */
+  private final int maxEntries;
+
+  /**
+   * Segment being added to
+   */
+  private int current = 0;
+
+
+  /**
+   * Create a new filter
+   * @param b builder
+   */
+  private SeenOrderFilter( final Builder b )
+  {
+    maxEntries = b.maxEntries;
+    recent = new LinkedHashMap<String,Long>( 16, 0.75f, true ) {
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<String,Long> eldest )
+      {
+        return size() > maxEntries;
+      }
+    };
+
+    //..An id is checked against every segment, so split the rate between
+    //  them.  Each segment is sized for the whole window, since a burst can
+    //  land in a single segment.
+    final double perSegmentRate = b.falsePositiveRate / b.segments;
+    final double n = b.expectedPerWindow;
+    final double m = -n * Math.log( perSegmentRate ) / ( Math.log( 2 ) * Math.log( 2 ));
+
+    bits = (int)Math.min( 1L << 30, (( Math.max( 64L, (long)Math.ceil( m )) + 63 ) / 64 ) * 64 );
+    hashes = Math.max( 1, (int)Math.round( bits / n * Math.log( 2 )));
+    bloom = new long[b.segments][bits >>> 6];
+    segmentStart = new long[b.segments];
+    segmentMillis = Math.max( 1, b.windowMillis / b.segments );
+    segmentStart[0] = System.currentTimeMillis();
+  }
+
+
+  /**
+   * Record that some order was processed
+   * @param orderId order id
+   */
+  public synchronized void add( final String orderId )
+  {
+    Utils.checkNullEmpty( orderId, "orderId" );
+
+    final long now = System.currentTimeMillis();
+    rotate( now );
+    recent.put( orderId, now );
+
+    final long h1 = hash( orderId, 0x9E3779B97F4A7C15L );
+    final long h2 = hash( orderId, 0xC2B2AE3D27D4EB4FL ) | 1;
+    final long[] seg = bloom[current];
+    for ( int i = 0; i < hashes; i++ )
+    {
+      final int bit = bit( h1 + i * h2 );
+      seg[bit >>> 6] |= 1L << bit;
+    }
+  }
+
+
+  /**
+   * Test if some order was processed
+   * @param orderId order id
+   * @return seen
+   */
+  public synchronized boolean contains( final String orderId )
+  {
+    if ( orderId == null || orderId.isEmpty())
+      return false;
+
+    if ( recent.get( orderId ) != null )
+      return true;
+
+    rotate( System.currentTimeMillis());
+
+    final long h1 = hash( orderId, 0x9E3779B97F4A7C15L );
+    final long h2 = hash( orderId, 0xC2B2AE3D27D4EB4FL ) | 1;
+
+    for ( final long[] seg : bloom )
+    {
+      boolean all = true;
+      for ( int i = 0; i < hashes && all; i++ )
+      {
+        final int bit = bit( h1 + i * h2 );
+        all = ( seg[bit >>> 6] & ( 1L << bit )) != 0;
+      }
+
+      if ( all )
+        return true;
+    }
+
+    return false;
+  }
+
+
+  /**
+   * Test if some order is in the exact map.  Unlike contains(), this never
+   * reports an id that was not added.
+   * @param orderId order id
+   * @return seen recently
+   */
+  public synchronized boolean isRecent( final String orderId )
+  {
+    if ( orderId == null || orderId.isEmpty())
+      return false;
+
+    return recent.get( orderId ) != null;
+  }
+
+
+  /**
+   * Forget some order.  It is removed from the exact map only, so the Bloom
+   * filter may still report it until its segment expires.
+   * @param orderId order id
+   * @return if it was in the exact map
+   */
+  public synchronized boolean remove( final String orderId )
+  {
+    return recent.remove( orderId ) != null;
+  }
+
+
+  /**
+   * Retrieve the number of ids kept exactly
+   * @return size
+   */
+  public synchronized int size()
+  {
+    return recent.size();
+  }
+
+
+  /**
+   * Retrieve the size of the Bloom filter
+   * @return bytes
+   */
+  public int getFilterBytes()
+  {
+    return bloom.length * ( bits >>> 3 );
+  }
+
+
+  /**
+   * Write the filter to some file.
+   * The file can only be read by a filter built with the same segment
+   * count and expected sizes.
+   * @param file file
+   * @throws IOException
+   */
+  public synchronized void write( final File file ) throws IOException
+  {
+    Utils.checkNull( file, "file" );
+
+    final File tmp = new File( file.getPath() + ".tmp" );
+    final CRC32 crc = new CRC32();
+    try ( final FileOutputStream fout = new FileOutputStream( tmp );
+          final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( fout, 64 * 1024 )))
+    {
+      final DataOutputStream cout = new DataOutputStream( new CheckedOutputStream( out, crc ));
+
+      cout.write( MAGIC );
+      cout.writeInt( VERSION );
+      cout.writeInt( bloom.length );
+      cout.writeInt( bits );
+      cout.writeInt( hashes );
+      cout.writeLong( segmentMillis );
+      cout.writeInt( current );
+
+      for ( int s = 0; s < bloom.length; s++ )
+      {
+        cout.writeLong( segmentStart[s] );
+        for ( final long w : bloom[s] )
+        {
+          cout.writeLong( w );
+        }
+      }
+
+      //..Least recently used first, so reading them back keeps the order
+      cout.writeInt( recent.size());
+      for ( final Map.Entry<String,Long> e : recent.entrySet())
+      {
+        cout.writeUTF( e.getKey());
+        cout.writeLong( e.getValue());
+      }
+
+      cout.flush();
+      out.writeLong( crc.getValue());
+      out.flush();
+      fout.getFD().sync();
+    }
+
+    Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE );
+  }
+
+
+  /**
+   * Replace the contents of this filter with a file written by write()
+   * @param file file
+   * @throws IOException if the file can't be read, fails its checksum, or
+   * was written by a filter with a different shape
+   */
+  public synchronized void read( final File file ) throws IOException
+  {
+    Utils.checkNull( file, "file" );
+
+    final CRC32 crc = new CRC32();
+    try ( final DataInputStream in = new DataInputStream( new BufferedInputStream(
+      new FileInputStream( file ), 64 * 1024 )))
+    {
+      final DataInputStream cin = new DataInputStream( new CheckedInputStream( in, crc ));
+
+      final byte[] magic = new byte[MAGIC.length];
+      cin.readFully( magic );
+      if ( !Arrays.equals( magic, MAGIC ))
+        throw new IOException( file.getPath() + " is not a seen order file" );
+
+      final int version = cin.readInt();
+      if ( version < 1 || version > VERSION )
+        throw new IOException( file.getPath() + " is version " + version
+          + ".  The highest supported version is " + VERSION );
+
+      if ( cin.readInt() != bloom.length || cin.readInt() != bits
+        || cin.readInt() != hashes || cin.readLong() != segmentMillis )
+      {
+        throw new IOException( file.getPath() + " was written by a filter with different settings" );
+      }
+
+      final int cur = cin.readInt();
+      final long[] starts = new long[bloom.length];
+      final long[][] segs = new long[bloom.length][bits >>> 6];
+      for ( int s = 0; s < segs.length; s++ )
+      {
+        starts[s] = cin.readLong();
+        for ( int w = 0; w < segs[s].length; w++ )
+        {
+          segs[s][w] = cin.readLong();
+        }
+      }
+
+      final int count = cin.readInt();
+      final String[] ids = new String[count];
+      final long[] times = new long[count];
+      for ( int i = 0; i < count; i++ )
+      {
+        ids[i] = cin.readUTF();
+        times[i] = cin.readLong();
+      }
+
+      final long expected = crc.getValue();
+      if ( in.readLong() != expected )
+        throw new IOException( file.getPath() + " failed its checksum" );
+
+      if ( cur < 0 || cur >= bloom.length )
+        throw new IOException( file.getPath() + " has an invalid segment index" );
+
+      current = cur;
+      System.arraycopy( starts, 0, segmentStart, 0, starts.length );
+      for ( int s = 0; s < segs.length; s++ )
+      {
+        bloom[s] = segs[s];
+      }
+
+      recent.clear();
+      for ( int i = 0; i < count; i++ )
+      {
+        recent.put( ids[i], times[i] );
+      }
+    }
+
+    rotate( System.currentTimeMillis());
+  }
+
+
+  /**
+   * Move to a new segment for every segment length that has passed,
+   * clearing the oldest one each time.  A lock must be held.
+   * @param now epoch millis
+   */
+  private void rotate( final long now )
+  {
+    int steps = 0;
+    while ( now - segmentStart[current] >= segmentMillis )
+    {
+      final long start = segmentStart[current] + segmentMillis;
+      current = ( current + 1 ) % bloom.length;
+      Arrays.fill( bloom[current], 0L );
+
+      //..Long idle periods clear everything and start fresh
+      if ( ++steps >= bloom.length )
+      {
+        for ( final long[] seg : bloom )
+        {
+          Arrays.fill( seg, 0L );
+        }
+
+        segmentStart[current] = now;
+        return;
+      }
+
+      segmentStart[current] = start;
+    }
+  }
+
+
+  /**
+   * Map a hash onto the bits of a segment
+   * @param h hash
+   * @return bit
+   */
+  private int bit( final long h )
+  {
+    return (int)((( h >>> 32 ) * bits ) >>> 32 );
+  }
+
+
+  /**
+   * 64 bit FNV-1a over the chars of some string followed by a final mix
+   * @param s string
+   * @param seed seed
+   * @return hash
+   */
+  private static long hash( final String s, final long seed )
+  {
+    long h = 0xCBF29CE484222325L ^ seed;
+    for ( int i = 0; i < s.length(); i++ )
+    {
+      h ^= s.charAt( i );
+      h *= 0x100000001B3L;
+    }
+
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,208 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.orders;
+
+import com.buffalokiwi.aerodrome.jet.JetException;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APIException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Polls for order tokens and drops the ones that were already processed.
+ *
+ * Jet keeps returning an order from getOrderStatusTokens() until its state
+ * changes, so a polling loop would otherwise fetch the detail of the same
+ * orders every cycle.  Call markProcessed() once an order has been handled,
+ * and it will be left out of later polls.
+ *
+ * Orders the filter remembers exactly are dropped straight away.  An order
+ * that only the Bloom filter reports may be a false positive, so its detail
+ * is fetched and it is only dropped if jet shows it was acknowledged.
+ *
+ * <pre>
+ * final SeenOrderPoller poller = new SeenOrderPoller( orderApi,
+ *   new SeenOrderFilter.Builder().build());
+ *
+ * for ( final OrderRec order : poller.getNewOrders( OrderStatus.READY ))
+ * {
+ *   ...
+ *   poller.markProcessed( order.getMerchantOrderId());
+ * }
+ * </pre>
+ *
+ * @author John Quinn
+ */
+public class SeenOrderPoller
+{
+  /**
+   * Order api
+   */
+  private final IJetOrder api;
+
+  /**
+   * Processed order ids
+   */
+  private final SeenOrderFilter seen;
+
+  /**
+   * Tokens returned by jet
+   */
+  private final AtomicLong polled = new AtomicLong( 0 );
+
+  /**
+   * Tokens dropped because they were already processed
+   */
+  private final AtomicLong skipped = new AtomicLong( 0 );
+
+
+  /**
+   * Create a new poller
+   * @param api order api
+   * @param seen processed order ids
+   */
+  public SeenOrderPoller( final IJetOrder api, final SeenOrderFilter seen )
+  {
+    Utils.checkNull( api, "api" );
+    Utils.checkNull( seen, "seen" );
+    this.api = api;
+    this.seen = seen;
+  }
+
+
+  /**
+   * Retrieve the filter
+   * @return filter
+   */
+  public SeenOrderFilter getFilter()
+  {
+    return seen;
+  }
+
+
+  /**
+   * Poll for order tokens that have not been processed
+   * @param status status to poll
+   * @return new tokens in the order jet returned them
+   * @throws APIException
+   * @throws JetException
+   */
+  public List<String> getNewOrderTokens( final OrderStatus status )
+    throws APIException, JetException
+  {
+    return new ArrayList<>( poll( status ).keySet());
+  }
+
+
+  /**
+   * Poll for orders that have not been processed and retrieve their detail
+   * @param status status to poll
+   * @return order detail for each new token
+   * @throws APIException
+   * @throws JetException
+   */
+  public List<OrderRec> getNewOrders( final OrderStatus status )
+    throws APIException, JetException
+  {
+    final List<OrderRec> out = new ArrayList<>();
+    for ( final Map.Entry<String,OrderRec> e : poll( status ).entrySet())
+    {
+      out.add(( e.getValue() != null ) ? e.getValue() : api.getOrderDetail( e.getKey()));
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Poll for order tokens and drop the processed ones
+   * @param status status to poll
+   * @return new tokens in the order jet returned them, with the detail if it
+   * was fetched to check a Bloom filter hit
+   * @throws APIException
+   * @throws JetException
+   */
+  private Map<String,OrderRec> poll( final OrderStatus status )
+    throws APIException, JetException
+  {
+    final List<String> tokens = api.getOrderStatusTokens( status );
+    polled.addAndGet( tokens.size());
+
+    final Map<String,OrderRec> out = new LinkedHashMap<>();
+    for ( final String id : tokens )
+    {
+      if ( seen.isRecent( id ))
+        skipped.incrementAndGet();
+      else if ( !seen.contains( id ))
+        out.put( id, null );
+      else
+      {
+        //..Could be a false positive, so ask jet
+        final OrderRec order = api.getOrderDetail( id );
+        if ( isAcknowledged( order ))
+          skipped.incrementAndGet();
+        else
+          out.put( id, order );
+      }
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Test if jet shows some order as acknowledged
+   * @param order order
+   * @return acknowledged
+   */
+  static boolean isAcknowledged( final OrderRec order )
+  {
+    return order.getAckStatus() != AckStatus.NONE;
+  }
+
+
+  /**
+   * Record that an order was processed
+   * @param orderId jet order id
+   */
+  public void markProcessed( final String orderId )
+  {
+    seen.add( orderId );
+  }
+
+
+  /**
+   * Retrieve the number of tokens jet returned
+   * @return count
+   */
+  public long getPolledCount()
+  {
+    return polled.get();
+  }
+
+
+  /**
+   * Retrieve the number of tokens that were dropped
+   * @return count
+   */
+  public long getSkippedCount()
+  {
+    return skipped.get();
+  }
+}
@@ -0,0 +1,298 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.orders;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.WriteBehindQueue;
+import com.buffalokiwi.aerodrome.jet.products.BulkShipmentFileGenerator;
+import com.buffalokiwi.aerodrome.jet.products.BulkUploadFileType;
+import com.buffalokiwi.aerodrome.jet.products.IJetAPIBulkProductUpload;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * A write-behind queue for shipment confirmations.
+ *
+ * Confirmations are flushed on a schedule, or as soon as the number of
+ * pending orders reaches the flush threshold.  When a flush has at least
+ * bulkThreshold orders, they are sent as a single bulk shipments file.
+ * Otherwise each order is sent with sendPutShipOrder().  Quiet periods get
+ * per order requests, and peak periods turn into a few bulk files.
+ *
+ * Confirming an order that is already pending adds the new shipments to the
+ * pending request, since a bulk file can only contain each order once.
+ *
+ * The number of pending orders is capped at maxPending.  When the queue is
+ * full, callers adding a new order will block until a flush has made room.
+ *
+ * Each call to confirm() returns a future that completes when the order has
+ * been sent.  For bulk files this means the file was uploaded and
+ * registered; use BulkUploadStatusTracker to wait for Jet to process it.
+ * Failed confirmations complete the future exceptionally and are not
+ * retried.
+ *
+ * @author John Quinn
+ */
+public class ShipmentConfirmationQueue extends WriteBehindQueue
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( ShipmentConfirmationQueue.class );
+
+
+  /**
+   * Builder
+   */
+  public static class Builder extends WriteBehindQueue.Builder<Builder>
+  {
+    private IJetAPIOrder orderApi = null;
+    private IJetAPIBulkProductUpload bulkApi = null;
+
+
+    /**
+     * Create a builder
+     */
+    public Builder()
+    {
+      super( 20000, 2000, 60000L, 100 );
+    }
+
+
+    /**
+     * Set the order api used for per order requests
+     * @param api api
+     * @return this
+     */
+    public Builder setOrderApi( final IJetAPIOrder api )
+    {
+      Utils.checkNull( api, "api" );
+      orderApi = api;
+      return this;
+    }
+
+
+    /**
+     * Set the bulk upload api used for bulk files
+     * @param api api
+     * @return this
+     */
+    public Builder setBulkApi( final IJetAPIBulkProductUpload api )
+    {
+      Utils.checkNull( api, "api" );
+      bulkApi = api;
+      return this;
+    }
+
+
+    /**
+     * Build the queue.  This starts the flush schedule.
+     * @return queue
+     */
+    public ShipmentConfirmationQueue build()
+    {
+      if ( orderApi == null )
+        throw new IllegalArgumentException( "orderApi must be set" );
+      else if ( bulkApi == null )
+        throw new IllegalArgumentException( "bulkApi must be set" );
+
+      return new ShipmentConfirmationQueue( this );
+    }
+  } //..End Builder
+
+
+  /**
+   * A pending order
+   */
+  private static class Pending
+  {
+    private final ShipRequestRec req;
+    private final List<CompletableFuture<Void>> futures;
+
+
+    private Pending( final ShipRequestRec req,
+      final List<CompletableFuture<Void>> futures )
+    {
+      this.req = req;
+      this.futures = futures;
+    }
+
+
+    private void complete( final Exception e )
+    {
+      for ( final CompletableFuture<Void> f : futures )
+      {
+        if ( e == null )
+          f.complete( null );
+        else
+          f.completeExceptionally( e );
+      }
+    }
+  }
+
+
+  /**
+   * Order api
+   */
+  private final IJetAPIOrder orderApi;
+
+  /**
+   * Bulk api
+   */
+  private final IJetAPIBulkProductUpload bulkApi;
+
+  /**
+   * Pending orders by merchant order id
+   */
+  private final ConcurrentMap<String,Pending> pending = new ConcurrentHashMap<>();
+
+
+  private ShipmentConfirmationQueue( final Builder b )
+  {
+    super( "ShipmentConfirmationQueue", b );
+    orderApi = b.orderApi;
+    bulkApi = b.bulkApi;
+    start();
+  }
+
+
+  /**
+   * Queue a shipment confirmation.
+   * If the order is already pending, the shipments are added to the pending
+   * request.  A non-empty alt order id replaces the pending one.
+   * @param merchantOrderId jet merchant order id
+   * @param req shipments
+   * @return A future that completes when the order has been sent
+   */
+  public CompletableFuture<Void> confirm( final String merchantOrderId,
+    final ShipRequestRec req )
+  {
+    Utils.checkNullEmpty( merchantOrderId, "merchantOrderId" );
+    Utils.checkNull( req, "req" );
+
+    final CompletableFuture<Void> future = new CompletableFuture<>();
+    put( pending, merchantOrderId, v -> merge( v, req, future ));
+    return future;
+  }
+
+
+  /**
+   * Send everything that is pending.
+   * This blocks until the flush is done.
+   */
+  @Override
+  public synchronized void flush()
+  {
+    final Map<String,Pending> batch = drain( pending );
+    if ( batch.isEmpty())
+      return;
+
+    APILog.info( LOG, "Flushing shipments for", String.valueOf( batch.size()), "orders" );
+
+    if ( batch.size() >= getBulkThreshold() )
+      sendFile( batch );
+    else
+    {
+      for ( final Map.Entry<String,Pending> e : batch.entrySet())
+      {
+        try {
+          orderApi.sendPutShipOrder( e.getKey(), e.getValue().req );
+          e.getValue().complete( null );
+        } catch( APIException | RuntimeException ex ) {
+          APILog.error( LOG, "Failed to confirm shipment for", e.getKey(), ex.getMessage());
+          e.getValue().complete( ex );
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Merge a confirmation into a pending order
+   * @param v pending order or null
+   * @param req new shipments
+   * @param future future for req
+   * @return merged
+   */
+  private Pending merge( final Pending v, final ShipRequestRec req,
+    final CompletableFuture<Void> future )
+  {
+    final List<CompletableFuture<Void>> futures = new ArrayList<>();
+    if ( v == null )
+    {
+      futures.add( future );
+      return new Pending( req, futures );
+    }
+
+    futures.addAll( v.futures );
+    futures.add( future );
+
+    final List<ShipmentRec> shipments = new ArrayList<>( v.req.getShipments());
+    shipments.addAll( req.getShipments());
+
+    return new Pending( new ShipRequestRec(
+      req.getAltOrderId().isEmpty() ? v.req.getAltOrderId() : req.getAltOrderId(),
+      shipments ), futures );
+  }
+
+
+  /**
+   * Send a batch as a single bulk file
+   * @param batch orders
+   */
+  private void sendFile( final Map<String,Pending> batch )
+  {
+    File file = null;
+    try {
+      file = File.createTempFile( "shipments-", ".json.gz", getWorkDir());
+      final BulkShipmentFileGenerator gen = new BulkShipmentFileGenerator( file );
+      try {
+        for ( final Map.Entry<String,Pending> e : batch.entrySet())
+        {
+          gen.writeLine( e.getKey(), e.getValue().req );
+        }
+      } finally {
+        gen.close();
+      }
+
+      bulkApi.uploadFile( file, BulkUploadFileType.SHIPMENTS );
+
+      for ( final Pending p : batch.values())
+      {
+        p.complete( null );
+      }
+    } catch( APIException | IOException | RuntimeException e ) {
+      APILog.error( LOG, "Failed to send shipments file", e.getMessage());
+      for ( final Pending p : batch.values())
+      {
+        p.complete( e );
+      }
+    } finally {
+      if ( file != null && !file.delete())
+        file.deleteOnExit();
+    }
+  }
+}
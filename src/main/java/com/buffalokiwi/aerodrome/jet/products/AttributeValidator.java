@@ -0,0 +1,608 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.taxonomy.AttrRec;
+import com.buffalokiwi.aerodrome.jet.taxonomy.AttrValidationRec;
+import com.buffalokiwi.aerodrome.jet.taxonomy.IJetAPITaxonomy;
+import com.buffalokiwi.aerodrome.jet.taxonomy.TaxonomyIndex;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Checks the node specific attributes of a product against the attribute
+ * rules Jet publishes for its browse node.
+ *
+ * The rules for each node are requested with IJetAPITaxonomy.getAttrDetail()
+ * the first time the node is seen and cached for the life of the validator,
+ * so checking a product never leaves memory once its node is loaded.
+ * Rules can also be supplied with put() when they were fetched elsewhere,
+ * or with putAll() from a TaxonomyIndex.
+ *
+ * This is a ProductValidator.Rule, and can be added to any ProductValidator
+ * under the "attributes_node_specific" field.  validate() loads every node
+ * used by a batch with fetchThreads threads of its own, and then checks the
+ * batch in parallel on the pool.  The api calls block, so they are kept off
+ * the pool.
+ *
+ * <pre>
+ * final AttributeValidator attrs = new AttributeValidator.Builder()
+ *   .setAPI( taxonomyApi )
+ *   .build();
+ *
+ * final ProductValidator.Report report = attrs.validate( products );
+ * </pre>
+ *
+ * Products without a browse node id are not checked.
+ *
+ * Nodes that fail to load are not cached.  validate() and preload() throw
+ * when a node of the batch can't be loaded, and check() reports the error
+ * for that product and requests the node again the next time it is seen.
+ *
+ * @author John Quinn
+ */
+public class AttributeValidator implements ProductValidator.Rule
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( AttributeValidator.class );
+
+  /**
+   * Jet field name used for violations
+   */
+  public static final String FIELD = "attributes_node_specific";
+
+
+  /**
+   * Builds AttributeValidator instances
+   */
+  public static class Builder
+  {
+    private IJetAPITaxonomy api = null;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int threshold = ProductValidator.DEFAULT_THRESHOLD;
+    private int fetchThreads = 4;
+    private boolean requireUnits = true;
+
+
+    /**
+     * Set the api used to load node attribute rules.
+     * Without an api, only nodes added with put() can be checked.
+     * @param api api
+     * @return this
+     */
+    public Builder setAPI( final IJetAPITaxonomy api )
+    {
+      Utils.checkNull( api, "api" );
+      this.api = api;
+      return this;
+    }
+
+
+    /**
+     * Set the pool used by validate()
+     * @param pool pool
+     * @return this
+     */
+    public Builder setPool( final ForkJoinPool pool )
+    {
+      Utils.checkNull( pool, "pool" );
+      this.pool = pool;
+      return this;
+    }
+
+
+    /**
+     * Set the number of threads used to request node rules in preload()
+     * @param threads threads
+     * @return this
+     */
+    public Builder setFetchThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      fetchThreads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set the number of products checked by a single task in validate()
+     * @param threshold threshold
+     * @return this
+     */
+    public Builder setThreshold( final int threshold )
+    {
+      Utils.checkIntGTZ( threshold, "threshold" );
+      this.threshold = threshold;
+      return this;
+    }
+
+
+    /**
+     * Set if a unit is required when an attribute lists units.
+     * Default is true.
+     * @param on on
+     * @return this
+     */
+    public Builder setRequireUnits( final boolean on )
+    {
+      requireUnits = on;
+      return this;
+    }
+
+
+    /**
+     * Build the validator
+     * @return validator
+     */
+    public AttributeValidator build()
+    {
+      return new AttributeValidator( this );
+    }
+  }
+
+
+  /**
+   * The rules for a single attribute with the value and unit lists turned
+   * into sets
+   */
+  private static class AttrRule
+  {
+    private final AttrRec attr;
+    private final Set<String> values;
+    private final Set<String> units;
+
+    private AttrRule( final AttrRec attr )
+    {
+      this.attr = attr;
+      this.values = toSet( attr.getValues());
+      this.units = toSet( attr.getUnits());
+    }
+  }
+
+
+  /**
+   * The rules for a browse node.  The message is set when the rules could
+   * not be loaded.
+   */
+  private static class NodeRules
+  {
+    private final Map<Long,AttrRule> attrs;
+    private final String message;
+
+    private NodeRules( final Map<Long,AttrRule> attrs, final String message )
+    {
+      this.attrs = attrs;
+      this.message = message;
+    }
+  }
+
+
+  /**
+   * Api or null
+   */
+  private final IJetAPITaxonomy api;
+
+  /**
+   * Pool
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * Products checked by a single task
+   */
+  private final int threshold;
+
+  /**
+   * Threads used to request node rules
+   */
+  private final int fetchThreads;
+
+  /**
+   * If a unit is required when an attribute lists units
+   */
+  private final boolean requireUnits;
+
+  /**
+   * Rules by browse node id
+   */
+  private final Map<Long,NodeRules> nodes = new ConcurrentHashMap<>();
+
+  /**
+   * Validator used by validate()
+   */
+  private final ProductValidator validator;
+
+
+  /**
+   * Create a new validator
+   * @param b builder
+   */
+  private AttributeValidator( final Builder b )
+  {
+    api = b.api;
+    pool = b.pool;
+    threshold = b.threshold;
+    fetchThreads = b.fetchThreads;
+    requireUnits = b.requireUnits;
+
+    validator = new ProductValidator.Builder()
+      .setDefaultRules( false )
+      .setPool( pool )
+      .setThreshold( threshold )
+      .addRule( FIELD, this )
+      .build();
+  }
+
+
+  /**
+   * Add or replace the attribute rules for some browse node
+   * @param nodeId browse node id
+   * @param attrs rules
+   */
+  public void put( final long nodeId, final List<AttrRec> attrs )
+  {
+    Utils.checkNull( attrs, "attrs" );
+    nodes.put( nodeId, toRules( attrs ));
+  }
+
+
+  /**
+   * Add or replace the rules for every node in some index.  Each node gets
+   * the attributes it inherits from its ancestors as well as its own.
+   * @param index taxonomy index
+   */
+  public void putAll( final TaxonomyIndex index )
+  {
+    Utils.checkNull( index, "index" );
+
+    for ( final long id : index.getNodeIds())
+    {
+      nodes.put( id, toRules( index.getAttributes( id )));
+    }
+  }
+
+
+  /**
+   * Drop the cached rules for some node.  They are requested again the next
+   * time the node is seen.
+   * @param nodeId browse node id
+   */
+  public void evict( final long nodeId )
+  {
+    nodes.remove( nodeId );
+  }
+
+
+  /**
+   * Drop every cached node
+   */
+  public void clear()
+  {
+    nodes.clear();
+  }
+
+
+  /**
+   * Retrieve the number of cached nodes
+   * @return size
+   */
+  public int size()
+  {
+    return nodes.size();
+  }
+
+
+  /**
+   * Load the rules for every node used by some products with node specific
+   * attributes.  Nodes that are not cached are requested with up to
+   * fetchThreads threads.
+   * @param products products
+   * @throws APIException if the rules for any node could not be loaded.  The
+   * nodes that did load are cached.
+   */
+  public void preload( final Collection<ProductRec> products ) throws APIException
+  {
+    Utils.checkNull( products, "products" );
+
+    final Set<Long> ids = new HashSet<>();
+    for ( final ProductRec p : products )
+    {
+      //..checkAttributes() skips the rest, so don't pay for their nodes
+      if ( p.getBrowseNodeId() > 0 && !p.getAttributesNodeSpecific().isEmpty()
+        && !nodes.containsKey( p.getBrowseNodeId()))
+      {
+        ids.add( p.getBrowseNodeId());
+      }
+    }
+
+    if ( ids.isEmpty() || api == null )
+      return;
+
+    APILog.info( LOG, "Loading attribute rules for", String.valueOf( ids.size()), "browse nodes" );
+
+    final ExecutorService fetch = Executors.newFixedThreadPool(
+      Math.min( fetchThreads, ids.size()));
+    try {
+      final List<Future<NodeRules>> out = new ArrayList<>( ids.size());
+      for ( final long id : ids )
+      {
+        out.add( fetch.submit(() -> load( id )));
+      }
+
+      APIException first = null;
+      int failed = 0;
+      for ( final Future<NodeRules> f : out )
+      {
+        try {
+          f.get();
+        } catch( ExecutionException e ) {
+          if ( !( e.getCause() instanceof APIException ))
+            throw new IllegalStateException( "Failed to load attribute rules", e.getCause());
+
+          failed++;
+          if ( first == null )
+            first = (APIException)e.getCause();
+        }
+      }
+
+      if ( first != null )
+        throw new APIException( "Failed to load attribute rules for " + failed + " browse nodes", first );
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    } finally {
+      fetch.shutdownNow();
+    }
+  }
+
+
+  /**
+   * Load the rules used by a batch and check the attributes of every product.
+   * This blocks until every product has been checked.
+   * @param products products
+   * @return report
+   * @throws APIException if the rules for any node could not be loaded
+   */
+  public ProductValidator.Report validate( final Collection<ProductRec> products )
+    throws APIException
+  {
+    preload( products );
+    return validator.validate( products );
+  }
+
+
+  /**
+   * Check the attributes of a single product in the calling thread.
+   * The node rules are loaded if needed.
+   * @param p product
+   * @return messages.  Empty if the attributes are valid.
+   */
+  public List<String> checkAttributes( final ProductRec p )
+  {
+    Utils.checkNull( p, "p" );
+
+    if ( p.getBrowseNodeId() <= 0 || p.getAttributesNodeSpecific().isEmpty())
+      return Collections.emptyList();
+
+    final NodeRules node = getNode( p.getBrowseNodeId());
+    if ( node.message != null )
+      return Collections.singletonList( node.message );
+
+    final List<String> out = new ArrayList<>();
+    for ( final SkuAttributeRec a : p.getAttributesNodeSpecific())
+    {
+      final AttrRule r = node.attrs.get( a.getId());
+      if ( r == null )
+      {
+        out.add( "attribute " + a.getId() + " is not used by browse node "
+          + p.getBrowseNodeId());
+        continue;
+      }
+
+      checkAttribute( a, r, out );
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Check the attributes of a product for ProductValidator
+   * @param p product
+   * @return the messages joined with "; " or null
+   */
+  @Override
+  public String check( final ProductRec p )
+  {
+    final List<String> msg = checkAttributes( p );
+    if ( msg.isEmpty())
+      return null;
+
+    return String.join( "; ", msg );
+  }
+
+
+  /**
+   * Check a single attribute value
+   * @param a value
+   * @param r rules
+   * @param out messages
+   */
+  private void checkAttribute( final SkuAttributeRec a, final AttrRule r,
+    final List<String> out )
+  {
+    final String name = "attribute " + a.getId() + " (" + r.attr.getDescription() + ")";
+    final String val = a.getVal().trim();
+
+    if ( val.isEmpty())
+    {
+      out.add( name + " requires a value" );
+      return;
+    }
+
+    if ( !r.attr.isFreeText() && !r.values.isEmpty()
+      && !r.values.contains( val.toLowerCase( Locale.ROOT )))
+    {
+      out.add( name + " value '" + val + "' is not one of the allowed values" );
+    }
+
+    if ( !r.units.isEmpty())
+    {
+      if ( a.getUnit().isEmpty())
+      {
+        if ( requireUnits )
+          out.add( name + " requires one of the units " + r.attr.getUnits());
+      }
+      else if ( !r.units.contains( a.getUnit().trim().toLowerCase( Locale.ROOT )))
+        out.add( name + " unit '" + a.getUnit() + "' must be one of " + r.attr.getUnits());
+    }
+    else if ( !a.getUnit().isEmpty())
+      out.add( name + " does not accept a unit" );
+
+    final AttrValidationRec v = r.attr.getValidation();
+    if ( r.attr.isFreeText() && v != null )
+    {
+      final String msg = checkValidation( val, v );
+      if ( msg != null )
+        out.add( name + " " + msg );
+    }
+  }
+
+
+  /**
+   * Apply the free text validation rules to some value.
+   * Jet does not document the data types, so only numeric types are checked.
+   * The min and max values are ignored when they are both zero.
+   * @param val value
+   * @param v rules
+   * @return message or null
+   */
+  private static String checkValidation( final String val, final AttrValidationRec v )
+  {
+    final String type = ( v.getDataType() == null ) ? "" : v.getDataType().toLowerCase( Locale.ROOT );
+    final boolean integer = type.contains( "int" ) || type.equals( "long" );
+    final boolean decimal = type.contains( "decimal" ) || type.contains( "double" )
+      || type.contains( "float" ) || type.contains( "number" );
+
+    if ( !integer && !decimal )
+      return null;
+
+    final BigDecimal n;
+    try {
+      n = new BigDecimal( val );
+    } catch( NumberFormatException e ) {
+      return "value '" + val + "' must be " + ( integer ? "an integer" : "a number" );
+    }
+
+    if ( integer && n.stripTrailingZeros().scale() > 0 )
+      return "value '" + val + "' must be an integer";
+
+    if ( v.getMinValue() == 0 && v.getMaxValue() == 0 )
+      return null;
+
+    if ( n.compareTo( BigDecimal.valueOf( v.getMinValue())) < 0
+      || ( v.getMaxValue() > v.getMinValue() && n.compareTo( BigDecimal.valueOf( v.getMaxValue())) > 0 ))
+    {
+      return "value '" + val + "' must be between " + v.getMinValue() + " and " + v.getMaxValue();
+    }
+
+    return null;
+  }
+
+
+  /**
+   * Retrieve the rules for some node, loading them if needed.
+   * A node that fails to load is not cached, so it is requested again the
+   * next time it is seen.
+   * @param nodeId node id
+   * @return rules
+   */
+  private NodeRules getNode( final long nodeId )
+  {
+    final NodeRules n = nodes.get( nodeId );
+    if ( n != null )
+      return n;
+
+    if ( api == null )
+      return new NodeRules( Collections.emptyMap(), "no attribute rules are loaded for browse node " + nodeId );
+
+    try {
+      return load( nodeId );
+    } catch( APIException e ) {
+      APILog.error( LOG, e, "Failed to load attribute rules for browse node", String.valueOf( nodeId ));
+      return new NodeRules( Collections.emptyMap(),
+        "attribute rules for browse node " + nodeId + " could not be loaded: " + e.getMessage());
+    }
+  }
+
+
+  /**
+   * Request the rules for some node and cache them
+   * @param nodeId node id
+   * @return rules
+   * @throws APIException
+   */
+  private NodeRules load( final long nodeId ) throws APIException
+  {
+    final NodeRules loaded = toRules( api.getAttrDetail( String.valueOf( nodeId )));
+    final NodeRules prev = nodes.putIfAbsent( nodeId, loaded );
+    return ( prev == null ) ? loaded : prev;
+  }
+
+
+  private static NodeRules toRules( final List<AttrRec> attrs )
+  {
+    final Map<Long,AttrRule> m = new HashMap<>( attrs.size() * 2 );
+    for ( final AttrRec a : attrs )
+    {
+      m.put( a.getId(), new AttrRule( a ));
+    }
+
+    return new NodeRules( m, null );
+  }
+
+
+  private static Set<String> toSet( final List<String> values )
+  {
+    if ( values.isEmpty())
+      return Collections.emptySet();
+
+    return values.stream()
+      .map( s -> s.trim().toLowerCase( Locale.ROOT ))
+      .collect( Collectors.toSet());
+  }
+}
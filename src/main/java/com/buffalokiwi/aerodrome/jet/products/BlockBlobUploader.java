@@ -0,0 +1,485 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.IJetAPI;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.entity.ContentType;
+
+
+/**
+ * Uploads a file to a pre-signed block blob url in blocks.
+ *
+ * The file is split into fixed size blocks, and each block is sent with a
+ * separate "Put Block" request.  Blocks are sent concurrently, and a block
+ * that fails is retried on its own.  Once every block has been sent, a
+ * "Put Block List" request commits the blob.
+ *
+ * Blocks are read with positional FileChannel reads.  Files larger than
+ * the mmap threshold (and under 2GB) are memory mapped instead, so blocks
+ * don't need to be copied onto the heap.
+ *
+ * The blob gets the same content type and encoding that
+ * JetAPIBulkProductUpload.sendAuthorizedFile() sends.
+ *
+ * @author John Quinn
+ */
+public class BlockBlobUploader
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( BlockBlobUploader.class );
+
+  /**
+   * Block content type
+   */
+  private static final ContentType OCTET_STREAM = ContentType.create( "application/octet-stream" );
+
+  /**
+   * Block list content type
+   */
+  private static final ContentType XML = ContentType.create( "application/xml", StandardCharsets.UTF_8 );
+
+  /**
+   * The maximum number of blocks in a blob
+   */
+  public static final int MAX_BLOCKS = 50000;
+
+
+  /**
+   * Builder
+   */
+  public static class Builder
+  {
+    private int blockSize = 4 * 1024 * 1024;
+    private int threads = 4;
+    private int maxRetries = 3;
+    private long retryDelayMillis = 1000L;
+    private long mmapThreshold = 64L * 1024 * 1024;
+
+
+    /**
+     * Set the block size
+     * @param bytes bytes
+     * @return this
+     */
+    public Builder setBlockSize( final int bytes )
+    {
+      Utils.checkIntGTZ( bytes, "bytes" );
+      blockSize = bytes;
+      return this;
+    }
+
+
+    /**
+     * Set the number of blocks sent at the same time
+     * @param threads threads
+     * @return this
+     */
+    public Builder setThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      this.threads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set the number of times a single block is retried
+     * @param retries retries
+     * @return this
+     */
+    public Builder setMaxRetries( final int retries )
+    {
+      Utils.checkIntGTEZ( retries, "retries" );
+      maxRetries = retries;
+      return this;
+    }
+
+
+    /**
+     * Set the delay before the first retry.  Each retry waits longer.
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setRetryDelayMillis( final long millis )
+    {
+      if ( millis < 0 )
+        throw new IllegalArgumentException( "millis must be greater than or equal to zero" );
+
+      retryDelayMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the file size where files are memory mapped instead of read
+     * @param bytes bytes
+     * @return this
+     */
+    public Builder setMmapThreshold( final long bytes )
+    {
+      if ( bytes < 0 )
+        throw new IllegalArgumentException( "bytes must be greater than or equal to zero" );
+
+      mmapThreshold = bytes;
+      return this;
+    }
+
+
+    /**
+     * Build the uploader
+     * @return uploader
+     */
+    public BlockBlobUploader build()
+    {
+      return new BlockBlobUploader( this );
+    }
+  } //..End Builder
+
+
+  /**
+   * Block size
+   */
+  private final int blockSize;
+
+  /**
+   * Threads
+   */
+  private final int threads;
+
+  /**
+   * Retries per block
+   */
+  private final int maxRetries;
+
+  /**
+   * Initial retry delay
+   */
+  private final long retryDelayMillis;
+
+  /**
+   * mmap threshold
+   */
+  private final long mmapThreshold;
+
+
+  private BlockBlobUploader( final Builder b )
+  {
+    blockSize = b.blockSize;
+    threads = b.threads;
+    maxRetries = b.maxRetries;
+    retryDelayMillis = b.retryDelayMillis;
+    mmapThreshold = b.mmapThreshold;
+  }
+
+
+  /**
+   * Retrieve the block size
+   * @return bytes
+   */
+  public int getBlockSize()
+  {
+    return blockSize;
+  }
+
+
+  /**
+   * Upload some file to a block blob url
+   * @param api api used to send requests
+   * @param url pre-signed blob url from getUploadToken()
+   * @param file gzipped file
+   * @throws APIException if any block fails after every retry, or if the
+   * block list can't be committed.
+   */
+  public void upload( final IJetAPI api, final String url, final File file )
+    throws APIException
+  {
+    Utils.checkNull( api, "api" );
+    Utils.checkNullEmpty( url, "url" );
+    Utils.checkNull( file, "file" );
+
+    final long size = file.length();
+    final long count = ( size + blockSize - 1 ) / blockSize;
+
+    if ( count > MAX_BLOCKS )
+      throw new IllegalArgumentException( file.getName() + " requires " + count
+        + " blocks.  Increase the block size." );
+
+    final List<String> ids = new ArrayList<>();
+    for ( int i = 0; i < count; i++ )
+    {
+      ids.add( blockId( i ));
+    }
+
+    APILog.info( LOG, "Uploading", file.getName(), "in", String.valueOf( count ), "blocks" );
+
+    final ExecutorService exec = Executors.newFixedThreadPool( threads );
+
+    try ( final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+    {
+      final MappedByteBuffer map = ( size >= mmapThreshold && size > 0 && size <= Integer.MAX_VALUE )
+        ? channel.map( FileChannel.MapMode.READ_ONLY, 0, size ) : null;
+
+      final AtomicBoolean failed = new AtomicBoolean( false );
+      final List<CompletableFuture<Void>> blocks = new ArrayList<>();
+
+      for ( int i = 0; i < count; i++ )
+      {
+        final int index = i;
+        blocks.add( CompletableFuture.runAsync(() -> {
+          //..Don't bother sending anything else once some block has failed
+          if ( failed.get())
+            return;
+
+          try {
+            putBlock( api, url, ids.get( index ),
+              readBlock( channel, map, (long)index * blockSize, size ));
+          } catch( APIException | IOException e ) {
+            failed.set( true );
+            throw new CompletionException( e );
+          }
+        }, exec ));
+      }
+
+      try {
+        CompletableFuture.allOf( blocks.toArray( new CompletableFuture<?>[0] )).join();
+      } catch( CompletionException e ) {
+        if ( e.getCause() instanceof APIException )
+          throw (APIException)e.getCause();
+        else if ( e.getCause() instanceof Exception )
+          throw new APIException( "Failed to upload " + file.getName(), (Exception)e.getCause());
+
+        throw e;
+      }
+    } catch( IOException e ) {
+      throw new APIException( "Failed to read " + file.getName(), e );
+    } finally {
+      exec.shutdownNow();
+    }
+
+    putBlockList( api, url, ids );
+  }
+
+
+  /**
+   * Read a single block
+   * @param channel file
+   * @param map mapped file or null
+   * @param pos block start
+   * @param size file size
+   * @return block bytes
+   * @throws IOException
+   */
+  private ByteBuffer readBlock( final FileChannel channel,
+    final MappedByteBuffer map, final long pos, final long size ) throws IOException
+  {
+    final int len = (int)Math.min( blockSize, size - pos );
+
+    if ( map != null )
+    {
+      final ByteBuffer b = map.duplicate();
+      b.position((int)pos );
+      b.limit((int)pos + len );
+      return b.slice();
+    }
+
+    final ByteBuffer b = ByteBuffer.allocate( len );
+    while ( b.hasRemaining())
+    {
+      if ( channel.read( b, pos + b.position()) < 0 )
+        throw new IOException( "Unexpected end of file" );
+    }
+
+    b.flip();
+    return b;
+  }
+
+
+  /**
+   * Send a single block, retrying on failure
+   * @param api api
+   * @param url blob url
+   * @param id block id
+   * @param block block data
+   * @throws APIException if every attempt failed
+   */
+  private void putBlock( final IJetAPI api, final String url, final String id,
+    final ByteBuffer block ) throws APIException
+  {
+    final String blockUrl = appendQuery( url, "comp=block&blockid=" + urlEncode( id ));
+
+    for ( int attempt = 0; ; attempt++ )
+    {
+      try {
+        api.put( blockUrl, new ByteBufferInputStream( block.duplicate()),
+          block.remaining(), OCTET_STREAM, new HashMap<>());
+        return;
+      } catch( APIException e ) {
+        if ( attempt >= maxRetries )
+        {
+          APILog.error( LOG, "Block", id, "failed after", String.valueOf( attempt + 1 ), "attempts" );
+          throw e;
+        }
+
+        APILog.warn( LOG, "Block", id, "failed, retrying.", e.getMessage());
+        sleep( retryDelayMillis * ( attempt + 1 ));
+      }
+    }
+  }
+
+
+  /**
+   * Commit the block list
+   * @param api api
+   * @param url blob url
+   * @param ids block ids in order
+   * @throws APIException
+   */
+  private void putBlockList( final IJetAPI api, final String url,
+    final List<String> ids ) throws APIException
+  {
+    final StringBuilder xml = new StringBuilder(
+      "<?xml version=\"1.0\" encoding=\"utf-8\"?><BlockList>" );
+
+    for ( final String id : ids )
+    {
+      xml.append( "<Latest>" ).append( id ).append( "</Latest>" );
+    }
+
+    xml.append( "</BlockList>" );
+
+    final byte[] body = xml.toString().getBytes( StandardCharsets.UTF_8 );
+
+    final Map<String,String> headers = new HashMap<>();
+    headers.put( "x-ms-blob-content-type", "application/x-gzip" );
+    headers.put( "x-ms-blob-content-encoding", "gzip" );
+
+    api.put( appendQuery( url, "comp=blocklist" ),
+      new ByteArrayInputStream( body ), body.length, XML, headers );
+  }
+
+
+  /**
+   * Create a block id.  Every id in a blob must be the same length.
+   * @param index block index
+   * @return base64 id
+   */
+  private static String blockId( final int index )
+  {
+    return Base64.getEncoder().encodeToString(
+      String.format( "block-%08d", index ).getBytes( StandardCharsets.UTF_8 ));
+  }
+
+
+  /**
+   * Append some query string to a url that may already have one
+   * @param url url
+   * @param query query
+   * @return url
+   */
+  private static String appendQuery( final String url, final String query )
+  {
+    return url + (( url.indexOf( '?' ) == -1 ) ? "?" : "&" ) + query;
+  }
+
+
+  private static String urlEncode( final String s )
+  {
+    try {
+      return URLEncoder.encode( s, "UTF-8" );
+    } catch( UnsupportedEncodingException e ) {
+      //..UTF-8 always exists
+      throw new IllegalStateException( e );
+    }
+  }
+
+
+  private static void sleep( final long millis ) throws APIException
+  {
+    try {
+      Thread.sleep( millis );
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new APIException( "Interrupted while waiting to retry", e );
+    }
+  }
+
+
+  /**
+   * An InputStream over a ByteBuffer
+   */
+  private static class ByteBufferInputStream extends InputStream
+  {
+    private final ByteBuffer buf;
+
+    private ByteBufferInputStream( final ByteBuffer buf )
+    {
+      this.buf = buf;
+    }
+
+
+    @Override
+    public int read()
+    {
+      return buf.hasRemaining() ? ( buf.get() & 0xFF ) : -1;
+    }
+
+
+    @Override
+    public int read( final byte[] b, final int off, final int len )
+    {
+      if ( !buf.hasRemaining())
+        return -1;
+
+      final int n = Math.min( len, buf.remaining());
+      buf.get( b, off, n );
+      return n;
+    }
+
+
+    @Override
+    public int available()
+    {
+      return buf.remaining();
+    }
+  }
+}
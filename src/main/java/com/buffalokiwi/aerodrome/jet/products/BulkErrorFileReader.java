@@ -0,0 +1,321 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.stream.JsonParser;
+
+
+/**
+ * Reads a bulk upload error file one entry at a time.
+ *
+ * The stream may be gzipped or plain; gzip is detected from the magic
+ * bytes.  A file that starts with "[" is read as a json array with a
+ * streaming parser, and each element is handed off as soon as it has been
+ * read.  Anything else is read line by line, where a line may be a json
+ * object or plain text.
+ *
+ * Nothing beyond the current entry is held in memory.
+ *
+ * @author John Quinn
+ */
+public class BulkErrorFileReader
+{
+  /**
+   * Builders for json array elements
+   */
+  private static final JsonBuilderFactory JSON = Json.createBuilderFactory( null );
+
+  /**
+   * Read buffer size
+   */
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+
+  /**
+   * Read every error in some stream
+   * @param in error file contents.  This is not closed.
+   * @param consumer receives each error in file order
+   * @return the number of errors read
+   * @throws IOException if the stream can't be read or is not valid gzip
+   */
+  public long read( final InputStream in,
+    final Consumer<BulkUploadErrorRec> consumer ) throws IOException
+  {
+    Utils.checkNull( in, "in" );
+    Utils.checkNull( consumer, "consumer" );
+
+    //..Closing the reader releases the inflater, but must not close in
+    try ( final BufferedReader reader = new BufferedReader(
+      new InputStreamReader( decode( new NonClosingInputStream( in )),
+        StandardCharsets.UTF_8 ), BUFFER_SIZE ))
+    {
+      if ( firstChar( reader ) == '[' )
+        return readArray( reader, consumer );
+      else
+        return readLines( reader, consumer );
+    }
+  }
+
+
+  /**
+   * Keeps the caller's stream open when the readers wrapping it are closed
+   */
+  private static class NonClosingInputStream extends FilterInputStream
+  {
+    private NonClosingInputStream( final InputStream in )
+    {
+      super( in );
+    }
+
+
+    @Override
+    public void close()
+    {
+      //..Owned by the caller
+    }
+  }
+
+
+  /**
+   * Unwrap gzip if the stream starts with the gzip magic number
+   * @param in stream
+   * @return stream
+   * @throws IOException
+   */
+  private InputStream decode( final InputStream in ) throws IOException
+  {
+    final BufferedInputStream b = new BufferedInputStream( in, BUFFER_SIZE );
+    b.mark( 2 );
+    final int m1 = b.read();
+    final int m2 = b.read();
+    b.reset();
+
+    if ( m1 == 0x1f && m2 == 0x8b )
+      return new GZIPInputStream( b, BUFFER_SIZE );
+
+    return b;
+  }
+
+
+  /**
+   * Skip leading whitespace and any byte order mark, and peek at the first
+   * character after it.
+   * @param reader reader
+   * @return character or -1
+   * @throws IOException
+   */
+  private int firstChar( final BufferedReader reader ) throws IOException
+  {
+    while ( true )
+    {
+      reader.mark( 1 );
+      final int c = reader.read();
+      if ( c == -1 )
+        return c;
+      else if ( c != '\uFEFF' && !Character.isWhitespace( c ))
+      {
+        reader.reset();
+        return c;
+      }
+    }
+  }
+
+
+  /**
+   * Read a json array of objects and/or strings
+   * @param reader reader
+   * @param consumer consumer
+   * @return count
+   * @throws IOException if the json is invalid
+   */
+  private long readArray( final BufferedReader reader,
+    final Consumer<BulkUploadErrorRec> consumer ) throws IOException
+  {
+    long count = 0;
+
+    try ( final JsonParser p = Json.createParser( reader )) {
+      //..The opening bracket
+      p.next();
+
+      while ( p.hasNext())
+      {
+        switch( p.next())
+        {
+          case START_OBJECT:
+            consumer.accept( BulkUploadErrorRec.fromJSON( readObject( p )));
+            count++;
+          break;
+
+          case START_ARRAY:
+            //..Not an entry Jet would send, but don't let it end the loop
+            readArray( p );
+          break;
+
+          case VALUE_STRING:
+            consumer.accept( BulkUploadErrorRec.fromText( p.getString()));
+            count++;
+          break;
+
+          case END_ARRAY:
+            return count;
+
+          default:
+            //..Numbers, booleans and nulls aren't errors
+        }
+      }
+    } catch( JsonException e ) {
+      throw new IOException( "Invalid error file after " + count + " entries: "
+        + e.getMessage(), e );
+    }
+
+    return count;
+  }
+
+
+  /**
+   * Read a line based error file
+   * @param reader reader
+   * @param consumer consumer
+   * @return count
+   * @throws IOException
+   */
+  private long readLines( final BufferedReader reader,
+    final Consumer<BulkUploadErrorRec> consumer ) throws IOException
+  {
+    long count = 0;
+
+    String line;
+    while (( line = reader.readLine()) != null )
+    {
+      final String t = line.trim();
+      if ( t.isEmpty())
+        continue;
+
+      consumer.accept( parseLine( t ));
+      count++;
+    }
+
+    return count;
+  }
+
+
+  /**
+   * Parse a single line
+   * @param line trimmed line
+   * @return error
+   */
+  private BulkUploadErrorRec parseLine( final String line )
+  {
+    if ( line.charAt( 0 ) == '{' )
+    {
+      try ( final JsonReader r = Json.createReader( new StringReader( line ))) {
+        return BulkUploadErrorRec.fromJSON( r.readObject());
+      } catch( JsonException e ) {
+        //..Not json after all
+      }
+    }
+
+    return BulkUploadErrorRec.fromText( line );
+  }
+
+
+  /**
+   * Read an object.  The parser must be positioned after START_OBJECT.
+   * @param p parser
+   * @return object
+   */
+  private static JsonObject readObject( final JsonParser p )
+  {
+    final JsonObjectBuilder b = JSON.createObjectBuilder();
+    String key = null;
+
+    while ( p.hasNext())
+    {
+      switch( p.next())
+      {
+        case KEY_NAME: key = p.getString(); break;
+        case VALUE_STRING: b.add( key, p.getString()); break;
+        case VALUE_NUMBER:
+          if ( p.isIntegralNumber())
+            b.add( key, p.getLong());
+          else
+            b.add( key, p.getBigDecimal());
+        break;
+        case VALUE_TRUE: b.add( key, true ); break;
+        case VALUE_FALSE: b.add( key, false ); break;
+        case VALUE_NULL: b.addNull( key ); break;
+        case START_OBJECT: b.add( key, readObject( p )); break;
+        case START_ARRAY: b.add( key, readArray( p )); break;
+        case END_OBJECT: return b.build();
+        default:
+      }
+    }
+
+    throw new JsonException( "Unexpected end of object" );
+  }
+
+
+  /**
+   * Read an array.  The parser must be positioned after START_ARRAY.
+   * @param p parser
+   * @return array
+   */
+  private static JsonArray readArray( final JsonParser p )
+  {
+    final JsonArrayBuilder b = JSON.createArrayBuilder();
+
+    while ( p.hasNext())
+    {
+      switch( p.next())
+      {
+        case VALUE_STRING: b.add( p.getString()); break;
+        case VALUE_NUMBER:
+          if ( p.isIntegralNumber())
+            b.add( p.getLong());
+          else
+            b.add( p.getBigDecimal());
+        break;
+        case VALUE_TRUE: b.add( true ); break;
+        case VALUE_FALSE: b.add( false ); break;
+        case VALUE_NULL: b.addNull(); break;
+        case START_OBJECT: b.add( readObject( p )); break;
+        case START_ARRAY: b.add( readArray( p )); break;
+        case END_ARRAY: return b.build();
+        default:
+      }
+    }
+
+    throw new JsonException( "Unexpected end of array" );
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Jsonable;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+/**
+ * A list of bulk upload part files written by ShardedBulkFileGenerator.
+ *
+ * @author John Quinn
+ */
+public class BulkFileManifest implements Jsonable
+{
+  /**
+   * A single gzipped part file
+   */
+  public static class Part implements Jsonable
+  {
+    private final File file;
+    private final int lines;
+    private final long rawBytes;
+    private final long compressedBytes;
+
+
+    /**
+     * Create a part from JSON
+     * @param json json
+     * @return part
+     */
+    public static Part fromJSON( final JsonObject json )
+    {
+      Utils.checkNull( json, "json" );
+
+      return new Part(
+        new File( json.getString( "file", "" )),
+        json.getInt( "lines", 0 ),
+        json.getJsonNumber( "raw_bytes" ).longValue(),
+        json.getJsonNumber( "compressed_bytes" ).longValue());
+    }
+
+
+    /**
+     * Create a new part
+     * @param file part file
+     * @param lines number of skus in the file
+     * @param rawBytes uncompressed size
+     * @param compressedBytes file size
+     */
+    public Part( final File file, final int lines, final long rawBytes,
+      final long compressedBytes )
+    {
+      Utils.checkNull( file, "file" );
+
+      this.file = file;
+      this.lines = lines;
+      this.rawBytes = rawBytes;
+      this.compressedBytes = compressedBytes;
+    }
+
+
+    /**
+     * The part file
+     * @return file
+     */
+    public File getFile()
+    {
+      return file;
+    }
+
+
+    /**
+     * Number of skus in the file
+     * @return count
+     */
+    public int getLines()
+    {
+      return lines;
+    }
+
+
+    /**
+     * Uncompressed size
+     * @return bytes
+     */
+    public long getRawBytes()
+    {
+      return rawBytes;
+    }
+
+
+    /**
+     * Size of the gzipped file
+     * @return bytes
+     */
+    public long getCompressedBytes()
+    {
+      return compressedBytes;
+    }
+
+
+    @Override
+    public JsonObject toJSON()
+    {
+      return Json.createObjectBuilder()
+        .add( "file", file.getPath())
+        .add( "lines", lines )
+        .add( "raw_bytes", rawBytes )
+        .add( "compressed_bytes", compressedBytes )
+        .build();
+    }
+
+
+    @Override
+    public String toString()
+    {
+      return file.getName() + " (" + lines + " skus, " + compressedBytes + " bytes)";
+    }
+  }
+
+
+  /**
+   * Parts
+   */
+  private final List<Part> parts;
+
+
+  /**
+   * Create a manifest from JSON
+   * @param json json
+   * @return manifest
+   */
+  public static BulkFileManifest fromJSON( final JsonObject json )
+  {
+    Utils.checkNull( json, "json" );
+
+    final List<Part> parts = new ArrayList<>();
+    final JsonArray a = json.getJsonArray( "parts" );
+    if ( a != null )
+    {
+      for ( int i = 0; i < a.size(); i++ )
+      {
+        parts.add( Part.fromJSON( a.getJsonObject( i )));
+      }
+    }
+
+    return new BulkFileManifest( parts );
+  }
+
+
+  /**
+   * Create a new manifest
+   * @param parts parts
+   */
+  public BulkFileManifest( final List<Part> parts )
+  {
+    Utils.checkNull( parts, "parts" );
+    this.parts = Collections.unmodifiableList( new ArrayList<>( parts ));
+  }
+
+
+  /**
+   * Retrieve the part files
+   * @return parts
+   */
+  public List<Part> getParts()
+  {
+    return parts;
+  }
+
+
+  /**
+   * Total number of skus in every part
+   * @return count
+   */
+  public long getLines()
+  {
+    long out = 0;
+    for ( final Part p : parts )
+    {
+      out += p.getLines();
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Total size of every part file
+   * @return bytes
+   */
+  public long getCompressedBytes()
+  {
+    long out = 0;
+    for ( final Part p : parts )
+    {
+      out += p.getCompressedBytes();
+    }
+
+    return out;
+  }
+
+
+  @Override
+  public JsonObject toJSON()
+  {
+    final JsonArrayBuilder a = Json.createArrayBuilder();
+    for ( final Part p : parts )
+    {
+      a.add( p.toJSON());
+    }
+
+    return Json.createObjectBuilder().add( "parts", a ).build();
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY KIND,
+ * EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.orders.ShipRequestRec;
+import com.buffalokiwi.aerodrome.jet.orders.ShipmentRec;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes a bulk shipments file.
+ * Each line is keyed by the merchant order id and contains the same
+ * payload as JetAPIOrder.sendPutShipOrder().
+ * 
+ * @author John Quinn
+ */
+public class BulkShipmentFileGenerator extends BulkUploadFileGenerator
+{
+  /**
+   * Create a new BulkShipmentFileGenerator
+   * @param outputFile Filename to write to
+   */
+  public BulkShipmentFileGenerator( final File outputFile ) throws IOException  
+  {
+    super( outputFile );
+  }
+  
+  
+  /**
+   * Write the shipments for some order.
+   * Each order id must only be written once per file.
+   * @param merchantOrderId The jet merchant order id 
+   * @param rec shipment data to write 
+   */
+  public void writeLine( final String merchantOrderId, final ShipRequestRec rec )
+  {
+    if ( rec == null )
+      throw new IllegalArgumentException( "rec can't be null" );
+    else if ( merchantOrderId == null || merchantOrderId.isEmpty())
+      throw new IllegalArgumentException( "Merchant Order Id can't be null or empty" );
+        
+    super.writeLine( merchantOrderId, rec.toJSON());
+  }  
+  
+  
+  /**
+   * Write the shipments for some order.
+   * Each order id must only be written once per file.
+   * @param merchantOrderId The jet merchant order id 
+   * @param altOrderId Merchant supplied order id 
+   * @param shipments shipments 
+   */
+  public void writeLine( final String merchantOrderId, final String altOrderId,
+    final List<ShipmentRec> shipments )
+  {
+    writeLine( merchantOrderId, new ShipRequestRec( altOrderId, shipments ));
+  }
+}
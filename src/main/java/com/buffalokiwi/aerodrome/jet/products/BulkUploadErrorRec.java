@@ -0,0 +1,237 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+
+
+/**
+ * A single error from a bulk upload error file, or from the error excerpt
+ * of a FileIdRec.
+ *
+ * Jet doesn't document the error file format, so entries may be json
+ * objects or plain text.  The line number and sku are pulled out when they
+ * can be found, and the original entry is always available from getRaw().
+ *
+ * @author John Quinn
+ */
+public class BulkUploadErrorRec
+{
+  /**
+   * Finds a sku in a text entry
+   */
+  private static final Pattern SKU = Pattern.compile(
+    "(?i)\\b(?:merchant[_ ]?)?sku\\b\\W{0,3}['\"]?([^'\"\\s,:;]+)" );
+
+  /**
+   * Finds a line number in a text entry
+   */
+  private static final Pattern LINE = Pattern.compile(
+    "(?i)\\bline\\b\\s*(?:#|number|no\\.?)?\\s*:?\\s*(\\d+)" );
+
+  /**
+   * Source line number or -1
+   */
+  private final int line;
+
+  /**
+   * Merchant sku or an empty string
+   */
+  private final String merchantSku;
+
+  /**
+   * Error message
+   */
+  private final String message;
+
+  /**
+   * The original entry
+   */
+  private final String raw;
+
+
+  /**
+   * Create an instance from a plain text entry
+   * @param text entry
+   * @return instance
+   */
+  public static BulkUploadErrorRec fromText( final String text )
+  {
+    Utils.checkNull( text, "text" );
+
+    final String t = text.trim();
+
+    final Matcher sku = SKU.matcher( t );
+    final Matcher line = LINE.matcher( t );
+
+    return new BulkUploadErrorRec(
+      line.find() ? toInt( line.group( 1 )) : -1,
+      sku.find() ? sku.group( 1 ) : "",
+      t,
+      text );
+  }
+
+
+  /**
+   * Create an instance from a json entry
+   * @param json entry
+   * @return instance
+   */
+  public static BulkUploadErrorRec fromJSON( final JsonObject json )
+  {
+    Utils.checkNull( json, "json" );
+
+    final String message = getString( json, "error", "message",
+      "error_message", "description", "reason" );
+
+    final String text = json.toString();
+
+    //..Fall back to the text rules for anything that's missing
+    final BulkUploadErrorRec t = fromText( message.isEmpty() ? text : message );
+
+    final int line = getInt( json, "line", "line_number", "row" );
+    final String sku = getString( json, "merchant_sku", "sku" );
+
+    return new BulkUploadErrorRec(
+      ( line >= 0 ) ? line : t.getLine(),
+      sku.isEmpty() ? t.getMerchantSku() : sku,
+      message.isEmpty() ? text : message,
+      text );
+  }
+
+
+  /**
+   * Create a new error record
+   * @param line source line number or -1
+   * @param merchantSku sku or an empty string
+   * @param message message
+   * @param raw original entry
+   */
+  public BulkUploadErrorRec( final int line, final String merchantSku,
+    final String message, final String raw )
+  {
+    Utils.checkNull( merchantSku, "merchantSku" );
+    Utils.checkNull( message, "message" );
+    Utils.checkNull( raw, "raw" );
+
+    this.line = line;
+    this.merchantSku = merchantSku;
+    this.message = message;
+    this.raw = raw;
+  }
+
+
+  /**
+   * The line number in the uploaded file
+   * @return line or -1 if unknown
+   */
+  public int getLine()
+  {
+    return line;
+  }
+
+
+  /**
+   * The sku the error is for
+   * @return sku or an empty string if unknown
+   */
+  public String getMerchantSku()
+  {
+    return merchantSku;
+  }
+
+
+  /**
+   * If the sku is known
+   * @return has sku
+   */
+  public boolean hasMerchantSku()
+  {
+    return !merchantSku.isEmpty();
+  }
+
+
+  /**
+   * The error message
+   * @return message
+   */
+  public String getMessage()
+  {
+    return message;
+  }
+
+
+  /**
+   * The entry this was created from
+   * @return raw entry
+   */
+  public String getRaw()
+  {
+    return raw;
+  }
+
+
+  @Override
+  public String toString()
+  {
+    return (( merchantSku.isEmpty()) ? "" : merchantSku + ": " ) + message;
+  }
+
+
+  private static String getString( final JsonObject json, final String... keys )
+  {
+    for ( final String k : keys )
+    {
+      final JsonValue v = json.get( k );
+      if ( v instanceof JsonString )
+        return ((JsonString)v).getString();
+      else if ( v instanceof JsonNumber )
+        return v.toString();
+    }
+
+    return "";
+  }
+
+
+  private static int getInt( final JsonObject json, final String... keys )
+  {
+    for ( final String k : keys )
+    {
+      final JsonValue v = json.get( k );
+      if ( v instanceof JsonNumber )
+        return ((JsonNumber)v).intValue();
+      else if ( v instanceof JsonString )
+        return toInt(((JsonString)v).getString());
+    }
+
+    return -1;
+  }
+
+
+  private static int toInt( final String s )
+  {
+    try {
+      return Integer.parseInt( s.trim());
+    } catch( NumberFormatException e ) {
+      return -1;
+    }
+  }
+}
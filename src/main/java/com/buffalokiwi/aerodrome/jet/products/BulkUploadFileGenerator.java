@@ -12,6 +12,7 @@
  */
 package com.buffalokiwi.aerodrome.jet.products;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -114,8 +115,10 @@ public class BulkUploadFileGenerator implements IBulkUploadFileGenerator
   private JsonGenerator getGzipJsonOutputStream( final File outputFile ) 
     throws IOException
   {
+    //..Buffer the file so the deflater output isn't written in tiny chunks
     return Json.createGenerator( 
-      new GZIPOutputStream( new FileOutputStream( outputFile ))
+      new GZIPOutputStream( new BufferedOutputStream( 
+        new FileOutputStream( outputFile ), 65536 ), 8192 )
     );
   }   
 }
@@ -0,0 +1,539 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APILog;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * An append-only record of how far each part of a bulk upload has gotten.
+ *
+ * Every stage change is written as a single json line and synced to disk
+ * before the call returns.  When the journal is opened again, the lines are
+ * replayed to rebuild the state of each part.  A partial line at the end of
+ * the file (from a crash during a write) is truncated.
+ *
+ * @author John Quinn
+ */
+public class BulkUploadJournal implements AutoCloseable
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( BulkUploadJournal.class );
+
+
+  /**
+   * Upload stages in the order they happen
+   */
+  public static enum Stage
+  {
+    /**
+     * The part file has been written
+     */
+    GENERATED,
+
+    /**
+     * An upload token was issued for the part
+     */
+    TOKEN,
+
+    /**
+     * The part was sent to the token url
+     */
+    UPLOADED,
+
+    /**
+     * Jet was told about the part with sendPostUploadedFiles()
+     */
+    REGISTERED,
+
+    /**
+     * Jet has finished processing the part
+     */
+    COMPLETE;
+  }
+
+
+  /**
+   * The state of a single part
+   */
+  public static class PartState
+  {
+    private final BulkFileManifest.Part part;
+    private Stage stage = Stage.GENERATED;
+    private BulkUploadAuthRec token = null;
+    private long tokenExpires = 0;
+    private FileIdRec status = null;
+
+
+    private PartState( final BulkFileManifest.Part part )
+    {
+      this.part = part;
+    }
+
+
+    /**
+     * The part
+     * @return part
+     */
+    public BulkFileManifest.Part getPart()
+    {
+      return part;
+    }
+
+
+    /**
+     * The last completed stage
+     * @return stage
+     */
+    public Stage getStage()
+    {
+      return stage;
+    }
+
+
+    /**
+     * The upload token
+     * @return token or null before the TOKEN stage
+     */
+    public BulkUploadAuthRec getToken()
+    {
+      return token;
+    }
+
+
+    /**
+     * When the token url stops accepting uploads
+     * @return epoch millis
+     */
+    public long getTokenExpires()
+    {
+      return tokenExpires;
+    }
+
+
+    /**
+     * The final processing status
+     * @return status or null before the COMPLETE stage
+     */
+    public FileIdRec getStatus()
+    {
+      return status;
+    }
+
+
+    /**
+     * If some stage has been completed
+     * @param s stage
+     * @return is at or past s
+     */
+    public boolean isAt( final Stage s )
+    {
+      return stage.compareTo( s ) >= 0;
+    }
+  }
+
+
+  /**
+   * Journal file
+   */
+  private final File file;
+
+  /**
+   * Parts by file name in manifest order
+   */
+  private final Map<String,PartState> parts = new LinkedHashMap<>();
+
+  /**
+   * Output stream.  Guarded by this.
+   */
+  private FileOutputStream out;
+
+  /**
+   * The manifest or null if nothing has been generated
+   */
+  private BulkFileManifest manifest = null;
+
+  /**
+   * File type or null if nothing has been generated
+   */
+  private BulkUploadFileType fileType = null;
+
+
+  /**
+   * Open a journal, replaying anything that has already been written.
+   * The file is created if it does not exist.
+   * @param file journal file
+   * @throws IOException
+   */
+  public BulkUploadJournal( final File file ) throws IOException
+  {
+    Utils.checkNull( file, "file" );
+    this.file = file;
+
+    if ( file.exists())
+    {
+      repairTail();
+      replay();
+    }
+
+    out = new FileOutputStream( file, true );
+  }
+
+
+  /**
+   * Retrieve the journal file
+   * @return file
+   */
+  public File getFile()
+  {
+    return file;
+  }
+
+
+  /**
+   * Retrieve the generated parts
+   * @return manifest or null if generated() has not been called
+   */
+  public synchronized BulkFileManifest getManifest()
+  {
+    return manifest;
+  }
+
+
+  /**
+   * Retrieve the file type
+   * @return type or null if generated() has not been called
+   */
+  public synchronized BulkUploadFileType getFileType()
+  {
+    return fileType;
+  }
+
+
+  /**
+   * Retrieve the state of every part in manifest order
+   * @return parts
+   */
+  public synchronized List<PartState> getParts()
+  {
+    return Collections.unmodifiableList( new ArrayList<>( parts.values()));
+  }
+
+
+  /**
+   * If every part is at some stage
+   * @param s stage
+   * @return all parts are at or past s.  False if nothing was generated.
+   */
+  public synchronized boolean isAll( final Stage s )
+  {
+    if ( manifest == null )
+      return false;
+
+    for ( final PartState p : parts.values())
+    {
+      if ( !p.isAt( s ))
+        return false;
+    }
+
+    return true;
+  }
+
+
+  /**
+   * Record the generated part files
+   * @param manifest parts
+   * @param fileType file type
+   * @throws IOException
+   */
+  public synchronized void generated( final BulkFileManifest manifest,
+    final BulkUploadFileType fileType ) throws IOException
+  {
+    Utils.checkNull( manifest, "manifest" );
+    Utils.checkNull( fileType, "fileType" );
+
+    if ( this.manifest != null )
+      throw new IllegalStateException( "Parts have already been generated" );
+
+    append( Json.createObjectBuilder()
+      .add( "event", Stage.GENERATED.name())
+      .add( "file_type", fileType.getText())
+      .add( "manifest", manifest.toJSON()));
+
+    setManifest( manifest, fileType );
+  }
+
+
+  /**
+   * Record an upload token for some part
+   * @param part part
+   * @param token token
+   * @throws IOException
+   */
+  public synchronized void token( final BulkFileManifest.Part part,
+    final BulkUploadAuthRec token ) throws IOException
+  {
+    Utils.checkNull( token, "token" );
+
+    final PartState p = get( part );
+    final long expires = token.getExpiresAt().getTime();
+
+    append( event( Stage.TOKEN, part )
+      .add( "token", token.toJSON())
+      .add( "expires", expires ));
+
+    p.token = token;
+    p.tokenExpires = expires;
+    p.stage = Stage.TOKEN;
+  }
+
+
+  /**
+   * Record that some part was sent to the token url
+   * @param part part
+   * @throws IOException
+   */
+  public synchronized void uploaded( final BulkFileManifest.Part part ) throws IOException
+  {
+    final PartState p = get( part );
+    append( event( Stage.UPLOADED, part ));
+    p.stage = Stage.UPLOADED;
+  }
+
+
+  /**
+   * Record that jet was told about some part
+   * @param part part
+   * @throws IOException
+   */
+  public synchronized void registered( final BulkFileManifest.Part part ) throws IOException
+  {
+    final PartState p = get( part );
+    append( event( Stage.REGISTERED, part ));
+    p.stage = Stage.REGISTERED;
+  }
+
+
+  /**
+   * Record the final processing status of some part
+   * @param part part
+   * @param status status
+   * @throws IOException
+   */
+  public synchronized void complete( final BulkFileManifest.Part part,
+    final FileIdRec status ) throws IOException
+  {
+    Utils.checkNull( status, "status" );
+
+    final PartState p = get( part );
+    append( event( Stage.COMPLETE, part ).add( "status", status.toJson()));
+    p.status = status;
+    p.stage = Stage.COMPLETE;
+  }
+
+
+  /**
+   * Close the journal
+   * @throws IOException
+   */
+  @Override
+  public synchronized void close() throws IOException
+  {
+    if ( out != null )
+    {
+      out.close();
+      out = null;
+    }
+  }
+
+
+  /**
+   * Retrieve the state of some part
+   * @param part part
+   * @return state
+   */
+  private PartState get( final BulkFileManifest.Part part )
+  {
+    Utils.checkNull( part, "part" );
+
+    final PartState p = parts.get( part.getFile().getName());
+    if ( p == null )
+      throw new IllegalArgumentException( part.getFile().getName() + " is not in this journal" );
+
+    return p;
+  }
+
+
+  private JsonObjectBuilder event( final Stage stage, final BulkFileManifest.Part part )
+  {
+    return Json.createObjectBuilder()
+      .add( "event", stage.name())
+      .add( "part", part.getFile().getName());
+  }
+
+
+  /**
+   * Write a line and sync it to disk
+   * @param b line
+   * @throws IOException
+   */
+  private void append( final JsonObjectBuilder b ) throws IOException
+  {
+    if ( out == null )
+      throw new IOException( "Journal is closed" );
+
+    out.write(( b.build().toString() + "\n" ).getBytes( StandardCharsets.UTF_8 ));
+    out.getFD().sync();
+  }
+
+
+  private void setManifest( final BulkFileManifest manifest,
+    final BulkUploadFileType fileType )
+  {
+    this.manifest = manifest;
+    this.fileType = fileType;
+
+    for ( final BulkFileManifest.Part part : manifest.getParts())
+    {
+      parts.put( part.getFile().getName(), new PartState( part ));
+    }
+  }
+
+
+  /**
+   * Truncate anything after the last newline, so the next append doesn't
+   * land on the end of a partial line.
+   * @throws IOException
+   */
+  private void repairTail() throws IOException
+  {
+    try ( final FileChannel ch = FileChannel.open( file.toPath(),
+      StandardOpenOption.READ, StandardOpenOption.WRITE ))
+    {
+      final ByteBuffer b = ByteBuffer.allocate( 1 );
+      long pos = ch.size();
+      while ( pos > 0 )
+      {
+        b.clear();
+        ch.read( b, pos - 1 );
+        if ( b.get( 0 ) == '\n' )
+          break;
+
+        pos--;
+      }
+
+      if ( pos < ch.size())
+      {
+        APILog.warn( LOG, "Truncating partial line at the end of", file.getPath());
+        ch.truncate( pos );
+        ch.force( true );
+      }
+    }
+  }
+
+
+  /**
+   * Rebuild the state from the journal file
+   * @throws IOException
+   */
+  private void replay() throws IOException
+  {
+    int lineNo = 0;
+
+    try ( final BufferedReader r = new BufferedReader( new InputStreamReader(
+      new FileInputStream( file ), StandardCharsets.UTF_8 )))
+    {
+      String line;
+      while (( line = r.readLine()) != null )
+      {
+        lineNo++;
+        if ( line.trim().isEmpty())
+          continue;
+
+        final JsonObject json;
+        try ( final JsonReader jr = Json.createReader( new StringReader( line ))) {
+          json = jr.readObject();
+        } catch( JsonException e ) {
+          throw new IOException( "Corrupt journal line " + lineNo + " in " + file.getPath(), e );
+        }
+
+        apply( json );
+      }
+    }
+  }
+
+
+  /**
+   * Apply a single journal entry
+   * @param json entry
+   */
+  private void apply( final JsonObject json )
+  {
+    final Stage stage = Stage.valueOf( json.getString( "event" ));
+
+    if ( stage == Stage.GENERATED )
+    {
+      setManifest( BulkFileManifest.fromJSON( json.getJsonObject( "manifest" )),
+        BulkUploadFileType.fromText( json.getString( "file_type" )));
+      return;
+    }
+
+    final PartState p = parts.get( json.getString( "part", "" ));
+    if ( p == null )
+      throw new IllegalStateException( "Journal entry for unknown part: " + json.toString());
+
+    switch( stage )
+    {
+      case TOKEN:
+        p.token = BulkUploadAuthRec.fromJSON( json.getJsonObject( "token" ));
+        p.tokenExpires = json.getJsonNumber( "expires" ).longValue();
+      break;
+
+      case COMPLETE:
+        p.status = FileIdRec.fromJSON( json.getJsonObject( "status" ));
+      break;
+
+      default:
+    }
+
+    p.stage = stage;
+  }
+}
@@ -0,0 +1,592 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.products.BulkUploadJournal.PartState;
+import com.buffalokiwi.aerodrome.jet.products.BulkUploadJournal.Stage;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import javax.json.JsonValue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Runs a bulk upload in stages and picks up where it left off after a
+ * restart.
+ *
+ * Each upload has a name.  The part files are written to workDir/name/
+ * and the progress of every part is recorded in workDir/name.journal
+ * (see BulkUploadJournal).  Calling run() again with the same name skips
+ * any stage that was already recorded:
+ *
+ * 1) Generate the part files.  Records are only read when the journal has
+ *    no parts, so a resumed upload doesn't regenerate anything.
+ * 2) Get an upload token for each part.  A new token is requested if the
+ *    recorded one has expired before the part was sent.
+ * 3) Send the part to the token url.
+ * 4) Register the part with sendPostUploadedFiles().  If the process died
+ *    between registering and writing the journal, the jet file id is
+ *    checked first, so a part is never registered twice.
+ * 5) Wait for jet to finish processing each part, if a status tracker was
+ *    supplied.
+ *
+ * Parts advance independently, and a part that fails stays at its last
+ * completed stage until the next run.  Use a separate name for each file
+ * type.
+ *
+ * @author John Quinn
+ */
+public class BulkUploadOrchestrator
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( BulkUploadOrchestrator.class );
+
+
+  /**
+   * Builder
+   */
+  public static class Builder
+  {
+    private IJetAPIBulkProductUpload bulkApi = null;
+    private File workDir = null;
+    private ShardedBulkFileGenerator.Builder generator
+      = new ShardedBulkFileGenerator.Builder();
+    private BulkUploadStatusTracker tracker = null;
+    private int threads = 2;
+    private long tokenMarginMillis = 60000L;
+    private boolean deleteRegistered = true;
+
+
+    /**
+     * Set the bulk api
+     * @param api api
+     * @return this
+     */
+    public Builder setBulkApi( final IJetAPIBulkProductUpload api )
+    {
+      Utils.checkNull( api, "api" );
+      bulkApi = api;
+      return this;
+    }
+
+
+    /**
+     * Set the directory where journals and part files are kept
+     * @param dir directory
+     * @return this
+     */
+    public Builder setWorkDir( final File dir )
+    {
+      Utils.checkNull( dir, "dir" );
+      if ( !dir.isDirectory() || !dir.canWrite())
+        throw new IllegalArgumentException( "Can't write to " + dir.getPath());
+
+      workDir = dir;
+      return this;
+    }
+
+
+    /**
+     * Set the generator settings.
+     * The settings are copied, and later changes to generator have no effect.
+     * The directory and prefix are set by the orchestrator for each run.
+     * @param generator generator builder
+     * @return this
+     */
+    public Builder setGenerator( final ShardedBulkFileGenerator.Builder generator )
+    {
+      Utils.checkNull( generator, "generator" );
+      this.generator = new ShardedBulkFileGenerator.Builder( generator );
+      return this;
+    }
+
+
+    /**
+     * Set the tracker used to wait for jet to process each part.
+     * When this is not set, run() returns once every part is registered.
+     * @param tracker tracker
+     * @return this
+     */
+    public Builder setTracker( final BulkUploadStatusTracker tracker )
+    {
+      Utils.checkNull( tracker, "tracker" );
+      this.tracker = tracker;
+      return this;
+    }
+
+
+    /**
+     * Set the number of parts advanced at the same time
+     * @param threads threads
+     * @return this
+     */
+    public Builder setThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      this.threads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set how long before its expiration a token is considered expired
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setTokenMarginMillis( final long millis )
+    {
+      if ( millis < 0 )
+        throw new IllegalArgumentException( "millis must be greater than or equal to zero" );
+
+      tokenMarginMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set if part files are deleted once they have been registered
+     * @param delete delete
+     * @return this
+     */
+    public Builder setDeleteRegistered( final boolean delete )
+    {
+      deleteRegistered = delete;
+      return this;
+    }
+
+
+    /**
+     * Build the orchestrator
+     * @return orchestrator
+     */
+    public BulkUploadOrchestrator build()
+    {
+      if ( bulkApi == null )
+        throw new IllegalArgumentException( "bulkApi must be set" );
+      else if ( workDir == null )
+        throw new IllegalArgumentException( "workDir must be set" );
+
+      return new BulkUploadOrchestrator( this );
+    }
+  } //..End Builder
+
+
+  /**
+   * The outcome of a single run
+   */
+  public static class Result
+  {
+    private final List<PartState> parts;
+    private final Map<String,Exception> errors;
+    private final Stage target;
+
+
+    private Result( final List<PartState> parts,
+      final Map<String,Exception> errors, final Stage target )
+    {
+      this.parts = parts;
+      this.errors = Collections.unmodifiableMap( errors );
+      this.target = target;
+    }
+
+
+    /**
+     * The state of each part in manifest order
+     * @return parts
+     */
+    public List<PartState> getParts()
+    {
+      return parts;
+    }
+
+
+    /**
+     * Errors from this run by part file name
+     * @return errors
+     */
+    public Map<String,Exception> getErrors()
+    {
+      return errors;
+    }
+
+
+    /**
+     * If every part reached the last stage.  This is COMPLETE when a
+     * tracker was supplied, and REGISTERED otherwise.
+     * @return done
+     */
+    public boolean isDone()
+    {
+      for ( final PartState p : parts )
+      {
+        if ( !p.isAt( target ))
+          return false;
+      }
+
+      return true;
+    }
+  }
+
+
+  /**
+   * Bulk api
+   */
+  private final IJetAPIBulkProductUpload bulkApi;
+
+  /**
+   * Work directory
+   */
+  private final File workDir;
+
+  /**
+   * Generator settings
+   */
+  private final ShardedBulkFileGenerator.Builder generator;
+
+  /**
+   * Status tracker or null
+   */
+  private final BulkUploadStatusTracker tracker;
+
+  /**
+   * Threads
+   */
+  private final int threads;
+
+  /**
+   * Token expiration margin
+   */
+  private final long tokenMarginMillis;
+
+  /**
+   * Delete registered part files
+   */
+  private final boolean deleteRegistered;
+
+
+  private BulkUploadOrchestrator( final Builder b )
+  {
+    bulkApi = b.bulkApi;
+    workDir = b.workDir;
+    generator = b.generator;
+    tracker = b.tracker;
+    threads = b.threads;
+    tokenMarginMillis = b.tokenMarginMillis;
+    deleteRegistered = b.deleteRegistered;
+  }
+
+
+  /**
+   * Retrieve the journal file for some upload name
+   * @param name upload name
+   * @return file
+   */
+  public File getJournalFile( final String name )
+  {
+    Utils.checkNullEmpty( name, "name" );
+    return new File( workDir, name + ".journal" );
+  }
+
+
+  /**
+   * Start or resume a merchant sku upload
+   * @param name upload name
+   * @param products products.  This is only called if the parts have not
+   * been generated yet.
+   * @return result
+   * @throws IOException if the parts or the journal can't be written
+   */
+  public Result runProducts( final String name,
+    final Supplier<Stream<ProductRec>> products ) throws IOException
+  {
+    Utils.checkNull( products, "products" );
+    return run( name, BulkUploadFileType.MERCHANT_SKUS,
+      () -> products.get().iterator(), ProductRec::getMerchantSku,
+      ProductRec::toJSON );
+  }
+
+
+  /**
+   * Start or resume a bulk upload
+   * @param <T> record type
+   * @param name upload name.  This must be a valid file name.
+   * @param fileType file type
+   * @param records records.  This is only called if the parts have not been
+   * generated yet.
+   * @param skuOf retrieves the sku for a record
+   * @param jsonOf retrieves the line for a record
+   * @return result
+   * @throws IOException if the parts or the journal can't be written
+   */
+  public synchronized <T> Result run( final String name,
+    final BulkUploadFileType fileType, final Supplier<Iterator<T>> records,
+    final Function<T,String> skuOf, final Function<T,? extends JsonValue> jsonOf )
+    throws IOException
+  {
+    Utils.checkNullEmpty( name, "name" );
+    Utils.checkNull( fileType, "fileType" );
+    Utils.checkNull( records, "records" );
+    Utils.checkNull( skuOf, "skuOf" );
+    Utils.checkNull( jsonOf, "jsonOf" );
+
+    try ( final BulkUploadJournal journal = new BulkUploadJournal( getJournalFile( name ))) {
+      if ( journal.getManifest() == null )
+        generate( journal, name, fileType, records, skuOf, jsonOf );
+      else if ( journal.getFileType() != fileType )
+      {
+        throw new IllegalArgumentException( name + " was started as "
+          + journal.getFileType().getText() + ", not " + fileType.getText());
+      }
+      else
+        APILog.info( LOG, "Resuming", name );
+
+      final Map<String,Exception> errors = Collections.synchronizedMap( new LinkedHashMap<>());
+
+      advanceAll( journal, fileType, errors );
+
+      if ( tracker != null )
+        awaitAll( journal, errors );
+
+      return new Result( journal.getParts(), new LinkedHashMap<>( errors ),
+        ( tracker == null ) ? Stage.REGISTERED : Stage.COMPLETE );
+    }
+  }
+
+
+  /**
+   * Write the part files and record them
+   * @param <T> record type
+   * @param journal journal
+   * @param name upload name
+   * @param fileType type
+   * @param records records
+   * @param skuOf sku
+   * @param jsonOf line
+   * @throws IOException
+   */
+  private <T> void generate( final BulkUploadJournal journal, final String name,
+    final BulkUploadFileType fileType, final Supplier<Iterator<T>> records,
+    final Function<T,String> skuOf, final Function<T,? extends JsonValue> jsonOf )
+    throws IOException
+  {
+    final File dir = new File( workDir, name );
+    if ( !dir.isDirectory() && !dir.mkdirs())
+      throw new IOException( "Failed to create " + dir.getPath());
+
+    //..Anything in here is from a run that died before finishing
+    final File[] old = dir.listFiles();
+    if ( old != null )
+    {
+      for ( final File f : old )
+      {
+        if ( f.isFile() && !f.delete())
+          throw new IOException( "Failed to delete " + f.getPath());
+      }
+    }
+
+    APILog.info( LOG, "Generating", name );
+
+    final BulkFileManifest manifest;
+    try ( final ShardedBulkFileGenerator gen = new ShardedBulkFileGenerator.Builder( generator )
+      .setDirectory( dir ).setPrefix( name ).build())
+    {
+      final Iterator<T> it = records.get();
+      while ( it.hasNext())
+      {
+        final T rec = it.next();
+        gen.writeLine( skuOf.apply( rec ), () -> jsonOf.apply( rec ));
+      }
+
+      manifest = gen.finish();
+    }
+
+    journal.generated( manifest, fileType );
+  }
+
+
+  /**
+   * Move every part through registration
+   * @param journal journal
+   * @param fileType type
+   * @param errors errors by part name
+   */
+  private void advanceAll( final BulkUploadJournal journal,
+    final BulkUploadFileType fileType, final Map<String,Exception> errors )
+  {
+    final ExecutorService exec = Executors.newFixedThreadPool( threads );
+    try {
+      final List<CompletableFuture<Void>> work = new ArrayList<>();
+      for ( final PartState p : journal.getParts())
+      {
+        if ( p.isAt( Stage.REGISTERED ))
+          continue;
+
+        work.add( CompletableFuture.runAsync(() -> {
+          try {
+            advance( journal, p, fileType );
+          } catch( APIException | IOException | RuntimeException e ) {
+            APILog.error( LOG, "Failed to upload", p.getPart().toString(), e.getMessage());
+            errors.put( p.getPart().getFile().getName(), e );
+          }
+        }, exec ));
+      }
+
+      CompletableFuture.allOf( work.toArray( new CompletableFuture<?>[0] )).join();
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+
+  /**
+   * Move a single part through registration
+   * @param journal journal
+   * @param p part
+   * @param fileType type
+   * @throws APIException
+   * @throws IOException
+   */
+  private void advance( final BulkUploadJournal journal, final PartState p,
+    final BulkUploadFileType fileType ) throws APIException, IOException
+  {
+    final BulkFileManifest.Part part = p.getPart();
+    final String fileName = part.getFile().getName();
+
+    //..A previous run may have registered the part before dying
+    if ( p.getStage() == Stage.UPLOADED && isRegistered( p.getToken()))
+    {
+      APILog.info( LOG, fileName, "was already registered" );
+      registered( journal, part );
+      return;
+    }
+
+    if ( !p.isAt( Stage.TOKEN ) || isExpired( p ))
+    {
+      if ( !part.getFile().exists())
+      {
+        throw new IOException( part.getFile().getPath() + " no longer exists.  Delete "
+          + journal.getFile().getPath() + " to start over." );
+      }
+
+      journal.token( part, bulkApi.getUploadToken());
+    }
+
+    if ( !p.isAt( Stage.UPLOADED ))
+    {
+      bulkApi.sendAuthorizedFile( p.getToken().getUrl(), part.getFile());
+      journal.uploaded( part );
+    }
+
+    bulkApi.sendPostUploadedFiles( p.getToken().getUrl(), fileName, fileType );
+    registered( journal, part );
+
+    APILog.info( LOG, "Registered", part.toString(), "as", p.getToken().getJetFileId());
+  }
+
+
+  private void registered( final BulkUploadJournal journal,
+    final BulkFileManifest.Part part ) throws IOException
+  {
+    journal.registered( part );
+
+    if ( deleteRegistered && part.getFile().exists() && !part.getFile().delete())
+      part.getFile().deleteOnExit();
+  }
+
+
+  /**
+   * If the token for some part has expired or is about to
+   * @param p part
+   * @return expired
+   */
+  private boolean isExpired( final PartState p )
+  {
+    return System.currentTimeMillis() + tokenMarginMillis >= p.getTokenExpires();
+  }
+
+
+  /**
+   * Check if jet already knows about some upload
+   * @param token token
+   * @return registered
+   */
+  private boolean isRegistered( final BulkUploadAuthRec token )
+  {
+    try {
+      return bulkApi.getJetFileId( token.getJetFileId()).getStatus()
+        != FileIdRec.UploadStatus.UNKNOWN;
+    } catch( APIException | RuntimeException e ) {
+      //..Not found
+      return false;
+    }
+  }
+
+
+  /**
+   * Wait for jet to process every registered part
+   * @param journal journal
+   * @param errors errors by part name
+   */
+  private void awaitAll( final BulkUploadJournal journal,
+    final Map<String,Exception> errors )
+  {
+    final List<CompletableFuture<Void>> work = new ArrayList<>();
+    for ( final PartState p : journal.getParts())
+    {
+      if ( !p.isAt( Stage.REGISTERED ) || p.isAt( Stage.COMPLETE ))
+        continue;
+
+      final String fileName = p.getPart().getFile().getName();
+
+      work.add( tracker.track( p.getToken().getJetFileId())
+        .thenAccept( rec -> {
+          try {
+            journal.complete( p.getPart(), rec );
+          } catch( IOException e ) {
+            throw new CompletionException( e );
+          }
+        })
+        .exceptionally( e -> {
+          final Throwable t = ( e instanceof CompletionException && e.getCause() != null )
+            ? e.getCause() : e;
+          APILog.error( LOG, "Failed waiting for", fileName, t.getMessage());
+          errors.put( fileName, ( t instanceof Exception ) ? (Exception)t
+            : new CompletionException( t ));
+          return null;
+        }));
+    }
+
+    CompletableFuture.allOf( work.toArray( new CompletableFuture<?>[0] )).join();
+  }
+}
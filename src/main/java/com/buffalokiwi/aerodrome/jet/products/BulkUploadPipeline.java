@@ -0,0 +1,511 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import javax.json.JsonValue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Generates and uploads a bulk file at the same time.
+ *
+ * Records are written with a ShardedBulkFileGenerator.  As soon as a part
+ * file has been closed, it is uploaded and registered with Jet on an upload
+ * thread while the next parts are still being written.
+ *
+ * Memory is bounded by the generator queue, and the number of parts waiting
+ * to be uploaded is capped by maxPendingUploads.  When that many parts are
+ * waiting, the generator workers block, which in turn blocks the caller.
+ *
+ * Every part is registered as a separate jet file.  Parts are only closed
+ * when they reach a size cap, so the generator settings must set one.
+ * The default is DEFAULT_MAX_COMPRESSED_BYTES.
+ *
+ * Each call to upload() writes its parts to a new temporary directory
+ * inside the generator directory.  The directory is removed when the run
+ * ends, unless it still holds parts that were not uploaded or
+ * deleteUploaded is off.  If a run fails, its parts are deleted.  The pipeline doesn't modify the generator builder
+ * it was given, so upload() can be called from several threads at once.
+ *
+ * @author John Quinn
+ */
+public class BulkUploadPipeline
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( BulkUploadPipeline.class );
+
+  /**
+   * Default compressed size cap for each part
+   */
+  public static final long DEFAULT_MAX_COMPRESSED_BYTES = 64L * 1024L * 1024L;
+
+
+  /**
+   * Builder
+   */
+  public static class Builder
+  {
+    private IJetAPIBulkProductUpload bulkApi = null;
+    private ShardedBulkFileGenerator.Builder generator
+      = new ShardedBulkFileGenerator.Builder()
+        .setMaxCompressedBytes( DEFAULT_MAX_COMPRESSED_BYTES );
+    private int uploadThreads = 2;
+    private int maxPendingUploads = 4;
+    private boolean deleteUploaded = true;
+
+
+    /**
+     * Set the bulk api
+     * @param api api
+     * @return this
+     */
+    public Builder setBulkApi( final IJetAPIBulkProductUpload api )
+    {
+      Utils.checkNull( api, "api" );
+      bulkApi = api;
+      return this;
+    }
+
+
+    /**
+     * Set the generator settings.
+     * The settings are copied, and later changes to generator have no effect.
+     * Any part listener is called after the part has been queued for upload.
+     * @param generator generator builder
+     * @return this
+     * @throws IllegalArgumentException if generator doesn't set a raw or
+     * compressed part size cap
+     */
+    public Builder setGenerator( final ShardedBulkFileGenerator.Builder generator )
+    {
+      Utils.checkNull( generator, "generator" );
+      if ( !generator.hasPartCap())
+        throw new IllegalArgumentException( "generator must set a maximum raw or compressed part size" );
+
+      this.generator = new ShardedBulkFileGenerator.Builder( generator );
+      return this;
+    }
+
+
+    /**
+     * Set the number of parts uploaded at the same time
+     * @param threads threads
+     * @return this
+     */
+    public Builder setUploadThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      uploadThreads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum number of closed parts that are uploading or waiting
+     * to be uploaded.
+     * @param max max
+     * @return this
+     */
+    public Builder setMaxPendingUploads( final int max )
+    {
+      Utils.checkIntGTZ( max, "max" );
+      maxPendingUploads = max;
+      return this;
+    }
+
+
+    /**
+     * Set if part files are deleted after they have been uploaded
+     * @param delete delete
+     * @return this
+     */
+    public Builder setDeleteUploaded( final boolean delete )
+    {
+      deleteUploaded = delete;
+      return this;
+    }
+
+
+    /**
+     * Build the pipeline
+     * @return pipeline
+     */
+    public BulkUploadPipeline build()
+    {
+      if ( bulkApi == null )
+        throw new IllegalArgumentException( "bulkApi must be set" );
+
+      return new BulkUploadPipeline( this );
+    }
+  } //..End Builder
+
+
+  /**
+   * Upload result for a single part
+   */
+  public static class PartResult
+  {
+    private final BulkFileManifest.Part part;
+    private final BulkUploadAuthRec token;
+    private final Exception error;
+
+
+    private PartResult( final BulkFileManifest.Part part,
+      final BulkUploadAuthRec token, final Exception error )
+    {
+      this.part = part;
+      this.token = token;
+      this.error = error;
+    }
+
+
+    /**
+     * The part
+     * @return part
+     */
+    public BulkFileManifest.Part getPart()
+    {
+      return part;
+    }
+
+
+    /**
+     * The upload token, which contains the jet file id
+     * @return token or null if the upload failed
+     */
+    public BulkUploadAuthRec getToken()
+    {
+      return token;
+    }
+
+
+    /**
+     * Upload error
+     * @return error or null
+     */
+    public Exception getError()
+    {
+      return error;
+    }
+
+
+    /**
+     * If the part was uploaded and registered
+     * @return success
+     */
+    public boolean isSuccess()
+    {
+      return error == null;
+    }
+  }
+
+
+  /**
+   * Pipeline result
+   */
+  public static class Result
+  {
+    private final BulkFileManifest manifest;
+    private final List<PartResult> parts;
+
+
+    private Result( final BulkFileManifest manifest, final List<PartResult> parts )
+    {
+      this.manifest = manifest;
+      this.parts = Collections.unmodifiableList( parts );
+    }
+
+
+    /**
+     * The generated parts
+     * @return manifest
+     */
+    public BulkFileManifest getManifest()
+    {
+      return manifest;
+    }
+
+
+    /**
+     * Upload results in the order the parts were completed
+     * @return results
+     */
+    public List<PartResult> getParts()
+    {
+      return parts;
+    }
+
+
+    /**
+     * If every part was uploaded
+     * @return success
+     */
+    public boolean isSuccess()
+    {
+      for ( final PartResult p : parts )
+      {
+        if ( !p.isSuccess())
+          return false;
+      }
+
+      return true;
+    }
+  }
+
+
+  /**
+   * Bulk api
+   */
+  private final IJetAPIBulkProductUpload bulkApi;
+
+  /**
+   * Generator settings
+   */
+  private final ShardedBulkFileGenerator.Builder generator;
+
+  /**
+   * Upload threads
+   */
+  private final int uploadThreads;
+
+  /**
+   * Max pending uploads
+   */
+  private final int maxPendingUploads;
+
+  /**
+   * Delete uploaded parts
+   */
+  private final boolean deleteUploaded;
+
+
+  private BulkUploadPipeline( final Builder b )
+  {
+    bulkApi = b.bulkApi;
+    generator = b.generator;
+    uploadThreads = b.uploadThreads;
+    maxPendingUploads = b.maxPendingUploads;
+    deleteUploaded = b.deleteUploaded;
+  }
+
+
+  /**
+   * Generate and upload a merchant sku file
+   * @param products products
+   * @return result
+   * @throws IOException if the file can't be written
+   */
+  public Result uploadProducts( final Stream<ProductRec> products ) throws IOException
+  {
+    Utils.checkNull( products, "products" );
+    return upload( products.iterator(), BulkUploadFileType.MERCHANT_SKUS,
+      ProductRec::getMerchantSku, ProductRec::toJSON );
+  }
+
+
+  /**
+   * Generate and upload a bulk file.
+   * The json for each record is created on a generator worker thread.
+   * @param <T> record type
+   * @param records records
+   * @param fileType file type
+   * @param skuOf retrieves the sku for a record
+   * @param jsonOf retrieves the line for a record
+   * @return result
+   * @throws IOException if the file can't be written.  Uploads that haven't
+   * started are cancelled, and running uploads are finished before this is
+   * thrown.  Parts that were already registered with jet are logged.
+   */
+  public <T> Result upload( final Iterator<T> records,
+    final BulkUploadFileType fileType, final Function<T,String> skuOf,
+    final Function<T,? extends JsonValue> jsonOf ) throws IOException
+  {
+    Utils.checkNull( records, "records" );
+    Utils.checkNull( fileType, "fileType" );
+    Utils.checkNull( skuOf, "skuOf" );
+    Utils.checkNull( jsonOf, "jsonOf" );
+
+    //..Each run gets its own directory so runs never share part files
+    final File dir = Files.createTempDirectory(
+      generator.getDirectory().toPath(), "upload-" ).toFile();
+
+    final ExecutorService uploader = Executors.newFixedThreadPool( uploadThreads );
+    final Semaphore pending = new Semaphore( maxPendingUploads );
+    final List<CompletableFuture<PartResult>> uploads
+      = Collections.synchronizedList( new ArrayList<>());
+
+    final BulkFileManifest manifest;
+
+    try {
+      final Consumer<BulkFileManifest.Part> listener = generator.getPartListener();
+      final ShardedBulkFileGenerator gen = new ShardedBulkFileGenerator.Builder( generator )
+        .setDirectory( dir )
+        .setPartListener( part -> {
+          //..Blocks the generator worker until there is room
+          pending.acquireUninterruptibly();
+          final CompletableFuture<PartResult> f = CompletableFuture
+            .supplyAsync(() -> uploadPart( part, fileType ), uploader );
+          f.whenComplete(( r, e ) -> pending.release());
+          uploads.add( f );
+
+          if ( listener != null )
+            listener.accept( part );
+        })
+        .build();
+
+      try {
+        while ( records.hasNext())
+        {
+          final T rec = records.next();
+          gen.writeLine( skuOf.apply( rec ), () -> jsonOf.apply( rec ));
+        }
+      } catch( RuntimeException e ) {
+        //..Stop the workers without losing the original error
+        try {
+          gen.close();
+        } catch( RuntimeException e2 ) {
+          e.addSuppressed( e2 );
+        }
+
+        abandon( uploads, uploader, dir );
+        throw e;
+      }
+
+      try {
+        manifest = gen.finish();
+      } catch( IOException e ) {
+        abandon( uploads, uploader, dir );
+        throw e;
+      }
+
+      final List<PartResult> out = new ArrayList<>();
+      synchronized( uploads )
+      {
+        for ( final CompletableFuture<PartResult> f : uploads )
+        {
+          out.add( f.join());
+        }
+      }
+
+      return new Result( manifest, out );
+    } finally {
+      uploader.shutdown();
+
+      //..Only empty when every part was uploaded and deleted
+      if ( !dir.delete())
+        APILog.debug( LOG, "Keeping", dir.getPath());
+    }
+  }
+
+
+  /**
+   * Cancel the uploads that haven't started, wait for the rest and delete
+   * the run directory.  Parts that were already registered with jet are
+   * logged, since the caller won't get a Result for them.
+   * @param uploads uploads
+   * @param uploader upload executor
+   * @param dir run directory
+   */
+  private void abandon( final List<CompletableFuture<PartResult>> uploads,
+    final ExecutorService uploader, final File dir )
+  {
+    synchronized( uploads )
+    {
+      for ( final CompletableFuture<PartResult> f : uploads )
+      {
+        f.cancel( false );
+      }
+    }
+
+    uploader.shutdown();
+    try {
+      uploader.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    synchronized( uploads )
+    {
+      for ( final CompletableFuture<PartResult> f : uploads )
+      {
+        if ( f.isCancelled())
+          continue;
+
+        final PartResult r = f.join();
+        if ( r.isSuccess() && r.getToken() != null )
+        {
+          APILog.warn( LOG, "Run failed after", r.getPart().toString(),
+            "was registered as", r.getToken().getJetFileId());
+        }
+      }
+    }
+
+    //..The file is incomplete, so none of the parts are any use
+    final File[] files = dir.listFiles();
+    if ( files != null )
+    {
+      for ( final File f : files )
+      {
+        if ( !f.delete())
+          f.deleteOnExit();
+      }
+    }
+  }
+
+
+  /**
+   * Upload and register a single part
+   * @param part part
+   * @param fileType type
+   * @return result
+   */
+  private PartResult uploadPart( final BulkFileManifest.Part part,
+    final BulkUploadFileType fileType )
+  {
+    try {
+      final BulkUploadAuthRec token = bulkApi.uploadFile( part.getFile(), fileType );
+
+      if ( deleteUploaded && !part.getFile().delete())
+        part.getFile().deleteOnExit();
+
+      return new PartResult( part, token, null );
+    } catch( APIException | RuntimeException e ) {
+      APILog.error( LOG, "Failed to upload", part.toString(), e.getMessage());
+      return new PartResult( part, null, e );
+    }
+  }
+}
@@ -0,0 +1,530 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.products.FileIdRec.UploadStatus;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Polls the processing status of uploaded bulk files until Jet has finished
+ * with them.
+ *
+ * Every tracked file id is polled from a single scheduler thread.  Each tick
+ * polls at most maxPollsPerTick files that are due, so the number of
+ * getJetFileId() calls is capped no matter how many files are in flight.
+ *
+ * The delay between polls depends on the last status.  Files that are still
+ * queued on Jet's side start at the queued interval, and files that are
+ * processing start at the (shorter) processing interval.  When a status
+ * doesn't change, the delay grows by the backoff factor up to the max
+ * interval.  A status change resets the delay.
+ *
+ * The future returned by track() completes once the status is
+ * PROCESS_SUCCESS or PROCESSED_WITH_ERRORS.  It completes exceptionally
+ * with an APIException if the file times out or if polling fails too many
+ * times in a row.  A file is always polled once more when its timeout is
+ * reached before it times out.  Cancelling the future stops polling that file.
+ *
+ * @author John Quinn
+ */
+public class BulkUploadStatusTracker implements AutoCloseable
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( BulkUploadStatusTracker.class );
+
+
+  /**
+   * Builder
+   */
+  public static class Builder
+  {
+    private IJetAPIBulkProductUpload bulkApi = null;
+    private long tickMillis = 1000L;
+    private int maxPollsPerTick = 4;
+    private long queuedIntervalMillis = 30000L;
+    private long processingIntervalMillis = 10000L;
+    private long maxIntervalMillis = 5L * 60 * 1000;
+    private double backoff = 1.5;
+    private long timeoutMillis = 6L * 60 * 60 * 1000;
+    private int maxErrors = 5;
+
+
+    /**
+     * Set the bulk api
+     * @param api api
+     * @return this
+     */
+    public Builder setBulkApi( final IJetAPIBulkProductUpload api )
+    {
+      Utils.checkNull( api, "api" );
+      bulkApi = api;
+      return this;
+    }
+
+
+    /**
+     * Set how often the scheduler checks for files that are due
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setTickMillis( final long millis )
+    {
+      checkGTZ( millis, "millis" );
+      tickMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum number of getJetFileId() calls made per tick
+     * @param max max
+     * @return this
+     */
+    public Builder setMaxPollsPerTick( final int max )
+    {
+      Utils.checkIntGTZ( max, "max" );
+      maxPollsPerTick = max;
+      return this;
+    }
+
+
+    /**
+     * Set the initial delay for files that Jet hasn't started processing
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setQueuedIntervalMillis( final long millis )
+    {
+      checkGTZ( millis, "millis" );
+      queuedIntervalMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the initial delay for files that are processing
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setProcessingIntervalMillis( final long millis )
+    {
+      checkGTZ( millis, "millis" );
+      processingIntervalMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the longest delay between polls for a single file
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setMaxIntervalMillis( final long millis )
+    {
+      checkGTZ( millis, "millis" );
+      maxIntervalMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the amount the delay is multiplied by when a status doesn't change
+     * @param backoff factor, 1 or more
+     * @return this
+     */
+    public Builder setBackoff( final double backoff )
+    {
+      if ( backoff < 1 )
+        throw new IllegalArgumentException( "backoff must be greater than or equal to 1" );
+
+      this.backoff = backoff;
+      return this;
+    }
+
+
+    /**
+     * Set how long a file is tracked before giving up
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setTimeoutMillis( final long millis )
+    {
+      checkGTZ( millis, "millis" );
+      timeoutMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the number of consecutive poll failures for a single file
+     * before giving up on it
+     * @param max max
+     * @return this
+     */
+    public Builder setMaxErrors( final int max )
+    {
+      Utils.checkIntGTZ( max, "max" );
+      maxErrors = max;
+      return this;
+    }
+
+
+    /**
+     * Build the tracker.  This starts the scheduler.
+     * @return tracker
+     */
+    public BulkUploadStatusTracker build()
+    {
+      if ( bulkApi == null )
+        throw new IllegalArgumentException( "bulkApi must be set" );
+
+      return new BulkUploadStatusTracker( this );
+    }
+
+
+    private static void checkGTZ( final long value, final String name )
+    {
+      if ( value <= 0 )
+        throw new IllegalArgumentException( name + " must be greater than zero" );
+    }
+  } //..End Builder
+
+
+  /**
+   * A tracked file
+   */
+  private static class Entry
+  {
+    private final String fileId;
+    private final CompletableFuture<FileIdRec> future = new CompletableFuture<>();
+    private final long expires;
+    private UploadStatus status = UploadStatus.UNKNOWN;
+    private long interval = 0;
+    private long nextPoll;
+    private int errors = 0;
+
+
+    private Entry( final String fileId, final long now, final long expires )
+    {
+      this.fileId = fileId;
+      this.nextPoll = now;
+      this.expires = expires;
+    }
+  }
+
+
+  /**
+   * Bulk api
+   */
+  private final IJetAPIBulkProductUpload bulkApi;
+
+  /**
+   * Polls per tick
+   */
+  private final int maxPollsPerTick;
+
+  /**
+   * Initial delay for queued files
+   */
+  private final long queuedIntervalMillis;
+
+  /**
+   * Initial delay for processing files
+   */
+  private final long processingIntervalMillis;
+
+  /**
+   * Max delay
+   */
+  private final long maxIntervalMillis;
+
+  /**
+   * Backoff factor
+   */
+  private final double backoff;
+
+  /**
+   * Per file timeout
+   */
+  private final long timeoutMillis;
+
+  /**
+   * Consecutive errors per file
+   */
+  private final int maxErrors;
+
+  /**
+   * Files ordered by next poll time.  Guarded by this.
+   */
+  private final PriorityQueue<Entry> due = new PriorityQueue<>(
+    ( a, b ) -> Long.compare( a.nextPoll, b.nextPoll ));
+
+  /**
+   * Tracked files by id.  Guarded by this.
+   */
+  private final Map<String,Entry> tracked = new HashMap<>();
+
+  /**
+   * Scheduler
+   */
+  private final ScheduledExecutorService scheduler;
+
+
+  private BulkUploadStatusTracker( final Builder b )
+  {
+    bulkApi = b.bulkApi;
+    maxPollsPerTick = b.maxPollsPerTick;
+    queuedIntervalMillis = b.queuedIntervalMillis;
+    processingIntervalMillis = b.processingIntervalMillis;
+    maxIntervalMillis = b.maxIntervalMillis;
+    backoff = b.backoff;
+    timeoutMillis = b.timeoutMillis;
+    maxErrors = b.maxErrors;
+
+    scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+      final Thread t = new Thread( r, "BulkUploadStatusTracker" );
+      t.setDaemon( true );
+      return t;
+    });
+
+    scheduler.scheduleWithFixedDelay( this::tick, b.tickMillis, b.tickMillis,
+      TimeUnit.MILLISECONDS );
+  }
+
+
+  /**
+   * Start tracking some jet file id.
+   * Tracking the same id more than once returns the same future.
+   * @param fileId jet file id
+   * @return A future that completes with the final file status
+   */
+  public synchronized CompletableFuture<FileIdRec> track( final String fileId )
+  {
+    Utils.checkNullEmpty( fileId, "fileId" );
+
+    if ( scheduler.isShutdown())
+      throw new IllegalStateException( "Tracker has been closed" );
+
+    final Entry existing = tracked.get( fileId );
+    if ( existing != null )
+      return existing.future;
+
+    final long now = System.currentTimeMillis();
+    final Entry e = new Entry( fileId, now, now + timeoutMillis );
+    tracked.put( fileId, e );
+    due.add( e );
+
+    //..Drop the file if the caller gives up on it
+    e.future.whenComplete(( r, t ) -> {
+      if ( e.future.isCancelled())
+        remove( e );
+    });
+
+    return e.future;
+  }
+
+
+  /**
+   * Track the file id of some upload token
+   * @param token upload token
+   * @return A future that completes with the final file status
+   */
+  public CompletableFuture<FileIdRec> track( final BulkUploadAuthRec token )
+  {
+    Utils.checkNull( token, "token" );
+    return track( token.getJetFileId());
+  }
+
+
+  /**
+   * Retrieve the number of files that have not completed
+   * @return count
+   */
+  public synchronized int getTrackedCount()
+  {
+    return tracked.size();
+  }
+
+
+  /**
+   * Stop polling.
+   * Any file that has not completed is completed exceptionally.
+   */
+  @Override
+  public void close()
+  {
+    scheduler.shutdown();
+    try {
+      scheduler.awaitTermination( 1, TimeUnit.MINUTES );
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+
+    final List<Entry> left;
+    synchronized( this )
+    {
+      left = new ArrayList<>( tracked.values());
+      tracked.clear();
+      due.clear();
+    }
+
+    for ( final Entry e : left )
+    {
+      e.future.completeExceptionally(
+        new APIException( "Tracker closed before " + e.fileId + " completed" ));
+    }
+  }
+
+
+  /**
+   * Poll the files that are due.  Exceptions must not escape or the
+   * schedule is cancelled.
+   */
+  private void tick()
+  {
+    try {
+      final long now = System.currentTimeMillis();
+
+      for ( final Entry e : takeDue( now ))
+      {
+        poll( e, now );
+      }
+    } catch( RuntimeException e ) {
+      APILog.error( LOG, e, "Status poll failed" );
+    }
+  }
+
+
+  /**
+   * Remove up to maxPollsPerTick files that are due
+   * @param now current time
+   * @return files to poll
+   */
+  private synchronized List<Entry> takeDue( final long now )
+  {
+    final List<Entry> out = new ArrayList<>();
+    while ( out.size() < maxPollsPerTick && !due.isEmpty()
+      && due.peek().nextPoll <= now )
+    {
+      out.add( due.poll());
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Poll a single file and either complete it or schedule the next poll
+   * @param e file
+   * @param now current time
+   */
+  private void poll( final Entry e, final long now )
+  {
+    if ( e.future.isDone())
+      return;
+
+    try {
+      final FileIdRec rec = bulkApi.getJetFileId( e.fileId );
+      e.errors = 0;
+
+      final UploadStatus status = rec.getStatus();
+      if ( status == UploadStatus.PROCESS_SUCCESS
+        || status == UploadStatus.PROCESSED_WITH_ERRORS )
+      {
+        remove( e );
+        e.future.complete( rec );
+        return;
+      }
+
+      if ( status != e.status || e.interval == 0 )
+      {
+        //..Status changed, start over with the interval for that status
+        e.status = status;
+        e.interval = ( status == UploadStatus.PROCESSING )
+          ? processingIntervalMillis : queuedIntervalMillis;
+      }
+      else
+        e.interval = nextInterval( e.interval );
+    } catch( APIException | RuntimeException ex ) {
+      if ( ++e.errors >= maxErrors )
+      {
+        remove( e );
+        e.future.completeExceptionally( ex );
+        return;
+      }
+
+      APILog.warn( LOG, "Failed to poll", e.fileId, ex.getMessage());
+      e.interval = nextInterval( Math.max( e.interval, queuedIntervalMillis ));
+    }
+
+    //..The last poll is made when the timeout is reached
+    if ( now >= e.expires )
+    {
+      remove( e );
+      e.future.completeExceptionally( new APIException( "Timed out waiting for "
+        + e.fileId + " to be processed.  Last status: " + e.status.getText()));
+      return;
+    }
+
+    reschedule( e, Math.min( now + e.interval, e.expires ));
+  }
+
+
+  /**
+   * Grow some interval by the backoff factor
+   * @param interval interval
+   * @return next interval
+   */
+  private long nextInterval( final long interval )
+  {
+    return Math.min( maxIntervalMillis, (long)( interval * backoff ));
+  }
+
+
+  private synchronized void reschedule( final Entry e, final long when )
+  {
+    //..It may have been cancelled while the poll was running
+    if ( tracked.get( e.fileId ) != e )
+      return;
+
+    e.nextPoll = when;
+    due.add( e );
+  }
+
+
+  private synchronized void remove( final Entry e )
+  {
+    if ( tracked.get( e.fileId ) == e )
+      tracked.remove( e.fileId );
+
+    due.remove( e );
+  }
+}
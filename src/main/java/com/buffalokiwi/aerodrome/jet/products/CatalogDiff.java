@@ -0,0 +1,423 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.products.ProductDiff.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Compares two full catalog snapshots keyed by merchant sku.
+ *
+ * The sku keys are split into ranges and each range is compared with
+ * ProductDiff on a ForkJoinPool.  Every sku that was added, removed or
+ * modified is passed to a consumer as soon as it has been compared, so
+ * nothing is held in memory other than the two snapshots.
+ *
+ * The consumer is called from pool threads and must be thread safe.
+ * The snapshot maps are only read, so a HashMap is fine as long as it isn't
+ * modified while a diff is running.
+ *
+ * @author John Quinn
+ */
+public class CatalogDiff
+{
+  /**
+   * Default number of skus compared by a single task
+   */
+  public static final int DEFAULT_THRESHOLD = 1000;
+
+  /**
+   * What happened to some sku
+   */
+  public static enum Status
+  {
+    /**
+     * The sku only exists in the modified snapshot
+     */
+    ADDED,
+
+    /**
+     * The sku exists in both snapshots and something changed
+     */
+    MODIFIED,
+
+    /**
+     * The sku only exists in the original snapshot
+     */
+    REMOVED
+  }
+
+
+  /**
+   * A single changed sku
+   */
+  public static class Entry
+  {
+    private final String sku;
+    private final Status status;
+    private final ProductRec original;
+    private final ProductRec modified;
+    private final ProductDiff diff;
+    private final List<Type> sections;
+
+
+    private Entry( final String sku, final Status status,
+      final ProductRec original, final ProductRec modified,
+      final ProductDiff diff, final List<Type> sections )
+    {
+      this.sku = sku;
+      this.status = status;
+      this.original = original;
+      this.modified = modified;
+      this.diff = diff;
+      this.sections = Collections.unmodifiableList( sections );
+    }
+
+
+    /**
+     * Merchant sku
+     * @return sku
+     */
+    public String getSku()
+    {
+      return sku;
+    }
+
+
+    /**
+     * What happened to the sku
+     * @return status
+     */
+    public Status getStatus()
+    {
+      return status;
+    }
+
+
+    /**
+     * The original product
+     * @return product or null when added
+     */
+    public ProductRec getOriginal()
+    {
+      return original;
+    }
+
+
+    /**
+     * The modified product
+     * @return product or null when removed
+     */
+    public ProductRec getModified()
+    {
+      return modified;
+    }
+
+
+    /**
+     * The diff
+     * @return diff or null unless modified
+     */
+    public ProductDiff getDiff()
+    {
+      return diff;
+    }
+
+
+    /**
+     * The sections that need to be sent.
+     * Added skus include every section addProduct() sends, and removed
+     * skus have no sections.
+     * @return sections
+     */
+    public List<Type> getSections()
+    {
+      return sections;
+    }
+  }
+
+
+  /**
+   * Changed skus grouped by section
+   */
+  public static class ChangeSets
+  {
+    private final Map<Type,List<Entry>> sections;
+    private final List<Entry> removed;
+
+
+    private ChangeSets( final Map<Type,List<Entry>> sections,
+      final List<Entry> removed )
+    {
+      this.sections = sections;
+      this.removed = removed;
+    }
+
+
+    /**
+     * Retrieve the skus that need some section sent
+     * @param type section
+     * @return entries
+     */
+    public List<Entry> getSection( final Type type )
+    {
+      Utils.checkNull( type, "type" );
+      return Collections.unmodifiableList( sections.get( type ));
+    }
+
+
+    /**
+     * Retrieve the skus that only exist in the original snapshot
+     * @return entries
+     */
+    public List<Entry> getRemoved()
+    {
+      return Collections.unmodifiableList( removed );
+    }
+  }
+
+
+  /**
+   * Pool
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * Number of skus compared by a single task before splitting
+   */
+  private final int threshold;
+
+
+  /**
+   * Create a new CatalogDiff using the common pool
+   */
+  public CatalogDiff()
+  {
+    this( ForkJoinPool.commonPool(), DEFAULT_THRESHOLD );
+  }
+
+
+  /**
+   * Create a new CatalogDiff
+   * @param pool pool to run on
+   * @param threshold number of skus compared by a single task
+   */
+  public CatalogDiff( final ForkJoinPool pool, final int threshold )
+  {
+    Utils.checkNull( pool, "pool" );
+    Utils.checkIntGTZ( threshold, "threshold" );
+
+    this.pool = pool;
+    this.threshold = threshold;
+  }
+
+
+  /**
+   * Index some stream of products by merchant sku.
+   * If a sku appears more than once, the last one wins.
+   * @param products products
+   * @return products by sku
+   */
+  public static Map<String,ProductRec> index( final Stream<ProductRec> products )
+  {
+    Utils.checkNull( products, "products" );
+
+    if ( products.isParallel())
+    {
+      return products.collect( Collectors.toConcurrentMap(
+        ProductRec::getMerchantSku, p -> p, ( a, b ) -> b ));
+    }
+
+    return products.collect( Collectors.toMap(
+      ProductRec::getMerchantSku, p -> p, ( a, b ) -> b ));
+  }
+
+
+  /**
+   * Compare two streams of products.
+   * Both streams are indexed by sku first.
+   * @param original original products
+   * @param modified modified products
+   * @param consumer receives each changed sku
+   */
+  public void diff( final Stream<ProductRec> original,
+    final Stream<ProductRec> modified, final Consumer<Entry> consumer )
+  {
+    diff( index( original ), index( modified ), consumer );
+  }
+
+
+  /**
+   * Compare two catalog snapshots.
+   * This blocks until every sku has been compared.
+   * @param original original products by sku
+   * @param modified modified products by sku
+   * @param consumer receives each changed sku.  Called from pool threads.
+   */
+  public void diff( final Map<String,ProductRec> original,
+    final Map<String,ProductRec> modified, final Consumer<Entry> consumer )
+  {
+    Utils.checkNull( original, "original" );
+    Utils.checkNull( modified, "modified" );
+    Utils.checkNull( consumer, "consumer" );
+
+    //..Every modified key, followed by keys that were removed
+    final List<String> keys = new ArrayList<>( modified.size() + 16 );
+    keys.addAll( modified.keySet());
+    for ( final String k : original.keySet())
+    {
+      if ( !modified.containsKey( k ))
+        keys.add( k );
+    }
+
+    final String[] arr = keys.toArray( new String[keys.size()] );
+    pool.invoke( new DiffTask( arr, 0, arr.length, original, modified, consumer ));
+  }
+
+
+  /**
+   * Compare two catalog snapshots and group the changed skus by section.
+   * @param original original products by sku
+   * @param modified modified products by sku
+   * @return change sets
+   */
+  public ChangeSets getChangeSets( final Map<String,ProductRec> original,
+    final Map<String,ProductRec> modified )
+  {
+    final Map<Type,ConcurrentLinkedQueue<Entry>> sets = new EnumMap<>( Type.class );
+    for ( final Type t : Type.values())
+    {
+      sets.put( t, new ConcurrentLinkedQueue<>());
+    }
+
+    final ConcurrentLinkedQueue<Entry> removed = new ConcurrentLinkedQueue<>();
+
+    diff( original, modified, e -> {
+      if ( e.getStatus() == Status.REMOVED )
+        removed.add( e );
+
+      for ( final Type t : e.getSections())
+      {
+        sets.get( t ).add( e );
+      }
+    });
+
+    final Map<Type,List<Entry>> out = new EnumMap<>( Type.class );
+    for ( final Map.Entry<Type,ConcurrentLinkedQueue<Entry>> s : sets.entrySet())
+    {
+      out.put( s.getKey(), new ArrayList<>( s.getValue()));
+    }
+
+    return new ChangeSets( out, new ArrayList<>( removed ));
+  }
+
+
+  /**
+   * Compare a single sku
+   * @param sku sku
+   * @param o original or null
+   * @param m modified or null
+   * @return entry or null if nothing changed
+   */
+  private static Entry compare( final String sku, final ProductRec o,
+    final ProductRec m )
+  {
+    if ( o == null )
+    {
+      final List<Type> sections = new ArrayList<>();
+      sections.add( Type.SKU );
+      sections.add( Type.PRICE );
+      sections.add( Type.INVENTORY );
+      sections.add( Type.SHIP_EXCEPTION );
+      sections.add( Type.RETURN_EXCEPTION );
+      if ( m.getVariations() != null && m.getVariations().hasMoreThanASku())
+        sections.add( Type.VARIATION );
+
+      return new Entry( sku, Status.ADDED, null, m, null, sections );
+    }
+    else if ( m == null )
+      return new Entry( sku, Status.REMOVED, o, null, null, new ArrayList<>());
+
+    final ProductDiff diff = new ProductDiff( o, m );
+    if ( diff.getResult().isEmpty())
+      return null;
+
+    return new Entry( sku, Status.MODIFIED, o, m, diff,
+      new CatalogSync.Change( diff, m ).getSections());
+  }
+
+
+  /**
+   * Compares some range of skus
+   */
+  private class DiffTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final String[] keys;
+    private final int lo;
+    private final int hi;
+    private final Map<String,ProductRec> original;
+    private final Map<String,ProductRec> modified;
+    private final Consumer<Entry> consumer;
+
+
+    private DiffTask( final String[] keys, final int lo, final int hi,
+      final Map<String,ProductRec> original,
+      final Map<String,ProductRec> modified, final Consumer<Entry> consumer )
+    {
+      this.keys = keys;
+      this.lo = lo;
+      this.hi = hi;
+      this.original = original;
+      this.modified = modified;
+      this.consumer = consumer;
+    }
+
+
+    @Override
+    protected void compute()
+    {
+      if ( hi - lo <= threshold )
+      {
+        for ( int i = lo; i < hi; i++ )
+        {
+          final Entry e = compare( keys[i], original.get( keys[i] ), modified.get( keys[i] ));
+          if ( e != null )
+            consumer.accept( e );
+        }
+      }
+      else
+      {
+        final int mid = ( lo + hi ) >>> 1;
+        invokeAll(
+          new DiffTask( keys, lo, mid, original, modified, consumer ),
+          new DiffTask( keys, mid, hi, original, modified, consumer ));
+      }
+    }
+  }
+}
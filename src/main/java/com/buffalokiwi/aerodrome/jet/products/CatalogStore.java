@@ -0,0 +1,882 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.JetDate;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APILog;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.UnaryOperator;
+import java.util.zip.CRC32;
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonBuilderFactory;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * A local mirror of the last state of each product that Jet accepted.
+ *
+ * Products are stored in an append-only log file.  An in-memory index maps
+ * each merchant sku to the position of its latest record, so get() is a
+ * single positional read.  Writing a sku again appends a new record and
+ * leaves the old one as dead space.  Once dead space passes the compaction
+ * ratio, the live records are copied into a new file, which then replaces
+ * the log.
+ *
+ * Each record is framed as:
+ *   int length, int crc32, byte op, short sku length, sku, payload
+ *
+ * When the log is opened, records are read until the end of the file or
+ * until a record is short or fails its checksum.  Anything after that point
+ * is from an interrupted write and is truncated.
+ *
+ * The payload is a json snapshot of the sku, price, inventory, shipping
+ * exception, returns exception and variation data.  Sku data is stored with
+ * ProductRec.toJSON(), so anything that method leaves out is not mirrored.
+ *
+ * This is safe to use from multiple threads.  Reads run concurrently, and
+ * writes and compaction are exclusive.
+ *
+ * @author John Quinn
+ */
+public class CatalogStore implements AutoCloseable
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( CatalogStore.class );
+
+  /**
+   * File header
+   */
+  private static final byte[] MAGIC = "AEROCAT1".getBytes( StandardCharsets.US_ASCII );
+
+  /**
+   * Put record
+   */
+  private static final byte OP_PUT = 1;
+
+  /**
+   * Remove record
+   */
+  private static final byte OP_REMOVE = 2;
+
+  /**
+   * Length and crc
+   */
+  private static final int FRAME_HEADER = 8;
+
+  /**
+   * Snapshot builders
+   */
+  private static final JsonBuilderFactory JSON = Json.createBuilderFactory( null );
+
+
+  /**
+   * Builder
+   */
+  public static class Builder
+  {
+    private File file = null;
+    private double compactRatio = 0.5;
+    private long minCompactBytes = 16L * 1024 * 1024;
+    private boolean syncWrites = false;
+
+
+    /**
+     * Set the log file
+     * @param file file
+     * @return this
+     */
+    public Builder setFile( final File file )
+    {
+      Utils.checkNull( file, "file" );
+      this.file = file;
+      return this;
+    }
+
+
+    /**
+     * Set the fraction of the log that can be dead space before it is
+     * compacted
+     * @param ratio between 0 and 1
+     * @return this
+     */
+    public Builder setCompactRatio( final double ratio )
+    {
+      if ( ratio <= 0 || ratio >= 1 )
+        throw new IllegalArgumentException( "ratio must be between 0 and 1" );
+
+      compactRatio = ratio;
+      return this;
+    }
+
+
+    /**
+     * Set the smallest log that will be compacted automatically
+     * @param bytes bytes
+     * @return this
+     */
+    public Builder setMinCompactBytes( final long bytes )
+    {
+      if ( bytes < 0 )
+        throw new IllegalArgumentException( "bytes must be greater than or equal to zero" );
+
+      minCompactBytes = bytes;
+      return this;
+    }
+
+
+    /**
+     * Set if every write is synced to disk before it returns.
+     * When this is false, call flush() to sync.
+     * @param sync sync
+     * @return this
+     */
+    public Builder setSyncWrites( final boolean sync )
+    {
+      syncWrites = sync;
+      return this;
+    }
+
+
+    /**
+     * Open the store
+     * @return store
+     * @throws IOException if the log can't be read or created
+     */
+    public CatalogStore build() throws IOException
+    {
+      if ( file == null )
+        throw new IllegalArgumentException( "file must be set" );
+
+      return new CatalogStore( this );
+    }
+  } //..End Builder
+
+
+  /**
+   * Where a record lives in the log
+   */
+  private static class Loc
+  {
+    private final long pos;
+    private final int len;
+
+    private Loc( final long pos, final int len )
+    {
+      this.pos = pos;
+      this.len = len;
+    }
+  }
+
+
+  /**
+   * Log file
+   */
+  private final File file;
+
+  /**
+   * Compaction ratio
+   */
+  private final double compactRatio;
+
+  /**
+   * Minimum log size for automatic compaction
+   */
+  private final long minCompactBytes;
+
+  /**
+   * Sync every write
+   */
+  private final boolean syncWrites;
+
+  /**
+   * Latest record for each sku
+   */
+  private final Map<String,Loc> index = new HashMap<>();
+
+  /**
+   * Guards the index and channel
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /**
+   * Log channel
+   */
+  private FileChannel channel;
+
+  /**
+   * End of the log
+   */
+  private long end;
+
+  /**
+   * Bytes used by live records
+   */
+  private long liveBytes;
+
+
+  private CatalogStore( final Builder b ) throws IOException
+  {
+    file = b.file;
+    compactRatio = b.compactRatio;
+    minCompactBytes = b.minCompactBytes;
+    syncWrites = b.syncWrites;
+
+    open();
+  }
+
+
+  /**
+   * Retrieve the last stored state of some product
+   * @param merchantSku sku
+   * @return product or null if the sku is not stored
+   */
+  public ProductRec get( final String merchantSku )
+  {
+    Utils.checkNullEmpty( merchantSku, "merchantSku" );
+
+    lock.readLock().lock();
+    try {
+      final Loc loc = index.get( merchantSku );
+      if ( loc == null )
+        return null;
+
+      return decode( readPayload( loc ));
+    } catch( IOException e ) {
+      throw new UncheckedIOException( "Failed to read " + merchantSku + " from " + file.getPath(), e );
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * If some sku is stored
+   * @param merchantSku sku
+   * @return contains
+   */
+  public boolean contains( final String merchantSku )
+  {
+    lock.readLock().lock();
+    try {
+      return index.containsKey( merchantSku );
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve the number of stored skus
+   * @return size
+   */
+  public int size()
+  {
+    lock.readLock().lock();
+    try {
+      return index.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve a copy of every stored sku
+   * @return skus
+   */
+  public Set<String> getSkus()
+  {
+    lock.readLock().lock();
+    try {
+      return new java.util.HashSet<>( index.keySet());
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Store the state of some product
+   * @param product product
+   * @throws IOException
+   */
+  public void put( final ProductRec product ) throws IOException
+  {
+    Utils.checkNull( product, "product" );
+    putAll( java.util.Collections.singletonList( product ));
+  }
+
+
+  /**
+   * Store the state of several products with a single write
+   * @param products products
+   * @throws IOException
+   */
+  public void putAll( final Collection<ProductRec> products ) throws IOException
+  {
+    Utils.checkNull( products, "products" );
+    if ( products.isEmpty())
+      return;
+
+    //..Encoding happens outside of the lock
+    final List<String> skus = new ArrayList<>( products.size());
+    final List<byte[]> records = new ArrayList<>( products.size());
+    for ( final ProductRec p : products )
+    {
+      Utils.checkNullEmpty( p.getMerchantSku(), "merchantSku" );
+      skus.add( p.getMerchantSku());
+      records.add( frame( OP_PUT, p.getMerchantSku(),
+        encode( p ).toString().getBytes( StandardCharsets.UTF_8 )));
+    }
+
+    lock.writeLock().lock();
+    try {
+      append( skus, records );
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    maybeCompact();
+  }
+
+
+  /**
+   * Replace the stored state of some sku with the result of a function.
+   * Nothing is written if the sku is not stored or the function returns
+   * null.
+   * @param merchantSku sku
+   * @param update update function
+   * @return If anything was written
+   * @throws IOException
+   */
+  public boolean update( final String merchantSku,
+    final UnaryOperator<ProductRec> update ) throws IOException
+  {
+    Utils.checkNullEmpty( merchantSku, "merchantSku" );
+    Utils.checkNull( update, "update" );
+
+    lock.writeLock().lock();
+    try {
+      final Loc loc = index.get( merchantSku );
+      if ( loc == null )
+        return false;
+
+      final ProductRec p = update.apply( decode( readPayload( loc )));
+      if ( p == null )
+        return false;
+      else if ( !merchantSku.equals( p.getMerchantSku()))
+        throw new IllegalArgumentException( "update can't change the merchant sku" );
+
+      append( java.util.Collections.singletonList( merchantSku ),
+        java.util.Collections.singletonList( frame( OP_PUT, merchantSku,
+          encode( p ).toString().getBytes( StandardCharsets.UTF_8 ))));
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    maybeCompact();
+    return true;
+  }
+
+
+  /**
+   * Remove some sku
+   * @param merchantSku sku
+   * @return if it was stored
+   * @throws IOException
+   */
+  public boolean remove( final String merchantSku ) throws IOException
+  {
+    Utils.checkNullEmpty( merchantSku, "merchantSku" );
+
+    lock.writeLock().lock();
+    try {
+      if ( !index.containsKey( merchantSku ))
+        return false;
+
+      append( java.util.Collections.singletonList( merchantSku ),
+        java.util.Collections.singletonList( frame( OP_REMOVE, merchantSku, new byte[0] )));
+    } finally {
+      lock.writeLock().unlock();
+    }
+
+    maybeCompact();
+    return true;
+  }
+
+
+  /**
+   * Sync any writes to disk
+   * @throws IOException
+   */
+  public void flush() throws IOException
+  {
+    lock.writeLock().lock();
+    try {
+      channel.force( false );
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Copy every live record into a new log and replace the old one
+   * @throws IOException
+   */
+  public void compact() throws IOException
+  {
+    lock.writeLock().lock();
+    try {
+      final File tmp = new File( file.getPath() + ".compact" );
+      final Map<String,Loc> newIndex = new HashMap<>( index.size() * 2 );
+
+      try ( final FileChannel out = FileChannel.open( tmp.toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING ))
+      {
+        long pos = writeFully( out, ByteBuffer.wrap( MAGIC ), 0 );
+
+        for ( final Map.Entry<String,Loc> e : index.entrySet())
+        {
+          final Loc loc = e.getValue();
+          final ByteBuffer b = ByteBuffer.allocate( loc.len );
+          readFully( b, loc.pos );
+          b.flip();
+
+          newIndex.put( e.getKey(), new Loc( pos, loc.len ));
+          pos = writeFully( out, b, pos );
+        }
+
+        out.force( true );
+      }
+
+      channel.close();
+      Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE );
+
+      channel = FileChannel.open( file.toPath(), StandardOpenOption.READ,
+        StandardOpenOption.WRITE );
+
+      final long before = end;
+      index.clear();
+      index.putAll( newIndex );
+      end = channel.size();
+      liveBytes = end - MAGIC.length;
+
+      APILog.info( LOG, "Compacted", file.getPath(), "from", String.valueOf( before ),
+        "to", String.valueOf( end ), "bytes" );
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Sync and close the log
+   * @throws IOException
+   */
+  @Override
+  public void close() throws IOException
+  {
+    lock.writeLock().lock();
+    try {
+      if ( channel.isOpen())
+      {
+        channel.force( true );
+        channel.close();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Open the log and build the index
+   * @throws IOException
+   */
+  private void open() throws IOException
+  {
+    channel = FileChannel.open( file.toPath(), StandardOpenOption.CREATE,
+      StandardOpenOption.READ, StandardOpenOption.WRITE );
+
+    if ( channel.size() == 0 )
+    {
+      writeFully( channel, ByteBuffer.wrap( MAGIC ), 0 );
+      channel.force( true );
+      end = MAGIC.length;
+      return;
+    }
+
+    final ByteBuffer magic = ByteBuffer.allocate( MAGIC.length );
+    if ( channel.read( magic, 0 ) != MAGIC.length
+      || !java.util.Arrays.equals( magic.array(), MAGIC ))
+    {
+      channel.close();
+      throw new IOException( file.getPath() + " is not a catalog store" );
+    }
+
+    final long size = channel.size();
+    final ByteBuffer head = ByteBuffer.allocate( FRAME_HEADER );
+    final CRC32 crc = new CRC32();
+    long pos = MAGIC.length;
+
+    while ( pos + FRAME_HEADER <= size )
+    {
+      head.clear();
+      readFully( head, pos );
+      head.flip();
+      final int len = head.getInt();
+      final int sum = head.getInt();
+
+      if ( len < 3 || pos + FRAME_HEADER + len > size )
+        break;
+
+      final ByteBuffer body = ByteBuffer.allocate( len );
+      readFully( body, pos + FRAME_HEADER );
+
+      crc.reset();
+      crc.update( body.array(), 0, len );
+      if ((int)crc.getValue() != sum )
+        break;
+
+      body.flip();
+      final byte op = body.get();
+      final byte[] sku = new byte[body.getShort() & 0xFFFF];
+      body.get( sku );
+
+      index( new String( sku, StandardCharsets.UTF_8 ), op,
+        new Loc( pos, FRAME_HEADER + len ));
+
+      pos += FRAME_HEADER + len;
+    }
+
+    if ( pos < size )
+    {
+      APILog.warn( LOG, "Truncating", String.valueOf( size - pos ),
+        "bytes from an interrupted write at the end of", file.getPath());
+      channel.truncate( pos );
+      channel.force( true );
+    }
+
+    end = pos;
+
+    APILog.info( LOG, "Opened", file.getPath(), "with", String.valueOf( index.size()), "skus" );
+  }
+
+
+  /**
+   * Apply a record to the index
+   * @param sku sku
+   * @param op operation
+   * @param loc record location
+   */
+  private void index( final String sku, final byte op, final Loc loc )
+  {
+    final Loc old = ( op == OP_PUT ) ? index.put( sku, loc ) : index.remove( sku );
+    if ( old != null )
+      liveBytes -= old.len;
+
+    if ( op == OP_PUT )
+      liveBytes += loc.len;
+  }
+
+
+  /**
+   * Append records to the end of the log and index them.
+   * The write lock must be held.
+   * @param skus skus
+   * @param records framed records
+   * @throws IOException
+   */
+  private void append( final List<String> skus, final List<byte[]> records ) throws IOException
+  {
+    int total = 0;
+    for ( final byte[] r : records )
+    {
+      total += r.length;
+    }
+
+    final ByteBuffer b = ByteBuffer.allocate( total );
+    for ( final byte[] r : records )
+    {
+      b.put( r );
+    }
+
+    b.flip();
+
+    final long start = end;
+    try {
+      writeFully( channel, b, start );
+      if ( syncWrites )
+        channel.force( false );
+    } catch( IOException e ) {
+      //..Don't leave a partial record in front of the next write
+      channel.truncate( start );
+      throw e;
+    }
+
+    long pos = start;
+    for ( int i = 0; i < records.size(); i++ )
+    {
+      final byte[] r = records.get( i );
+      index( skus.get( i ), r[FRAME_HEADER], new Loc( pos, r.length ));
+      pos += r.length;
+    }
+
+    end = pos;
+  }
+
+
+  /**
+   * Compact if there is enough dead space
+   * @throws IOException
+   */
+  private void maybeCompact() throws IOException
+  {
+    final boolean compact;
+    lock.readLock().lock();
+    try {
+      final long dead = end - MAGIC.length - liveBytes;
+      compact = end >= minCompactBytes && dead > end * compactRatio;
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    if ( compact )
+      compact();
+  }
+
+
+  /**
+   * Read the payload of a record
+   * @param loc record
+   * @return payload json
+   * @throws IOException
+   */
+  private JsonObject readPayload( final Loc loc ) throws IOException
+  {
+    final ByteBuffer b = ByteBuffer.allocate( loc.len );
+    readFully( b, loc.pos );
+
+    final byte[] a = b.array();
+    final int skuLen = (( a[FRAME_HEADER + 1] & 0xFF ) << 8 ) | ( a[FRAME_HEADER + 2] & 0xFF );
+    final int start = FRAME_HEADER + 3 + skuLen;
+
+    try ( final JsonReader r = Json.createReader( new StringReader(
+      new String( a, start, loc.len - start, StandardCharsets.UTF_8 ))))
+    {
+      return r.readObject();
+    }
+  }
+
+
+  private void readFully( final ByteBuffer b, final long pos ) throws IOException
+  {
+    long p = pos;
+    while ( b.hasRemaining())
+    {
+      final int n = channel.read( b, p );
+      if ( n < 0 )
+        throw new IOException( "Unexpected end of " + file.getPath());
+
+      p += n;
+    }
+  }
+
+
+  private static long writeFully( final FileChannel ch, final ByteBuffer b,
+    final long pos ) throws IOException
+  {
+    long p = pos;
+    while ( b.hasRemaining())
+    {
+      p += ch.write( b, p );
+    }
+
+    return p;
+  }
+
+
+  /**
+   * Frame a record
+   * @param op operation
+   * @param sku sku
+   * @param payload payload
+   * @return record bytes
+   */
+  private static byte[] frame( final byte op, final String sku, final byte[] payload )
+  {
+    final byte[] s = sku.getBytes( StandardCharsets.UTF_8 );
+    if ( s.length > 0xFFFF )
+      throw new IllegalArgumentException( "sku is too long" );
+
+    final int len = 3 + s.length + payload.length;
+    final ByteBuffer b = ByteBuffer.allocate( FRAME_HEADER + len );
+    b.putInt( len );
+    b.putInt( 0 );
+    b.put( op );
+    b.putShort((short)s.length );
+    b.put( s );
+    b.put( payload );
+
+    final CRC32 crc = new CRC32();
+    crc.update( b.array(), FRAME_HEADER, len );
+    b.putInt( 4, (int)crc.getValue());
+
+    return b.array();
+  }
+
+
+  /**
+   * Create a json snapshot of a product
+   * @param p product
+   * @return snapshot
+   */
+  static JsonObject encode( final ProductRec p )
+  {
+    final JsonObjectBuilder o = JSON.createObjectBuilder()
+      .add( "merchant_sku", p.getMerchantSku())
+      .add( "sku", p.toJSON())
+      .add( "price", p.toPriceJson());
+
+    final JsonArrayBuilder inv = JSON.createArrayBuilder();
+    for ( final FNodeInventoryRec n : p.getfNodeInventory())
+    {
+      inv.add( n.toJSON());
+    }
+
+    final JsonArrayBuilder ship = JSON.createArrayBuilder();
+    for ( final FNodeShippingRec n : p.getShippingExceptionNodes())
+    {
+      ship.add( n.toJSON());
+    }
+
+    final JsonArrayBuilder returns = JSON.createArrayBuilder();
+    for ( final ReturnsExceptionRec r : p.getReturnsExceptions())
+    {
+      final JsonArrayBuilder ids = JSON.createArrayBuilder();
+      for ( final String id : r.getReturnLocationIds())
+      {
+        ids.add( id );
+      }
+
+      returns.add( ids );
+    }
+
+    //..fromJSON() defaults a missing fulfillment time to 1, and toJSON()
+    //..leaves out zero and the start selling date.
+    o.add( "fulfillment_time", p.getFulfillmentTime())
+      .add( "start_selling_date", p.getStartSellingDate().getLocalDate()
+        .format( DateTimeFormatter.ISO_OFFSET_DATE_TIME ))
+      .add( "inventory", inv ).add( "shipping_exceptions", ship )
+      .add( "returns_exceptions", returns );
+
+    if ( p.getVariations() != null )
+      o.add( "variations", p.getVariations().toJSON());
+
+    return o.build();
+  }
+
+
+  /**
+   * Restore a product from a snapshot
+   * @param json snapshot
+   * @return product
+   */
+  static ProductRec decode( final JsonObject json )
+  {
+    final String sku = json.getString( "merchant_sku" );
+
+    final JsonObjectBuilder skuJson = JSON.createObjectBuilder();
+    for ( final Map.Entry<String,JsonValue> e : json.getJsonObject( "sku" ).entrySet())
+    {
+      skuJson.add( e.getKey(), e.getValue());
+    }
+
+    skuJson.add( "merchant_sku", sku );
+
+    final ProductRec.Builder b = ProductRec.fromJSON( skuJson.build()).toBuilder();
+
+    final ProductPriceRec price = ProductPriceRec.fromJSON( json.getJsonObject( "price" ));
+    b.setPrice( price.getPrice());
+    b.setfNodePrices( price.getFulfillmentNodes());
+
+    final List<FNodeInventoryRec> inv = new ArrayList<>();
+    final JsonArray ia = json.getJsonArray( "inventory" );
+    for ( int i = 0; i < ia.size(); i++ )
+    {
+      inv.add( FNodeInventoryRec.fromJSON( ia.getJsonObject( i )));
+    }
+
+    b.setfNodeInventory( inv );
+
+    final List<FNodeShippingRec> ship = new ArrayList<>();
+    final JsonArray sa = json.getJsonArray( "shipping_exceptions" );
+    for ( int i = 0; i < sa.size(); i++ )
+    {
+      ship.add( FNodeShippingRec.fromJSON( sa.getJsonObject( i )));
+    }
+
+    b.setShippingExceptionNodes( ship );
+
+    b.getReturnsExceptions().clear();
+    final JsonArray ra = json.getJsonArray( "returns_exceptions" );
+    for ( int i = 0; i < ra.size(); i++ )
+    {
+      b.getReturnsExceptions().add( new ReturnsExceptionRec(
+        Utils.jsonArrayToStringList( ra.getJsonArray( i ))));
+    }
+
+    b.setFulfillmentTime( json.getInt( "fulfillment_time" ));
+    b.setStartSellingDate( new JetDate( ZonedDateTime.parse(
+      json.getString( "start_selling_date" ), DateTimeFormatter.ISO_OFFSET_DATE_TIME )));
+
+    final JsonObject v = json.getJsonObject( "variations" );
+    if ( v != null )
+      b.setVariations( ProductVariationGroupRec.fromJSON( sku, v ));
+
+    return b.build();
+  }
+}
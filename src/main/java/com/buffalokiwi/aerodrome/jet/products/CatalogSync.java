@@ -0,0 +1,984 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.JetException;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.products.ProductDiff.Type;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Sends a batch of product changes to Jet using either the per-sku endpoints
+ * or bulk upload files, whichever is cheaper.
+ *
+ * Each ProductDiff section (sku, price, inventory, etc) is considered
+ * separately.  For every section, the cost of sending one request per sku
+ * is compared against the cost of generating a bulk file and uploading it.
+ * Small batches go out immediately per sku, and large batches are sent as a
+ * single bulk file.
+ *
+ * The cost model is simple:
+ *
+ * Per sku: one request per sku.  Each request takes at least requestMillis,
+ * and requests can't be sent faster than requestsPerSecond.
+ *
+ * Bulk: three requests (token, upload, register) plus bulkOverheadMillis
+ * for Jet to pick up and process the file, plus bulkMillisPerSku.
+ *
+ * If the total number of per sku requests exceeds the request budget, the
+ * largest per sku sections are moved to bulk until the budget is met.
+ *
+ * The other sections only apply to skus jet already knows about.  Jet
+ * processes a bulk sku file some time after it is registered, and doesn't
+ * promise to process separately registered files in upload order.  So the
+ * sku section is only sent in bulk when a BulkUploadStatusTracker is set,
+ * and sync() waits for jet to finish with the sku file before sending
+ * anything else.  Without a tracker, the sku section is always sent per sku.
+ * A sku that fails in one section is skipped by every section after it.
+ *
+ * When the sku section changes, everything is resent just like
+ * JetAPIProduct.addProduct( original, modified ).
+ *
+ * @author John Quinn
+ */
+public class CatalogSync
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( CatalogSync.class );
+
+  /**
+   * Number of requests required to send a bulk file.
+   * upload token, upload file, register file
+   */
+  private static final int BULK_REQUESTS = 3;
+
+  /**
+   * How some section is sent
+   */
+  public static enum Route
+  {
+    /**
+     * One request per sku
+     */
+    PER_SKU,
+
+    /**
+     * A bulk upload file
+     */
+    BULK
+  }
+
+
+  /**
+   * Builder
+   */
+  public static class Builder
+  {
+    private IJetAPIProduct productApi = null;
+    private IJetAPIBulkProductUpload bulkApi = null;
+    private long requestMillis = 250L;
+    private int requestsPerSecond = 10;
+    private int requestBudget = 5000;
+    private long bulkOverheadMillis = 600000L;
+    private long bulkMillisPerSku = 5L;
+    private File workDir = new File( System.getProperty( "java.io.tmpdir" ));
+    private BulkUploadStatusTracker tracker = null;
+
+
+    /**
+     * Set the product api used for per sku requests
+     * @param api api
+     * @return this
+     */
+    public Builder setProductApi( final IJetAPIProduct api )
+    {
+      Utils.checkNull( api, "api" );
+      productApi = api;
+      return this;
+    }
+
+
+    /**
+     * Set the bulk upload api used for bulk files
+     * @param api api
+     * @return this
+     */
+    public Builder setBulkApi( final IJetAPIBulkProductUpload api )
+    {
+      Utils.checkNull( api, "api" );
+      bulkApi = api;
+      return this;
+    }
+
+
+    /**
+     * Set the average round trip time of a single per sku request.
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setRequestMillis( final long millis )
+    {
+      if ( millis < 1 )
+        throw new IllegalArgumentException( "millis must be greater than zero" );
+
+      requestMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum number of requests per second Jet will accept before
+     * returning 429.
+     * @param rps requests per second
+     * @return this
+     */
+    public Builder setRequestsPerSecond( final int rps )
+    {
+      Utils.checkIntGTZ( rps, "rps" );
+      requestsPerSecond = rps;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum number of per sku requests a single sync may make.
+     * @param budget request budget
+     * @return this
+     */
+    public Builder setRequestBudget( final int budget )
+    {
+      Utils.checkIntGTZ( budget, "budget" );
+      requestBudget = budget;
+      return this;
+    }
+
+
+    /**
+     * Set the fixed time it takes Jet to pick up and process a bulk file.
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setBulkOverheadMillis( final long millis )
+    {
+      if ( millis < 0 )
+        throw new IllegalArgumentException( "millis must be greater than or equal to zero" );
+
+      bulkOverheadMillis = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the time it takes Jet to process a single sku in a bulk file
+     * @param millis milliseconds
+     * @return this
+     */
+    public Builder setBulkMillisPerSku( final long millis )
+    {
+      if ( millis < 0 )
+        throw new IllegalArgumentException( "millis must be greater than or equal to zero" );
+
+      bulkMillisPerSku = millis;
+      return this;
+    }
+
+
+    /**
+     * Set the directory used to write bulk files
+     * @param dir directory
+     * @return this
+     */
+    public Builder setWorkDir( final File dir )
+    {
+      Utils.checkNull( dir, "dir" );
+      if ( !dir.isDirectory() || !dir.canWrite())
+        throw new IllegalArgumentException( "Can't write to " + dir.getPath());
+
+      workDir = dir;
+      return this;
+    }
+
+
+    /**
+     * Set the tracker used to wait for jet to process a bulk sku file.
+     * When this is not set, the sku section is never sent in bulk.
+     * @param tracker tracker
+     * @return this
+     */
+    public Builder setTracker( final BulkUploadStatusTracker tracker )
+    {
+      Utils.checkNull( tracker, "tracker" );
+      this.tracker = tracker;
+      return this;
+    }
+
+
+    /**
+     * Build the sync instance
+     * @return sync
+     */
+    public CatalogSync build()
+    {
+      if ( productApi == null )
+        throw new IllegalArgumentException( "productApi must be set" );
+      else if ( bulkApi == null )
+        throw new IllegalArgumentException( "bulkApi must be set" );
+
+      return new CatalogSync( this );
+    }
+  } //..End Builder
+
+
+  /**
+   * Some change to a product
+   */
+  public static class Change
+  {
+    /**
+     * Diff
+     */
+    private final ProductDiff diff;
+
+    /**
+     * The product to send
+     */
+    private final ProductRec product;
+
+
+    /**
+     * Create a new change by diffing original and modified
+     * @param original original product
+     * @param modified modified product
+     */
+    public Change( final ProductRec original, final ProductRec modified )
+    {
+      this( new ProductDiff( original, modified ), modified );
+    }
+
+
+    /**
+     * Create a new change from an existing diff
+     * @param diff diff of some product
+     * @param modified the modified product used to create the diff
+     */
+    public Change( final ProductDiff diff, final ProductRec modified )
+    {
+      Utils.checkNull( diff, "diff" );
+      Utils.checkNull( modified, "modified" );
+
+      this.diff = diff;
+      this.product = modified;
+    }
+
+
+    /**
+     * Retrieve the product to send
+     * @return product
+     */
+    public ProductRec getProduct()
+    {
+      return product;
+    }
+
+
+    /**
+     * Retrieve the diff
+     * @return diff
+     */
+    public ProductDiff getDiff()
+    {
+      return diff;
+    }
+
+
+    /**
+     * Retrieve the sections that need to be sent.
+     * If the sku changed, then everything addProduct() sends is included.
+     * @return sections
+     */
+    public List<Type> getSections()
+    {
+      final List<Type> out = new ArrayList<>();
+      if ( diff.shouldUpdateAll() || diff.shouldUpdateSku())
+      {
+        out.add( Type.SKU );
+        out.add( Type.PRICE );
+        out.add( Type.INVENTORY );
+        out.add( Type.SHIP_EXCEPTION );
+        out.add( Type.RETURN_EXCEPTION );
+        if ( diff.shouldUpdateVariations())
+          out.add( Type.VARIATION );
+
+        return out;
+      }
+
+      if ( diff.shouldUpdatePrice())
+        out.add( Type.PRICE );
+
+      if ( diff.shouldUpdateInventory())
+        out.add( Type.INVENTORY );
+
+      if ( diff.shouldUpdateShippingExceptions())
+        out.add( Type.SHIP_EXCEPTION );
+
+      if ( diff.shouldUpdateReturnsExceptions())
+        out.add( Type.RETURN_EXCEPTION );
+
+      if ( diff.shouldUpdateVariations())
+        out.add( Type.VARIATION );
+
+      return out;
+    }
+  }
+
+
+  /**
+   * Cost estimate for sending a single section
+   */
+  public static class Estimate
+  {
+    private final Type type;
+    private final int skuCount;
+    private final long perSkuMillis;
+    private final long bulkMillis;
+    private final Route route;
+
+
+    private Estimate( final Type type, final int skuCount,
+      final long perSkuMillis, final long bulkMillis, final Route route )
+    {
+      this.type = type;
+      this.skuCount = skuCount;
+      this.perSkuMillis = perSkuMillis;
+      this.bulkMillis = bulkMillis;
+      this.route = route;
+    }
+
+
+    /**
+     * Section
+     * @return type
+     */
+    public Type getType()
+    {
+      return type;
+    }
+
+
+    /**
+     * Number of skus in this section
+     * @return count
+     */
+    public int getSkuCount()
+    {
+      return skuCount;
+    }
+
+
+    /**
+     * Number of requests needed to send this section per sku
+     * @return request count
+     */
+    public int getPerSkuRequests()
+    {
+      return skuCount;
+    }
+
+
+    /**
+     * Estimated time to send this section per sku
+     * @return milliseconds
+     */
+    public long getPerSkuMillis()
+    {
+      return perSkuMillis;
+    }
+
+
+    /**
+     * Number of requests needed to send this section as a bulk file
+     * @return request count
+     */
+    public int getBulkRequests()
+    {
+      return BULK_REQUESTS;
+    }
+
+
+    /**
+     * Estimated time until a bulk file for this section is live
+     * @return milliseconds
+     */
+    public long getBulkMillis()
+    {
+      return bulkMillis;
+    }
+
+
+    /**
+     * The chosen route
+     * @return route
+     */
+    public Route getRoute()
+    {
+      return route;
+    }
+
+
+    /**
+     * Number of requests the chosen route will use
+     * @return request count
+     */
+    public int getRequests()
+    {
+      return ( route == Route.BULK ) ? BULK_REQUESTS : skuCount;
+    }
+
+
+    private Estimate toBulk()
+    {
+      return new Estimate( type, skuCount, perSkuMillis, bulkMillis, Route.BULK );
+    }
+
+
+    @Override
+    public String toString()
+    {
+      return type + ": " + skuCount + " skus via " + route
+        + " (per sku " + perSkuMillis + "ms, bulk " + bulkMillis + "ms)";
+    }
+  }
+
+
+  /**
+   * Result of some sync
+   */
+  public static class Result
+  {
+    private final Map<Type,Estimate> plan;
+    private final Map<Type,BulkUploadAuthRec> uploads;
+    private final Map<String,Exception> failures;
+
+
+    private Result( final Map<Type,Estimate> plan,
+      final Map<Type,BulkUploadAuthRec> uploads,
+      final Map<String,Exception> failures )
+    {
+      this.plan = Collections.unmodifiableMap( plan );
+      this.uploads = Collections.unmodifiableMap( uploads );
+      this.failures = Collections.unmodifiableMap( failures );
+    }
+
+
+    /**
+     * The estimates used for each section
+     * @return plan
+     */
+    public Map<Type,Estimate> getPlan()
+    {
+      return plan;
+    }
+
+
+    /**
+     * Upload tokens for each section sent as a bulk file.
+     * The jet file id can be used to check the processing status.
+     * @return uploads
+     */
+    public Map<Type,BulkUploadAuthRec> getUploads()
+    {
+      return uploads;
+    }
+
+
+    /**
+     * Skus that failed validation or failed to send per sku.
+     * @return failures by sku
+     */
+    public Map<String,Exception> getFailures()
+    {
+      return failures;
+    }
+
+
+    /**
+     * If every sku was sent
+     * @return success
+     */
+    public boolean isSuccess()
+    {
+      return failures.isEmpty();
+    }
+  }
+
+
+  /**
+   * Product api
+   */
+  private final IJetAPIProduct productApi;
+
+  /**
+   * Bulk api
+   */
+  private final IJetAPIBulkProductUpload bulkApi;
+
+  /**
+   * Per sku request time
+   */
+  private final long requestMillis;
+
+  /**
+   * Rate limit
+   */
+  private final int requestsPerSecond;
+
+  /**
+   * Max per sku requests
+   */
+  private final int requestBudget;
+
+  /**
+   * Bulk processing overhead
+   */
+  private final long bulkOverheadMillis;
+
+  /**
+   * Bulk time per sku
+   */
+  private final long bulkMillisPerSku;
+
+  /**
+   * Where to write bulk files
+   */
+  private final File workDir;
+
+  /**
+   * Waits for bulk sku files or null
+   */
+  private final BulkUploadStatusTracker tracker;
+
+
+  private CatalogSync( final Builder b )
+  {
+    productApi = b.productApi;
+    bulkApi = b.bulkApi;
+    requestMillis = b.requestMillis;
+    requestsPerSecond = b.requestsPerSecond;
+    requestBudget = b.requestBudget;
+    bulkOverheadMillis = b.bulkOverheadMillis;
+    bulkMillisPerSku = b.bulkMillisPerSku;
+    workDir = b.workDir;
+    tracker = b.tracker;
+  }
+
+
+  /**
+   * Estimate the cost of sending some changes and pick a route for each
+   * section.  Nothing is sent.
+   * @param changes changes
+   * @return the plan
+   */
+  public Map<Type,Estimate> estimate( final List<Change> changes )
+  {
+    Utils.checkNull( changes, "changes" );
+    return plan( group( changes ));
+  }
+
+
+  /**
+   * Send some changes to Jet.
+   * Each modified product is validated first, and any product that fails
+   * validation is not sent.
+   * Per sku failures are recorded in the result and the remaining skus are
+   * still sent.  If a bulk upload fails, every sku in that section is
+   * recorded as a failure.  Later sections are not sent for a sku that
+   * already failed.
+   * When the sku section is sent in bulk, this blocks until jet has
+   * processed it.  If the file times out, every sku in it is recorded as a
+   * failure.
+   * @param changes changes
+   * @return result
+   * @throws IOException if a bulk file can't be written, or if the thread is
+   * interrupted while waiting for the sku file
+   */
+  public Result sync( final List<Change> changes ) throws IOException
+  {
+    Utils.checkNull( changes, "changes" );
+
+    final Map<String,Exception> failures = new LinkedHashMap<>();
+    final List<Change> valid = new ArrayList<>();
+
+    for ( final Change c : changes )
+    {
+      try {
+        c.getProduct().validate();
+        valid.add( c );
+      } catch( ValidateException e ) {
+        APILog.error( LOG, c.getProduct().getMerchantSku(), "failed validation", e.getMessage());
+        failures.put( c.getProduct().getMerchantSku(), e );
+      }
+    }
+
+    final Map<Type,List<ProductRec>> sections = group( valid );
+    final Map<Type,Estimate> plan = plan( sections );
+    final Map<Type,BulkUploadAuthRec> uploads = new EnumMap<>( Type.class );
+
+    //..Enum order sends the sku section first, so skus that fail there are
+    //  known before their other sections go out.
+    for ( final Map.Entry<Type,Estimate> entry : plan.entrySet())
+    {
+      final Type type = entry.getKey();
+      final List<ProductRec> products = new ArrayList<>();
+      for ( final ProductRec p : sections.get( type ))
+      {
+        if ( !failures.containsKey( p.getMerchantSku()))
+          products.add( p );
+      }
+
+      APILog.info( LOG, entry.getValue().toString());
+
+      if ( products.isEmpty())
+        continue;
+
+      if ( entry.getValue().getRoute() == Route.BULK )
+      {
+        try {
+          final BulkUploadAuthRec token = sendBulk( type, products );
+          uploads.put( type, token );
+
+          //..Nothing else can be sent until jet knows about the skus
+          if ( type == Type.SKU )
+            awaitSkuFile( token );
+        } catch( APIException e ) {
+          APILog.error( LOG, "Failed to send", type, "bulk file", e.getMessage());
+          for ( final ProductRec p : products )
+          {
+            failures.put( p.getMerchantSku(), e );
+          }
+        }
+      }
+      else
+      {
+        for ( final ProductRec p : products )
+        {
+          try {
+            sendPerSku( type, p );
+          } catch( APIException e ) {
+            APILog.error( LOG, "Failed to send", type, "for", p.getMerchantSku(), e.getMessage());
+            failures.put( p.getMerchantSku(), e );
+          }
+        }
+      }
+    }
+
+    return new Result( plan, uploads, failures );
+  }
+
+
+  /**
+   * Wait for jet to finish processing a bulk sku file
+   * @param token upload token
+   * @throws APIException if the file timed out or couldn't be polled
+   * @throws IOException if interrupted
+   */
+  private void awaitSkuFile( final BulkUploadAuthRec token )
+    throws APIException, IOException
+  {
+    APILog.info( LOG, "Waiting for jet to process sku file", token.getJetFileId());
+
+    try {
+      final FileIdRec status = tracker.track( token ).get();
+      APILog.info( LOG, "Sku file", token.getJetFileId(), status.getStatus().getText());
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IOException( "Interrupted while waiting for sku file " + token.getJetFileId(), e );
+    } catch( ExecutionException e ) {
+      if ( e.getCause() instanceof APIException )
+        throw (APIException)e.getCause();
+
+      throw new APIException( "Failed to wait for sku file " + token.getJetFileId(), e );
+    }
+  }
+
+
+  /**
+   * Group the products by section
+   * @param changes changes
+   * @return products by section
+   */
+  private Map<Type,List<ProductRec>> group( final List<Change> changes )
+  {
+    final Map<Type,List<ProductRec>> out = new EnumMap<>( Type.class );
+    for ( final Change c : changes )
+    {
+      for ( final Type t : c.getSections())
+      {
+        List<ProductRec> list = out.get( t );
+        if ( list == null )
+        {
+          list = new ArrayList<>();
+          out.put( t, list );
+        }
+
+        list.add( c.getProduct());
+      }
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Pick a route for each section
+   * @param sections products by section
+   * @return plan
+   */
+  private Map<Type,Estimate> plan( final Map<Type,List<ProductRec>> sections )
+  {
+    final Map<Type,Estimate> out = new EnumMap<>( Type.class );
+
+    //..Time per request is bound by either latency or the rate limit
+    final long perRequest = Math.max( requestMillis, 1000L / requestsPerSecond );
+
+    int total = 0;
+    for ( final Map.Entry<Type,List<ProductRec>> entry : sections.entrySet())
+    {
+      final int n = entry.getValue().size();
+      final long perSku = perRequest * n;
+      final long bulk = bulkOverheadMillis + ( bulkMillisPerSku * n );
+
+      final Estimate e = new Estimate( entry.getKey(), n, perSku, bulk,
+        ( perSku > bulk && canBulk( entry.getKey())) ? Route.BULK : Route.PER_SKU );
+
+      out.put( entry.getKey(), e );
+      total += e.getRequests();
+    }
+
+    //..Move the largest sections to bulk until the budget is met
+    while ( total > requestBudget )
+    {
+      Estimate largest = null;
+      for ( final Estimate e : out.values())
+      {
+        if ( e.getRoute() == Route.PER_SKU && canBulk( e.getType())
+          && ( largest == null || e.getSkuCount() > largest.getSkuCount()))
+        {
+          largest = e;
+        }
+      }
+
+      if ( largest == null )
+        break;
+
+      total -= largest.getRequests();
+      final Estimate bulk = largest.toBulk();
+      total += bulk.getRequests();
+      out.put( largest.getType(), bulk );
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Test if some section may be sent in bulk.
+   * The sku section needs a tracker, since everything else has to wait for
+   * jet to process the file.
+   * @param type section
+   * @return can bulk
+   */
+  private boolean canBulk( final Type type )
+  {
+    return type != Type.SKU || tracker != null;
+  }
+
+
+  /**
+   * Send a single section for a single product
+   * @param type section
+   * @param p product
+   * @throws APIException
+   * @throws JetException
+   */
+  private void sendPerSku( final Type type, final ProductRec p )
+    throws APIException, JetException
+  {
+    switch( type )
+    {
+      case SKU:
+        productApi.sendPutProductSku( p );
+      break;
+
+      case PRICE:
+        productApi.sendPutProductPrice( p );
+      break;
+
+      case INVENTORY:
+        productApi.sendPutProductInventory( p );
+      break;
+
+      case SHIP_EXCEPTION:
+        productApi.sendPutProductShippingExceptions( p.getMerchantSku(), p.getShippingExceptionNodes());
+      break;
+
+      case RETURN_EXCEPTION:
+        productApi.sendPutReturnsException( p.getMerchantSku(), p.getAllReturnLocationIds());
+      break;
+
+      case VARIATION:
+        productApi.sendPutProductVariation( p.getVariations());
+      break;
+    }
+  }
+
+
+  /**
+   * Write a bulk file for some section, upload it and register it with jet.
+   * The file is deleted after it has been sent.
+   * @param type section
+   * @param products products
+   * @return the upload token, which contains the jet file id
+   * @throws IOException if the file can't be written
+   * @throws APIException
+   * @throws JetException
+   */
+  private BulkUploadAuthRec sendBulk( final Type type,
+    final List<ProductRec> products ) throws IOException, APIException, JetException
+  {
+    final BulkUploadFileType fileType = getFileType( type );
+    final File file = File.createTempFile(
+      "catalogsync-" + fileType.getText() + "-", ".json.gz", workDir );
+
+    try {
+      writeBulkFile( type, products, file );
+
+      final BulkUploadAuthRec token = bulkApi.uploadFile( file, fileType );
+
+      APILog.info( LOG, "Sent", products.size(), "skus as", fileType.getText());
+
+      return token;
+    } finally {
+      if ( !file.delete())
+        file.deleteOnExit();
+    }
+  }
+
+
+  /**
+   * Write a bulk file.
+   * Each line contains the same body the per sku endpoint would receive.
+   * @param type section
+   * @param products products
+   * @param file output file
+   * @throws IOException
+   */
+  private void writeBulkFile( final Type type, final List<ProductRec> products,
+    final File file ) throws IOException
+  {
+    if ( type == Type.VARIATION )
+    {
+      final BulkVariationFileGenerator gen = new BulkVariationFileGenerator( file );
+      try {
+        for ( final ProductRec p : products )
+        {
+          gen.writeLine( p.getVariations());
+        }
+      } finally {
+        gen.close();
+      }
+
+      return;
+    }
+
+    final BulkUploadFileGenerator gen = new BulkUploadFileGenerator( file );
+    try {
+      for ( final ProductRec p : products )
+      {
+        final String sku = p.getMerchantSku();
+        switch( type )
+        {
+          case SKU:
+            gen.writeLine( sku, p.toJSON());
+          break;
+
+          case PRICE:
+            gen.writeLine( sku, p.toPriceJson());
+          break;
+
+          case INVENTORY:
+            gen.writeLine( sku, p.toInventoryJson());
+          break;
+
+          case SHIP_EXCEPTION:
+            gen.writeLine( sku, Json.createObjectBuilder()
+              .add( "fulfillment_nodes", Utils.jsonableToArray( p.getShippingExceptionNodes()))
+              .build());
+          break;
+
+          case RETURN_EXCEPTION:
+            final JsonArrayBuilder b = Json.createArrayBuilder();
+            for ( final String s : p.getAllReturnLocationIds())
+            {
+              b.add( s );
+            }
+
+            gen.writeLine( sku, Json.createObjectBuilder()
+              .add( "return_location_ids", b.build()).build());
+          break;
+        }
+      }
+    } finally {
+      gen.close();
+    }
+  }
+
+
+  /**
+   * Map some diff section to the bulk file type
+   * @param type section
+   * @return file type
+   */
+  private static BulkUploadFileType getFileType( final Type type )
+  {
+    switch( type )
+    {
+      case SKU: return BulkUploadFileType.MERCHANT_SKUS;
+      case PRICE: return BulkUploadFileType.PRICE;
+      case INVENTORY: return BulkUploadFileType.INVENTORY;
+      case VARIATION: return BulkUploadFileType.VARIATION;
+      case SHIP_EXCEPTION: return BulkUploadFileType.SHIPPING_EXCEPTION;
+      case RETURN_EXCEPTION: return BulkUploadFileType.RETURNS_EXCEPTION;
+      default:
+        throw new IllegalArgumentException( "Unsupported type " + type );
+    }
+  }
+}
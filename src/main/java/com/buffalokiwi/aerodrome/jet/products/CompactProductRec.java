@@ -0,0 +1,785 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.IJetDate;
+import com.buffalokiwi.aerodrome.jet.JetDate;
+import com.buffalokiwi.aerodrome.jet.ProductStatus;
+import com.buffalokiwi.aerodrome.jet.ProductSubStatus;
+import com.buffalokiwi.aerodrome.jet.ProductTaxCode;
+import com.buffalokiwi.aerodrome.jet.ShippingMethod;
+import com.buffalokiwi.aerodrome.jet.ShippingServiceLevel;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.codec.FieldReader;
+import com.buffalokiwi.aerodrome.jet.codec.FieldWriter;
+import com.buffalokiwi.utils.Money;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A compact, immutable copy of a ProductRec for holding large working sets
+ * in memory.
+ *
+ * Everything except the merchant sku is packed into a single byte array of
+ * tagged fields (see FieldWriter).  Fields that still have their builder
+ * default are left out.  Numbers are varints, money is stored as cents, and
+ * brands, categories, node ids, units, enum names and similar repeating
+ * strings are stored as ids from a shared StringDictionary.  A typical
+ * product costs two objects plus its encoded size, instead of the hundred or
+ * so objects behind a ProductRec.
+ *
+ * Every CompactProductRec must be decoded with the dictionary it was
+ * encoded with.
+ *
+ * toProduct() restores every field that ProductRec exposes.  The one
+ * exception is a start selling date that was never set.  ProductRec reports
+ * it as "now", so it comes back as the time the record was compacted.
+ *
+ * @author John Quinn
+ */
+public class CompactProductRec
+{
+  private static final int ID = 1;
+  private static final int TITLE = 2;
+  private static final int BROWSE_NODE_ID = 3;
+  private static final int AZ_ITEM_TYPE_KEYWORD = 4;
+  private static final int CATEGORY_PATH = 5;
+  private static final int PRODUCT_CODE = 6;
+  private static final int ASIN = 7;
+  private static final int MULTIPACK_QUANTITY = 8;
+  private static final int BRAND = 9;
+  private static final int MANUFACTURER = 10;
+  private static final int MFR_PART_NUMBER = 11;
+  private static final int PRODUCT_DESCRIPTION = 12;
+  private static final int BULLET = 13;
+  private static final int NUMBER_UNITS_FOR_PRICE_PER_UNIT = 14;
+  private static final int TYPE_OF_UNIT_FOR_PRICE_PER_UNIT = 15;
+  private static final int SHIPPING_WEIGHT_POUNDS = 16;
+  private static final int PACKAGE_LENGTH_INCHES = 17;
+  private static final int PACKAGE_WIDTH_INCHES = 18;
+  private static final int PACKAGE_HEIGHT_INCHES = 19;
+  private static final int DISPLAY_LENGTH_INCHES = 20;
+  private static final int DISPLAY_WIDTH_INCHES = 21;
+  private static final int DISPLAY_HEIGHT_INCHES = 22;
+  private static final int FULFILLMENT_TIME = 23;
+  private static final int PROP_65 = 24;
+  private static final int LEGAL_DISCLAIMER_DESCRIPTION = 25;
+  private static final int CPSIA_STATEMENT = 26;
+  private static final int COUNTRY_OF_ORIGIN = 27;
+  private static final int SAFETY_WARNING = 28;
+  private static final int START_SELLING_DATE = 29;
+  private static final int MSRP = 30;
+  private static final int PRICE = 31;
+  private static final int FNODE_PRICE = 32;
+  private static final int FNODE_INVENTORY = 33;
+  private static final int JET_RETAIL_SKU = 34;
+  private static final int MAP_PRICE = 35;
+  private static final int MAP_IMPLEMENTATION = 36;
+  private static final int PRODUCT_TAX_CODE = 37;
+  private static final int NO_RETURN_FEE_ADJ = 38;
+  private static final int SHIPS_ALONE = 39;
+  private static final int EXCLUDE_FROM_FEE_ADJUSTMENTS = 40;
+  private static final int ATTRIBUTE_NODE_SPECIFIC = 41;
+  private static final int ALTERNATE_IMAGE = 42;
+  private static final int MAIN_IMAGE_URL = 43;
+  private static final int SWATCH_IMAGE_URL = 44;
+  private static final int SHIPPING_EXCEPTION_NODE = 45;
+  private static final int CORRELATION_ID = 46;
+  private static final int MERCHANT_SKU_ID = 47;
+  private static final int PRODUCER_ID = 48;
+  private static final int STATUS = 49;
+  private static final int SUB_STATUS = 50;
+  private static final int SKU_LAST_UPDATE = 51;
+  private static final int INVENTORY_LAST_UPDATE = 52;
+  private static final int PRICE_LAST_UPDATE = 53;
+  private static final int VARIATIONS = 54;
+  private static final int RETURNS_EXCEPTION = 55;
+  private static final int PARENT_SKU = 56;
+  private static final int IS_ARCHIVED = 57;
+
+  /**
+   * Default numberUnitsForPricePerUnit
+   */
+  private static final BigDecimal ONE = new BigDecimal( 1 );
+
+  /**
+   * Default for the other decimals
+   */
+  private static final BigDecimal ZERO = new BigDecimal( 0 );
+
+  /**
+   * Default money amount
+   */
+  private static final BigDecimal NO_MONEY = new Money().asBigDecimal();
+
+
+  /**
+   * Merchant sku
+   */
+  private final String merchantSku;
+
+  /**
+   * Every other field
+   */
+  private final byte[] data;
+
+
+  /**
+   * Compact a product
+   * @param product product
+   * @param dict shared dictionary
+   * @return compact product
+   */
+  public static CompactProductRec fromProduct( final ProductRec product,
+    final StringDictionary dict )
+  {
+    Utils.checkNull( product, "product" );
+    Utils.checkNull( dict, "dict" );
+
+    return new CompactProductRec( product.getMerchantSku(),
+      encode( product, dict, new FieldWriter( 256 )).toByteArray());
+  }
+
+
+  /**
+   * Create an instance from previously encoded data
+   * @param merchantSku sku
+   * @param data data from getData()
+   */
+  public CompactProductRec( final String merchantSku, final byte[] data )
+  {
+    Utils.checkNull( merchantSku, "merchantSku" );
+    Utils.checkNull( data, "data" );
+
+    this.merchantSku = merchantSku;
+    this.data = data;
+  }
+
+
+  /**
+   * Retrieve the merchant sku
+   * @return sku
+   */
+  public String getMerchantSku()
+  {
+    return merchantSku;
+  }
+
+
+  /**
+   * Retrieve the encoded fields.  Do not modify the returned array.
+   * @return data
+   */
+  public byte[] getData()
+  {
+    return data;
+  }
+
+
+  /**
+   * Retrieve the size of the encoded fields
+   * @return bytes
+   */
+  public int getEncodedSize()
+  {
+    return data.length;
+  }
+
+
+  /**
+   * Restore the full product
+   * @param dict the dictionary used to create this
+   * @return product
+   */
+  public ProductRec toProduct( final StringDictionary dict )
+  {
+    Utils.checkNull( dict, "dict" );
+
+    final ProductRec.Builder b = new ProductRec.Builder().setMerchantSku( merchantSku );
+    decode( new FieldReader( data ), dict, b );
+    return b.build();
+  }
+
+
+  /**
+   * Write every non-default field of a product
+   * @param p product
+   * @param dict dictionary
+   * @param w writer
+   * @return w
+   */
+  static FieldWriter encode( final ProductRec p, final StringDictionary dict,
+    final FieldWriter w )
+  {
+    if ( p.getId() != 0 )
+      w.writeLong( ID, p.getId());
+
+    str( w, TITLE, p.getTitle());
+
+    if ( p.getBrowseNodeId() != 0 )
+      w.writeLong( BROWSE_NODE_ID, p.getBrowseNodeId());
+
+    dict( w, dict, AZ_ITEM_TYPE_KEYWORD, p.getAzItemTypeKeyword());
+    dict( w, dict, CATEGORY_PATH, p.getCategoryPath());
+
+    for ( final ProductCodeRec c : p.getProductCodes())
+    {
+      final FieldWriter m = new FieldWriter( 32 );
+      m.writeString( 1, c.getProductCode());
+      dict( m, dict, 2, c.getProductCodeType().name());
+      w.writeMessage( PRODUCT_CODE, m );
+    }
+
+    str( w, ASIN, p.getAsin());
+
+    if ( p.getMultipackQuantity() != 1 )
+      w.writeLong( MULTIPACK_QUANTITY, p.getMultipackQuantity());
+
+    dict( w, dict, BRAND, p.getBrand());
+    dict( w, dict, MANUFACTURER, p.getManufacturer());
+    str( w, MFR_PART_NUMBER, p.getMfrPartNumber());
+    str( w, PRODUCT_DESCRIPTION, p.getProductDescription());
+
+    for ( final String s : p.getBullets())
+    {
+      w.writeString( BULLET, s );
+    }
+
+    decimal( w, NUMBER_UNITS_FOR_PRICE_PER_UNIT, p.getNumberUnitsForPricePerUnit(), ONE );
+    if ( p.getTypeOfUnitForPricePerUnit() != null
+      && !p.getTypeOfUnitForPricePerUnit().equals( "each" ))
+    {
+      w.writeLong( TYPE_OF_UNIT_FOR_PRICE_PER_UNIT, dict.intern( p.getTypeOfUnitForPricePerUnit()));
+    }
+
+    decimal( w, SHIPPING_WEIGHT_POUNDS, p.getShippingWeightPounds(), ZERO );
+    decimal( w, PACKAGE_LENGTH_INCHES, p.getPackageLengthInches(), ZERO );
+    decimal( w, PACKAGE_WIDTH_INCHES, p.getPackageWidthInches(), ZERO );
+    decimal( w, PACKAGE_HEIGHT_INCHES, p.getPackageHeightInches(), ZERO );
+    decimal( w, DISPLAY_LENGTH_INCHES, p.getDisplayLengthInches(), ZERO );
+    decimal( w, DISPLAY_WIDTH_INCHES, p.getDisplayWidthInches(), ZERO );
+    decimal( w, DISPLAY_HEIGHT_INCHES, p.getDisplayHeightInches(), ZERO );
+
+    if ( p.getFulfillmentTime() != 0 )
+      w.writeLong( FULFILLMENT_TIME, p.getFulfillmentTime());
+
+    if ( p.isProp65())
+      w.writeBool( PROP_65, true );
+
+    dict( w, dict, LEGAL_DISCLAIMER_DESCRIPTION, p.getLegalDisclaimerDescription());
+
+    for ( final CPSIA c : p.getCpsiaStatements())
+    {
+      w.writeLong( CPSIA_STATEMENT, dict.intern( c.name()));
+    }
+
+    dict( w, dict, COUNTRY_OF_ORIGIN, p.getCountryOfOrigin());
+    dict( w, dict, SAFETY_WARNING, p.getSafetyWarning());
+
+    //..The default is "now", so this is always written
+    w.writeDate( START_SELLING_DATE, p.getStartSellingDate());
+
+    money( w, MSRP, p.getMsrp());
+    money( w, PRICE, p.getPrice());
+
+    for ( final FNodePriceRec n : p.getfNodePrices())
+    {
+      final FieldWriter m = new FieldWriter( 16 );
+      m.writeLong( 1, dict.intern( n.getNodeId()));
+      m.writeMoney( 2, n.getPrice());
+      w.writeMessage( FNODE_PRICE, m );
+    }
+
+    for ( final FNodeInventoryRec n : p.getfNodeInventory())
+    {
+      final FieldWriter m = new FieldWriter( 16 );
+      m.writeLong( 1, dict.intern( n.getNodeId()));
+      m.writeLong( 2, n.getQuantity());
+      w.writeMessage( FNODE_INVENTORY, m );
+    }
+
+    str( w, JET_RETAIL_SKU, p.getJetRetailSku());
+    money( w, MAP_PRICE, p.getMapPrice());
+
+    if ( p.getMapImplementation() != null && p.getMapImplementation() != MAPType.NO_RESTRICTIONS )
+      w.writeLong( MAP_IMPLEMENTATION, dict.intern( p.getMapImplementation().name()));
+
+    if ( p.getProductTaxCode() != null && p.getProductTaxCode() != ProductTaxCode.NO_VALUE )
+      w.writeLong( PRODUCT_TAX_CODE, dict.intern( p.getProductTaxCode().name()));
+
+    money( w, NO_RETURN_FEE_ADJ, p.getNoReturnFeeAdj());
+
+    if ( p.isShipsAlone())
+      w.writeBool( SHIPS_ALONE, true );
+
+    if ( p.isExcludeFromFeeAdjustments())
+      w.writeBool( EXCLUDE_FROM_FEE_ADJUSTMENTS, true );
+
+    for ( final SkuAttributeRec a : p.getAttributesNodeSpecific())
+    {
+      final FieldWriter m = new FieldWriter( 32 );
+      if ( a.getId() != 0 )
+        m.writeLong( 1, a.getId());
+
+      str( m, 2, a.getVal());
+      dict( m, dict, 3, a.getUnit());
+      dict( m, dict, 4, a.getAttributeName());
+      w.writeMessage( ATTRIBUTE_NODE_SPECIFIC, m );
+    }
+
+    for ( final Map.Entry<ProductImageSlot,String> e : p.getAlternateImages().entrySet())
+    {
+      final FieldWriter m = new FieldWriter( 64 );
+      m.writeLong( 1, dict.intern( e.getKey().name()));
+      m.writeString( 2, e.getValue());
+      w.writeMessage( ALTERNATE_IMAGE, m );
+    }
+
+    str( w, MAIN_IMAGE_URL, p.getMainImageUrl());
+    str( w, SWATCH_IMAGE_URL, p.getSwatchImageUrl());
+
+    for ( final FNodeShippingRec n : p.getShippingExceptionNodes())
+    {
+      final FieldWriter m = new FieldWriter( 32 );
+      m.writeLong( 1, dict.intern( n.getNodeId()));
+      for ( final ShippingExceptionRec x : n.getItemData())
+      {
+        final FieldWriter i = new FieldWriter( 32 );
+        i.writeLong( 1, dict.intern( x.getServiceLevel().name()));
+        i.writeLong( 2, dict.intern( x.getShippingMethod().name()));
+        i.writeLong( 3, dict.intern( x.getOverrideType().name()));
+        i.writeMoney( 4, x.getShippingChargeAmount());
+        i.writeLong( 5, dict.intern( x.getShippingExceptionType().name()));
+        m.writeMessage( 2, i );
+      }
+
+      w.writeMessage( SHIPPING_EXCEPTION_NODE, m );
+    }
+
+    str( w, CORRELATION_ID, p.getCorrelationId());
+    str( w, MERCHANT_SKU_ID, p.getMerchantSkuId());
+    dict( w, dict, PRODUCER_ID, p.getProducerId());
+
+    if ( p.getProductStatus() != null && p.getProductStatus() != ProductStatus.NONE )
+      w.writeLong( STATUS, dict.intern( p.getProductStatus().name()));
+
+    for ( final ProductSubStatus s : p.getSubstatus())
+    {
+      w.writeLong( SUB_STATUS, dict.intern( s.name()));
+    }
+
+    date( w, SKU_LAST_UPDATE, p.getSkuLastUpdate());
+    date( w, INVENTORY_LAST_UPDATE, p.getInventoryLastUpdate());
+    date( w, PRICE_LAST_UPDATE, p.getPriceLastUpdate());
+
+    final ProductVariationGroupRec v = p.getVariations();
+    if ( v != null )
+    {
+      final FieldWriter m = new FieldWriter( 64 );
+      m.writeString( 1, v.getParentSku());
+      m.writeLong( 2, dict.intern( v.getRelationship().name()));
+      for ( final Long r : v.getVariationRefinements())
+      {
+        m.writeLong( 3, r );
+      }
+
+      for ( final String c : v.getChildSkus())
+      {
+        m.writeString( 4, c );
+      }
+
+      str( m, 5, v.getGroupTitle());
+      w.writeMessage( VARIATIONS, m );
+    }
+
+    for ( final ReturnsExceptionRec r : p.getReturnsExceptions())
+    {
+      final FieldWriter m = new FieldWriter( 32 );
+      if ( r.getTimeToReturn() != 0 )
+        m.writeLong( 1, r.getTimeToReturn());
+
+      for ( final String id : r.getReturnLocationIds())
+      {
+        m.writeLong( 2, dict.intern( id ));
+      }
+
+      for ( final ShippingMethod s : r.getShippingMethods())
+      {
+        m.writeLong( 3, dict.intern( s.name()));
+      }
+
+      w.writeMessage( RETURNS_EXCEPTION, m );
+    }
+
+    dict( w, dict, PARENT_SKU, p.getParentSku());
+
+    if ( p.isArchived())
+      w.writeBool( IS_ARCHIVED, true );
+
+    return w;
+  }
+
+
+  /**
+   * Apply encoded fields to a builder
+   * @param r reader
+   * @param dict dictionary
+   * @param b builder
+   */
+  static void decode( final FieldReader r, final StringDictionary dict,
+    final ProductRec.Builder b )
+  {
+    String asin = null;
+    final List<ProductCodeRec> codes = new ArrayList<>();
+    final List<String> bullets = new ArrayList<>();
+    final List<CPSIA> cpsia = new ArrayList<>();
+    final List<FNodePriceRec> prices = new ArrayList<>();
+    final List<FNodeInventoryRec> inventory = new ArrayList<>();
+    final List<SkuAttributeRec> attrs = new ArrayList<>();
+    final Map<ProductImageSlot,String> images = new EnumMap<>( ProductImageSlot.class );
+    final List<FNodeShippingRec> shipping = new ArrayList<>();
+    final StringBuilder subStatus = new StringBuilder();
+
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case ID: b.setId( r.readInt()); break;
+        case TITLE: b.setTitle( r.readString()); break;
+        case BROWSE_NODE_ID: b.setBrowseNodeId( r.readLong()); break;
+        case AZ_ITEM_TYPE_KEYWORD: b.setAzItemTypeKeyword( dict( r, dict )); break;
+        case CATEGORY_PATH: b.setCategoryPath( dict( r, dict )); break;
+        case PRODUCT_CODE: codes.add( readProductCode( r.readMessage(), dict )); break;
+        case ASIN: asin = r.readString(); break;
+        case MULTIPACK_QUANTITY: b.setMultipackQuantity( r.readInt()); break;
+        case BRAND: b.setBrand( dict( r, dict )); break;
+        case MANUFACTURER: b.setManufacturer( dict( r, dict )); break;
+        case MFR_PART_NUMBER: b.setMfrPartNumber( r.readString()); break;
+        case PRODUCT_DESCRIPTION: b.setProductDescription( r.readString()); break;
+        case BULLET: bullets.add( r.readString()); break;
+        case NUMBER_UNITS_FOR_PRICE_PER_UNIT: b.setNumberUnitsForPricePerUnit( r.readDecimal()); break;
+        case TYPE_OF_UNIT_FOR_PRICE_PER_UNIT: b.setTypeOfUnitForPricePerUnit( dict( r, dict )); break;
+        case SHIPPING_WEIGHT_POUNDS: b.setShippingWeightPounds( r.readDecimal()); break;
+        case PACKAGE_LENGTH_INCHES: b.setPackageLengthInches( r.readDecimal()); break;
+        case PACKAGE_WIDTH_INCHES: b.setPackageWidthInches( r.readDecimal()); break;
+        case PACKAGE_HEIGHT_INCHES: b.setPackageHeightInches( r.readDecimal()); break;
+        case DISPLAY_LENGTH_INCHES: b.setDisplayLengthInches( r.readDecimal()); break;
+        case DISPLAY_WIDTH_INCHES: b.setDisplayWidthInches( r.readDecimal()); break;
+        case DISPLAY_HEIGHT_INCHES: b.setDisplayHeightInches( r.readDecimal()); break;
+        case FULFILLMENT_TIME: b.setFulfillmentTime( r.readInt()); break;
+        case PROP_65: b.setProp65( r.readBool()); break;
+        case LEGAL_DISCLAIMER_DESCRIPTION: b.setLegalDisclaimerDescription( dict( r, dict )); break;
+        case CPSIA_STATEMENT: cpsia.add( CPSIA.valueOf( dict( r, dict ))); break;
+        case COUNTRY_OF_ORIGIN: b.setCountryOfOrigin( dict( r, dict )); break;
+        case SAFETY_WARNING: b.setSafetyWarning( dict( r, dict )); break;
+        case START_SELLING_DATE: b.setStartSellingDate( new JetDate( r.readDate())); break;
+        case MSRP: b.setMsrp( r.readMoney()); break;
+        case PRICE: b.setPrice( r.readMoney()); break;
+        case FNODE_PRICE: prices.add( readNodePrice( r.readMessage(), dict )); break;
+        case FNODE_INVENTORY: inventory.add( readNodeInventory( r.readMessage(), dict )); break;
+        case JET_RETAIL_SKU: b.setJetRetailSku( r.readString()); break;
+        case MAP_PRICE: b.setMapPrice( r.readMoney()); break;
+        case MAP_IMPLEMENTATION: b.setMapImplementation( MAPType.valueOf( dict( r, dict ))); break;
+        case PRODUCT_TAX_CODE: b.setProductTaxCode( ProductTaxCode.valueOf( dict( r, dict ))); break;
+        case NO_RETURN_FEE_ADJ: b.setNoReturnFeeAdj( r.readMoney()); break;
+        case SHIPS_ALONE: b.setShipsAlone( r.readBool()); break;
+        case EXCLUDE_FROM_FEE_ADJUSTMENTS: b.setExcludeFromFeeAdjustments( r.readBool()); break;
+        case ATTRIBUTE_NODE_SPECIFIC: attrs.add( readAttribute( r.readMessage(), dict )); break;
+        case ALTERNATE_IMAGE: readImage( r.readMessage(), dict, images ); break;
+        case MAIN_IMAGE_URL: b.setMainImageUrl( r.readString()); break;
+        case SWATCH_IMAGE_URL: b.setSwatchImageUrl( r.readString()); break;
+        case SHIPPING_EXCEPTION_NODE: shipping.add( readShipping( r.readMessage(), dict )); break;
+        case CORRELATION_ID: b.setCorrelationId( r.readString()); break;
+        case MERCHANT_SKU_ID: b.setMerchantSkuId( r.readString()); break;
+        case PRODUCER_ID: b.setProducerId( dict( r, dict )); break;
+        case STATUS: b.setProductStatus( ProductStatus.valueOf( dict( r, dict ))); break;
+        case SUB_STATUS:
+          if ( subStatus.length() > 0 )
+            subStatus.append( ',' );
+          subStatus.append( ProductSubStatus.valueOf( dict( r, dict )).getValue());
+        break;
+        case SKU_LAST_UPDATE: b.setSkuLastUpdate( new JetDate( r.readDate())); break;
+        case INVENTORY_LAST_UPDATE: b.setInvLastUpdate( new JetDate( r.readDate())); break;
+        case PRICE_LAST_UPDATE: b.setPriceLastUpdate( new JetDate( r.readDate())); break;
+        case VARIATIONS: b.setVariations( readVariations( r.readMessage(), dict )); break;
+        case RETURNS_EXCEPTION: b.getReturnsExceptions().add( readReturns( r.readMessage(), dict )); break;
+        case PARENT_SKU: b.setParentSku( dict( r, dict )); break;
+        case IS_ARCHIVED: b.setIsArchived( r.readBool()); break;
+        default: r.skip();
+      }
+    }
+
+    //..Product codes set the asin when one of them is an ASIN code, and
+    //..setAsin() replaces any ASIN code, so only call it when it differs.
+    b.setProductCodes( codes );
+    if ( asin != null && !asin.equals( b.getAsin()))
+      b.setAsin( asin );
+
+    b.setBullets( bullets );
+    b.setCpsiaStatements( cpsia );
+    b.setfNodePrices( prices );
+    b.setfNodeInventory( inventory );
+    b.setAttributesNodeSpecific( attrs );
+    b.setAlternateImages( images );
+    b.setShippingExceptionNodes( shipping );
+
+    if ( subStatus.length() > 0 )
+      b.setProductSubStatus( subStatus.toString());
+  }
+
+
+  private static ProductCodeRec readProductCode( final FieldReader r,
+    final StringDictionary dict )
+  {
+    String code = "";
+    ProductCodeType type = null;
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: code = r.readString(); break;
+        case 2: type = ProductCodeType.valueOf( dict( r, dict )); break;
+        default: r.skip();
+      }
+    }
+
+    return new ProductCodeRec( code, type );
+  }
+
+
+  private static FNodePriceRec readNodePrice( final FieldReader r,
+    final StringDictionary dict )
+  {
+    String node = "";
+    Money price = new Money();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: node = dict( r, dict ); break;
+        case 2: price = r.readMoney(); break;
+        default: r.skip();
+      }
+    }
+
+    return new FNodePriceRec( node, price );
+  }
+
+
+  private static FNodeInventoryRec readNodeInventory( final FieldReader r,
+    final StringDictionary dict )
+  {
+    String node = "";
+    int qty = 0;
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: node = dict( r, dict ); break;
+        case 2: qty = r.readInt(); break;
+        default: r.skip();
+      }
+    }
+
+    return new FNodeInventoryRec( node, qty );
+  }
+
+
+  private static SkuAttributeRec readAttribute( final FieldReader r,
+    final StringDictionary dict )
+  {
+    long id = 0;
+    String val = "";
+    String unit = "";
+    String name = "";
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: id = r.readLong(); break;
+        case 2: val = r.readString(); break;
+        case 3: unit = dict( r, dict ); break;
+        case 4: name = dict( r, dict ); break;
+        default: r.skip();
+      }
+    }
+
+    if ( id <= 0 )
+      return new SkuAttributeRec();
+
+    return new SkuAttributeRec( id, val, unit, name );
+  }
+
+
+  private static void readImage( final FieldReader r, final StringDictionary dict,
+    final Map<ProductImageSlot,String> images )
+  {
+    ProductImageSlot slot = null;
+    String url = "";
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: slot = ProductImageSlot.valueOf( dict( r, dict )); break;
+        case 2: url = r.readString(); break;
+        default: r.skip();
+      }
+    }
+
+    if ( slot != null )
+      images.put( slot, url );
+  }
+
+
+  private static FNodeShippingRec readShipping( final FieldReader r,
+    final StringDictionary dict )
+  {
+    String node = "";
+    final List<ShippingExceptionRec> items = new ArrayList<>();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: node = dict( r, dict ); break;
+        case 2: items.add( readShippingException( r.readMessage(), dict )); break;
+        default: r.skip();
+      }
+    }
+
+    return new FNodeShippingRec( node, items );
+  }
+
+
+  private static ShippingExceptionRec readShippingException( final FieldReader r,
+    final StringDictionary dict )
+  {
+    ShippingServiceLevel level = null;
+    ShippingMethod method = null;
+    ShipOverrideType override = null;
+    Money charge = new Money();
+    ShipExceptionType type = null;
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: level = ShippingServiceLevel.valueOf( dict( r, dict )); break;
+        case 2: method = ShippingMethod.valueOf( dict( r, dict )); break;
+        case 3: override = ShipOverrideType.valueOf( dict( r, dict )); break;
+        case 4: charge = r.readMoney(); break;
+        case 5: type = ShipExceptionType.valueOf( dict( r, dict )); break;
+        default: r.skip();
+      }
+    }
+
+    return new ShippingExceptionRec( level, method, override, charge, type );
+  }
+
+
+  private static ProductVariationGroupRec readVariations( final FieldReader r,
+    final StringDictionary dict )
+  {
+    String parent = "";
+    ProductVariationGroupRec.Relationship rel = null;
+    final List<Long> refinements = new ArrayList<>();
+    final List<String> children = new ArrayList<>();
+    String title = "";
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: parent = r.readString(); break;
+        case 2: rel = ProductVariationGroupRec.Relationship.valueOf( dict( r, dict )); break;
+        case 3: refinements.add( r.readLong()); break;
+        case 4: children.add( r.readString()); break;
+        case 5: title = r.readString(); break;
+        default: r.skip();
+      }
+    }
+
+    return new ProductVariationGroupRec( parent, rel, refinements, children, title );
+  }
+
+
+  private static ReturnsExceptionRec readReturns( final FieldReader r,
+    final StringDictionary dict )
+  {
+    int time = 0;
+    final List<String> ids = new ArrayList<>();
+    final List<ShippingMethod> methods = new ArrayList<>();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case 1: time = r.readInt(); break;
+        case 2: ids.add( dict( r, dict )); break;
+        case 3: methods.add( ShippingMethod.valueOf( dict( r, dict ))); break;
+        default: r.skip();
+      }
+    }
+
+    //..The id only constructor is the one that allows a zero time
+    if ( time == 0 && methods.isEmpty())
+      return new ReturnsExceptionRec( ids );
+
+    return new ReturnsExceptionRec( time, ids, methods );
+  }
+
+
+  private static void str( final FieldWriter w, final int tag, final String s )
+  {
+    if ( s != null && !s.isEmpty())
+      w.writeString( tag, s );
+  }
+
+
+  private static void dict( final FieldWriter w, final StringDictionary dict,
+    final int tag, final String s )
+  {
+    if ( s != null && !s.isEmpty())
+      w.writeLong( tag, dict.intern( s ));
+  }
+
+
+  private static String dict( final FieldReader r, final StringDictionary dict )
+  {
+    return dict.get( r.readInt());
+  }
+
+
+  private static void decimal( final FieldWriter w, final int tag,
+    final BigDecimal d, final BigDecimal def )
+  {
+    if ( d != null && !d.equals( def ))
+      w.writeDecimal( tag, d );
+  }
+
+
+  private static void money( final FieldWriter w, final int tag, final Money m )
+  {
+    if ( m != null && !m.asBigDecimal().equals( NO_MONEY ))
+      w.writeMoney( tag, m );
+  }
+
+
+  private static void date( final FieldWriter w, final int tag, final IJetDate d )
+  {
+    if ( d != null )
+      w.writeDate( tag, d );
+  }
+}
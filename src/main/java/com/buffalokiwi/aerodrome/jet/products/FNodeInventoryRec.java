@@ -15,6 +15,7 @@
 package com.buffalokiwi.aerodrome.jet.products;
 
 import com.buffalokiwi.aerodrome.jet.Jsonable;
+import java.util.Objects;
 import javax.json.Json;
 import javax.json.JsonObject;
 
@@ -96,4 +97,34 @@ public class FNodeInventoryRec implements Jsonable
       .build();
   }
 
+
+  @Override
+  public int hashCode()
+  {
+    int hash = 7;
+    hash = 29 * hash + Objects.hashCode( this.nodeId );
+    hash = 29 * hash + this.quantity;
+    return hash;
+  }
+
+
+  @Override
+  public boolean equals( Object obj )
+  {
+    if ( this == obj ) {
+      return true;
+    }
+    if ( obj == null ) {
+      return false;
+    }
+    if ( getClass() != obj.getClass() ) {
+      return false;
+    }
+    final FNodeInventoryRec other = (FNodeInventoryRec) obj;
+    if ( this.quantity != other.quantity ) {
+      return false;
+    }
+
+    return Objects.equals( this.nodeId, other.nodeId );
+  }
 }
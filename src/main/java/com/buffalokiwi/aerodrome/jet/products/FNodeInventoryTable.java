@@ -0,0 +1,105 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+
+/**
+ * Compact storage for the inventory of each (merchant sku, fulfillment node)
+ * pair.  Quantities are held in primitive arrays; see SkuNodeTable.
+ *
+ * Use set() to decide what to send: it returns true only when the
+ * quantities for the sku changed.
+ *
+ * @author John Quinn
+ */
+public class FNodeInventoryTable extends SkuNodeTable<FNodeInventoryRec>
+{
+  /**
+   * Create a new table with 64 lock stripes
+   * @param expectedSkus expected number of skus
+   */
+  public FNodeInventoryTable( final int expectedSkus )
+  {
+    this( expectedSkus, 64 );
+  }
+
+
+  /**
+   * Create a new table
+   * @param expectedSkus expected number of skus
+   * @param stripes number of lock stripes
+   */
+  public FNodeInventoryTable( final int expectedSkus, final int stripes )
+  {
+    super( expectedSkus, stripes );
+  }
+
+
+  /**
+   * Retrieve the quantity for some sku at some node
+   * @param sku sku
+   * @param nodeId node
+   * @return quantity or -1 if nothing is stored
+   */
+  public int getQuantity( final String sku, final String nodeId )
+  {
+    return (int)getValue( sku, nodeId, -1 );
+  }
+
+
+  /**
+   * Set the quantity for some sku at some node
+   * @param sku sku
+   * @param nodeId node
+   * @param quantity quantity
+   * @return if the quantity changed
+   */
+  public boolean setQuantity( final String sku, final String nodeId, final int quantity )
+  {
+    return setValue( sku, nodeId, quantity );
+  }
+
+
+  /**
+   * Store the inventory of a product
+   * @param product product
+   * @return if anything changed
+   */
+  public boolean set( final ProductRec product )
+  {
+    return set( product.getMerchantSku(), product.getfNodeInventory());
+  }
+
+
+  @Override
+  protected FNodeInventoryRec toRecord( final String nodeId, final long value )
+  {
+    return new FNodeInventoryRec( nodeId, (int)value );
+  }
+
+
+  @Override
+  protected String getNodeId( final FNodeInventoryRec rec )
+  {
+    return rec.getNodeId();
+  }
+
+
+  @Override
+  protected long getValue( final FNodeInventoryRec rec )
+  {
+    return rec.getQuantity();
+  }
+}
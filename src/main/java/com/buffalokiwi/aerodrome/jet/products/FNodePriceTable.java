@@ -0,0 +1,112 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.utils.Money;
+import com.buffalokiwi.utils.MoneyCents;
+
+
+/**
+ * Compact storage for the price of each (merchant sku, fulfillment node)
+ * pair.  Prices are held as cents in primitive arrays; see SkuNodeTable.
+ *
+ * Prices are assumed to be in the default currency, and are converted with
+ * MoneyCents, so no precision is lost.
+ *
+ * @author John Quinn
+ */
+public class FNodePriceTable extends SkuNodeTable<FNodePriceRec>
+{
+  /**
+   * Create a new table with 64 lock stripes
+   * @param expectedSkus expected number of skus
+   */
+  public FNodePriceTable( final int expectedSkus )
+  {
+    this( expectedSkus, 64 );
+  }
+
+
+  /**
+   * Create a new table
+   * @param expectedSkus expected number of skus
+   * @param stripes number of lock stripes
+   */
+  public FNodePriceTable( final int expectedSkus, final int stripes )
+  {
+    super( expectedSkus, stripes );
+  }
+
+
+  /**
+   * Retrieve the price for some sku at some node
+   * @param sku sku
+   * @param nodeId node
+   * @return price or null if nothing is stored
+   */
+  public Money getPrice( final String sku, final String nodeId )
+  {
+    final long cents = getValue( sku, nodeId, Long.MIN_VALUE );
+    if ( cents == Long.MIN_VALUE )
+      return null;
+
+    return MoneyCents.toMoney( cents );
+  }
+
+
+  /**
+   * Set the price for some sku at some node
+   * @param sku sku
+   * @param nodeId node
+   * @param price price
+   * @return if the price changed
+   */
+  public boolean setPrice( final String sku, final String nodeId, final Money price )
+  {
+    return setValue( sku, nodeId, MoneyCents.toCents( price ));
+  }
+
+
+  /**
+   * Store the node prices of a product
+   * @param product product
+   * @return if anything changed
+   */
+  public boolean set( final ProductRec product )
+  {
+    return set( product.getMerchantSku(), product.getfNodePrices());
+  }
+
+
+  @Override
+  protected FNodePriceRec toRecord( final String nodeId, final long value )
+  {
+    return new FNodePriceRec( nodeId, MoneyCents.toMoney( value ));
+  }
+
+
+  @Override
+  protected String getNodeId( final FNodePriceRec rec )
+  {
+    return rec.getNodeId();
+  }
+
+
+  @Override
+  protected long getValue( final FNodePriceRec rec )
+  {
+    return MoneyCents.toCents( rec.getPrice());
+  }
+}
@@ -22,6 +22,7 @@ import com.buffalokiwi.aerodrome.jet.JetException;
 import java.io.File;
 import java.io.InputStream;
 import java.util.List;
+import java.util.function.Consumer;
 
 
 /**
@@ -91,4 +92,55 @@ public interface IJetAPIBulkProductUpload extends IJetAPI
       final String filename, 
       BulkUploadFileType uploadType ) throws APIException, JetException;
   
+  
+  /**
+   * Send a gzipped bulk file to the url from getUploadToken().
+   * Sending the same file to the same url again replaces it.
+   * @param url Url from getUploadToken()
+   * @param file gzipped json file 
+   * @throws APIException
+   * @throws JetException 
+   */
+  public void sendAuthorizedFile( final String url, final File file )
+    throws APIException, JetException;
+  
+  
+  /**
+   * Upload a gzipped bulk file and tell jet to start processing it.
+   * This retrieves an upload token, sends the file to the token url and 
+   * then calls sendPostUploadedFiles() using the basename of file.
+   * @param file gzipped json file 
+   * @param uploadType File type 
+   * @return The upload token.  The jet file id can be used to check the 
+   * processing status.
+   * @throws APIException
+   * @throws JetException 
+   */
+  public BulkUploadAuthRec uploadFile( final File file, 
+    final BulkUploadFileType uploadType ) throws APIException, JetException;
+  
+  
+  /**
+   * Download the error file for some processed upload and parse it one 
+   * entry at a time.  The file is streamed, so it can be any size.
+   * @param rec file status 
+   * @param consumer receives each error 
+   * @return the number of errors read.  This is zero if the file has no 
+   * error url.
+   * @throws APIException if the file can't be downloaded or read 
+   */
+  public long getErrorFile( final FileIdRec rec, 
+    final Consumer<BulkUploadErrorRec> consumer ) throws APIException;
+  
+  
+  /**
+   * Download an error file and parse it one entry at a time.
+   * The file is streamed, so it can be any size.
+   * @param errorUrl error url from FileIdRec 
+   * @param consumer receives each error 
+   * @return the number of errors read 
+   * @throws APIException if the file can't be downloaded or read 
+   */
+  public long getErrorFile( final String errorUrl, 
+    final Consumer<BulkUploadErrorRec> consumer ) throws APIException;
 }
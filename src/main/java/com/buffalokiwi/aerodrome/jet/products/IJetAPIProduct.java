@@ -18,6 +18,9 @@ import com.buffalokiwi.aerodrome.jet.IJetAPIResponse;
 import com.buffalokiwi.aerodrome.jet.JetException;
 import com.buffalokiwi.api.APIException;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 /**
  *
@@ -89,6 +92,33 @@ public interface IJetAPIProduct extends IJetAPI {
    */
   public ProductRec getFullProduct( final String sku ) throws APIException, JetException;
 
+  /**
+   * Retrieve product data, pricing, inventory, variations, returns exceptions 
+   * and shipping exceptions.
+   * This is the same as getFullProduct(), except the six requests are all 
+   * sent at the same time on the supplied executor.
+   * Price and inventory failures are logged and ignored, and any other 
+   * failure completes the returned future exceptionally.
+   * @param sku product sku
+   * @param executor executor used to send the requests 
+   * @return Product data 
+   */
+  public CompletableFuture<ProductRec> getFullProductAsync( final String sku, 
+    final Executor executor );
+  
+  /**
+   * Call getFullProductAsync() for a list of skus.
+   * No more than maxConcurrent skus are retrieved at the same time, and 
+   * each sku can send up to six requests at once.
+   * @param skus skus to retrieve
+   * @param executor executor used to send the requests 
+   * @param maxConcurrent The maximum number of skus to retrieve at once
+   * @return A future for each sku in the same order as skus.  Each future
+   * completes individually.
+   */
+  public List<CompletableFuture<ProductRec>> getFullProducts( 
+    final List<String> skus, final Executor executor, final int maxConcurrent );
+
   /**
    * Retrieve product data
    * @param sku Sku to retrieve
@@ -165,6 +195,20 @@ public interface IJetAPIProduct extends IJetAPI {
    */
   public List<String> getSkuList( final int offset, final int limit ) throws APIException, JetException;
 
+  /**
+   * Stream the entire sku list.
+   * Up to prefetch pages are requested at the same time on the supplied 
+   * executor, and the stream ends at the first short page.
+   * A failed request is thrown from the stream as a CompletionException.
+   * @param pageSize number of skus per request
+   * @param prefetch maximum number of pages to request ahead
+   * @param executor executor used to send the requests 
+   * @param parallel if the stream should be parallel
+   * @return sku stream 
+   */
+  public Stream<String> getSkuStream( final int pageSize, final int prefetch,
+    final Executor executor, final boolean parallel );
+
   /**
    * Get sales data.
    *
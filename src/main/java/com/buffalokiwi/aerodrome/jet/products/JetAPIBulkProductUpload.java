@@ -22,11 +22,18 @@ import com.buffalokiwi.aerodrome.jet.JetAPIResponse;
 import com.buffalokiwi.aerodrome.jet.JetConfig;
 import com.buffalokiwi.aerodrome.jet.JetException;
 import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APILog;
 import com.buffalokiwi.api.IAPIHttpClient;
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import javax.json.Json;
 import javax.json.JsonObject;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.entity.ContentType;
 
 
 /**
@@ -35,10 +42,42 @@ import javax.json.JsonObject;
  */
 public class JetAPIBulkProductUpload extends JetAPI implements IJetAPIBulkProductUpload
 {
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( JetAPIBulkProductUpload.class );
+  
+  /**
+   * Content type of bulk files 
+   */
+  private static final ContentType GZIP = ContentType.create( "application/x-gzip" );
+  
+  /**
+   * Optional block uploader used for large files 
+   */
+  private final BlockBlobUploader blockUploader;
+  
+  
   public JetAPIBulkProductUpload( final IAPIHttpClient client, 
     final JetConfig config )
+  {
+    this( client, config, null );
+  }
+  
+  
+  /**
+   * Create a new bulk upload api instance.
+   * uploadFile() will use blockUploader for any file larger than a 
+   * single block.
+   * @param client http client 
+   * @param config jet config 
+   * @param blockUploader block uploader or null 
+   */
+  public JetAPIBulkProductUpload( final IAPIHttpClient client, 
+    final JetConfig<?,?> config, final BlockBlobUploader blockUploader )
   {
     super( client, config );
+    this.blockUploader = blockUploader;
   }
   
   
@@ -158,4 +197,108 @@ public class JetAPIBulkProductUpload extends JetAPI implements IJetAPIBulkProduc
   }
   
     
-}
\ No newline at end of file
+  
+  
+  /**
+   * Send a gzipped bulk file to the url from getUploadToken().
+   * If a BlockBlobUploader was supplied, files larger than a single block 
+   * are sent in blocks.  Sending the same file to the same url again 
+   * replaces it.
+   * @param url Url from getUploadToken()
+   * @param file gzipped json file 
+   * @throws APIException
+   * @throws JetException 
+   */
+  @Override
+  public void sendAuthorizedFile( final String url, final File file )
+    throws APIException, JetException
+  {
+    Utils.checkNullEmpty( url, "url" );
+    Utils.checkNull( file, "file" );
+    
+    if ( blockUploader != null && file.length() > blockUploader.getBlockSize())
+      blockUploader.upload( this, url, file );
+    else
+      sendAuthorizedFile( url, new PostFile( file, GZIP, "gzip", file.getName()));
+  }
+  
+  
+  /**
+   * Upload a gzipped bulk file and tell jet to start processing it.
+   * This retrieves an upload token, sends the file to the token url and 
+   * then calls sendPostUploadedFiles() using the basename of file.
+   * @param file gzipped json file 
+   * @param uploadType File type 
+   * @return The upload token.  The jet file id can be used to check the 
+   * processing status.
+   * @throws APIException
+   * @throws JetException 
+   */
+  @Override
+  public BulkUploadAuthRec uploadFile( final File file, 
+    final BulkUploadFileType uploadType ) throws APIException, JetException
+  {
+    Utils.checkNull( file, "file" );
+    Utils.checkNull( uploadType, "uploadType" );
+    
+    final BulkUploadAuthRec token = getUploadToken();
+    
+    sendAuthorizedFile( token.getUrl(), file );
+    
+    sendPostUploadedFiles( token.getUrl(), file.getName(), uploadType );
+    
+    APILog.info( LOG, "Uploaded", file.getName(), "as", uploadType.getText(),
+      "jet file id", token.getJetFileId());
+    
+    return token;
+  }
+  
+  
+  /**
+   * Download the error file for some processed upload and parse it one 
+   * entry at a time.  The file is streamed, so it can be any size.
+   * @param rec file status 
+   * @param consumer receives each error 
+   * @return the number of errors read.  This is zero if the file has no 
+   * error url.
+   * @throws APIException if the file can't be downloaded or read 
+   */
+  @Override
+  public long getErrorFile( final FileIdRec rec, 
+    final Consumer<BulkUploadErrorRec> consumer ) throws APIException
+  {
+    Utils.checkNull( rec, "rec" );
+    
+    if ( rec.getErrorUrl().isEmpty())
+      return 0;
+    
+    return getErrorFile( rec.getErrorUrl(), consumer );
+  }
+  
+  
+  /**
+   * Download an error file and parse it one entry at a time.
+   * The file is streamed, so it can be any size.
+   * The error url is pre-signed, so no jet headers are sent.
+   * @param errorUrl error url from FileIdRec 
+   * @param consumer receives each error 
+   * @return the number of errors read 
+   * @throws APIException if the file can't be downloaded or read 
+   */
+  @Override
+  public long getErrorFile( final String errorUrl, 
+    final Consumer<BulkUploadErrorRec> consumer ) throws APIException
+  {
+    Utils.checkNullEmpty( errorUrl, "errorUrl" );
+    Utils.checkNull( consumer, "consumer" );
+    
+    final AtomicLong count = new AtomicLong();
+    
+    getStream( errorUrl, null, in -> 
+      count.set( new BulkErrorFileReader().read( in, consumer )));
+    
+    APILog.info( LOG, "Read", String.valueOf( count.get()), "errors from", errorUrl );
+    
+    return count.get();
+  }
+}
@@ -22,10 +22,19 @@ import com.buffalokiwi.api.IAPIHttpClient;
 import com.buffalokiwi.aerodrome.jet.IJetAPIResponse;
 import com.buffalokiwi.aerodrome.jet.JetConfig;
 import com.buffalokiwi.aerodrome.jet.JetException;
+import com.buffalokiwi.aerodrome.jet.PagedSpliterator;
 import com.buffalokiwi.aerodrome.jet.Utils;
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
 import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
@@ -46,6 +55,11 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
    */
   private static final Log LOG = LogFactory.getLog( JetAPIProduct.class );
   
+  /**
+   * Local mirror of accepted product data or null
+   */
+  private final CatalogStore catalog;
+  
   
   /**
    * Create a new JetProduct instance
@@ -53,8 +67,63 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
    * @param conf Configuration 
    */
   public JetAPIProduct( final IAPIHttpClient client, final JetConfig conf )
+  {
+    this( client, conf, null );
+  }
+  
+  
+  /**
+   * Create a new JetProduct instance that mirrors accepted product data
+   * into a local catalog store.
+   * The store is updated after Jet accepts addProduct() and the keyed 
+   * price and inventory updates.
+   * @param client The http client 
+   * @param conf Configuration 
+   * @param catalog Local catalog mirror.  May be null.
+   */
+  public JetAPIProduct( final IAPIHttpClient client, final JetConfig<?,?> conf,
+    final CatalogStore catalog )
   {
     super( client, conf );
+    this.catalog = catalog;
+  }
+  
+  
+  /**
+   * Retrieve the local catalog mirror 
+   * @return store or null 
+   */
+  public CatalogStore getCatalogStore()
+  {
+    return catalog;
+  }
+  
+  
+  /**
+   * Add/update a product, sending only the parts that differ from the 
+   * copy in the local catalog store.  If the sku is not stored, the 
+   * entire product is sent.
+   * @param product Product to send 
+   * @return Success
+   * @throws JetException if there is an error from the jet api
+   * @throws APIException if there is some sort of error with the api 
+   * library itself. A network issue, etc.
+   * @throws ValidateException if the product fails pre-submit validation
+   * @throws IllegalStateException if there is no catalog store 
+   */
+  public boolean updateProduct( final ProductRec product ) 
+    throws APIException, JetException, ValidateException
+  {
+    Utils.checkNull( product, "product" );
+    
+    if ( catalog == null )
+      throw new IllegalStateException( "This instance has no catalog store" );
+    
+    final ProductRec original = catalog.get( product.getMerchantSku());
+    if ( original == null )
+      return addProduct( product );
+    
+    return addProduct( original, product );
   }
 
   
@@ -88,15 +157,17 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
    // sendPutProductImage( product );
 
     //..Add the price
-    sendPutProductPrice( product );
+    putPrice( product.getMerchantSku(), product.toPriceJson().toString());
 
     //..Add some inventory
-    sendPutProductInventory( product );
+    putInventory( product.getMerchantSku(), product.getfNodeInventory());
     
     sendPutProductShippingExceptions( product.getMerchantSku(), product.getShippingExceptionNodes());
     
     sendPutReturnsException( product.getMerchantSku(), product.getAllReturnLocationIds());
     
+    mirror( product );
+    
     //..pointless.
     return true;
   }
@@ -133,13 +204,13 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
     if ( comp.shouldUpdatePrice())
     {
       //..Add the price
-      sendPutProductPrice( modified );
+      putPrice( modified.getMerchantSku(), modified.toPriceJson().toString());
     }
 
     if ( comp.shouldUpdateInventory())
     {
       //..Add some inventory
-      sendPutProductInventory( modified );
+      putInventory( modified.getMerchantSku(), modified.getfNodeInventory());
     }
     
     if ( comp.shouldUpdateShippingExceptions())
@@ -157,6 +228,8 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
       sendPutProductVariation( modified.getVariations());
     }
     
+    mirror( modified );
+    
     return false;
   }
   
@@ -221,13 +294,13 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
   public IJetAPIResponse sendPutProductPrice( final ProductRec product )
       throws APIException, JetException
   {
-    APILog.info( LOG, "Sending", product.getMerchantSku(), "price" );
+    final IJetAPIResponse response = putPrice( 
+      product.getMerchantSku(), product.toPriceJson().toString());
     
-    final IJetAPIResponse response = put(
-      config.getAddProductPriceUrl( product.getMerchantSku()),
-      product.toPriceJson().toString(),
-      getJSONHeaderBuilder().build()
-    );
+    mirror( product.getMerchantSku(), p -> p.toBuilder()
+      .setPrice( product.getPrice())
+      .setfNodePrices( product.getfNodePrices())
+      .build());
     
     return response;
   }
@@ -248,13 +321,12 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
     if ( sku == null || sku.isEmpty())
       throw new IllegalArgumentException( "sku can't be null or empty" );
     
-    APILog.info( LOG, "Sending", sku, "price" );
+    final IJetAPIResponse response = putPrice( sku, price.toJSON().toString());
     
-    final IJetAPIResponse response = put(
-      config.getAddProductPriceUrl( sku ),
-      price.toJSON().toString(),
-      getJSONHeaderBuilder().build()
-    );
+    mirror( sku, p -> p.toBuilder()
+      .setPrice( price.getPrice())
+      .setfNodePrices( price.getFulfillmentNodes())
+      .build());
     
     return response;    
   }
@@ -271,7 +343,13 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
   public IJetAPIResponse sendPutProductInventory( final ProductRec product )
     throws JetException, APIException
   {
-    return sendPutProductInventory( product.getMerchantSku(), product.getfNodeInventory());
+    final IJetAPIResponse response = putInventory( 
+      product.getMerchantSku(), product.getfNodeInventory());
+    
+    mirror( product.getMerchantSku(), p -> p.toBuilder()
+      .setfNodeInventory( product.getfNodeInventory()).build());
+    
+    return response;
   }
   
   
@@ -286,6 +364,46 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
   @Override
   public IJetAPIResponse sendPutProductInventory( final String sku, final List<FNodeInventoryRec> nodes )
     throws JetException, APIException
+  {
+    final IJetAPIResponse response = putInventory( sku, nodes );
+    
+    mirror( sku, p -> p.toBuilder().setfNodeInventory( nodes ).build());
+    
+    return response;
+  }
+  
+  
+  /**
+   * Send price data without touching the catalog store
+   * @param sku sku
+   * @param json price json 
+   * @return response 
+   * @throws JetException
+   * @throws APIException 
+   */
+  private IJetAPIResponse putPrice( final String sku, final String json )
+    throws JetException, APIException
+  {
+    APILog.info( LOG, "Sending", sku, "price" );
+    
+    return put(
+      config.getAddProductPriceUrl( sku ),
+      json,
+      getJSONHeaderBuilder().build()
+    );
+  }
+  
+  
+  /**
+   * Send inventory without touching the catalog store
+   * @param sku sku
+   * @param nodes inventory 
+   * @return response 
+   * @throws JetException
+   * @throws APIException 
+   */
+  private IJetAPIResponse putInventory( final String sku, final List<FNodeInventoryRec> nodes )
+    throws JetException, APIException
   {
     Utils.checkNull( sku, "sku" );
     Utils.checkNull( nodes, "nodes" );
@@ -586,6 +704,150 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
   }
   
   
+  /**
+   * Retrieve product data, pricing, inventory, variations, returns exceptions 
+   * and shipping exceptions.
+   * This is the same as getFullProduct(), except the six requests are all 
+   * sent at the same time on the supplied executor.
+   * Price and inventory failures are logged and ignored, and any other 
+   * failure completes the returned future exceptionally.
+   * @param sku product sku
+   * @param executor executor used to send the requests 
+   * @return Product data 
+   */
+  @Override
+  public CompletableFuture<ProductRec> getFullProductAsync( final String sku, 
+    final Executor executor )
+  {
+    checkSku( sku );
+    Utils.checkNull( executor, "executor" );
+    
+    final CompletableFuture<ProductRec> product = CompletableFuture.supplyAsync( 
+      unchecked(() -> getProduct( sku )), executor );
+    
+    final CompletableFuture<ProductPriceRec> price = CompletableFuture.supplyAsync(() -> {
+      try {
+        return getProductPrice( sku );
+      } catch( Exception e ) {
+        APILog.error(  LOG, e, "Failed to retrieve product prices for", sku );
+        return null;
+      }
+    }, executor );
+    
+    final CompletableFuture<ProductInventoryRec> inventory = CompletableFuture.supplyAsync(() -> {
+      try {
+        return getProductInventory( sku );
+      } catch( Exception e ) {
+        APILog.error(  LOG, e, "Failed to retrieve product inventory for", sku );
+        return null;
+      }
+    }, executor );
+    
+    final CompletableFuture<ProductVariationGroupRec> variations = CompletableFuture.supplyAsync( 
+      unchecked(() -> getProductVariations( sku )), executor );
+    
+    final CompletableFuture<ReturnsExceptionRec> returns = CompletableFuture.supplyAsync( 
+      unchecked(() -> getReturnsExceptions( sku )), executor );
+    
+    final CompletableFuture<List<FNodeShippingRec>> shipping = CompletableFuture.supplyAsync( 
+      unchecked(() -> getShippingExceptions( sku )), executor );
+    
+    return CompletableFuture.allOf( product, price, inventory, variations, returns, shipping )
+      .thenApply( v -> {
+        final ProductRec.Builder b = product.join().toBuilder();
+        
+        final ProductPriceRec p = price.join();
+        if ( p != null )
+          b.setfNodePrices( p.getFulfillmentNodes());
+        
+        final ProductInventoryRec i = inventory.join();
+        if ( i != null )
+          b.setfNodeInventory( i.getNodes());
+        
+        b.setVariations( variations.join());
+        b.getReturnsExceptions().add( returns.join());
+        b.setShippingExceptionNodes( shipping.join());
+        
+        return b.build();
+      });
+  }
+  
+  
+  /**
+   * Call getFullProductAsync() for a list of skus.
+   * No more than maxConcurrent skus are retrieved at the same time, and 
+   * each sku can send up to six requests at once.
+   * @param skus skus to retrieve
+   * @param executor executor used to send the requests 
+   * @param maxConcurrent The maximum number of skus to retrieve at once
+   * @return A future for each sku in the same order as skus.  Each future
+   * completes individually.
+   */
+  @Override
+  public List<CompletableFuture<ProductRec>> getFullProducts( 
+    final List<String> skus, final Executor executor, final int maxConcurrent )
+  {
+    Utils.checkNull( skus, "skus" );
+    Utils.checkNull( executor, "executor" );
+    Utils.checkIntGTZ( maxConcurrent, "maxConcurrent" );
+    
+    final List<String> work = new ArrayList<>( skus );
+    final List<CompletableFuture<ProductRec>> out = new ArrayList<>( work.size());
+    for ( int i = 0; i < work.size(); i++ )
+    {
+      out.add( new CompletableFuture<>());
+    }
+    
+    final AtomicInteger next = new AtomicInteger( 0 );
+    
+    for ( int i = 0; i < Math.min( maxConcurrent, work.size()); i++ )
+    {
+      startNextFullProduct( work, out, next, executor );
+    }
+    
+    return out;
+  }
+  
+  
+  /**
+   * Start retrieving the next sku in the list, and when that finishes, start
+   * the one after it.
+   * @param skus skus 
+   * @param out result futures 
+   * @param next next index to retrieve
+   * @param executor executor 
+   */
+  private void startNextFullProduct( final List<String> skus, 
+    final List<CompletableFuture<ProductRec>> out, final AtomicInteger next, 
+    final Executor executor )
+  {
+    final int i = next.getAndIncrement();
+    if ( i >= skus.size())
+      return;
+    
+    final CompletableFuture<ProductRec> res;
+    try {
+      res = getFullProductAsync( skus.get( i ), executor );
+    } catch( Exception e ) {
+      //..Invalid sku, etc.
+      out.get( i ).completeExceptionally( e );
+      startNextFullProduct( skus, out, next, executor );
+      return;
+    }
+    
+    //..Async so a long run of futures that are already complete doesn't 
+    //  recurse on the same stack.
+    res.whenCompleteAsync(( product, e ) -> {
+      if ( e != null )
+        out.get( i ).completeExceptionally(( e instanceof CompletionException && e.getCause() != null ) ? e.getCause() : e );
+      else
+        out.get( i ).complete( product );
+      
+      startNextFullProduct( skus, out, next, executor );
+    }, executor );
+  }
+  
+  
   /**
    * Retrieve product inventory by sku.
    * The inventory returned from this endpoint represents the number in the 
@@ -845,6 +1107,26 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
   }
 
   
+  /**
+   * Stream the entire sku list.
+   * Up to prefetch pages are requested at the same time on the supplied 
+   * executor, and the stream ends at the first short page.
+   * A failed request is thrown from the stream as a CompletionException.
+   * @param pageSize number of skus per request
+   * @param prefetch maximum number of pages to request ahead
+   * @param executor executor used to send the requests 
+   * @param parallel if the stream should be parallel
+   * @return sku stream 
+   */
+  @Override
+  public Stream<String> getSkuStream( final int pageSize, final int prefetch,
+    final Executor executor, final boolean parallel )
+  {
+    return PagedSpliterator.stream( this::getSkuList, pageSize, prefetch, 
+      executor, parallel );
+  }
+
+  
   /**
    * Get sales data.
    *  
@@ -1060,6 +1342,42 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
   
   
 
+  /**
+   * Write a product to the catalog store, if there is one
+   * @param product product 
+   */
+  private void mirror( final ProductRec product )
+  {
+    if ( catalog == null )
+      return;
+    
+    try {
+      catalog.put( product );
+    } catch( IOException e ) {
+      //..Jet has the data, so this isn't a failed request
+      APILog.error( LOG, e, "Failed to write", product.getMerchantSku(), "to the catalog store" );
+    }
+  }
+  
+  
+  /**
+   * Apply a partial update to a product in the catalog store, if it's there
+   * @param sku sku 
+   * @param update update 
+   */
+  private void mirror( final String sku, final UnaryOperator<ProductRec> update )
+  {
+    if ( catalog == null )
+      return;
+    
+    try {
+      catalog.update( sku, update );
+    } catch( IOException e ) {
+      APILog.error( LOG, e, "Failed to update", sku, "in the catalog store" );
+    }
+  }
+  
+  
   /**
    * Simply checks sku for null/empty.
    * If true, then throw an exception
@@ -1071,4 +1389,34 @@ public class JetAPIProduct extends JetAPI implements IJetAPIProduct
     if ( sku == null || sku.isEmpty())
       throw new IllegalArgumentException( "sku cannot be null or empty" );    
   }
+  
+  
+  /**
+   * A call to the jet api that throws checked exceptions 
+   * @param <T> Return type 
+   */
+  private interface JetCall<T>
+  {
+    public T call() throws APIException, JetException;
+  }
+  
+  
+  /**
+   * Wrap a jet api call in a Supplier for CompletableFuture.
+   * Checked exceptions are rethrown as a CompletionException, and the 
+   * original exception is available as the cause.
+   * @param <T> Return type 
+   * @param call call to wrap 
+   * @return supplier 
+   */
+  private static <T> Supplier<T> unchecked( final JetCall<T> call )
+  {
+    return () -> {
+      try {
+        return call.call();
+      } catch( APIException e ) {
+        throw new CompletionException( e );
+      }
+    };
+  }
 }
\ No newline at end of file
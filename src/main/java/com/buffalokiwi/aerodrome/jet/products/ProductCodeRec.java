@@ -15,6 +15,7 @@
 package com.buffalokiwi.aerodrome.jet.products;
 
 import com.buffalokiwi.aerodrome.jet.Jsonable;
+import java.util.Objects;
 import javax.json.Json;
 import javax.json.JsonObject;
 
@@ -128,6 +129,37 @@ public class ProductCodeRec implements Comparable, Jsonable
   }
 
 
+  @Override
+  public int hashCode()
+  {
+    int hash = 7;
+    hash = 29 * hash + Objects.hashCode( this.standardProductCode );
+    hash = 29 * hash + Objects.hashCode( this.standardProductCodeType );
+    return hash;
+  }
+
+
+  @Override
+  public boolean equals( Object obj )
+  {
+    if ( this == obj ) {
+      return true;
+    }
+    if ( obj == null ) {
+      return false;
+    }
+    if ( getClass() != obj.getClass() ) {
+      return false;
+    }
+    final ProductCodeRec other = (ProductCodeRec) obj;
+    if ( !Objects.equals( this.standardProductCode, other.standardProductCode ) ) {
+      return false;
+    }
+    
+    return this.standardProductCodeType == other.standardProductCodeType;
+  }
+
+
   /**
    * Sort this
    * @param code Code to compare to
@@ -16,7 +16,10 @@
 package com.buffalokiwi.aerodrome.jet.products;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * A utility for determining which endpoint(s) should be used when updating a
@@ -164,7 +167,7 @@ public class ProductDiff
     if ( isObjectListModified( original.getReturnsExceptions(), modified.getReturnsExceptions()))
      out.add( Type.RETURN_EXCEPTION );
     
-    if ( !original.getVariations().equals( modified.getVariations()))
+    if ( !Objects.equals( original.getVariations(), modified.getVariations()))
       out.add( Type.VARIATION );
     
     return out;
@@ -173,25 +176,41 @@ public class ProductDiff
   
   /**
    * Takes two lists of objects and ensures that they are equal by comparing size, 
-   * then checking to ensure that each item in original exists within modified.
+   * then checking to ensure that each item in original exists within modified
+   * the same number of times.
+   * Items are counted in a hash map, so this is linear instead of calling 
+   * contains() for every item.
    * @param <T> Object type 
    * @param original Original list
    * @param modified Modified list 
    * @return is modified 
    */
-  private <T extends Object> boolean isObjectListModified( final List<T> original, final List<T> modified )
+  static <T extends Object> boolean isObjectListModified( final List<T> original, final List<T> modified )
   {
     if ( original == null || modified == null )
       throw new IllegalArgumentException( "original and modified must not be null" );    
     else if ( original.size() != modified.size())
       return true;
+    else if ( original.isEmpty())
+      return false;
     
+    final Map<T,Integer> counts = new HashMap<>( original.size() * 2 );
     for ( final T o : original )
     {
-      if ( !modified.contains( o ))
+      counts.merge( o, 1, Integer::sum );
+    }
+    
+    for ( final T o : modified )
+    {
+      final Integer c = counts.get( o );
+      if ( c == null )
         return true;
+      else if ( c == 1 )
+        counts.remove( o );
+      else
+        counts.put( o, c - 1 );
     }    
     
-    return false;
+    return !counts.isEmpty();
   }
 }
@@ -3410,55 +3410,16 @@ public class ProductRec implements Jsonable
   
   /**
    * Test to see if this product record is valid enough to send.
+   * This stops at the first problem.  Use ProductValidator to see all of 
+   * them.
    * @return is mostly valid 
    * @throws ValidateException 
    */
   public void validate() throws ValidateException
   {
-    //..Start Required
-    
-    if ( title.length() < 5 || title.length() > 500 )
-      throw new ValidateException( "Title must be between 5 and 500 characters" );
-    else if ( multipackQuantity < 1 || multipackQuantity > 128 )
-      throw new ValidateException( "multipackQuantity must be between 1 and 128" );
-    else if ( productCodes.isEmpty() && asin.isEmpty())
-      throw new ValidateException( "If ASIN is not supplied, you must specify a product code (UPC, EAN, etc)" );
-    else if ( !asin.isEmpty() && asin.length() != 10 )
-      throw new ValidateException( "asin must be 10 characters in length" );
-    else if ( brand.isEmpty() || brand.length() > 100 )
-      throw new ValidateException( "brand must be between 1 and 100 characters" );
-    else if ( mainImageUrl.isEmpty())
-      throw new ValidateException( "mainImageUrl cannot be empty" );
-    
-    //..End Required
-    
-    else if ( !productDescription.isEmpty() && productDescription.length() > 2000 )
-      throw new ValidateException( "productDescription cannot be more than 2000 characters" );
-    else if ( !manufacturer.isEmpty() && manufacturer.length() > 100 )
-      throw new ValidateException( "manufacturer cannot be more than 100 characters" );
-    else if ( !mfrPartNumber.isEmpty() && mfrPartNumber.length() > 50 )
-      throw new ValidateException( "mfrPartNumber cannot be more than 50 characters" );
-    
-    if ( mapImplementation.equals( MAPType.NONE ))
-      throw new ValidateException( "MAP Type is required" );
-    else if ( mapImplementation.equals( MAPType.LOGGED_IN ))
-    {
-      if ( mapPrice.lessThanEqualToZero())
-        throw new ValidateException( "When map implementation is Logged In (102), you must specify a map price" );      
-    }
-    
-    if ( !attributesNodeSpecific.isEmpty() && attributesNodeSpecific.size() > 10 )
-      throw new ValidateException( "You can have a maximum of 10 attribute specific nodes.  You have " + String.valueOf( attributesNodeSpecific.size()));    
-    else if ( !countryOfOrigin.isEmpty() && countryOfOrigin.length() > 50 )
-      throw new ValidateException( "countryOfOrigin cannot be more than 50 characters" );
-    else if ( !safetyWarning.isEmpty() && safetyWarning.length() > 2000 )
-      throw new ValidateException( "safetyWarning cannot be more than 2000 characters" );
-    
-    
-    if ( productCodes.isEmpty() && asin.isEmpty())
-      throw new ValidateException( "You must select at least 1 product code or use asin" );
-    
-    
+    final List<ProductValidator.Violation> v = ProductValidator.DEFAULT.check( this );
+    if ( !v.isEmpty())
+      throw new ValidateException( v.get( 0 ).getMessage());
   }
   
 
@@ -0,0 +1,76 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.codec.FieldReader;
+import com.buffalokiwi.aerodrome.jet.codec.FieldWriter;
+import com.buffalokiwi.aerodrome.jet.codec.RecordCodec;
+
+
+/**
+ * Binary codec for ProductRec.
+ *
+ * The product fields use the same layout as CompactProductRec, with the
+ * dictionary stored alongside each record instead of shared.
+ *
+ * @author John Quinn
+ */
+public class ProductRecCodec extends RecordCodec<ProductRec>
+{
+  /**
+   * Current format version
+   */
+  public static final int VERSION = 1;
+
+  private static final int MERCHANT_SKU = 1;
+  private static final int FIELDS = 2;
+
+
+  /**
+   * Create a new codec
+   */
+  public ProductRecCodec()
+  {
+    super( PRODUCT, VERSION );
+  }
+
+
+  @Override
+  protected void write( final ProductRec rec, final FieldWriter w,
+    final StringDictionary dict )
+  {
+    w.writeString( MERCHANT_SKU, rec.getMerchantSku());
+    w.writeMessage( FIELDS, CompactProductRec.encode( rec, dict, new FieldWriter( 256 )));
+  }
+
+
+  @Override
+  protected ProductRec read( final FieldReader r, final StringDictionary dict,
+    final int version )
+  {
+    final ProductRec.Builder b = new ProductRec.Builder();
+    while ( r.next())
+    {
+      switch( r.getTag())
+      {
+        case MERCHANT_SKU: b.setMerchantSku( r.readString()); break;
+        case FIELDS: CompactProductRec.decode( r.readMessage(), dict, b ); break;
+        default: r.skip();
+      }
+    }
+
+    return b.build();
+  }
+}
@@ -0,0 +1,378 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.WriteBehindQueue;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * A write-behind queue for inventory and price updates.
+ *
+ * Only the latest pending value for each sku and fulfillment node is kept.
+ * When some update is superseded before it has been sent, the older value
+ * is simply replaced, so a burst of updates for a single sku turns into a
+ * single request.
+ *
+ * Pending updates are flushed on a schedule, or as soon as the number of
+ * pending skus reaches the flush threshold.  A flush sends each sku with the
+ * per sku endpoints, or when there are at least bulkThreshold skus, a single
+ * bulk inventory or price file.
+ *
+ * The number of pending skus is capped at maxPending.  When the queue is
+ * full, callers adding a new sku will block until a flush has made room.
+ * Updates to a sku that is already pending never block.
+ *
+ * Failed updates are logged and passed to the error handler.  They are not
+ * retried.
+ *
+ * @author John Quinn
+ */
+public class ProductUpdateQueue extends WriteBehindQueue
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( ProductUpdateQueue.class );
+
+
+  /**
+   * Builder
+   */
+  public static class Builder extends WriteBehindQueue.Builder<Builder>
+  {
+    private IJetAPIProduct productApi = null;
+    private IJetAPIBulkProductUpload bulkApi = null;
+    private BiConsumer<String,Exception> errorHandler = ( sku, e ) -> {};
+
+
+    /**
+     * Create a builder.
+     * A sku with both inventory and price pending counts twice against
+     * maxPending.
+     */
+    public Builder()
+    {
+      super( 100000, 1000, 5000L, 500 );
+    }
+
+
+    /**
+     * Set the product api used for per sku requests
+     * @param api api
+     * @return this
+     */
+    public Builder setProductApi( final IJetAPIProduct api )
+    {
+      Utils.checkNull( api, "api" );
+      productApi = api;
+      return this;
+    }
+
+
+    /**
+     * Set the bulk upload api used for bulk files
+     * @param api api
+     * @return this
+     */
+    public Builder setBulkApi( final IJetAPIBulkProductUpload api )
+    {
+      Utils.checkNull( api, "api" );
+      bulkApi = api;
+      return this;
+    }
+
+
+    /**
+     * Set the handler called with each sku that failed to send
+     * @param handler handler
+     * @return this
+     */
+    public Builder setErrorHandler( final BiConsumer<String,Exception> handler )
+    {
+      Utils.checkNull( handler, "handler" );
+      errorHandler = handler;
+      return this;
+    }
+
+
+    /**
+     * Build the queue and start the flush schedule
+     * @return queue
+     */
+    public ProductUpdateQueue build()
+    {
+      if ( productApi == null )
+        throw new IllegalArgumentException( "productApi must be set" );
+      else if ( bulkApi == null )
+        throw new IllegalArgumentException( "bulkApi must be set" );
+
+      return new ProductUpdateQueue( this );
+    }
+  } //..End Builder
+
+
+  /**
+   * Pending inventory by sku then by node id
+   */
+  private final ConcurrentMap<String,Map<String,FNodeInventoryRec>> inventory
+    = new ConcurrentHashMap<>();
+
+  /**
+   * Pending prices by sku
+   */
+  private final ConcurrentMap<String,ProductPriceRec> prices
+    = new ConcurrentHashMap<>();
+
+  /**
+   * Product api
+   */
+  private final IJetAPIProduct productApi;
+
+  /**
+   * Bulk api
+   */
+  private final IJetAPIBulkProductUpload bulkApi;
+
+  /**
+   * Error handler
+   */
+  private final BiConsumer<String,Exception> errorHandler;
+
+
+  private ProductUpdateQueue( final Builder b )
+  {
+    super( "ProductUpdateQueue", b );
+    productApi = b.productApi;
+    bulkApi = b.bulkApi;
+    errorHandler = b.errorHandler;
+    start();
+  }
+
+
+  /**
+   * Queue an inventory update for a single fulfillment node.
+   * This replaces any pending quantity for the same sku and node.
+   * @param sku sku
+   * @param node node inventory
+   */
+  public void updateInventory( final String sku, final FNodeInventoryRec node )
+  {
+    Utils.checkNull( node, "node" );
+    updateInventory( sku, Collections.singletonList( node ));
+  }
+
+
+  /**
+   * Queue an inventory update.
+   * This replaces any pending quantity for the same sku and node.  Pending
+   * quantities for other nodes are kept.
+   * @param sku sku
+   * @param nodes node inventory
+   */
+  public void updateInventory( final String sku, final List<FNodeInventoryRec> nodes )
+  {
+    Utils.checkNullEmpty( sku, "sku" );
+    Utils.checkNull( nodes, "nodes" );
+
+    put( inventory, sku, v -> {
+      final Map<String,FNodeInventoryRec> out = ( v == null ) ? new LinkedHashMap<>() : v;
+      for ( final FNodeInventoryRec n : nodes )
+      {
+        out.put( n.getNodeId(), n );
+      }
+
+      return out;
+    });
+  }
+
+
+  /**
+   * Queue a price update.
+   * The overall price replaces any pending price, and fulfillment node prices
+   * replace any pending price for the same node.
+   * @param sku sku
+   * @param price price
+   */
+  public void updatePrice( final String sku, final ProductPriceRec price )
+  {
+    Utils.checkNullEmpty( sku, "sku" );
+    Utils.checkNull( price, "price" );
+
+    put( prices, sku, v -> {
+      if ( v == null || v.getFulfillmentNodes().isEmpty())
+        return price;
+
+      final Map<String,FNodePriceRec> nodes = new LinkedHashMap<>();
+      for ( final FNodePriceRec n : v.getFulfillmentNodes())
+      {
+        nodes.put( n.getNodeId(), n );
+      }
+
+      for ( final FNodePriceRec n : price.getFulfillmentNodes())
+      {
+        nodes.put( n.getNodeId(), n );
+      }
+
+      return new ProductPriceRec( price.getPrice(), price.getLastUpdate(),
+        new ArrayList<>( nodes.values()));
+    });
+  }
+
+
+  /**
+   * Send everything that is pending.
+   * This blocks until the flush is done.
+   */
+  @Override
+  public synchronized void flush()
+  {
+    flushInventory();
+    flushPrices();
+  }
+
+
+  /**
+   * Send pending inventory
+   */
+  private void flushInventory()
+  {
+    final Map<String,Map<String,FNodeInventoryRec>> batch = drain( inventory );
+    if ( batch.isEmpty())
+      return;
+
+    APILog.info( LOG, "Flushing inventory for", String.valueOf( batch.size()), "skus" );
+
+    if ( batch.size() >= getBulkThreshold())
+    {
+      File file = null;
+      try {
+        file = File.createTempFile( "inventory-", ".json.gz", getWorkDir());
+        final BulkInventoryFileGenerator gen = new BulkInventoryFileGenerator( file );
+        try {
+          for ( final Map.Entry<String,Map<String,FNodeInventoryRec>> e : batch.entrySet())
+          {
+            gen.writeLine( e.getKey(), new ProductInventoryRec(
+              new ArrayList<>( e.getValue().values()), null ));
+          }
+        } finally {
+          gen.close();
+        }
+
+        bulkApi.uploadFile( file, BulkUploadFileType.INVENTORY );
+      } catch( APIException | IOException | ParseException e ) {
+        //..ParseException can't happen with a null last update date
+        APILog.error( LOG, "Failed to send inventory file", e.getMessage());
+        for ( final String sku : batch.keySet())
+        {
+          errorHandler.accept( sku, e );
+        }
+      } finally {
+        deleteFile( file );
+      }
+    }
+    else
+    {
+      for ( final Map.Entry<String,Map<String,FNodeInventoryRec>> e : batch.entrySet())
+      {
+        try {
+          productApi.sendPutProductInventory( e.getKey(),
+            new ArrayList<>( e.getValue().values()));
+        } catch( APIException ex ) {
+          APILog.error( LOG, "Failed to send inventory for", e.getKey(), ex.getMessage());
+          errorHandler.accept( e.getKey(), ex );
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Send pending prices
+   */
+  private void flushPrices()
+  {
+    final Map<String,ProductPriceRec> batch = drain( prices );
+    if ( batch.isEmpty())
+      return;
+
+    APILog.info( LOG, "Flushing prices for", String.valueOf( batch.size()), "skus" );
+
+    if ( batch.size() >= getBulkThreshold())
+    {
+      File file = null;
+      try {
+        file = File.createTempFile( "price-", ".json.gz", getWorkDir());
+        final BulkPriceFileGenerator gen = new BulkPriceFileGenerator( file );
+        try {
+          for ( final Map.Entry<String,ProductPriceRec> e : batch.entrySet())
+          {
+            gen.writeLine( e.getKey(), e.getValue());
+          }
+        } finally {
+          gen.close();
+        }
+
+        bulkApi.uploadFile( file, BulkUploadFileType.PRICE );
+      } catch( APIException | IOException e ) {
+        APILog.error( LOG, "Failed to send price file", e.getMessage());
+        for ( final String sku : batch.keySet())
+        {
+          errorHandler.accept( sku, e );
+        }
+      } finally {
+        deleteFile( file );
+      }
+    }
+    else
+    {
+      for ( final Map.Entry<String,ProductPriceRec> e : batch.entrySet())
+      {
+        try {
+          productApi.sendPutProductPrice( e.getKey(), e.getValue());
+        } catch( APIException ex ) {
+          APILog.error( LOG, "Failed to send price for", e.getKey(), ex.getMessage());
+          errorHandler.accept( e.getKey(), ex );
+        }
+      }
+    }
+  }
+
+
+  /**
+   * Delete some bulk file
+   * @param file file or null
+   */
+  private static void deleteFile( final File file )
+  {
+    if ( file != null && !file.delete())
+      file.deleteOnExit();
+  }
+}
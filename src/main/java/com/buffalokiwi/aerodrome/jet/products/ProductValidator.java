@@ -0,0 +1,682 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APILog;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Checks a batch of products before they are written to a bulk upload file.
+ *
+ * ProductRec.validate() stops at the first problem.  This runs every rule
+ * against every product and reports all of the violations for each sku, so
+ * a bad catalog can be fixed in one pass instead of one upload at a time.
+ * Products are checked in parallel on a ForkJoinPool.
+ *
+ * A merchant sku that appears more than once in a batch is also reported,
+ * since only one of the copies would end up on Jet.
+ *
+ * The default rules are the ones used by ProductRec.validate().  More can be
+ * added with the Builder.
+ *
+ * <pre>
+ * final ProductValidator.Report report = ProductValidator.DEFAULT.write( products, generator );
+ * for ( final ProductValidator.Violation v : report.getViolations())
+ * {
+ *   ...
+ * }
+ * </pre>
+ *
+ * @author John Quinn
+ */
+public class ProductValidator
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( ProductValidator.class );
+
+  /**
+   * Default number of products checked by a single task
+   */
+  public static final int DEFAULT_THRESHOLD = 500;
+
+  /**
+   * Field name used for duplicate sku violations
+   */
+  public static final String MERCHANT_SKU = "merchant_sku";
+
+  /**
+   * A validator with the default rules running on the common pool
+   */
+  public static final ProductValidator DEFAULT = new Builder().build();
+
+
+  /**
+   * A single check against a product
+   */
+  @FunctionalInterface
+  public static interface Rule
+  {
+    /**
+     * Check some product
+     * @param p product
+     * @return a message describing the problem, or null if the product passes
+     */
+    public String check( final ProductRec p );
+  }
+
+
+  /**
+   * A single problem with some product
+   */
+  public static class Violation
+  {
+    private final String sku;
+    private final String field;
+    private final String message;
+
+
+    public Violation( final String sku, final String field, final String message )
+    {
+      Utils.checkNull( sku, "sku" );
+      Utils.checkNull( field, "field" );
+      Utils.checkNull( message, "message" );
+
+      this.sku = sku;
+      this.field = field;
+      this.message = message;
+    }
+
+
+    /**
+     * The merchant sku
+     * @return sku
+     */
+    public String getSku()
+    {
+      return sku;
+    }
+
+
+    /**
+     * The jet field name the problem is with
+     * @return field
+     */
+    public String getField()
+    {
+      return field;
+    }
+
+
+    /**
+     * What is wrong
+     * @return message
+     */
+    public String getMessage()
+    {
+      return message;
+    }
+
+
+    @Override
+    public String toString()
+    {
+      return sku + " " + field + ": " + message;
+    }
+  }
+
+
+  /**
+   * The result of checking a batch
+   */
+  public static class Report
+  {
+    private final int checked;
+    private final Map<String,List<Violation>> violations;
+
+
+    private Report( final int checked, final Map<String,List<Violation>> violations )
+    {
+      this.checked = checked;
+      this.violations = Collections.unmodifiableMap( violations );
+    }
+
+
+    /**
+     * The number of products checked
+     * @return count
+     */
+    public int getCheckedCount()
+    {
+      return checked;
+    }
+
+
+    /**
+     * The number of products that passed
+     * @return count
+     */
+    public int getValidCount()
+    {
+      return checked - getInvalidCount();
+    }
+
+
+    /**
+     * The number of products that failed.  Every copy of a duplicated sku
+     * counts.
+     * @return count
+     */
+    public int getInvalidCount()
+    {
+      int n = 0;
+      for ( final List<Violation> v : violations.values())
+      {
+        n += countCopies( v );
+      }
+
+      return n;
+    }
+
+
+    /**
+     * If every product passed
+     * @return valid
+     */
+    public boolean isValid()
+    {
+      return violations.isEmpty();
+    }
+
+
+    /**
+     * If some sku passed
+     * @param sku merchant sku
+     * @return valid.  Skus that were not in the batch are valid.
+     */
+    public boolean isValid( final String sku )
+    {
+      return !violations.containsKey( sku );
+    }
+
+
+    /**
+     * Retrieve the violations for every failed sku in batch order
+     * @return violations by sku
+     */
+    public Map<String,List<Violation>> getViolationsBySku()
+    {
+      return violations;
+    }
+
+
+    /**
+     * Retrieve the violations for some sku
+     * @param sku merchant sku
+     * @return violations.  Empty if the sku passed.
+     */
+    public List<Violation> getViolations( final String sku )
+    {
+      final List<Violation> v = violations.get( sku );
+      if ( v == null )
+        return Collections.emptyList();
+
+      return v;
+    }
+
+
+    /**
+     * Retrieve every violation in batch order
+     * @return violations
+     */
+    public List<Violation> getViolations()
+    {
+      final List<Violation> out = new ArrayList<>();
+      for ( final List<Violation> v : violations.values())
+      {
+        out.addAll( v );
+      }
+
+      return out;
+    }
+
+
+    /**
+     * Retrieve the products from some batch that passed
+     * @param products the batch that was checked
+     * @return valid products in batch order
+     */
+    public List<ProductRec> filter( final Collection<ProductRec> products )
+    {
+      Utils.checkNull( products, "products" );
+
+      final List<ProductRec> out = new ArrayList<>( products.size());
+      for ( final ProductRec p : products )
+      {
+        if ( isValid( p.getMerchantSku()))
+          out.add( p );
+      }
+
+      return out;
+    }
+
+
+    @Override
+    public String toString()
+    {
+      return "Checked " + checked + " products: " + getValidCount() + " valid, "
+        + getInvalidCount() + " invalid (" + violations.size() + " skus)";
+    }
+
+
+    private static int countCopies( final List<Violation> v )
+    {
+      for ( final Violation x : v )
+      {
+        if ( x instanceof DuplicateViolation )
+          return (( DuplicateViolation )x).copies;
+      }
+
+      return 1;
+    }
+  }
+
+
+  /**
+   * Builds ProductValidator instances
+   */
+  public static class Builder
+  {
+    private final Map<String,List<Rule>> rules = new LinkedHashMap<>();
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int threshold = DEFAULT_THRESHOLD;
+    private boolean defaults = true;
+
+
+    /**
+     * Add a rule.  Rules run in the order they are added, after the default
+     * rules.
+     * @param field jet field name reported with any violation
+     * @param rule rule
+     * @return this
+     */
+    public Builder addRule( final String field, final Rule rule )
+    {
+      Utils.checkNullEmpty( field, "field" );
+      Utils.checkNull( rule, "rule" );
+
+      rules.computeIfAbsent( field, f -> new ArrayList<>()).add( rule );
+      return this;
+    }
+
+
+    /**
+     * Set if the rules used by ProductRec.validate() are included.
+     * Default is true.
+     * @param on on
+     * @return this
+     */
+    public Builder setDefaultRules( final boolean on )
+    {
+      defaults = on;
+      return this;
+    }
+
+
+    /**
+     * Set the pool the checks run on
+     * @param pool pool
+     * @return this
+     */
+    public Builder setPool( final ForkJoinPool pool )
+    {
+      Utils.checkNull( pool, "pool" );
+      this.pool = pool;
+      return this;
+    }
+
+
+    /**
+     * Set the number of products checked by a single task
+     * @param threshold threshold
+     * @return this
+     */
+    public Builder setThreshold( final int threshold )
+    {
+      Utils.checkIntGTZ( threshold, "threshold" );
+      this.threshold = threshold;
+      return this;
+    }
+
+
+    /**
+     * Build the validator
+     * @return validator
+     */
+    public ProductValidator build()
+    {
+      return new ProductValidator( this );
+    }
+  }
+
+
+  /**
+   * Reported once per duplicated sku
+   */
+  private static class DuplicateViolation extends Violation
+  {
+    private final int copies;
+
+    private DuplicateViolation( final String sku, final int copies )
+    {
+      super( sku, MERCHANT_SKU, "merchant sku appears " + copies + " times in this batch" );
+      this.copies = copies;
+    }
+  }
+
+
+  /**
+   * Field names and rules in the order they run
+   */
+  private final List<Map.Entry<String,Rule>> rules;
+
+  /**
+   * Pool
+   */
+  private final ForkJoinPool pool;
+
+  /**
+   * Products checked by a single task
+   */
+  private final int threshold;
+
+
+  /**
+   * Create a new validator
+   * @param b builder
+   */
+  private ProductValidator( final Builder b )
+  {
+    final List<Map.Entry<String,Rule>> r = new ArrayList<>();
+    if ( b.defaults )
+      addDefaultRules( r );
+
+    for ( final Map.Entry<String,List<Rule>> e : b.rules.entrySet())
+    {
+      for ( final Rule rule : e.getValue())
+      {
+        r.add( new AbstractMap.SimpleImmutableEntry<>( e.getKey(), rule ));
+      }
+    }
+
+    rules = Collections.unmodifiableList( r );
+    pool = b.pool;
+    threshold = b.threshold;
+  }
+
+
+  /**
+   * Run every rule against a single product in the calling thread
+   * @param p product
+   * @return violations in rule order.  Empty if the product is valid.
+   */
+  public List<Violation> check( final ProductRec p )
+  {
+    Utils.checkNull( p, "p" );
+
+    List<Violation> out = null;
+    for ( final Map.Entry<String,Rule> e : rules )
+    {
+      String msg;
+      try {
+        msg = e.getValue().check( p );
+      } catch( RuntimeException ex ) {
+        msg = "rule failed with " + ex.getClass().getSimpleName() + ": " + ex.getMessage();
+      }
+
+      if ( msg != null )
+      {
+        if ( out == null )
+          out = new ArrayList<>();
+
+        out.add( new Violation( p.getMerchantSku(), e.getKey(), msg ));
+      }
+    }
+
+    if ( out == null )
+      return Collections.emptyList();
+
+    return out;
+  }
+
+
+  /**
+   * Check a stream of products.
+   * This is not incremental.  The whole stream is collected into a list
+   * before any product is checked, so every product is held in memory and
+   * nothing is reported until the stream has ended.
+   * @param products products
+   * @return report
+   */
+  public Report validate( final Stream<ProductRec> products )
+  {
+    Utils.checkNull( products, "products" );
+    return validate( products.collect( Collectors.toList()));
+  }
+
+
+  /**
+   * Check a batch of products.
+   * This blocks until every product has been checked.
+   * @param products products
+   * @return report
+   */
+  public Report validate( final Collection<ProductRec> products )
+  {
+    Utils.checkNull( products, "products" );
+
+    final ProductRec[] arr = products.toArray( new ProductRec[products.size()] );
+    final Report report = validate( arr );
+    APILog.info( LOG, report.toString());
+    return report;
+  }
+
+
+  /**
+   * Check a batch of products and write the ones that passed to some bulk
+   * product file.  Products are written in batch order.
+   * @param products products
+   * @param gen generator
+   * @return report
+   */
+  public Report write( final Collection<ProductRec> products,
+    final BulkProductFileGenerator gen )
+  {
+    Utils.checkNull( gen, "gen" );
+
+    final Report r = validate( products );
+    for ( final ProductRec p : r.filter( products ))
+    {
+      gen.writeLine( p );
+    }
+
+    return r;
+  }
+
+
+  /**
+   * Check an array of products
+   * @param arr products
+   * @return report
+   */
+  private Report validate( final ProductRec[] arr )
+  {
+    final List<List<Violation>> results
+      = new ArrayList<>( Collections.nCopies( arr.length, null ));
+
+    if ( arr.length > 0 )
+      pool.invoke( new CheckTask( arr, results, 0, arr.length ));
+
+    //..Count copies of each sku
+    final Map<String,Integer> counts = new HashMap<>( arr.length * 2 );
+    for ( final ProductRec p : arr )
+    {
+      counts.merge( p.getMerchantSku(), 1, Integer::sum );
+    }
+
+    final Map<String,List<Violation>> out = new LinkedHashMap<>();
+    for ( int i = 0; i < arr.length; i++ )
+    {
+      final String sku = arr[i].getMerchantSku();
+      final int copies = counts.get( sku );
+
+      if ( results.get( i ).isEmpty() && copies == 1 )
+        continue;
+
+      List<Violation> v = out.get( sku );
+      if ( v == null )
+      {
+        v = new ArrayList<>();
+        if ( copies > 1 )
+          v.add( new DuplicateViolation( sku, copies ));
+
+        out.put( sku, v );
+      }
+
+      v.addAll( results.get( i ));
+    }
+
+    return new Report( arr.length, out );
+  }
+
+
+  /**
+   * The rules run by ProductRec.validate(), in the same order
+   * @param r list to add to
+   */
+  private static void addDefaultRules( final List<Map.Entry<String,Rule>> r )
+  {
+    rule( r, "product_title", p -> ( p.getTitle().length() < 5 || p.getTitle().length() > 500 )
+      ? "Title must be between 5 and 500 characters" : null );
+
+    rule( r, "multipack_quantity", p -> ( p.getMultipackQuantity() < 1 || p.getMultipackQuantity() > 128 )
+      ? "multipackQuantity must be between 1 and 128" : null );
+
+    rule( r, "standard_product_codes", p -> ( p.getProductCodes().isEmpty() && p.getAsin().isEmpty())
+      ? "If ASIN is not supplied, you must specify a product code (UPC, EAN, etc)" : null );
+
+    rule( r, "ASIN", p -> ( !p.getAsin().isEmpty() && p.getAsin().length() != 10 )
+      ? "asin must be 10 characters in length" : null );
+
+    rule( r, "brand", p -> ( p.getBrand().isEmpty() || p.getBrand().length() > 100 )
+      ? "brand must be between 1 and 100 characters" : null );
+
+    rule( r, "main_image_url", p -> p.getMainImageUrl().isEmpty()
+      ? "mainImageUrl cannot be empty" : null );
+
+    rule( r, "product_description", p -> p.getProductDescription().length() > 2000
+      ? "productDescription cannot be more than 2000 characters" : null );
+
+    rule( r, "manufacturer", p -> p.getManufacturer().length() > 100
+      ? "manufacturer cannot be more than 100 characters" : null );
+
+    rule( r, "mfr_part_number", p -> p.getMfrPartNumber().length() > 50
+      ? "mfrPartNumber cannot be more than 50 characters" : null );
+
+    rule( r, "map_implementation", p -> p.getMapImplementation() == MAPType.NONE
+      ? "MAP Type is required" : null );
+
+    rule( r, "map_price", p -> ( p.getMapImplementation() == MAPType.LOGGED_IN
+      && p.getMapPrice().lessThanEqualToZero())
+      ? "When map implementation is Logged In (102), you must specify a map price" : null );
+
+    rule( r, "attributes_node_specific", p -> p.getAttributesNodeSpecific().size() > 10
+      ? "You can have a maximum of 10 attribute specific nodes.  You have "
+        + String.valueOf( p.getAttributesNodeSpecific().size()) : null );
+
+    rule( r, "country_of_origin", p -> p.getCountryOfOrigin().length() > 50
+      ? "countryOfOrigin cannot be more than 50 characters" : null );
+
+    rule( r, "safety_warning", p -> p.getSafetyWarning().length() > 2000
+      ? "safetyWarning cannot be more than 2000 characters" : null );
+  }
+
+
+  private static void rule( final List<Map.Entry<String,Rule>> r,
+    final String field, final Rule rule )
+  {
+    r.add( new AbstractMap.SimpleImmutableEntry<>( field, rule ));
+  }
+
+
+  /**
+   * Checks some range of products
+   */
+  private class CheckTask extends RecursiveAction
+  {
+    private static final long serialVersionUID = 1L;
+
+    private final ProductRec[] arr;
+    private final List<List<Violation>> results;
+    private final int lo;
+    private final int hi;
+
+
+    private CheckTask( final ProductRec[] arr, final List<List<Violation>> results,
+      final int lo, final int hi )
+    {
+      this.arr = arr;
+      this.results = results;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+
+    @Override
+    protected void compute()
+    {
+      if ( hi - lo <= threshold )
+      {
+        for ( int i = lo; i < hi; i++ )
+        {
+          results.set( i, check( arr[i] ));
+        }
+      }
+      else
+      {
+        final int mid = ( lo + hi ) >>> 1;
+        invokeAll(
+          new CheckTask( arr, results, lo, mid ),
+          new CheckTask( arr, results, mid, hi ));
+      }
+    }
+  }
+}
@@ -0,0 +1,694 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.reports.OfferRec;
+import com.buffalokiwi.aerodrome.jet.reports.SkuSalesDataRec;
+import com.buffalokiwi.utils.MoneyCents;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntPredicate;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * A time series of sku sales data.
+ *
+ * Each sample is a row spread across one primitive array per metric: sku,
+ * time, sales rank, units sold in the last 30 days, my best offer and the
+ * best marketplace offer.  Skus are stored as StringDictionary ids.  Every
+ * row also points at the previous row for the same sku, and the latest row
+ * for each sku is kept by sku id, so the history of a sku is a walk down
+ * its own rows and never a scan of the table.
+ *
+ * Offer prices are stored as the lowest item plus shipping price in cents,
+ * or -1 when there were no offers.  A sales rank of zero means jet did not
+ * report one.
+ *
+ * The store can be written to and read from a file.  Columns are written one
+ * after the other, followed by a crc32 of everything before it.
+ *
+ * This is safe to use from multiple threads.  Reads run concurrently, and
+ * appends are exclusive.
+ *
+ * @author John Quinn
+ */
+public class SalesDataStore
+{
+  /**
+   * File header
+   */
+  private static final byte[] MAGIC = "AEROSLS".getBytes( StandardCharsets.US_ASCII );
+
+  /**
+   * Current file version
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Offer price when there are no offers
+   */
+  public static final long NO_PRICE = -1;
+
+
+  /**
+   * A single row
+   */
+  public static class Sample
+  {
+    private final String sku;
+    private final long time;
+    private final int salesRank;
+    private final int unitsSold;
+    private final long bestOffer;
+    private final long marketplaceOffer;
+
+
+    private Sample( final String sku, final long time, final int salesRank,
+      final int unitsSold, final long bestOffer, final long marketplaceOffer )
+    {
+      this.sku = sku;
+      this.time = time;
+      this.salesRank = salesRank;
+      this.unitsSold = unitsSold;
+      this.bestOffer = bestOffer;
+      this.marketplaceOffer = marketplaceOffer;
+    }
+
+
+    /**
+     * The sku
+     * @return sku
+     */
+    public String getSku()
+    {
+      return sku;
+    }
+
+
+    /**
+     * When the sample was taken
+     * @return epoch millis
+     */
+    public long getTime()
+    {
+      return time;
+    }
+
+
+    /**
+     * Sales rank
+     * @return rank or zero if jet did not report one
+     */
+    public int getSalesRank()
+    {
+      return salesRank;
+    }
+
+
+    /**
+     * Units sold in the last 30 days
+     * @return units
+     */
+    public int getUnitsSold()
+    {
+      return unitsSold;
+    }
+
+
+    /**
+     * The lowest item plus shipping price of my best offers
+     * @return cents or NO_PRICE
+     */
+    public long getBestOffer()
+    {
+      return bestOffer;
+    }
+
+
+    /**
+     * The lowest item plus shipping price of the best marketplace offers
+     * @return cents or NO_PRICE
+     */
+    public long getMarketplaceOffer()
+    {
+      return marketplaceOffer;
+    }
+
+
+    @Override
+    public String toString()
+    {
+      return sku + " @" + time + " rank=" + salesRank + " units=" + unitsSold
+        + " best=" + bestOffer + " marketplace=" + marketplaceOffer;
+    }
+  }
+
+
+  /**
+   * Compares two rows
+   */
+  @FunctionalInterface
+  private static interface RowOrder
+  {
+    /**
+     * Compare two rows
+     * @param a row
+     * @param b row
+     * @return less than zero if a ranks ahead of b
+     */
+    public int compare( final int a, final int b );
+  }
+
+
+  /**
+   * Sku ids
+   */
+  private final StringDictionary skus;
+
+  /**
+   * Columns.  Guarded by lock.
+   */
+  private int[] sku;
+  private long[] time;
+  private int[] rank;
+  private int[] units;
+  private long[] best;
+  private long[] market;
+
+  /**
+   * Previous row for the same sku or -1
+   */
+  private int[] prev;
+
+  /**
+   * Latest row by sku id or -1
+   */
+  private int[] latest;
+
+  /**
+   * Number of rows
+   */
+  private int size = 0;
+
+  /**
+   * Guards the columns
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+  /**
+   * Create a new store
+   */
+  public SalesDataStore()
+  {
+    this( 1024 );
+  }
+
+
+  /**
+   * Create a new store
+   * @param capacity initial number of rows
+   */
+  public SalesDataStore( final int capacity )
+  {
+    Utils.checkIntGTZ( capacity, "capacity" );
+
+    skus = new StringDictionary( capacity );
+    sku = new int[capacity];
+    time = new long[capacity];
+    rank = new int[capacity];
+    units = new int[capacity];
+    best = new long[capacity];
+    market = new long[capacity];
+    prev = new int[capacity];
+    latest = new int[Math.max( 16, capacity )];
+    Arrays.fill( latest, -1 );
+  }
+
+
+  /**
+   * Add a sample
+   * @param rec sales data
+   * @param timestamp when the data was retrieved in epoch millis
+   */
+  public void append( final SkuSalesDataRec rec, final long timestamp )
+  {
+    Utils.checkNull( rec, "rec" );
+
+    append( rec.getSku(), timestamp, rec.getSalesRank(), rec.getUnitsSold(),
+      lowest( rec.getBestOffers()), lowest( rec.getBestMarketplaceOffers()));
+  }
+
+
+  /**
+   * Add a sample
+   * @param merchantSku sku
+   * @param timestamp when the data was retrieved in epoch millis
+   * @param salesRank sales rank or zero
+   * @param unitsSold units sold in the last 30 days
+   * @param bestOffer my best offer in cents or NO_PRICE
+   * @param marketplaceOffer best marketplace offer in cents or NO_PRICE
+   */
+  public void append( final String merchantSku, final long timestamp,
+    final int salesRank, final int unitsSold, final long bestOffer,
+    final long marketplaceOffer )
+  {
+    Utils.checkNullEmpty( merchantSku, "merchantSku" );
+
+    final int id = skus.intern( merchantSku );
+
+    lock.writeLock().lock();
+    try {
+      if ( size == sku.length )
+        grow( size * 2 );
+
+      if ( id >= latest.length )
+      {
+        final int n = latest.length;
+        latest = Arrays.copyOf( latest, Math.max( id + 1, n * 2 ));
+        Arrays.fill( latest, n, latest.length, -1 );
+      }
+
+      sku[size] = id;
+      time[size] = timestamp;
+      rank[size] = salesRank;
+      units[size] = unitsSold;
+      best[size] = bestOffer;
+      market[size] = marketplaceOffer;
+      prev[size] = latest[id];
+      latest[id] = size;
+      size++;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve the number of samples
+   * @return size
+   */
+  public int size()
+  {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve the number of distinct skus
+   * @return count
+   */
+  public int getSkuCount()
+  {
+    return skus.size();
+  }
+
+
+  /**
+   * Retrieve the latest sample for some sku
+   * @param merchantSku sku
+   * @return sample or null
+   */
+  public Sample getLatest( final String merchantSku )
+  {
+    final int id = skus.getId( merchantSku );
+
+    lock.readLock().lock();
+    try {
+      if ( id < 0 || id >= latest.length || latest[id] < 0 )
+        return null;
+
+      return sample( latest[id] );
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve every sample for some sku
+   * @param merchantSku sku
+   * @return samples, oldest first
+   */
+  public List<Sample> getHistory( final String merchantSku )
+  {
+    return getHistory( merchantSku, Long.MIN_VALUE, Long.MAX_VALUE );
+  }
+
+
+  /**
+   * Retrieve the samples for some sku taken in some time range
+   * @param merchantSku sku
+   * @param from start in epoch millis, inclusive
+   * @param to end in epoch millis, exclusive
+   * @return samples, oldest first
+   */
+  public List<Sample> getHistory( final String merchantSku, final long from,
+    final long to )
+  {
+    final int id = skus.getId( merchantSku );
+
+    lock.readLock().lock();
+    try {
+      if ( id < 0 || id >= latest.length )
+        return Collections.emptyList();
+
+      final List<Sample> out = new ArrayList<>();
+      for ( int r = latest[id]; r >= 0; r = prev[r] )
+      {
+        if ( time[r] >= from && time[r] < to )
+          out.add( sample( r ));
+      }
+
+      Collections.reverse( out );
+      return out;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve the skus with the best current sales rank
+   * @param n maximum number of skus
+   * @return the latest sample for each sku, best rank first.  Skus without a
+   * rank are left out.
+   */
+  public List<Sample> getTopBySalesRank( final int n )
+  {
+    return top( n, r -> rank[r] > 0, ( a, b ) -> Integer.compare( rank[a], rank[b] ));
+  }
+
+
+  /**
+   * Retrieve the skus with the most units sold in the last 30 days
+   * @param n maximum number of skus
+   * @return the latest sample for each sku, most units first.  Skus without
+   * any sales are left out.
+   */
+  public List<Sample> getTopByUnitsSold( final int n )
+  {
+    return top( n, r -> units[r] > 0, ( a, b ) -> Integer.compare( units[b], units[a] ));
+  }
+
+
+  /**
+   * Write the store to some file
+   * @param file file
+   * @throws IOException
+   */
+  public void write( final File file ) throws IOException
+  {
+    Utils.checkNull( file, "file" );
+
+    final File tmp = new File( file.getPath() + ".tmp" );
+    final CRC32 crc = new CRC32();
+
+    lock.readLock().lock();
+    try ( final FileOutputStream fout = new FileOutputStream( tmp );
+          final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( fout, 64 * 1024 )))
+    {
+      final DataOutputStream cout = new DataOutputStream( new CheckedOutputStream( out, crc ));
+
+      cout.write( MAGIC );
+      cout.writeInt( VERSION );
+
+      final int skuCount = skus.size();
+      cout.writeInt( skuCount );
+      for ( int i = 0; i < skuCount; i++ )
+      {
+        cout.writeUTF( skus.get( i ));
+      }
+
+      cout.writeInt( size );
+      for ( int i = 0; i < size; i++ ) cout.writeInt( sku[i] );
+      for ( int i = 0; i < size; i++ ) cout.writeLong( time[i] );
+      for ( int i = 0; i < size; i++ ) cout.writeInt( rank[i] );
+      for ( int i = 0; i < size; i++ ) cout.writeInt( units[i] );
+      for ( int i = 0; i < size; i++ ) cout.writeLong( best[i] );
+      for ( int i = 0; i < size; i++ ) cout.writeLong( market[i] );
+
+      cout.flush();
+      out.writeLong( crc.getValue());
+      out.flush();
+      fout.getFD().sync();
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE );
+  }
+
+
+  /**
+   * Read a store from some file
+   * @param file file
+   * @return store
+   * @throws IOException if the file can't be read, is from a newer version,
+   * or fails its checksum
+   */
+  public static SalesDataStore read( final File file ) throws IOException
+  {
+    Utils.checkNull( file, "file" );
+
+    final CRC32 crc = new CRC32();
+    try ( final DataInputStream in = new DataInputStream( new BufferedInputStream(
+      new FileInputStream( file ), 64 * 1024 )))
+    {
+      final DataInputStream cin = new DataInputStream( new CheckedInputStream( in, crc ));
+
+      final byte[] magic = new byte[MAGIC.length];
+      cin.readFully( magic );
+      if ( !Arrays.equals( magic, MAGIC ))
+        throw new IOException( file.getPath() + " is not a sales data store" );
+
+      final int version = cin.readInt();
+      if ( version < 1 || version > VERSION )
+        throw new IOException( file.getPath() + " is store version " + version
+          + ".  The highest supported version is " + VERSION );
+
+      final int skuCount = cin.readInt();
+      final String[] names = new String[skuCount];
+      for ( int i = 0; i < skuCount; i++ )
+      {
+        names[i] = cin.readUTF();
+      }
+
+      final int rows = cin.readInt();
+      final SalesDataStore s = new SalesDataStore( Math.max( 1, rows ));
+      for ( final String name : names )
+      {
+        s.skus.intern( name );
+      }
+
+      for ( int i = 0; i < rows; i++ ) s.sku[i] = cin.readInt();
+      for ( int i = 0; i < rows; i++ ) s.time[i] = cin.readLong();
+      for ( int i = 0; i < rows; i++ ) s.rank[i] = cin.readInt();
+      for ( int i = 0; i < rows; i++ ) s.units[i] = cin.readInt();
+      for ( int i = 0; i < rows; i++ ) s.best[i] = cin.readLong();
+      for ( int i = 0; i < rows; i++ ) s.market[i] = cin.readLong();
+
+      final long expected = crc.getValue();
+      if ( in.readLong() != expected )
+        throw new IOException( file.getPath() + " failed its checksum" );
+
+      //..Rebuild the per sku chains
+      if ( s.latest.length < skuCount )
+      {
+        s.latest = new int[skuCount];
+        Arrays.fill( s.latest, -1 );
+      }
+
+      for ( int i = 0; i < rows; i++ )
+      {
+        if ( s.sku[i] < 0 || s.sku[i] >= skuCount )
+          throw new IOException( file.getPath() + " has an invalid sku id at row " + i );
+
+        s.prev[i] = s.latest[s.sku[i]];
+        s.latest[s.sku[i]] = i;
+      }
+
+      s.size = rows;
+      return s;
+    }
+  }
+
+
+  /**
+   * Select the best latest rows
+   * @param n maximum rows
+   * @param include row filter
+   * @param order row order
+   * @return samples in order
+   */
+  private List<Sample> top( final int n, final IntPredicate include,
+    final RowOrder order )
+  {
+    Utils.checkIntGTZ( n, "n" );
+
+    lock.readLock().lock();
+    try {
+      //..Bounded heap with the worst kept row on top
+      final int[] heap = new int[n];
+      int count = 0;
+
+      final int skuCount = Math.min( skus.size(), latest.length );
+      for ( int id = 0; id < skuCount; id++ )
+      {
+        final int r = latest[id];
+        if ( r < 0 || !include.test( r ))
+          continue;
+
+        if ( count < n )
+        {
+          heap[count] = r;
+          siftUp( heap, count++, order );
+        }
+        else if ( order.compare( r, heap[0] ) < 0 )
+        {
+          heap[0] = r;
+          siftDown( heap, count, order );
+        }
+      }
+
+      final Integer[] rows = new Integer[count];
+      for ( int i = 0; i < count; i++ )
+      {
+        rows[i] = heap[i];
+      }
+
+      Arrays.sort( rows, ( a, b ) -> order.compare( a, b ));
+
+      final List<Sample> out = new ArrayList<>( count );
+      for ( final Integer r : rows )
+      {
+        out.add( sample( r ));
+      }
+
+      return out;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  private static void siftUp( final int[] heap, int i, final RowOrder order )
+  {
+    while ( i > 0 )
+    {
+      final int p = ( i - 1 ) >>> 1;
+      if ( order.compare( heap[i], heap[p] ) <= 0 )
+        return;
+
+      swap( heap, i, p );
+      i = p;
+    }
+  }
+
+
+  private static void siftDown( final int[] heap, final int count, final RowOrder order )
+  {
+    int i = 0;
+    while ( true )
+    {
+      final int l = i * 2 + 1;
+      if ( l >= count )
+        return;
+
+      final int r = l + 1;
+      final int worst = ( r < count && order.compare( heap[r], heap[l] ) > 0 ) ? r : l;
+      if ( order.compare( heap[worst], heap[i] ) <= 0 )
+        return;
+
+      swap( heap, i, worst );
+      i = worst;
+    }
+  }
+
+
+  private static void swap( final int[] a, final int i, final int j )
+  {
+    final int t = a[i];
+    a[i] = a[j];
+    a[j] = t;
+  }
+
+
+  /**
+   * Build a sample from some row.  A lock must be held.
+   * @param r row
+   * @return sample
+   */
+  private Sample sample( final int r )
+  {
+    return new Sample( skus.get( sku[r] ), time[r], rank[r], units[r], best[r], market[r] );
+  }
+
+
+  private void grow( final int capacity )
+  {
+    sku = Arrays.copyOf( sku, capacity );
+    time = Arrays.copyOf( time, capacity );
+    rank = Arrays.copyOf( rank, capacity );
+    units = Arrays.copyOf( units, capacity );
+    best = Arrays.copyOf( best, capacity );
+    market = Arrays.copyOf( market, capacity );
+    prev = Arrays.copyOf( prev, capacity );
+  }
+
+
+  /**
+   * Find the lowest item plus shipping price in some offers
+   * @param offers offers
+   * @return cents or NO_PRICE
+   */
+  private static long lowest( final List<OfferRec> offers )
+  {
+    long out = NO_PRICE;
+    for ( final OfferRec o : offers )
+    {
+      final long p = MoneyCents.toCents( o.getItemPrice()) + MoneyCents.toCents( o.getShippingPrice());
+      if ( out == NO_PRICE || p < out )
+        out = p;
+    }
+
+    return out;
+  }
+}
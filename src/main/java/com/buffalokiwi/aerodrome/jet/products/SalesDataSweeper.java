@@ -0,0 +1,417 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.JetException;
+import com.buffalokiwi.aerodrome.jet.PagedSpliterator;
+import com.buffalokiwi.aerodrome.jet.RateBudget;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.aerodrome.jet.reports.SkuSalesDataRec;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import com.buffalokiwi.api.IAPIResponse;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Retrieves sales data for many skus and appends it to a SalesDataStore.
+ *
+ * Requests are sent on a fixed number of threads, and every request draws
+ * from a shared rate budget.  When jet answers with 429 or 503, the budget
+ * is pushed back by the backoff delay and the sku is tried again, up to the
+ * retry limit.  No more than maxPending skus are queued at once, so the sku
+ * source is only read as fast as the requests go out.
+ *
+ * <pre>
+ * final SalesDataStore store = new SalesDataStore();
+ * final SalesDataSweeper sweeper = new SalesDataSweeper.Builder( productApi, store )
+ *   .setThreads( 8 )
+ *   .setRequestsPerSecond( 20 )
+ *   .build();
+ *
+ * sweeper.sweepCatalog();
+ * final List&lt;SalesDataStore.Sample&gt; top = store.getTopByUnitsSold( 50 );
+ * </pre>
+ *
+ * @author John Quinn
+ */
+public class SalesDataSweeper
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( SalesDataSweeper.class );
+
+
+  /**
+   * Builds SalesDataSweeper instances
+   */
+  public static class Builder
+  {
+    private final IJetAPIProduct api;
+    private final SalesDataStore store;
+    private int threads = 4;
+    private double requestsPerSecond = 10;
+    private int maxPending = 100;
+    private int retries = 2;
+    private long backoff = TimeUnit.SECONDS.toMillis( 10 );
+    private int pageSize = 100;
+
+
+    /**
+     * Create a new builder
+     * @param api product api
+     * @param store where samples are appended
+     */
+    public Builder( final IJetAPIProduct api, final SalesDataStore store )
+    {
+      Utils.checkNull( api, "api" );
+      Utils.checkNull( store, "store" );
+      this.api = api;
+      this.store = store;
+    }
+
+
+    /**
+     * Set the number of threads sending requests
+     * @param threads threads
+     * @return this
+     */
+    public Builder setThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      this.threads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum number of requests sent per second
+     * @param requestsPerSecond rate
+     * @return this
+     */
+    public Builder setRequestsPerSecond( final double requestsPerSecond )
+    {
+      if ( requestsPerSecond <= 0 )
+        throw new IllegalArgumentException( "requestsPerSecond must be greater than zero" );
+
+      this.requestsPerSecond = requestsPerSecond;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum number of skus waiting for a request
+     * @param maxPending max
+     * @return this
+     */
+    public Builder setMaxPending( final int maxPending )
+    {
+      Utils.checkIntGTZ( maxPending, "maxPending" );
+      this.maxPending = maxPending;
+      return this;
+    }
+
+
+    /**
+     * Set the number of times a throttled request is tried again
+     * @param retries retries
+     * @return this
+     */
+    public Builder setRetries( final int retries )
+    {
+      if ( retries < 0 )
+        throw new IllegalArgumentException( "retries cannot be less than zero" );
+
+      this.retries = retries;
+      return this;
+    }
+
+
+    /**
+     * Set how long every request waits after jet throttles one
+     * @param delay delay
+     * @param unit unit
+     * @return this
+     */
+    public Builder setBackoff( final long delay, final TimeUnit unit )
+    {
+      Utils.checkNull( unit, "unit" );
+      if ( delay < 0 )
+        throw new IllegalArgumentException( "delay cannot be less than zero" );
+
+      this.backoff = unit.toMillis( delay );
+      return this;
+    }
+
+
+    /**
+     * Set the number of skus requested per page by sweepCatalog()
+     * @param pageSize page size
+     * @return this
+     */
+    public Builder setPageSize( final int pageSize )
+    {
+      Utils.checkIntGTZ( pageSize, "pageSize" );
+      this.pageSize = pageSize;
+      return this;
+    }
+
+
+    /**
+     * Build the sweeper
+     * @return sweeper
+     */
+    public SalesDataSweeper build()
+    {
+      return new SalesDataSweeper( this );
+    }
+  }
+
+
+  /**
+   * The outcome of a sweep
+   */
+  public static class Result
+  {
+    private final int requested;
+    private final int stored;
+    private final List<String> failed;
+
+
+    private Result( final int requested, final int stored, final List<String> failed )
+    {
+      this.requested = requested;
+      this.stored = stored;
+      this.failed = Collections.unmodifiableList( failed );
+    }
+
+
+    /**
+     * Number of skus requested
+     * @return count
+     */
+    public int getRequestedCount()
+    {
+      return requested;
+    }
+
+
+    /**
+     * Number of samples appended to the store
+     * @return count
+     */
+    public int getStoredCount()
+    {
+      return stored;
+    }
+
+
+    /**
+     * Skus that could not be retrieved
+     * @return skus
+     */
+    public List<String> getFailedSkus()
+    {
+      return failed;
+    }
+
+
+    @Override
+    public String toString()
+    {
+      return "Sales data sweep: " + requested + " requested, " + stored
+        + " stored, " + failed.size() + " failed";
+    }
+  }
+
+
+  private final IJetAPIProduct api;
+  private final SalesDataStore store;
+  private final int threads;
+  private final double requestsPerSecond;
+  private final int maxPending;
+  private final int retries;
+  private final long backoff;
+  private final int pageSize;
+
+
+  /**
+   * Create a new sweeper
+   * @param b builder
+   */
+  private SalesDataSweeper( final Builder b )
+  {
+    api = b.api;
+    store = b.store;
+    threads = b.threads;
+    requestsPerSecond = b.requestsPerSecond;
+    maxPending = b.maxPending;
+    retries = b.retries;
+    backoff = b.backoff;
+    pageSize = b.pageSize;
+  }
+
+
+  /**
+   * Retrieve sales data for every sku in the catalog.
+   * The sku list is paged with getSkuList() and draws from the same budget.
+   * A failed sku list request is thrown as a CompletionException once the
+   * skus already started have finished.
+   * @return result
+   */
+  public Result sweepCatalog()
+  {
+    final RateBudget budget = new RateBudget( requestsPerSecond );
+    final ExecutorService exec = Executors.newFixedThreadPool( threads );
+
+    try {
+      return sweep( PagedSpliterator.<String>stream(( offset, limit ) -> {
+        budget.acquire();
+        return api.getSkuList( offset, limit );
+      }, pageSize, 1, exec, false ).iterator(), budget, exec );
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+
+  /**
+   * Retrieve sales data for some skus
+   * @param skus skus
+   * @return result
+   */
+  public Result sweep( final Collection<String> skus )
+  {
+    Utils.checkNull( skus, "skus" );
+    return sweep( skus.iterator());
+  }
+
+
+  /**
+   * Retrieve sales data for some skus.
+   * The iterator is read as requests are sent.
+   * @param skus skus
+   * @return result
+   */
+  public Result sweep( final Iterator<String> skus )
+  {
+    Utils.checkNull( skus, "skus" );
+
+    final ExecutorService exec = Executors.newFixedThreadPool( threads );
+    try {
+      return sweep( skus, new RateBudget( requestsPerSecond ), exec );
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+
+  private Result sweep( final Iterator<String> skus, final RateBudget budget,
+    final ExecutorService exec )
+  {
+    final Semaphore pending = new Semaphore( maxPending );
+    final AtomicInteger stored = new AtomicInteger( 0 );
+    final List<String> failed = Collections.synchronizedList( new ArrayList<>());
+    int requested = 0;
+
+    try {
+      while ( skus.hasNext())
+      {
+        final String sku = skus.next();
+        if ( sku == null || sku.isEmpty())
+          continue;
+
+        pending.acquireUninterruptibly();
+        requested++;
+
+        CompletableFuture.runAsync(() -> {
+          if ( fetch( sku, budget ))
+            stored.incrementAndGet();
+          else
+            failed.add( sku );
+        }, exec ).whenComplete(( v, e ) -> pending.release());
+      }
+    } finally {
+      //..Wait for everything that was started
+      pending.acquireUninterruptibly( maxPending );
+      pending.release( maxPending );
+    }
+
+    final Result res;
+    synchronized( failed )
+    {
+      res = new Result( requested, stored.get(), new ArrayList<>( failed ));
+    }
+
+    APILog.info( LOG, res.toString());
+    return res;
+  }
+
+
+  /**
+   * Retrieve and store a single sku
+   * @param sku sku
+   * @param budget rate budget
+   * @return stored
+   */
+  private boolean fetch( final String sku, final RateBudget budget )
+  {
+    for ( int attempt = 0; ; attempt++ )
+    {
+      try {
+        budget.acquire();
+        final SkuSalesDataRec rec = api.getSkuSalesData( sku );
+        store.append( rec, System.currentTimeMillis());
+        return true;
+      } catch( JetException e ) {
+        if ( attempt < retries && isThrottled( e.getResponse()))
+        {
+          APILog.warn( LOG, "Sales data request for", sku, "was throttled.  Backing off" );
+          budget.backoff( backoff, TimeUnit.MILLISECONDS );
+          continue;
+        }
+
+        APILog.error( LOG, e, "Failed to retrieve sales data for", sku );
+        return false;
+      } catch( APIException | RuntimeException e ) {
+        APILog.error( LOG, e, "Failed to retrieve sales data for", sku );
+        return false;
+      }
+    }
+  }
+
+
+  private static boolean isThrottled( final IAPIResponse res )
+  {
+    if ( res == null || res.getStatusLine() == null )
+      return false;
+
+    final int code = res.getStatusLine().getStatusCode();
+    return code == 429 || code == 503;
+  }
+}
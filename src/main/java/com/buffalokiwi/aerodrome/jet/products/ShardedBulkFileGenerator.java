@@ -0,0 +1,697 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APILog;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import javax.json.Json;
+import javax.json.JsonValue;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Writes a bulk upload file as several gzipped parts using multiple threads.
+ *
+ * Lines are placed on a bounded queue and each worker thread serializes,
+ * compresses and writes them to its own part file.  When a part reaches the
+ * raw or compressed size cap, it is closed and the worker starts a new part.
+ * Each part is a complete json object that can be uploaded on its own.
+ *
+ * The compressed size of a part is estimated from the deflater while the
+ * part is being written, and a part is closed once it comes within
+ * COMPRESSED_SLACK bytes of the cap.
+ *
+ * Parts are named prefix-run-worker-sequence.json.gz, where run is a random
+ * id chosen for each generator, so generators sharing a directory and prefix
+ * don't write to the same files.  Parts are created with CREATE_NEW, and an
+ * existing file fails the write instead of being overwritten.
+ *
+ * Call finish() to wait for every worker and retrieve the manifest.  If a
+ * line can't be written, finish() throws and the unfinished parts are
+ * deleted.
+ * A part listener can be set to upload each part as soon as it has been
+ * closed.
+ *
+ * @author John Quinn
+ */
+public class ShardedBulkFileGenerator implements IBulkUploadFileGenerator
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( ShardedBulkFileGenerator.class );
+
+  /**
+   * The deflater may be holding this much compressed output that hasn't been
+   * counted yet.
+   */
+  public static final long COMPRESSED_SLACK = 65536L;
+
+  /**
+   * Tells a worker to stop
+   */
+  private static final Line STOP = new Line( null, null );
+
+
+  /**
+   * Builder
+   */
+  public static class Builder
+  {
+    private File directory = new File( System.getProperty( "java.io.tmpdir" ));
+    private String prefix = "bulk";
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private long maxRawBytes = Long.MAX_VALUE;
+    private long maxCompressedBytes = Long.MAX_VALUE;
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private int bufferSize = 65536;
+    private int queueSize = 10000;
+    private Consumer<BulkFileManifest.Part> partListener = null;
+
+
+    /**
+     * Create a builder with the default settings
+     */
+    public Builder()
+    {
+      //..Nothing to do
+    }
+
+
+    /**
+     * Create a copy of some builder
+     * @param b builder to copy
+     */
+    public Builder( final Builder b )
+    {
+      Utils.checkNull( b, "b" );
+      directory = b.directory;
+      prefix = b.prefix;
+      threads = b.threads;
+      maxRawBytes = b.maxRawBytes;
+      maxCompressedBytes = b.maxCompressedBytes;
+      compressionLevel = b.compressionLevel;
+      bufferSize = b.bufferSize;
+      queueSize = b.queueSize;
+      partListener = b.partListener;
+    }
+
+
+    /**
+     * Set the directory where part files are written
+     * @param dir directory
+     * @return this
+     */
+    public Builder setDirectory( final File dir )
+    {
+      Utils.checkNull( dir, "dir" );
+      if ( !dir.isDirectory() || !dir.canWrite())
+        throw new IllegalArgumentException( "Can't write to " + dir.getPath());
+
+      directory = dir;
+      return this;
+    }
+
+
+    /**
+     * Set the part filename prefix.
+     * Parts are named prefix-run-worker-sequence.json.gz
+     * @param prefix prefix
+     * @return this
+     */
+    public Builder setPrefix( final String prefix )
+    {
+      Utils.checkNullEmpty( prefix, "prefix" );
+      this.prefix = prefix;
+      return this;
+    }
+
+
+    /**
+     * Set the number of worker threads
+     * @param threads threads
+     * @return this
+     */
+    public Builder setThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      this.threads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum uncompressed size of a part
+     * @param bytes bytes
+     * @return this
+     */
+    public Builder setMaxRawBytes( final long bytes )
+    {
+      if ( bytes < 1 )
+        throw new IllegalArgumentException( "bytes must be greater than zero" );
+
+      maxRawBytes = bytes;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum compressed size of a part.
+     * This must be larger than COMPRESSED_SLACK.
+     * @param bytes bytes
+     * @return this
+     */
+    public Builder setMaxCompressedBytes( final long bytes )
+    {
+      if ( bytes <= COMPRESSED_SLACK )
+        throw new IllegalArgumentException( "bytes must be greater than " + COMPRESSED_SLACK );
+
+      maxCompressedBytes = bytes;
+      return this;
+    }
+
+
+    /**
+     * Set the gzip compression level.
+     * @param level 0-9 or Deflater.DEFAULT_COMPRESSION
+     * @return this
+     */
+    public Builder setCompressionLevel( final int level )
+    {
+      if (( level < 0 || level > 9 ) && level != Deflater.DEFAULT_COMPRESSION )
+        throw new IllegalArgumentException( "level must be between 0 and 9" );
+
+      compressionLevel = level;
+      return this;
+    }
+
+
+    /**
+     * Set the gzip and file buffer sizes
+     * @param size bytes
+     * @return this
+     */
+    public Builder setBufferSize( final int size )
+    {
+      Utils.checkIntGTZ( size, "size" );
+      bufferSize = size;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum number of lines waiting to be written.
+     * writeLine() blocks when the queue is full.
+     * @param size queue size
+     * @return this
+     */
+    public Builder setQueueSize( final int size )
+    {
+      Utils.checkIntGTZ( size, "size" );
+      queueSize = size;
+      return this;
+    }
+
+
+    /**
+     * Set a listener that is called from a worker thread each time a part
+     * file has been closed.
+     * @param listener listener
+     * @return this
+     */
+    public Builder setPartListener( final Consumer<BulkFileManifest.Part> listener )
+    {
+      Utils.checkNull( listener, "listener" );
+      partListener = listener;
+      return this;
+    }
+
+
+    /**
+     * Retrieve the directory where part files are written
+     * @return directory
+     */
+    File getDirectory()
+    {
+      return directory;
+    }
+
+
+    /**
+     * Retrieve the part listener
+     * @return listener or null
+     */
+    Consumer<BulkFileManifest.Part> getPartListener()
+    {
+      return partListener;
+    }
+
+
+    /**
+     * Test if either part size cap has been set.  Without one, a single part
+     * is written per worker and nothing is closed until finish().
+     * @return has a cap
+     */
+    boolean hasPartCap()
+    {
+      return maxRawBytes != Long.MAX_VALUE || maxCompressedBytes != Long.MAX_VALUE;
+    }
+
+
+    /**
+     * Build the generator and start the worker threads
+     * @return generator
+     */
+    public ShardedBulkFileGenerator build()
+    {
+      return new ShardedBulkFileGenerator( this );
+    }
+  } //..End Builder
+
+
+  /**
+   * A queued line
+   */
+  private static class Line
+  {
+    private final String sku;
+    private final Supplier<JsonValue> value;
+
+    private Line( final String sku, final Supplier<JsonValue> value )
+    {
+      this.sku = sku;
+      this.value = value;
+    }
+  }
+
+
+  /**
+   * Gzip stream that exposes the deflater counts
+   */
+  private static class PartOutputStream extends GZIPOutputStream
+  {
+    private PartOutputStream( final OutputStream out, final int size,
+      final int level ) throws IOException
+    {
+      super( out, size );
+      def.setLevel( level );
+    }
+
+
+    /**
+     * Compressed bytes produced so far
+     * @return bytes
+     */
+    private long getCompressedBytes()
+    {
+      return def.getBytesWritten();
+    }
+  }
+
+
+  /**
+   * Settings
+   */
+  private final Builder conf;
+
+  /**
+   * Lines waiting to be written
+   */
+  private final BlockingQueue<Line> queue;
+
+  /**
+   * Workers
+   */
+  private final List<Thread> workers = new ArrayList<>();
+
+  /**
+   * Completed parts
+   */
+  private final List<BulkFileManifest.Part> parts
+    = Collections.synchronizedList( new ArrayList<>());
+
+  /**
+   * First worker error
+   */
+  private final AtomicReference<Exception> error = new AtomicReference<>();
+
+  /**
+   * Random id for this generator used in part names
+   */
+  private final String runId = UUID.randomUUID().toString().substring( 0, 8 );
+
+  /**
+   * Thread id used for part names
+   */
+  private final AtomicInteger workerId = new AtomicInteger();
+
+  /**
+   * Set by finish()
+   */
+  private volatile boolean finished = false;
+
+
+  private ShardedBulkFileGenerator( final Builder b )
+  {
+    conf = b;
+    queue = new ArrayBlockingQueue<>( b.queueSize );
+
+    for ( int i = 0; i < b.threads; i++ )
+    {
+      final Thread t = new Thread( this::work, "ShardedBulkFileGenerator-" + i );
+      t.setDaemon( true );
+      workers.add( t );
+      t.start();
+    }
+  }
+
+
+  /**
+   * Write some line.
+   * This blocks when the queue is full.
+   * @param merchantSku sku
+   * @param line json
+   */
+  @Override
+  public void writeLine( final String merchantSku, final JsonValue line )
+  {
+    Utils.checkNull( line, "line" );
+    writeLine( merchantSku, () -> line );
+  }
+
+
+  /**
+   * Write some line.  The json is created on a worker thread.
+   * This blocks when the queue is full.
+   * @param merchantSku sku
+   * @param line json supplier
+   */
+  public void writeLine( final String merchantSku, final Supplier<JsonValue> line )
+  {
+    Utils.checkNullEmpty( merchantSku, "merchantSku" );
+    Utils.checkNull( line, "line" );
+
+    if ( finished )
+      throw new IllegalStateException( "finish() has already been called" );
+
+    try {
+      queue.put( new Line( merchantSku, line ));
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( "Interrupted while waiting for the queue", e );
+    }
+  }
+
+
+  /**
+   * Write a product.  ProductRec.toJSON() is called on a worker thread.
+   * @param product product
+   */
+  public void writeLine( final ProductRec product )
+  {
+    Utils.checkNull( product, "product" );
+    writeLine( product.getMerchantSku(), product::toJSON );
+  }
+
+
+  /**
+   * Wait for every line to be written and close all of the part files.
+   * @return manifest
+   * @throws IOException if any part could not be written
+   */
+  public BulkFileManifest finish() throws IOException
+  {
+    if ( !finished )
+    {
+      finished = true;
+
+      for ( int i = 0; i < workers.size(); i++ )
+      {
+        try {
+          queue.put( STOP );
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new IOException( "Interrupted while stopping workers", e );
+        }
+      }
+
+      for ( final Thread t : workers )
+      {
+        try {
+          t.join();
+        } catch( InterruptedException e ) {
+          Thread.currentThread().interrupt();
+          throw new IOException( "Interrupted while waiting for workers", e );
+        }
+      }
+    }
+
+    final Exception e = error.get();
+    if ( e instanceof IOException )
+      throw (IOException)e;
+    else if ( e != null )
+      throw new IOException( "Failed to write bulk file", e );
+
+    synchronized( parts )
+    {
+      return new BulkFileManifest( parts );
+    }
+  }
+
+
+  /**
+   * Calls finish().
+   * @throws UncheckedIOException if any part could not be written
+   */
+  @Override
+  public void close()
+  {
+    try {
+      finish();
+    } catch( IOException e ) {
+      throw new UncheckedIOException( "Failed to finish bulk file", e );
+    }
+  }
+
+
+  /**
+   * Worker loop
+   */
+  private void work()
+  {
+    final int id = workerId.getAndIncrement();
+    int seq = 0;
+    PartWriter part = null;
+
+    try {
+      while ( true )
+      {
+        final Line line = queue.take();
+        if ( line == STOP )
+          break;
+
+        //..Keep draining after an error so writeLine() doesn't block forever
+        if ( error.get() != null )
+          continue;
+
+        try {
+          final byte[] entry = toEntry( line );
+
+          if ( part != null && part.isFull( entry.length ))
+          {
+            completePart( part );
+            part = null;
+          }
+
+          if ( part == null )
+          {
+            part = new PartWriter( new File( conf.directory,
+              conf.prefix + "-" + runId + "-" + id + "-" + ( seq++ ) + ".json.gz" ));
+          }
+
+          part.write( entry );
+        } catch( IOException | RuntimeException e ) {
+          error.compareAndSet( null, e );
+          APILog.error( LOG, e, "Failed to write", line.sku );
+        }
+      }
+
+      if ( part != null && error.get() == null )
+      {
+        final PartWriter p = part;
+        part = null;
+        completePart( p );
+      }
+    } catch( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      error.compareAndSet( null, e );
+    } catch( IOException | RuntimeException e ) {
+      error.compareAndSet( null, e );
+    } finally {
+      //..Don't leave a truncated part in the output directory
+      if ( part != null )
+        part.abort();
+    }
+  }
+
+
+  /**
+   * Close some part and tell the listener
+   * @param part part
+   * @throws IOException
+   */
+  private void completePart( final PartWriter part ) throws IOException
+  {
+    final BulkFileManifest.Part p = part.close();
+    parts.add( p );
+
+    APILog.debug( LOG, "Completed part", p.toString());
+
+    if ( conf.partListener != null )
+      conf.partListener.accept( p );
+  }
+
+
+  /**
+   * Serialize a single "sku":{...} entry
+   * @param line line
+   * @return utf-8 bytes
+   */
+  private static byte[] toEntry( final Line line )
+  {
+    final String s = Json.createObjectBuilder()
+      .add( line.sku, line.value.get()).build().toString();
+
+    //..Strip the outer braces
+    return s.substring( 1, s.length() - 1 ).getBytes( StandardCharsets.UTF_8 );
+  }
+
+
+  /**
+   * Writes a single part file
+   */
+  private class PartWriter
+  {
+    private final File file;
+    private final PartOutputStream out;
+    private long raw = 0;
+    private int lines = 0;
+
+
+    private PartWriter( final File file ) throws IOException
+    {
+      this.file = file;
+
+      //..Fails if the file exists, so another generator's part is never overwritten
+      final OutputStream fout = Files.newOutputStream( file.toPath(),
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE );
+
+      try {
+        this.out = new PartOutputStream(
+          new BufferedOutputStream( fout, conf.bufferSize ),
+          conf.bufferSize, conf.compressionLevel );
+      } catch( IOException | RuntimeException e ) {
+        fout.close();
+        if ( !file.delete())
+          file.deleteOnExit();
+        throw e;
+      }
+
+      write( '{' );
+    }
+
+
+    /**
+     * Test if adding an entry would go past either cap
+     * @param len entry length
+     * @return is full
+     */
+    private boolean isFull( final int len )
+    {
+      //..separator and closing brace
+      return raw + len + 2 > conf.maxRawBytes
+        || out.getCompressedBytes() + COMPRESSED_SLACK > conf.maxCompressedBytes;
+    }
+
+
+    private void write( final byte[] entry ) throws IOException
+    {
+      if ( lines > 0 )
+        write( ',' );
+
+      out.write( entry );
+      raw += entry.length;
+      lines++;
+    }
+
+
+    private void write( final char c ) throws IOException
+    {
+      out.write( c );
+      raw++;
+    }
+
+
+    private BulkFileManifest.Part close() throws IOException
+    {
+      try {
+        write( '}' );
+        out.close();
+      } catch( IOException | RuntimeException e ) {
+        abort();
+        throw e;
+      }
+
+      return new BulkFileManifest.Part( file, lines, raw, file.length());
+    }
+
+
+    /**
+     * Close the stream and delete the file
+     */
+    private void abort()
+    {
+      try {
+        out.close();
+      } catch( IOException | RuntimeException e ) {
+        APILog.warn( LOG, e, "Failed to close", file.getPath());
+      }
+
+      if ( !file.delete())
+        file.deleteOnExit();
+    }
+  }
+}
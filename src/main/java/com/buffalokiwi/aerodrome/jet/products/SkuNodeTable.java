@@ -0,0 +1,694 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * A compact table holding a single long value for each
+ * (merchant sku, fulfillment node) pair.
+ *
+ * Sku and node strings are dictionary encoded to ints.  Values live in
+ * primitive arrays, split into stripes by sku, and each stripe has its own
+ * lock.  Within a stripe, each sku points to a chain of node entries.  An
+ * entry costs 16 bytes and a sku costs 8 bytes plus its string.  Nothing
+ * else is allocated per entry.
+ *
+ * Records are only created when they are read.
+ *
+ * @author John Quinn
+ * @param <R> Record type for a single node
+ */
+public abstract class SkuNodeTable<R>
+{
+  /**
+   * A single lock stripe
+   */
+  private static class Stripe
+  {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    //..Sku ids are shifted by this before hashing, since the low bits pick
+    //..the stripe and are the same for every sku in it.
+    private final int shift;
+
+    //..Open addressing sku table.  skuKeys holds sku id + 1, zero is empty.
+    private int[] skuKeys = new int[16];
+    private int[] skuHead = new int[16];
+    private int skuCount = 0;
+
+    //..Entries.  Index + 1 is used as a pointer, zero is the end of a chain.
+    private int[] node = new int[16];
+    private long[] value = new long[16];
+    private int[] next = new int[16];
+    private int entryCount = 0;
+    private int freeHead = 0;
+    private int liveCount = 0;
+
+
+    private Stripe( final int shift )
+    {
+      this.shift = shift;
+    }
+
+
+    /**
+     * Find the slot for some sku
+     * @param sku sku id
+     * @return the slot holding sku, or the empty slot where it would go
+     */
+    private int findSku( final int sku )
+    {
+      final int mask = skuKeys.length - 1;
+      int slot = StringDictionary.mix( sku >>> shift ) & mask;
+      while ( skuKeys[slot] != 0 && skuKeys[slot] != sku + 1 )
+      {
+        slot = ( slot + 1 ) & mask;
+      }
+
+      return slot;
+    }
+
+
+    /**
+     * Retrieve the slot for some sku, adding it if needed
+     * @param sku sku id
+     * @return slot
+     */
+    private int addSku( final int sku )
+    {
+      int slot = findSku( sku );
+      if ( skuKeys[slot] != 0 )
+        return slot;
+
+      if (( skuCount + 1 ) * 2 > skuKeys.length )
+      {
+        final int[] oldKeys = skuKeys;
+        final int[] oldHead = skuHead;
+        skuKeys = new int[oldKeys.length * 2];
+        skuHead = new int[oldKeys.length * 2];
+
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+          if ( oldKeys[i] != 0 )
+          {
+            final int s = findSku( oldKeys[i] - 1 );
+            skuKeys[s] = oldKeys[i];
+            skuHead[s] = oldHead[i];
+          }
+        }
+
+        slot = findSku( sku );
+      }
+
+      skuKeys[slot] = sku + 1;
+      skuCount++;
+      return slot;
+    }
+
+
+    /**
+     * Find the entry for some node in a chain
+     * @param head chain
+     * @param nodeId node
+     * @return entry pointer or zero
+     */
+    private int findEntry( final int head, final int nodeId )
+    {
+      for ( int e = head; e != 0; e = next[e - 1] )
+      {
+        if ( node[e - 1] == nodeId )
+          return e;
+      }
+
+      return 0;
+    }
+
+
+    /**
+     * Allocate an entry
+     * @return pointer
+     */
+    private int allocate()
+    {
+      liveCount++;
+
+      if ( freeHead != 0 )
+      {
+        final int e = freeHead;
+        freeHead = next[e - 1];
+        return e;
+      }
+
+      if ( entryCount == node.length )
+      {
+        final int n = node.length * 2;
+        node = Arrays.copyOf( node, n );
+        value = Arrays.copyOf( value, n );
+        next = Arrays.copyOf( next, n );
+      }
+
+      return ++entryCount;
+    }
+
+
+    /**
+     * Free every entry in a chain
+     * @param head chain
+     */
+    private void freeChain( final int head )
+    {
+      int e = head;
+      while ( e != 0 )
+      {
+        final int n = next[e - 1];
+        next[e - 1] = freeHead;
+        freeHead = e;
+        liveCount--;
+        e = n;
+      }
+    }
+  }
+
+
+  /**
+   * Sku ids
+   */
+  private final StringDictionary skus;
+
+  /**
+   * Node ids
+   */
+  private final StringDictionary nodes;
+
+  /**
+   * Stripes
+   */
+  private final Stripe[] stripes;
+
+
+  /**
+   * Create a new table
+   * @param expectedSkus expected number of skus
+   * @param stripes number of lock stripes.  Rounded up to a power of two.
+   */
+  protected SkuNodeTable( final int expectedSkus, final int stripes )
+  {
+    if ( stripes < 1 )
+      throw new IllegalArgumentException( "stripes must be greater than zero" );
+
+    skus = new StringDictionary( expectedSkus );
+    nodes = new StringDictionary( 64 );
+    this.stripes = new Stripe[Integer.highestOneBit( stripes * 2 - 1 )];
+    final int shift = Integer.numberOfTrailingZeros( this.stripes.length );
+    for ( int i = 0; i < this.stripes.length; i++ )
+    {
+      this.stripes[i] = new Stripe( shift );
+    }
+  }
+
+
+  /**
+   * Create a record
+   * @param nodeId node
+   * @param value stored value
+   * @return record
+   */
+  protected abstract R toRecord( final String nodeId, final long value );
+
+
+  /**
+   * Retrieve the node of some record
+   * @param rec record
+   * @return node id
+   */
+  protected abstract String getNodeId( final R rec );
+
+
+  /**
+   * Retrieve the value to store for some record
+   * @param rec record
+   * @return value
+   */
+  protected abstract long getValue( final R rec );
+
+
+  /**
+   * Retrieve the value for some sku and node
+   * @param sku sku
+   * @param nodeId node
+   * @param defaultValue returned when nothing is stored
+   * @return value
+   */
+  protected final long getValue( final String sku, final String nodeId,
+    final long defaultValue )
+  {
+    final int s = skus.getId( sku );
+    final int n = nodes.getId( nodeId );
+    if ( s < 0 || n < 0 )
+      return defaultValue;
+
+    final Stripe st = stripe( s );
+    st.lock.readLock().lock();
+    try {
+      final int slot = st.findSku( s );
+      if ( st.skuKeys[slot] == 0 )
+        return defaultValue;
+
+      final int e = st.findEntry( st.skuHead[slot], n );
+      return ( e == 0 ) ? defaultValue : st.value[e - 1];
+    } finally {
+      st.lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Set the value for some sku and node
+   * @param sku sku
+   * @param nodeId node
+   * @param value value
+   * @return if the stored value changed
+   */
+  protected final boolean setValue( final String sku, final String nodeId,
+    final long value )
+  {
+    Utils.checkNullEmpty( sku, "sku" );
+    Utils.checkNullEmpty( nodeId, "nodeId" );
+
+    final int s = skus.intern( sku );
+    final int n = nodes.intern( nodeId );
+
+    final Stripe st = stripe( s );
+    st.lock.writeLock().lock();
+    try {
+      final int slot = st.addSku( s );
+      final int e = st.findEntry( st.skuHead[slot], n );
+      if ( e != 0 )
+      {
+        if ( st.value[e - 1] == value )
+          return false;
+
+        st.value[e - 1] = value;
+        return true;
+      }
+
+      final int ne = st.allocate();
+      st.node[ne - 1] = n;
+      st.value[ne - 1] = value;
+      st.next[ne - 1] = st.skuHead[slot];
+      st.skuHead[slot] = ne;
+      return true;
+    } finally {
+      st.lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve every node record for some sku
+   * @param sku sku
+   * @return records.  Empty if the sku is not stored.
+   */
+  public List<R> get( final String sku )
+  {
+    final int s = skus.getId( sku );
+    if ( s < 0 )
+      return Collections.emptyList();
+
+    final int[] n;
+    final long[] v;
+    final int count;
+
+    final Stripe st = stripe( s );
+    st.lock.readLock().lock();
+    try {
+      final int slot = st.findSku( s );
+      if ( st.skuKeys[slot] == 0 || st.skuHead[slot] == 0 )
+        return Collections.emptyList();
+
+      int c = 0;
+      for ( int e = st.skuHead[slot]; e != 0; e = st.next[e - 1] )
+      {
+        c++;
+      }
+
+      n = new int[c];
+      v = new long[c];
+      count = c;
+
+      //..Chains are prepended, so fill from the end to return insertion order
+      for ( int e = st.skuHead[slot]; e != 0; e = st.next[e - 1] )
+      {
+        c--;
+        n[c] = st.node[e - 1];
+        v[c] = st.value[e - 1];
+      }
+    } finally {
+      st.lock.readLock().unlock();
+    }
+
+    final List<R> out = new ArrayList<>( count );
+    for ( int i = 0; i < count; i++ )
+    {
+      out.add( toRecord( nodes.get( n[i] ), v[i] ));
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Replace every node record for some sku
+   * @param sku sku
+   * @param records records.  An empty list removes the sku.
+   * @return if anything changed
+   */
+  public boolean set( final String sku, final List<R> records )
+  {
+    Utils.checkNullEmpty( sku, "sku" );
+    Utils.checkNull( records, "records" );
+
+    if ( records.isEmpty())
+      return remove( sku );
+
+    final int s = skus.intern( sku );
+    final int[] n = new int[records.size()];
+    final long[] v = new long[records.size()];
+    for ( int i = 0; i < n.length; i++ )
+    {
+      n[i] = nodes.intern( getNodeId( records.get( i )));
+      v[i] = getValue( records.get( i ));
+    }
+
+    final Stripe st = stripe( s );
+    st.lock.writeLock().lock();
+    try {
+      final int slot = st.addSku( s );
+      final int head = st.skuHead[slot];
+
+      if ( sameChain( st, head, n, v ))
+        return false;
+
+      st.freeChain( head );
+      st.skuHead[slot] = 0;
+
+      for ( int i = 0; i < n.length; i++ )
+      {
+        final int e = st.findEntry( st.skuHead[slot], n[i] );
+        if ( e != 0 )
+        {
+          //..A node listed twice keeps the last value
+          st.value[e - 1] = v[i];
+          continue;
+        }
+
+        final int ne = st.allocate();
+        st.node[ne - 1] = n[i];
+        st.value[ne - 1] = v[i];
+        st.next[ne - 1] = st.skuHead[slot];
+        st.skuHead[slot] = ne;
+      }
+
+      return true;
+    } finally {
+      st.lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Remove every node record for some sku
+   * @param sku sku
+   * @return if anything was stored
+   */
+  public boolean remove( final String sku )
+  {
+    final int s = skus.getId( sku );
+    if ( s < 0 )
+      return false;
+
+    final Stripe st = stripe( s );
+    st.lock.writeLock().lock();
+    try {
+      final int slot = st.findSku( s );
+      if ( st.skuKeys[slot] == 0 || st.skuHead[slot] == 0 )
+        return false;
+
+      //..The sku slot stays, since the id is never reused
+      st.freeChain( st.skuHead[slot] );
+      st.skuHead[slot] = 0;
+      return true;
+    } finally {
+      st.lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Remove a single node record
+   * @param sku sku
+   * @param nodeId node
+   * @return if it was stored
+   */
+  public boolean remove( final String sku, final String nodeId )
+  {
+    final int s = skus.getId( sku );
+    final int n = nodes.getId( nodeId );
+    if ( s < 0 || n < 0 )
+      return false;
+
+    final Stripe st = stripe( s );
+    st.lock.writeLock().lock();
+    try {
+      final int slot = st.findSku( s );
+      if ( st.skuKeys[slot] == 0 )
+        return false;
+
+      int prev = 0;
+      for ( int e = st.skuHead[slot]; e != 0; e = st.next[e - 1] )
+      {
+        if ( st.node[e - 1] == n )
+        {
+          if ( prev == 0 )
+            st.skuHead[slot] = st.next[e - 1];
+          else
+            st.next[prev - 1] = st.next[e - 1];
+
+          st.next[e - 1] = st.freeHead;
+          st.freeHead = e;
+          st.liveCount--;
+          return true;
+        }
+
+        prev = e;
+      }
+
+      return false;
+    } finally {
+      st.lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve the number of (sku, node) entries
+   * @return size
+   */
+  public long size()
+  {
+    long total = 0;
+    for ( final Stripe st : stripes )
+    {
+      st.lock.readLock().lock();
+      try {
+        total += st.liveCount;
+      } finally {
+        st.lock.readLock().unlock();
+      }
+    }
+
+    return total;
+  }
+
+
+  /**
+   * Iterate over every sku and its node records.
+   *
+   * Each stripe is copied under its read lock when the iterator reaches it,
+   * so every sku is seen in a consistent state, but changes to stripes that
+   * have not been reached yet will show up.  Records are created as each
+   * sku is returned.
+   *
+   * @return iterator
+   */
+  public Iterator<Map.Entry<String,List<R>>> iterator()
+  {
+    return new Iterator<Map.Entry<String,List<R>>>()
+    {
+      private int stripe = 0;
+
+      //..Copy of the current stripe, grouped by sku
+      private int[] sku = new int[0];
+      private int[] start = new int[0];
+      private int[] node = new int[0];
+      private long[] value = new long[0];
+      private int skuCount = 0;
+      private int pos = 0;
+
+
+      @Override
+      public boolean hasNext()
+      {
+        while ( pos == skuCount && stripe < stripes.length )
+        {
+          copy( stripes[stripe++] );
+        }
+
+        return pos < skuCount;
+      }
+
+
+      @Override
+      public Map.Entry<String,List<R>> next()
+      {
+        if ( !hasNext())
+          throw new NoSuchElementException();
+
+        final int from = start[pos];
+        final int to = start[pos + 1];
+        final List<R> recs = new ArrayList<>( to - from );
+        for ( int i = from; i < to; i++ )
+        {
+          recs.add( toRecord( nodes.get( node[i] ), value[i] ));
+        }
+
+        return new AbstractMap.SimpleImmutableEntry<>( skus.get( sku[pos++] ), recs );
+      }
+
+
+      private void copy( final Stripe st )
+      {
+        st.lock.readLock().lock();
+        try {
+          if ( sku.length < st.skuCount )
+          {
+            sku = new int[st.skuCount];
+            start = new int[st.skuCount + 1];
+          }
+
+          if ( node.length < st.liveCount )
+          {
+            node = new int[st.liveCount];
+            value = new long[st.liveCount];
+          }
+
+          int s = 0;
+          int e = 0;
+          for ( int slot = 0; slot < st.skuKeys.length; slot++ )
+          {
+            if ( st.skuKeys[slot] == 0 || st.skuHead[slot] == 0 )
+              continue;
+
+            sku[s] = st.skuKeys[slot] - 1;
+            start[s++] = e;
+
+            final int first = e;
+            for ( int p = st.skuHead[slot]; p != 0; p = st.next[p - 1] )
+            {
+              node[e] = st.node[p - 1];
+              value[e++] = st.value[p - 1];
+            }
+
+            reverse( first, e );
+          }
+
+          start[s] = e;
+          skuCount = s;
+          pos = 0;
+        } finally {
+          st.lock.readLock().unlock();
+        }
+      }
+
+
+      private void reverse( int from, int to )
+      {
+        for ( to--; from < to; from++, to-- )
+        {
+          final int n = node[from];
+          node[from] = node[to];
+          node[to] = n;
+
+          final long v = value[from];
+          value[from] = value[to];
+          value[to] = v;
+        }
+      }
+    };
+  }
+
+
+  /**
+   * If a chain holds exactly some nodes and values
+   * @param st stripe
+   * @param head chain
+   * @param n nodes
+   * @param v values
+   * @return same
+   */
+  private static boolean sameChain( final Stripe st, final int head,
+    final int[] n, final long[] v )
+  {
+    int count = 0;
+    for ( int e = head; e != 0; e = st.next[e - 1] )
+    {
+      count++;
+    }
+
+    if ( count != n.length )
+      return false;
+
+    for ( int i = 0; i < n.length; i++ )
+    {
+      final int e = st.findEntry( head, n[i] );
+      if ( e == 0 || st.value[e - 1] != v[i] )
+        return false;
+    }
+
+    return true;
+  }
+
+
+  /**
+   * Sku ids are dense, so the low bits spread skus evenly over the stripes
+   * @param skuId sku id
+   * @return stripe
+   */
+  private Stripe stripe( final int skuId )
+  {
+    return stripes[skuId & ( stripes.length - 1 )];
+  }
+}
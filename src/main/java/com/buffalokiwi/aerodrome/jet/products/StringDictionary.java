@@ -0,0 +1,230 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.products;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Assigns a dense int id to each distinct string.
+ *
+ * Ids start at zero and are never reused.  Lookups go through an open
+ * addressing table of ids, so the only objects held are the strings
+ * themselves.
+ *
+ * This is safe to use from multiple threads.
+ *
+ * @author John Quinn
+ */
+public class StringDictionary
+{
+  /**
+   * Strings by id
+   */
+  private String[] values;
+
+  /**
+   * Open addressing table of id + 1.  Zero is empty.
+   */
+  private int[] table;
+
+  /**
+   * Number of ids assigned
+   */
+  private int size = 0;
+
+  /**
+   * Guards everything
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+
+  /**
+   * Create a new dictionary
+   */
+  public StringDictionary()
+  {
+    this( 1024 );
+  }
+
+
+  /**
+   * Create a new dictionary
+   * @param expected expected number of strings
+   */
+  public StringDictionary( final int expected )
+  {
+    if ( expected < 0 )
+      throw new IllegalArgumentException( "expected must be greater than or equal to zero" );
+
+    values = new String[Math.max( 16, expected )];
+    table = new int[tableSize( values.length )];
+  }
+
+
+  /**
+   * Retrieve the id of some string, assigning one if needed
+   * @param value string
+   * @return id
+   */
+  public int intern( final String value )
+  {
+    Utils.checkNull( value, "value" );
+
+    final int id = getId( value );
+    if ( id >= 0 )
+      return id;
+
+    lock.writeLock().lock();
+    try {
+      int slot = find( value );
+      if ( table[slot] != 0 )
+        return table[slot] - 1;
+
+      if ( size == values.length )
+        values = Arrays.copyOf( values, values.length * 2 );
+
+      if (( size + 1 ) * 2 > table.length )
+      {
+        rehash( tableSize( values.length ));
+        slot = find( value );
+      }
+
+      values[size] = value;
+      table[slot] = ++size;
+      return size - 1;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve the id of some string
+   * @param value string
+   * @return id or -1 if the string has not been interned
+   */
+  public int getId( final String value )
+  {
+    if ( value == null )
+      return -1;
+
+    lock.readLock().lock();
+    try {
+      return table[find( value )] - 1;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve the string for some id
+   * @param id id
+   * @return string
+   * @throws IllegalArgumentException if the id was never assigned
+   */
+  public String get( final int id )
+  {
+    lock.readLock().lock();
+    try {
+      if ( id < 0 || id >= size )
+        throw new IllegalArgumentException( "Unknown id " + id );
+
+      return values[id];
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Retrieve the number of strings
+   * @return size
+   */
+  public int size()
+  {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+
+  /**
+   * Find the slot for some value.  A lock must be held.
+   * @param value value
+   * @return the slot holding value, or the empty slot where it would go
+   */
+  private int find( final String value )
+  {
+    final int mask = table.length - 1;
+    int slot = mix( value.hashCode()) & mask;
+
+    while ( table[slot] != 0 && !values[table[slot] - 1].equals( value ))
+    {
+      slot = ( slot + 1 ) & mask;
+    }
+
+    return slot;
+  }
+
+
+  private void rehash( final int newSize )
+  {
+    final int[] t = new int[newSize];
+    final int mask = newSize - 1;
+
+    for ( int i = 0; i < size; i++ )
+    {
+      int slot = mix( values[i].hashCode()) & mask;
+      while ( t[slot] != 0 )
+      {
+        slot = ( slot + 1 ) & mask;
+      }
+
+      t[slot] = i + 1;
+    }
+
+    table = t;
+  }
+
+
+  /**
+   * Retrieve a power of two table size that keeps the load under one half
+   * @param capacity number of values
+   * @return size
+   */
+  private static int tableSize( final int capacity )
+  {
+    return Integer.highestOneBit( Math.max( 16, capacity ) * 4 - 1 );
+  }
+
+
+  /**
+   * Spread the bits of a hash code
+   * @param h hash
+   * @return mixed hash
+   */
+  static int mix( final int h )
+  {
+    final int x = h * 0x9E3779B9;
+    return x ^ ( x >>> 16 );
+  }
+}
@@ -323,8 +323,8 @@ public class SkuSalesDataRec
     
     if ( us != null )
     {
-      b.setUnitsSoldLast30( json.getInt( "last_30_days", 0 ))
-       .setUnitsSoldLastUpdate( JetDate.fromJetValueOrNull( json.getString( "last_update", "" )));
+      b.setUnitsSoldLast30( us.getInt( "last_30_days", 0 ))
+       .setUnitsSoldLastUpdate( JetDate.fromJetValueOrNull( us.getString( "last_update", "" )));
     }
     
     final List<OfferRec> boList = new ArrayList<>();
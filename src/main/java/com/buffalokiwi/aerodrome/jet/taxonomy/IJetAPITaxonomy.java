@@ -17,6 +17,8 @@ import com.buffalokiwi.aerodrome.jet.IJetAPIResponse;
 import com.buffalokiwi.aerodrome.jet.JetException;
 import com.buffalokiwi.api.APIException;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 
 /**
@@ -71,6 +73,21 @@ public interface IJetAPITaxonomy extends IJetAPI
   public List<String> pollNodes( final int offset, final int limit ) 
     throws APIException, JetException;
 
+
+  /**
+   * Stream every node id.
+   * Up to prefetch pages are requested at the same time on the supplied 
+   * executor, and the stream ends at the first short page.
+   * A failed request is thrown from the stream as a CompletionException.
+   * @param pageSize number of nodes per request
+   * @param prefetch maximum number of pages to request ahead
+   * @param executor executor used to send the requests 
+   * @param parallel if the stream should be parallel
+   * @return node id stream
+   */
+  public Stream<String> getNodeStream( final int pageSize, final int prefetch,
+    final Executor executor, final boolean parallel );
+
   
   /**
    * Query for attribute node details
@@ -16,11 +16,14 @@ import com.buffalokiwi.aerodrome.jet.IJetAPIResponse;
 import com.buffalokiwi.aerodrome.jet.JetAPI;
 import com.buffalokiwi.aerodrome.jet.JetConfig;
 import com.buffalokiwi.aerodrome.jet.JetException;
+import com.buffalokiwi.aerodrome.jet.PagedSpliterator;
 import com.buffalokiwi.aerodrome.jet.Utils;
 import com.buffalokiwi.api.APIException;
 import com.buffalokiwi.api.IAPIHttpClient;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 import javax.json.JsonArray;
 import javax.json.JsonObject;
 
@@ -124,6 +127,26 @@ public class JetAPITaxonomy extends JetAPI implements IJetAPITaxonomy
   {
     return pollNodes( offset, limit, false );
   }
+
+  
+  /**
+   * Stream every node id.
+   * Up to prefetch pages are requested at the same time on the supplied 
+   * executor, and the stream ends at the first short page.
+   * A failed request is thrown from the stream as a CompletionException.
+   * @param pageSize number of nodes per request
+   * @param prefetch maximum number of pages to request ahead
+   * @param executor executor used to send the requests 
+   * @param parallel if the stream should be parallel
+   * @return node id stream
+   */
+  @Override
+  public Stream<String> getNodeStream( final int pageSize, final int prefetch,
+    final Executor executor, final boolean parallel )
+  {
+    return PagedSpliterator.stream( this::pollNodes, pageSize, prefetch, 
+      executor, parallel );
+  }
   
   
   /**
@@ -0,0 +1,458 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.taxonomy;
+
+import com.buffalokiwi.aerodrome.jet.JetException;
+import com.buffalokiwi.aerodrome.jet.PagedSpliterator;
+import com.buffalokiwi.aerodrome.jet.RateBudget;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import com.buffalokiwi.api.APIException;
+import com.buffalokiwi.api.APILog;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+
+/**
+ * Copies Jet's taxonomy into a TaxonomySnapshot.
+ *
+ * The node list is paged with pollNodes(), and then the node detail and the
+ * attribute rules for each node are requested on a fixed number of threads.
+ * Every request, including the node list pages, draws from a shared rate
+ * budget, so a crawl never sends more than the configured number of
+ * requests per second.
+ *
+ * refresh() starts from an existing snapshot and only requests nodes that
+ * are new or older than the maximum age.  Nodes that are no longer listed
+ * are dropped.  If a node fails to load during a refresh, the old copy is
+ * kept.
+ *
+ * <pre>
+ * final TaxonomyCrawler crawler = new TaxonomyCrawler.Builder( taxonomyApi )
+ *   .setThreads( 8 )
+ *   .setRequestsPerSecond( 20 )
+ *   .setMaxAge( 7, TimeUnit.DAYS )
+ *   .build();
+ *
+ * //..Reads the file if it exists, refreshes it and writes it back
+ * final TaxonomyCrawler.Result res = crawler.sync( new File( "taxonomy.dat" ));
+ * </pre>
+ *
+ * @author John Quinn
+ */
+public class TaxonomyCrawler
+{
+  /**
+   * Log
+   */
+  private static final Log LOG = LogFactory.getLog( TaxonomyCrawler.class );
+
+
+  /**
+   * Builds TaxonomyCrawler instances
+   */
+  public static class Builder
+  {
+    private final IJetAPITaxonomy api;
+    private int threads = 4;
+    private double requestsPerSecond = 10;
+    private long maxAge = TimeUnit.DAYS.toMillis( 7 );
+    private int pageSize = 100;
+
+
+    /**
+     * Create a new builder
+     * @param api taxonomy api
+     */
+    public Builder( final IJetAPITaxonomy api )
+    {
+      Utils.checkNull( api, "api" );
+      this.api = api;
+    }
+
+
+    /**
+     * Set the number of threads sending requests
+     * @param threads threads
+     * @return this
+     */
+    public Builder setThreads( final int threads )
+    {
+      Utils.checkIntGTZ( threads, "threads" );
+      this.threads = threads;
+      return this;
+    }
+
+
+    /**
+     * Set the maximum number of requests sent per second
+     * @param requestsPerSecond rate
+     * @return this
+     */
+    public Builder setRequestsPerSecond( final double requestsPerSecond )
+    {
+      if ( requestsPerSecond <= 0 )
+        throw new IllegalArgumentException( "requestsPerSecond must be greater than zero" );
+
+      this.requestsPerSecond = requestsPerSecond;
+      return this;
+    }
+
+
+    /**
+     * Set how old a node can get before refresh() requests it again
+     * @param maxAge age
+     * @param unit unit
+     * @return this
+     */
+    public Builder setMaxAge( final long maxAge, final TimeUnit unit )
+    {
+      Utils.checkNull( unit, "unit" );
+      if ( maxAge < 0 )
+        throw new IllegalArgumentException( "maxAge cannot be less than zero" );
+
+      this.maxAge = unit.toMillis( maxAge );
+      return this;
+    }
+
+
+    /**
+     * Set the number of node ids requested per page
+     * @param pageSize page size
+     * @return this
+     */
+    public Builder setPageSize( final int pageSize )
+    {
+      Utils.checkIntGTZ( pageSize, "pageSize" );
+      this.pageSize = pageSize;
+      return this;
+    }
+
+
+    /**
+     * Build the crawler
+     * @return crawler
+     */
+    public TaxonomyCrawler build()
+    {
+      return new TaxonomyCrawler( this );
+    }
+  }
+
+
+  /**
+   * The outcome of a crawl
+   */
+  public static class Result
+  {
+    private final TaxonomySnapshot snapshot;
+    private final int fetched;
+    private final int reused;
+    private final int removed;
+    private final int failed;
+
+
+    private Result( final TaxonomySnapshot snapshot, final int fetched,
+      final int reused, final int removed, final int failed )
+    {
+      this.snapshot = snapshot;
+      this.fetched = fetched;
+      this.reused = reused;
+      this.removed = removed;
+      this.failed = failed;
+    }
+
+
+    /**
+     * The new snapshot
+     * @return snapshot
+     */
+    public TaxonomySnapshot getSnapshot()
+    {
+      return snapshot;
+    }
+
+
+    /**
+     * Nodes requested from jet
+     * @return count
+     */
+    public int getFetchedCount()
+    {
+      return fetched;
+    }
+
+
+    /**
+     * Nodes copied from the previous snapshot
+     * @return count
+     */
+    public int getReusedCount()
+    {
+      return reused;
+    }
+
+
+    /**
+     * Nodes in the previous snapshot that are no longer listed
+     * @return count
+     */
+    public int getRemovedCount()
+    {
+      return removed;
+    }
+
+
+    /**
+     * Nodes that failed to load.  Any old copy of a failed node is kept.
+     * @return count
+     */
+    public int getFailedCount()
+    {
+      return failed;
+    }
+
+
+    @Override
+    public String toString()
+    {
+      return "Taxonomy crawl: " + snapshot.size() + " nodes, " + fetched + " fetched, "
+        + reused + " reused, " + removed + " removed, " + failed + " failed";
+    }
+  }
+
+
+  /**
+   * Api
+   */
+  private final IJetAPITaxonomy api;
+
+  /**
+   * Request threads
+   */
+  private final int threads;
+
+  /**
+   * Rate limit
+   */
+  private final double requestsPerSecond;
+
+  /**
+   * Max node age in millis
+   */
+  private final long maxAge;
+
+  /**
+   * Node list page size
+   */
+  private final int pageSize;
+
+
+  /**
+   * Create a new crawler
+   * @param b builder
+   */
+  private TaxonomyCrawler( final Builder b )
+  {
+    api = b.api;
+    threads = b.threads;
+    requestsPerSecond = b.requestsPerSecond;
+    maxAge = b.maxAge;
+    pageSize = b.pageSize;
+  }
+
+
+  /**
+   * Request every node
+   * @return result
+   * @throws APIException if the node list can't be retrieved
+   */
+  public Result crawl() throws APIException
+  {
+    return refresh( TaxonomySnapshot.EMPTY );
+  }
+
+
+  /**
+   * Read a snapshot file, refresh it and write it back.
+   * If the file does not exist, every node is requested.
+   * @param file snapshot file
+   * @return result
+   * @throws APIException if the node list can't be retrieved
+   * @throws IOException if the file can't be read or written
+   */
+  public Result sync( final File file ) throws APIException, IOException
+  {
+    Utils.checkNull( file, "file" );
+
+    final TaxonomySnapshot prev = file.exists() ? TaxonomySnapshot.read( file )
+      : TaxonomySnapshot.EMPTY;
+
+    final Result res = refresh( prev );
+    res.getSnapshot().write( file );
+    return res;
+  }
+
+
+  /**
+   * Build a new snapshot from an old one, requesting only nodes that are new
+   * or older than the maximum age.
+   * @param prev previous snapshot
+   * @return result
+   * @throws APIException if the node list can't be retrieved
+   */
+  public Result refresh( final TaxonomySnapshot prev ) throws APIException
+  {
+    Utils.checkNull( prev, "prev" );
+
+    final long now = System.currentTimeMillis();
+    final RateBudget budget = new RateBudget( requestsPerSecond );
+    final ExecutorService exec = Executors.newFixedThreadPool( threads );
+
+    try {
+      final List<Long> ids = listNodes( budget, exec );
+
+      final List<TaxonomySnapshot.Entry> entries = new ArrayList<>( ids.size());
+      final List<Long> stale = new ArrayList<>();
+      final List<CompletableFuture<TaxonomySnapshot.Entry>> pending = new ArrayList<>();
+
+      for ( final Long id : ids )
+      {
+        final TaxonomySnapshot.Entry old = prev.get( id );
+        if ( old != null && now - old.getFetched() < maxAge )
+          entries.add( old );
+        else
+        {
+          stale.add( id );
+          pending.add( CompletableFuture.supplyAsync(() -> fetch( id, budget ), exec ));
+        }
+      }
+
+      final int reused = entries.size();
+      int failed = 0;
+
+      for ( int i = 0; i < pending.size(); i++ )
+      {
+        try {
+          entries.add( pending.get( i ).join());
+        } catch( CompletionException e ) {
+          failed++;
+          APILog.error( LOG, e.getCause(), "Failed to retrieve taxonomy node", String.valueOf( stale.get( i )));
+
+          final TaxonomySnapshot.Entry old = prev.get( stale.get( i ));
+          if ( old != null )
+            entries.add( old );
+        }
+      }
+
+      final Set<Long> listed = new HashSet<>( ids );
+      final int removed = (int)prev.getNodeIds().stream()
+        .filter( id -> !listed.contains( id ))
+        .count();
+
+      final Result res = new Result( new TaxonomySnapshot( now, entries ),
+        pending.size() - failed, reused, removed, failed );
+
+      APILog.info( LOG, res.toString());
+      return res;
+    } finally {
+      exec.shutdown();
+    }
+  }
+
+
+  /**
+   * Retrieve every listed node id
+   * @param budget rate budget
+   * @param exec executor
+   * @return ids in listed order
+   * @throws APIException
+   */
+  private List<Long> listNodes( final RateBudget budget, final ExecutorService exec )
+    throws APIException
+  {
+    final List<String> ids;
+    try {
+      ids = PagedSpliterator.<String>stream(( offset, limit ) -> {
+        budget.acquire();
+        return api.pollNodes( offset, limit );
+      }, pageSize, 1, exec, false ).collect( Collectors.toList());
+    } catch( CompletionException e ) {
+      if ( e.getCause() instanceof APIException )
+        throw (APIException)e.getCause();
+      throw e;
+    }
+
+    final List<Long> out = new ArrayList<>( ids.size());
+    for ( final String id : ids )
+    {
+      try {
+        out.add( Long.parseLong( id ));
+      } catch( NumberFormatException e ) {
+        APILog.warn( LOG, "Skipping invalid taxonomy node id", id );
+      }
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Request the detail and attributes for some node
+   * @param id node id
+   * @param budget rate budget
+   * @return entry
+   * @throws CompletionException if either request fails
+   */
+  private TaxonomySnapshot.Entry fetch( final long id, final RateBudget budget )
+  {
+    final String nodeId = String.valueOf( id );
+    try {
+      budget.acquire();
+      final NodeRec node = api.getNodeDetail( nodeId );
+
+      budget.acquire();
+      List<AttrRec> attrs;
+      try {
+        attrs = api.getAttrDetail( nodeId );
+      } catch( JetException e ) {
+        //..Nodes without attributes return a 404
+        if ( e.getResponse() == null || e.getResponse().getStatusLine() == null
+          || e.getResponse().getStatusLine().getStatusCode() != 404 )
+        {
+          throw e;
+        }
+
+        attrs = Collections.emptyList();
+      }
+
+      return new TaxonomySnapshot.Entry( node, attrs, System.currentTimeMillis());
+    } catch( APIException e ) {
+      throw new CompletionException( e );
+    }
+  }
+}
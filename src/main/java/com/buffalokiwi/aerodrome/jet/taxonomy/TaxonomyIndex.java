@@ -0,0 +1,722 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.taxonomy;
+
+import com.buffalokiwi.aerodrome.jet.Utils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * A read-only index over Jet's taxonomy tree.
+ *
+ * Each node id is given a dense position.  Ids are kept in a sorted long
+ * array, so finding a node is a binary search, and the parent, depth and
+ * children of every node are int arrays indexed by position.  Children are
+ * packed into a single array with an offset per node.
+ *
+ * Node paths are split on "/" into a trie of segments.  Segments are matched
+ * without regard to case or surrounding whitespace.  Each trie entry keeps
+ * its child segments in a sorted array, so a path lookup is one binary
+ * search per segment.
+ *
+ * The attributes for a node are the ones listed for the node itself plus
+ * any inherited from its ancestors.  When a node and an ancestor both list
+ * an attribute id, the one closest to the node wins.  These sets are built
+ * once, and a node that adds nothing to its parent shares the parent's set.
+ *
+ * A parent id of zero, or one that is not in the index, makes a node a root.
+ *
+ * Instances are immutable and safe to share between threads.
+ *
+ * @author John Quinn
+ */
+public class TaxonomyIndex
+{
+  /**
+   * Path segment separator
+   */
+  public static final String PATH_SEPARATOR = "/";
+
+  /**
+   * Empty id list
+   */
+  private static final long[] NO_IDS = new long[0];
+
+  /**
+   * Empty attribute set
+   */
+  private static final AttrRec[] NO_ATTRS = new AttrRec[0];
+
+
+  /**
+   * Sorted node ids.  The position of an id is its index.
+   */
+  private final long[] ids;
+
+  /**
+   * Nodes by index
+   */
+  private final NodeRec[] nodes;
+
+  /**
+   * Parent index or -1 for a root
+   */
+  private final int[] parent;
+
+  /**
+   * Depth below the root.  Roots are zero.
+   */
+  private final int[] depth;
+
+  /**
+   * Offset of the first child of each node in children.  The last entry is
+   * the length of children.
+   */
+  private final int[] childStart;
+
+  /**
+   * Child indexes grouped by parent, in id order
+   */
+  private final int[] children;
+
+  /**
+   * Indexes of root nodes
+   */
+  private final int[] roots;
+
+  /**
+   * Effective attributes sorted by attribute id, by node index
+   */
+  private final AttrRec[][] attrs;
+
+  /**
+   * Attribute ids matching attrs
+   */
+  private final long[][] attrIds;
+
+  /**
+   * Sorted child segments of each trie entry
+   */
+  private final String[][] trieSegments;
+
+  /**
+   * Child trie entries matching trieSegments
+   */
+  private final int[][] trieChildren;
+
+  /**
+   * Node index for each trie entry, or -1
+   */
+  private final int[] trieNode;
+
+
+  /**
+   * Build an index from a snapshot
+   * @param snapshot snapshot
+   * @return index
+   */
+  public static TaxonomyIndex build( final TaxonomySnapshot snapshot )
+  {
+    Utils.checkNull( snapshot, "snapshot" );
+
+    final List<NodeRec> n = new ArrayList<>( snapshot.size());
+    final Map<Long,List<AttrRec>> a = new HashMap<>( snapshot.size() * 2 );
+    for ( final TaxonomySnapshot.Entry e : snapshot.getEntries())
+    {
+      n.add( e.getNode());
+      a.put( e.getNode().getJetNodeId(), e.getAttributes());
+    }
+
+    return new TaxonomyIndex( n, a );
+  }
+
+
+  /**
+   * Create a new index
+   * @param nodeList nodes
+   * @param attributes attributes listed for each node id.  Nodes missing
+   * from the map only inherit attributes.
+   * @throws IllegalArgumentException if a node id appears more than once
+   */
+  public TaxonomyIndex( final Collection<NodeRec> nodeList,
+    final Map<Long,List<AttrRec>> attributes )
+  {
+    Utils.checkNull( nodeList, "nodeList" );
+    Utils.checkNull( attributes, "attributes" );
+
+    final int n = nodeList.size();
+    final NodeRec[] sorted = nodeList.toArray( new NodeRec[n] );
+    Arrays.sort( sorted, ( x, y ) -> Long.compare( x.getJetNodeId(), y.getJetNodeId()));
+
+    ids = new long[n];
+    for ( int i = 0; i < n; i++ )
+    {
+      ids[i] = sorted[i].getJetNodeId();
+      if ( i > 0 && ids[i] == ids[i - 1] )
+        throw new IllegalArgumentException( "Node " + ids[i] + " appears more than once" );
+    }
+
+    nodes = sorted;
+    parent = new int[n];
+    childStart = new int[n + 1];
+
+    for ( int i = 0; i < n; i++ )
+    {
+      final long p = nodes[i].getJetParentNodeId();
+      parent[i] = ( p == 0 || p == ids[i] ) ? -1 : Arrays.binarySearch( ids, p );
+      if ( parent[i] < 0 )
+        parent[i] = -1;
+      else
+        childStart[parent[i]]++;
+    }
+
+    breakCycles();
+
+    //..Turn child counts into offsets
+    int sum = 0;
+    for ( int i = 0; i <= n; i++ )
+    {
+      final int c = childStart[i];
+      childStart[i] = sum;
+      sum += c;
+    }
+
+    children = new int[sum];
+    final int[] fill = Arrays.copyOf( childStart, n );
+    int rootCount = 0;
+    for ( int i = 0; i < n; i++ )
+    {
+      if ( parent[i] < 0 )
+        rootCount++;
+      else
+        children[fill[parent[i]]++] = i;
+    }
+
+    roots = new int[rootCount];
+    for ( int i = 0, r = 0; i < n; i++ )
+    {
+      if ( parent[i] < 0 )
+        roots[r++] = i;
+    }
+
+    //..Walk down from the roots so parents are always done first
+    depth = new int[n];
+    attrs = new AttrRec[n][];
+    attrIds = new long[n][];
+
+    final int[] stack = new int[n];
+    int top = 0;
+    for ( final int r : roots )
+    {
+      stack[top++] = r;
+    }
+
+    while ( top > 0 )
+    {
+      final int i = stack[--top];
+      final int p = parent[i];
+      depth[i] = ( p < 0 ) ? 0 : depth[p] + 1;
+
+      attrs[i] = merge(( p < 0 ) ? NO_ATTRS : attrs[p], attributes.get( ids[i] ));
+      attrIds[i] = ( p >= 0 && attrs[i] == attrs[p] ) ? attrIds[p] : toIds( attrs[i] );
+
+      for ( int c = childStart[i]; c < childStart[i + 1]; c++ )
+      {
+        stack[top++] = children[c];
+      }
+    }
+
+    //..Path trie
+    final List<TreeMap<String,Integer>> trie = new ArrayList<>();
+    final List<Integer> trieNodes = new ArrayList<>();
+    trie.add( new TreeMap<>());
+    trieNodes.add( -1 );
+
+    for ( int i = 0; i < n; i++ )
+    {
+      int t = 0;
+      for ( final String seg : split( nodes[i].getJetNodePath()))
+      {
+        Integer next = trie.get( t ).get( seg );
+        if ( next == null )
+        {
+          next = trie.size();
+          trie.get( t ).put( seg, next );
+          trie.add( new TreeMap<>());
+          trieNodes.add( -1 );
+        }
+
+        t = next;
+      }
+
+      //..Lowest id wins if two nodes share a path
+      if ( t > 0 && trieNodes.get( t ) < 0 )
+        trieNodes.set( t, i );
+    }
+
+    trieSegments = new String[trie.size()][];
+    trieChildren = new int[trie.size()][];
+    trieNode = new int[trie.size()];
+    for ( int t = 0; t < trie.size(); t++ )
+    {
+      final TreeMap<String,Integer> m = trie.get( t );
+      trieSegments[t] = m.keySet().toArray( new String[m.size()] );
+      trieChildren[t] = new int[m.size()];
+
+      int j = 0;
+      for ( final Integer c : m.values())
+      {
+        trieChildren[t][j++] = c;
+      }
+
+      trieNode[t] = trieNodes.get( t );
+    }
+  }
+
+
+  /**
+   * Retrieve the number of nodes
+   * @return size
+   */
+  public int size()
+  {
+    return ids.length;
+  }
+
+
+  /**
+   * Retrieve every node id
+   * @return ids in ascending order
+   */
+  public long[] getNodeIds()
+  {
+    return ids.clone();
+  }
+
+
+  /**
+   * Test if some node is in the index
+   * @param nodeId node id
+   * @return is indexed
+   */
+  public boolean contains( final long nodeId )
+  {
+    return Arrays.binarySearch( ids, nodeId ) >= 0;
+  }
+
+
+  /**
+   * Retrieve some node
+   * @param nodeId node id
+   * @return node or null
+   */
+  public NodeRec getNode( final long nodeId )
+  {
+    final int i = Arrays.binarySearch( ids, nodeId );
+    return ( i < 0 ) ? null : nodes[i];
+  }
+
+
+  /**
+   * Retrieve the root node ids
+   * @return ids
+   */
+  public long[] getRootIds()
+  {
+    return toIds( roots, 0, roots.length );
+  }
+
+
+  /**
+   * Retrieve the parent of some node
+   * @param nodeId node id
+   * @return parent id or zero for a root
+   * @throws IllegalArgumentException if the node is not indexed
+   */
+  public long getParentId( final long nodeId )
+  {
+    final int p = parent[index( nodeId )];
+    return ( p < 0 ) ? 0 : ids[p];
+  }
+
+
+  /**
+   * Retrieve the depth of some node below its root
+   * @param nodeId node id
+   * @return depth.  Roots are zero.
+   * @throws IllegalArgumentException if the node is not indexed
+   */
+  public int getDepth( final long nodeId )
+  {
+    return depth[index( nodeId )];
+  }
+
+
+  /**
+   * Retrieve the children of some node
+   * @param nodeId node id
+   * @return child ids in id order
+   * @throws IllegalArgumentException if the node is not indexed
+   */
+  public long[] getChildIds( final long nodeId )
+  {
+    final int i = index( nodeId );
+    return toIds( children, childStart[i], childStart[i + 1] );
+  }
+
+
+  /**
+   * Test if some node has no children
+   * @param nodeId node id
+   * @return is a leaf
+   * @throws IllegalArgumentException if the node is not indexed
+   */
+  public boolean isLeaf( final long nodeId )
+  {
+    final int i = index( nodeId );
+    return childStart[i] == childStart[i + 1];
+  }
+
+
+  /**
+   * Retrieve the ancestors of some node
+   * @param nodeId node id
+   * @return ids from the root down to the parent.  Empty for a root.
+   * @throws IllegalArgumentException if the node is not indexed
+   */
+  public long[] getAncestorIds( final long nodeId )
+  {
+    int i = index( nodeId );
+    if ( parent[i] < 0 )
+      return NO_IDS;
+
+    final long[] out = new long[depth[i]];
+    for ( int j = out.length - 1; j >= 0; j-- )
+    {
+      i = parent[i];
+      out[j] = ids[i];
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Test if one node is an ancestor of another
+   * @param ancestorId possible ancestor
+   * @param nodeId node id
+   * @return ancestorId is above nodeId in the tree
+   * @throws IllegalArgumentException if nodeId is not indexed
+   */
+  public boolean isAncestor( final long ancestorId, final long nodeId )
+  {
+    final int a = Arrays.binarySearch( ids, ancestorId );
+    if ( a < 0 )
+      return false;
+
+    int i = index( nodeId );
+    if ( depth[i] <= depth[a] )
+      return false;
+
+    while ( depth[i] > depth[a] )
+    {
+      i = parent[i];
+    }
+
+    return i == a;
+  }
+
+
+  /**
+   * Retrieve every node below some node
+   * @param nodeId node id
+   * @return descendant ids, parents before children
+   * @throws IllegalArgumentException if the node is not indexed
+   */
+  public long[] getDescendantIds( final long nodeId )
+  {
+    final int i = index( nodeId );
+
+    int[] out = new int[16];
+    int size = 0;
+    for ( int c = childStart[i]; c < childStart[i + 1]; c++ )
+    {
+      if ( size == out.length )
+        out = Arrays.copyOf( out, size * 2 );
+      out[size++] = children[c];
+    }
+
+    for ( int j = 0; j < size; j++ )
+    {
+      final int k = out[j];
+      for ( int c = childStart[k]; c < childStart[k + 1]; c++ )
+      {
+        if ( size == out.length )
+          out = Arrays.copyOf( out, size * 2 );
+        out[size++] = children[c];
+      }
+    }
+
+    return toIds( out, 0, size );
+  }
+
+
+  /**
+   * Find a node by its jet node path
+   * @param path path like "Clothing/Men/Shirts"
+   * @return node id or zero if no node has that path
+   */
+  public long findByPath( final String path )
+  {
+    final int t = findTrie( path );
+    return ( t <= 0 || trieNode[t] < 0 ) ? 0 : ids[trieNode[t]];
+  }
+
+
+  /**
+   * Find every node whose path starts with some segments
+   * @param prefix leading path segments
+   * @return node ids in path order
+   */
+  public long[] findByPathPrefix( final String prefix )
+  {
+    final int t = findTrie( prefix );
+    if ( t < 0 )
+      return NO_IDS;
+
+    int[] out = new int[16];
+    int size = 0;
+
+    final int[] stack = new int[trieNode.length];
+    int top = 0;
+    stack[top++] = t;
+    while ( top > 0 )
+    {
+      final int k = stack[--top];
+      if ( trieNode[k] >= 0 )
+      {
+        if ( size == out.length )
+          out = Arrays.copyOf( out, size * 2 );
+        out[size++] = trieNode[k];
+      }
+
+      for ( int c = trieChildren[k].length - 1; c >= 0; c-- )
+      {
+        stack[top++] = trieChildren[k][c];
+      }
+    }
+
+    return toIds( out, 0, size );
+  }
+
+
+  /**
+   * Retrieve the attributes that apply to some node, including any
+   * inherited from its ancestors
+   * @param nodeId node id
+   * @return attributes in attribute id order.  Empty if the node is not
+   * indexed.
+   */
+  public List<AttrRec> getAttributes( final long nodeId )
+  {
+    final int i = Arrays.binarySearch( ids, nodeId );
+    if ( i < 0 )
+      return Collections.emptyList();
+
+    return Collections.unmodifiableList( Arrays.asList( attrs[i] ));
+  }
+
+
+  /**
+   * Retrieve a single attribute that applies to some node
+   * @param nodeId node id
+   * @param attrId attribute id
+   * @return attribute or null if it does not apply or the node is not indexed
+   */
+  public AttrRec getAttribute( final long nodeId, final long attrId )
+  {
+    final int i = Arrays.binarySearch( ids, nodeId );
+    if ( i < 0 )
+      return null;
+
+    final int a = Arrays.binarySearch( attrIds[i], attrId );
+    return ( a < 0 ) ? null : attrs[i][a];
+  }
+
+
+  /**
+   * Test if an attribute applies to some node
+   * @param nodeId node id
+   * @param attrId attribute id
+   * @return applies
+   */
+  public boolean hasAttribute( final long nodeId, final long attrId )
+  {
+    return getAttribute( nodeId, attrId ) != null;
+  }
+
+
+  /**
+   * Retrieve the position of some node
+   * @param nodeId node id
+   * @return index
+   * @throws IllegalArgumentException if the node is not indexed
+   */
+  private int index( final long nodeId )
+  {
+    final int i = Arrays.binarySearch( ids, nodeId );
+    if ( i < 0 )
+      throw new IllegalArgumentException( "Node " + nodeId + " is not in the index" );
+
+    return i;
+  }
+
+
+  /**
+   * Walk the trie for some path
+   * @param path path
+   * @return trie entry or -1
+   */
+  private int findTrie( final String path )
+  {
+    if ( path == null )
+      return -1;
+
+    int t = 0;
+    for ( final String seg : split( path ))
+    {
+      final int c = Arrays.binarySearch( trieSegments[t], seg );
+      if ( c < 0 )
+        return -1;
+
+      t = trieChildren[t][c];
+    }
+
+    return t;
+  }
+
+
+  /**
+   * Detach any node whose parent chain loops back on itself
+   */
+  private void breakCycles()
+  {
+    //..0 is unvisited, 1 is on the current chain, 2 is known to reach a root
+    final byte[] state = new byte[parent.length];
+    for ( int i = 0; i < parent.length; i++ )
+    {
+      int j = i;
+      while ( j >= 0 && state[j] == 0 )
+      {
+        state[j] = 1;
+        j = parent[j];
+      }
+
+      final int loop = ( j >= 0 && state[j] == 1 ) ? j : -1;
+
+      for ( j = i; j >= 0 && state[j] == 1; j = parent[j] )
+      {
+        state[j] = 2;
+      }
+
+      if ( loop >= 0 )
+      {
+        //..This node is on a loop.  Make it a root.
+        childStart[parent[loop]]--;
+        parent[loop] = -1;
+      }
+    }
+  }
+
+
+  /**
+   * Split a path into normalized segments
+   * @param path path
+   * @return segments
+   */
+  private static List<String> split( final String path )
+  {
+    final List<String> out = new ArrayList<>();
+    for ( final String s : path.split( PATH_SEPARATOR ))
+    {
+      final String seg = s.trim().toLowerCase( Locale.ROOT );
+      if ( !seg.isEmpty())
+        out.add( seg );
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Add the attributes listed for a node to the ones it inherits
+   * @param inherited parent attributes sorted by id
+   * @param own attributes listed for the node or null
+   * @return merged attributes sorted by id.  inherited if own is empty.
+   */
+  private static AttrRec[] merge( final AttrRec[] inherited, final List<AttrRec> own )
+  {
+    if ( own == null || own.isEmpty())
+      return inherited;
+
+    final Map<Long,AttrRec> m = new LinkedHashMap<>();
+    for ( final AttrRec a : inherited )
+    {
+      m.put( a.getId(), a );
+    }
+
+    for ( final AttrRec a : own )
+    {
+      m.put( a.getId(), a );
+    }
+
+    final AttrRec[] out = m.values().toArray( new AttrRec[m.size()] );
+    Arrays.sort( out, ( x, y ) -> Long.compare( x.getId(), y.getId()));
+    return out;
+  }
+
+
+  private static long[] toIds( final AttrRec[] a )
+  {
+    final long[] out = new long[a.length];
+    for ( int i = 0; i < a.length; i++ )
+    {
+      out[i] = a[i].getId();
+    }
+
+    return out;
+  }
+
+
+  private long[] toIds( final int[] idx, final int from, final int to )
+  {
+    final long[] out = new long[to - from];
+    for ( int i = from; i < to; i++ )
+    {
+      out[i - from] = ids[idx[i]];
+    }
+
+    return out;
+  }
+}
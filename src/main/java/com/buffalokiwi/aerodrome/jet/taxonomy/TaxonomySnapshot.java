@@ -0,0 +1,434 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome.jet.taxonomy;
+
+import com.buffalokiwi.aerodrome.jet.ProductTaxCode;
+import com.buffalokiwi.aerodrome.jet.Utils;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+
+/**
+ * A local copy of Jet's taxonomy.
+ *
+ * Each entry holds the node detail, the attribute rules for the node and the
+ * time both were retrieved.  Snapshots are built by TaxonomyCrawler and can
+ * be written to and read from a file, so a service can start without asking
+ * Jet for anything.
+ *
+ * The file is written as:
+ *   magic, int version, long created, int count, entries, long crc32
+ *
+ * The crc covers everything before it.  A file from a newer version, or one
+ * that fails its checksum, is rejected with an IOException.  Files are
+ * written to a temporary file and then moved over the target, so a crash
+ * during a write leaves the previous snapshot in place.
+ *
+ * Instances are immutable.
+ *
+ * @author John Quinn
+ */
+public class TaxonomySnapshot
+{
+  /**
+   * File header
+   */
+  private static final byte[] MAGIC = "AEROTAX".getBytes( StandardCharsets.US_ASCII );
+
+  /**
+   * Current file version
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * An empty snapshot
+   */
+  public static final TaxonomySnapshot EMPTY = new TaxonomySnapshot( 0, Collections.emptyMap());
+
+
+  /**
+   * A single node
+   */
+  public static class Entry
+  {
+    private final NodeRec node;
+    private final List<AttrRec> attributes;
+    private final long fetched;
+
+
+    /**
+     * Create a new entry
+     * @param node node detail
+     * @param attributes attribute rules for the node
+     * @param fetched when the node was retrieved in epoch millis
+     */
+    public Entry( final NodeRec node, final List<AttrRec> attributes,
+      final long fetched )
+    {
+      Utils.checkNull( node, "node" );
+      Utils.checkNull( attributes, "attributes" );
+
+      this.node = node;
+      this.attributes = Collections.unmodifiableList( new ArrayList<>( attributes ));
+      this.fetched = fetched;
+    }
+
+
+    /**
+     * The node detail
+     * @return node
+     */
+    public NodeRec getNode()
+    {
+      return node;
+    }
+
+
+    /**
+     * The attribute rules for the node
+     * @return attributes
+     */
+    public List<AttrRec> getAttributes()
+    {
+      return attributes;
+    }
+
+
+    /**
+     * When the node was retrieved
+     * @return epoch millis
+     */
+    public long getFetched()
+    {
+      return fetched;
+    }
+  }
+
+
+  /**
+   * When the snapshot was built in epoch millis
+   */
+  private final long created;
+
+  /**
+   * Entries by node id
+   */
+  private final Map<Long,Entry> entries;
+
+
+  /**
+   * Create a new snapshot
+   * @param created when the snapshot was built in epoch millis
+   * @param entries entries
+   */
+  public TaxonomySnapshot( final long created, final Collection<Entry> entries )
+  {
+    this( created, index( entries ));
+  }
+
+
+  private TaxonomySnapshot( final long created, final Map<Long,Entry> entries )
+  {
+    this.created = created;
+    this.entries = Collections.unmodifiableMap( entries );
+  }
+
+
+  /**
+   * Read a snapshot from some file
+   * @param file file
+   * @return snapshot
+   * @throws IOException if the file can't be read, is from a newer version,
+   * or fails its checksum
+   */
+  public static TaxonomySnapshot read( final File file ) throws IOException
+  {
+    Utils.checkNull( file, "file" );
+
+    final CRC32 crc = new CRC32();
+    try ( final DataInputStream in = new DataInputStream( new BufferedInputStream(
+      new FileInputStream( file ), 64 * 1024 )))
+    {
+      final DataInputStream cin = new DataInputStream( new CheckedInputStream( in, crc ));
+
+      final byte[] magic = new byte[MAGIC.length];
+      cin.readFully( magic );
+      if ( !Arrays.equals( magic, MAGIC ))
+        throw new IOException( file.getPath() + " is not a taxonomy snapshot" );
+
+      final int version = cin.readInt();
+      if ( version < 1 || version > VERSION )
+        throw new IOException( file.getPath() + " is snapshot version " + version
+          + ".  The highest supported version is " + VERSION );
+
+      final long created = cin.readLong();
+      final int count = cin.readInt();
+      final Map<Long,Entry> entries = new HashMap<>( count * 2 );
+      for ( int i = 0; i < count; i++ )
+      {
+        final Entry e = readEntry( cin );
+        entries.put( e.getNode().getJetNodeId(), e );
+      }
+
+      final long expected = crc.getValue();
+      if ( in.readLong() != expected )
+        throw new IOException( file.getPath() + " failed its checksum" );
+
+      return new TaxonomySnapshot( created, entries );
+    }
+  }
+
+
+  /**
+   * Write this snapshot to some file
+   * @param file file
+   * @throws IOException
+   */
+  public void write( final File file ) throws IOException
+  {
+    Utils.checkNull( file, "file" );
+
+    final File tmp = new File( file.getPath() + ".tmp" );
+    final CRC32 crc = new CRC32();
+    try ( final FileOutputStream fout = new FileOutputStream( tmp );
+          final DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( fout, 64 * 1024 )))
+    {
+      final DataOutputStream cout = new DataOutputStream( new CheckedOutputStream( out, crc ));
+
+      cout.write( MAGIC );
+      cout.writeInt( VERSION );
+      cout.writeLong( created );
+      cout.writeInt( entries.size());
+      for ( final Entry e : entries.values())
+      {
+        writeEntry( cout, e );
+      }
+
+      cout.flush();
+      out.writeLong( crc.getValue());
+      out.flush();
+      fout.getFD().sync();
+    }
+
+    Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+      StandardCopyOption.ATOMIC_MOVE );
+  }
+
+
+  /**
+   * When the snapshot was built
+   * @return epoch millis
+   */
+  public long getCreated()
+  {
+    return created;
+  }
+
+
+  /**
+   * Retrieve the number of nodes
+   * @return size
+   */
+  public int size()
+  {
+    return entries.size();
+  }
+
+
+  /**
+   * Retrieve the node ids
+   * @return ids
+   */
+  public Set<Long> getNodeIds()
+  {
+    return entries.keySet();
+  }
+
+
+  /**
+   * Retrieve every entry
+   * @return entries
+   */
+  public Collection<Entry> getEntries()
+  {
+    return entries.values();
+  }
+
+
+  /**
+   * Retrieve some entry
+   * @param nodeId node id
+   * @return entry or null
+   */
+  public Entry get( final long nodeId )
+  {
+    return entries.get( nodeId );
+  }
+
+
+  /**
+   * Retrieve the detail for some node
+   * @param nodeId node id
+   * @return node or null
+   */
+  public NodeRec getNode( final long nodeId )
+  {
+    final Entry e = entries.get( nodeId );
+    return ( e == null ) ? null : e.getNode();
+  }
+
+
+  /**
+   * Retrieve the attribute rules for some node
+   * @param nodeId node id
+   * @return attributes.  Empty if the node is not in the snapshot.
+   */
+  public List<AttrRec> getAttributes( final long nodeId )
+  {
+    final Entry e = entries.get( nodeId );
+    return ( e == null ) ? Collections.emptyList() : e.getAttributes();
+  }
+
+
+  private static Map<Long,Entry> index( final Collection<Entry> entries )
+  {
+    Utils.checkNull( entries, "entries" );
+
+    final Map<Long,Entry> out = new HashMap<>( entries.size() * 2 );
+    for ( final Entry e : entries )
+    {
+      out.put( e.getNode().getJetNodeId(), e );
+    }
+
+    return out;
+  }
+
+
+  private static void writeEntry( final DataOutputStream out, final Entry e )
+    throws IOException
+  {
+    final NodeRec n = e.getNode();
+    out.writeLong( e.getFetched());
+    out.writeLong( n.getJetNodeId());
+    out.writeUTF( n.getJetNodeName());
+    out.writeUTF( n.getJetNodePath());
+    out.writeLong( n.getAmazonNodeId());
+    out.writeLong( n.getJetParentNodeId());
+    out.writeByte( n.getJetLevel().getText());
+    out.writeUTF( n.getTaxCode().getText());
+    out.writeBoolean( n.isActive());
+
+    out.writeInt( e.getAttributes().size());
+    for ( final AttrRec a : e.getAttributes())
+    {
+      out.writeLong( a.getId());
+      out.writeUTF( a.getDescription());
+      out.writeBoolean( a.isFreeText());
+      out.writeBoolean( a.isVariant());
+      writeList( out, a.getValues());
+      writeList( out, a.getUnits());
+
+      final AttrValidationRec v = a.getValidation();
+      out.writeBoolean( v != null );
+      if ( v != null )
+      {
+        out.writeUTF(( v.getDataType() == null ) ? "" : v.getDataType());
+        out.writeLong( v.getMinValue());
+        out.writeLong( v.getMaxValue());
+      }
+    }
+  }
+
+
+  private static Entry readEntry( final DataInputStream in ) throws IOException
+  {
+    final long fetched = in.readLong();
+    final NodeRec node = new NodeRec.Builder()
+      .setJetNodeId( in.readLong())
+      .setJetNodeName( in.readUTF())
+      .setJetNodePath( in.readUTF())
+      .setAmazonNodeId( in.readLong())
+      .setJetParentNodeId( in.readLong())
+      .setJetLevel( JetLevel.fromText( in.readByte()))
+      .setTaxCode( ProductTaxCode.fromText( in.readUTF()))
+      .setActive( in.readBoolean())
+      .build();
+
+    final int count = in.readInt();
+    final List<AttrRec> attrs = new ArrayList<>( count );
+    for ( int i = 0; i < count; i++ )
+    {
+      final AttrRec.Builder b = new AttrRec.Builder()
+        .setId( in.readLong())
+        .setDescription( in.readUTF())
+        .setFreeText( in.readBoolean())
+        .setVariant( in.readBoolean())
+        .setValues( readList( in ))
+        .setUnits( readList( in ));
+
+      if ( in.readBoolean())
+        b.setValidation( new AttrValidationRec( in.readUTF(), in.readLong(), in.readLong()));
+
+      attrs.add( b.build());
+    }
+
+    return new Entry( node, attrs, fetched );
+  }
+
+
+  private static void writeList( final DataOutputStream out, final List<String> list )
+    throws IOException
+  {
+    out.writeInt( list.size());
+    for ( final String s : list )
+    {
+      out.writeUTF( s );
+    }
+  }
+
+
+  private static List<String> readList( final DataInputStream in ) throws IOException
+  {
+    final int count = in.readInt();
+    final List<String> out = new ArrayList<>( count );
+    for ( int i = 0; i < count; i++ )
+    {
+      out.add( in.readUTF());
+    }
+
+    return out;
+  }
+}
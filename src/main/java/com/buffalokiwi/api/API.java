@@ -171,6 +171,58 @@ public class API implements IApi
   }
 
 
+  /**
+   * Perform a get-based request to some endpoint and stream the response 
+   * body to handler.  The body is not buffered, and maxDownloadSize does
+   * not apply.
+   * This does not go through executeRequest(), so subclasses don't add 
+   * anything to the request.
+   * @param url The URL
+   * @param headers Extra headers to send
+   * @param handler Reads the response body 
+   * @throws APIException If the status code is not 2xx, or if something 
+   * goes wrong 
+   */
+  @Override
+  public void getStream( final String url, final Map<String,String> headers,
+    final IResponseStreamHandler handler ) throws APIException
+  {
+    if ( handler == null )
+      throw new IllegalArgumentException( "handler cannot be null" );
+    
+    final HttpUriRequest get = createRequest( HttpMethod.GET, url, headers );
+    
+    try ( final CloseableHttpResponse response = client.getClient()
+      .execute( get, context ))
+    {
+      final int code = response.getStatusLine().getStatusCode();
+      
+      APILog.debug( LOG, String.valueOf( code ), 
+        response.getStatusLine().getReasonPhrase(), "for", 
+        get.getURI().toString());
+      
+      if ( code < 200 || code > 299 )
+      {
+        //..Closing the response without consuming it drops the connection
+        throw new APIException( "Failed to download " + get.getURI().toString()
+          + " (" + code + " " + response.getStatusLine().getReasonPhrase() + ")" );
+      }
+      
+      final HttpEntity entity = response.getEntity();
+      if ( entity == null )
+        return;
+      
+      try ( final InputStream in = entity.getContent()) {
+        handler.handle( in );
+      }
+    } catch( IOException e ) {
+      APILog.error( LOG, e );
+      throw new APIException( "Failed to read content stream.  " 
+        + e.getMessage(), e );
+    }
+  }
+  
+  
   /**
    * Perform a post-based request to some endpoint
    * @param url The URL
@@ -152,6 +152,12 @@ public class APIDate implements IAPIDate
     if ( value == null || value.isEmpty())
       return null;
     
+    //..Try the shape-based parser first.  This handles every format the 
+    //  api returns without throwing anything.
+    final ZonedDateTime fast = APIDateParser.parseOrNull( value );
+    if ( fast != null )
+      return new APIDate( fast );
+    
     for ( final DateTimeFormatter fmt : FORMATS )
     {
       try {
@@ -235,7 +241,7 @@ public class APIDate implements IAPIDate
   @Override
   public String getDateString( final String pattern )
   {
-    return date.format( DateTimeFormatter.ofPattern( pattern ));
+    return date.format( APIDateParser.ofPattern( pattern ));
   }
   
   
@@ -247,7 +253,7 @@ public class APIDate implements IAPIDate
   @Override
   public String getLocalDateString()
   {
-    return date.withZoneSameInstant( offset ).format(  DateTimeFormatter.ofPattern( FMT_LOCAL ));
+    return date.withZoneSameInstant( offset ).format( APIDateParser.ofPattern( FMT_LOCAL ));
   }  
   
   
@@ -290,4 +296,34 @@ public class APIDate implements IAPIDate
   {
     return getDateString( FMT_ZULU_MICRO );
   }
+  
+  
+  /**
+   * Dates are equal when they represent the same instant, regardless of 
+   * offset.
+   * @return hash 
+   */
+  @Override
+  public int hashCode()
+  {
+    return date.toInstant().hashCode();
+  }
+  
+  
+  @Override
+  public boolean equals( Object obj )
+  {
+    if ( this == obj ) {
+      return true;
+    }
+    if ( obj == null ) {
+      return false;
+    }
+    if ( getClass() != obj.getClass() ) {
+      return false;
+    }
+    
+    final APIDate other = (APIDate) obj;
+    return date.toInstant().equals( other.date.toInstant());
+  }
 }
@@ -0,0 +1,394 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.api;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * A date parser that looks at the shape of a date string (length and
+ * delimiter positions) and goes straight to the code that can parse it.
+ *
+ * The formatter list in APIDate is tried in order, and every miss throws
+ * a DateTimeParseException.  Every date format the api actually returns is
+ * handled here without any exceptions being thrown, and anything that isn't
+ * recognized returns null so the caller can fall back to the formatter list.
+ *
+ * Recognized shapes:
+ * yyyy-MM-dd'T'HH:mm:ss[.fraction][Z|+HH:MM|+HHMM|+HH]
+ * yyyy-MM-dd HH:mm:ss[.fraction][Z|+HH:MM|+HHMM|+HH]
+ * yyyy-MM-dd'T'HH:mm:ss[.fraction]+HH:MM[Region/Id]
+ * MM/dd/yyyy
+ *
+ * Dates without an offset use the offset of the system default zone,
+ * which is what APIDate has always done.
+ *
+ * This class also caches DateTimeFormatter instances by pattern.
+ *
+ * @author John Quinn
+ */
+public class APIDateParser
+{
+  /**
+   * The shape of some date string
+   */
+  public static enum Shape
+  {
+    /**
+     * yyyy-MM-dd'T'HH:mm:ss[.fraction] without any zone information
+     */
+    ISO_LOCAL,
+
+    /**
+     * yyyy-MM-dd'T'HH:mm:ss[.fraction] followed by Z or an offset
+     */
+    ISO_OFFSET,
+
+    /**
+     * An ISO offset date time followed by a region id in brackets
+     */
+    ISO_ZONED,
+
+    /**
+     * MM/dd/yyyy
+     */
+    US_DATE,
+
+    /**
+     * Something else
+     */
+    UNKNOWN
+  }
+
+  /**
+   * Length of yyyy-MM-ddTHH:mm:ss
+   */
+  private static final int ISO_BASE_LENGTH = 19;
+
+  /**
+   * Length of MM/dd/yyyy
+   */
+  private static final int US_DATE_LENGTH = 10;
+
+  /**
+   * Formatter cache by pattern
+   */
+  private static final ConcurrentMap<String,DateTimeFormatter> PATTERNS
+    = new ConcurrentHashMap<>();
+
+
+  /**
+   * Retrieve a formatter for some pattern.
+   * Formatters are immutable and thread safe, so they are created once per
+   * pattern and reused.
+   * @param pattern DateTimeFormatter pattern for ofPattern()
+   * @return formatter
+   * @throws IllegalArgumentException if the pattern is invalid
+   */
+  public static DateTimeFormatter ofPattern( final String pattern )
+    throws IllegalArgumentException
+  {
+    if ( pattern == null )
+      throw new IllegalArgumentException( "pattern can't be null" );
+
+    DateTimeFormatter fmt = PATTERNS.get( pattern );
+    if ( fmt == null )
+    {
+      fmt = DateTimeFormatter.ofPattern( pattern );
+      final DateTimeFormatter prev = PATTERNS.putIfAbsent( pattern, fmt );
+      if ( prev != null )
+        fmt = prev;
+    }
+
+    return fmt;
+  }
+
+
+  /**
+   * Determine the shape of some date string by looking at the length and
+   * the delimiter positions.
+   * This does not check that the rest of the characters are digits.
+   * @param value value to check
+   * @return shape
+   */
+  public static Shape classify( final String value )
+  {
+    if ( value == null )
+      return Shape.UNKNOWN;
+
+    final int len = value.length();
+
+    if ( len == US_DATE_LENGTH
+      && value.charAt( 2 ) == '/' && value.charAt( 5 ) == '/' )
+    {
+      return Shape.US_DATE;
+    }
+
+    if ( len < ISO_BASE_LENGTH
+      || value.charAt( 4 ) != '-'
+      || value.charAt( 7 ) != '-'
+      || ( value.charAt( 10 ) != 'T' && value.charAt( 10 ) != ' ' )
+      || value.charAt( 13 ) != ':'
+      || value.charAt( 16 ) != ':' )
+    {
+      return Shape.UNKNOWN;
+    }
+
+    if ( value.charAt( len - 1 ) == ']' )
+      return Shape.ISO_ZONED;
+
+    //..Skip any fraction and see what's left
+    int i = skipFraction( value, ISO_BASE_LENGTH );
+
+    if ( i == len )
+      return Shape.ISO_LOCAL;
+
+    final char c = value.charAt( i );
+    if ( c == 'Z' || c == '+' || c == '-' )
+      return Shape.ISO_OFFSET;
+
+    return Shape.UNKNOWN;
+  }
+
+
+  /**
+   * Parse some date string.
+   * @param value value to parse
+   * @return the date or null if the value isn't one of the recognized shapes,
+   * or if it contains invalid values.
+   */
+  public static ZonedDateTime parseOrNull( final String value )
+  {
+    if ( value == null || value.isEmpty())
+      return null;
+
+    final String s = value.trim();
+
+    try {
+      switch( classify( s ))
+      {
+        case ISO_LOCAL:
+        case ISO_OFFSET:
+          return parseIso( s );
+
+        case ISO_ZONED:
+          return ZonedDateTime.parse( s, DateTimeFormatter.ISO_ZONED_DATE_TIME );
+
+        case US_DATE:
+          return parseUSDate( s );
+
+        default:
+          return null;
+      }
+    } catch( DateTimeException e ) {
+      //..Includes DateTimeParseException.  Let the caller deal with it.
+      return null;
+    }
+  }
+
+
+  /**
+   * Parse yyyy-MM-dd[T ]HH:mm:ss[.fraction][zone] by hand.
+   * @param s value
+   * @return date or null
+   * @throws DateTimeException if any of the fields are out of range
+   */
+  private static ZonedDateTime parseIso( final String s ) throws DateTimeException
+  {
+    final int year = digits( s, 0, 4 );
+    final int month = digits( s, 5, 2 );
+    final int day = digits( s, 8, 2 );
+    final int hour = digits( s, 11, 2 );
+    final int minute = digits( s, 14, 2 );
+    final int second = digits( s, 17, 2 );
+
+    if (( year | month | day | hour | minute | second ) < 0 )
+      return null;
+
+    int nano = 0;
+    int i = ISO_BASE_LENGTH;
+
+    if ( i < s.length() && s.charAt( i ) == '.' )
+    {
+      final int end = skipFraction( s, i );
+      final int count = end - i - 1;
+      if ( count < 1 || count > 9 )
+        return null;
+
+      nano = digits( s, i + 1, count );
+      if ( nano < 0 )
+        return null;
+
+      for ( int j = count; j < 9; j++ )
+      {
+        nano *= 10;
+      }
+
+      i = end;
+    }
+
+    final LocalDateTime local = LocalDateTime.of(
+      year, month, day, hour, minute, second, nano );
+
+    if ( i == s.length())
+      return ZonedDateTime.of( local, systemOffset());
+
+    final ZoneOffset offset = parseOffset( s, i );
+    if ( offset == null )
+      return null;
+
+    return ZonedDateTime.of( local, offset );
+  }
+
+
+  /**
+   * Parse Z, +HH, +HHMM or +HH:MM starting at start.
+   * @param s value
+   * @param start offset start position
+   * @return offset or null if invalid
+   */
+  private static ZoneOffset parseOffset( final String s, final int start )
+  {
+    final int len = s.length() - start;
+    final char sign = s.charAt( start );
+
+    if ( sign == 'Z' )
+      return ( len == 1 ) ? ZoneOffset.UTC : null;
+    else if ( sign != '+' && sign != '-' )
+      return null;
+
+    final int hours;
+    final int minutes;
+
+    switch( len )
+    {
+      case 3: //..+HH
+        hours = digits( s, start + 1, 2 );
+        minutes = 0;
+      break;
+
+      case 5: //..+HHMM
+        hours = digits( s, start + 1, 2 );
+        minutes = digits( s, start + 3, 2 );
+      break;
+
+      case 6: //..+HH:MM
+        if ( s.charAt( start + 3 ) != ':' )
+          return null;
+        hours = digits( s, start + 1, 2 );
+        minutes = digits( s, start + 4, 2 );
+      break;
+
+      default:
+        return null;
+    }
+
+    if (( hours | minutes ) < 0 )
+      return null;
+
+    return ( sign == '-' )
+      ? ZoneOffset.ofHoursMinutes( -hours, -minutes )
+      : ZoneOffset.ofHoursMinutes( hours, minutes );
+  }
+
+
+  /**
+   * Parse MM/dd/yyyy as the start of the day in the system default zone.
+   * @param s value
+   * @return date or null
+   * @throws DateTimeException if any of the fields are out of range
+   */
+  private static ZonedDateTime parseUSDate( final String s ) throws DateTimeException
+  {
+    final int month = digits( s, 0, 2 );
+    final int day = digits( s, 3, 2 );
+    final int year = digits( s, 6, 4 );
+
+    if (( year | month | day ) < 0 )
+      return null;
+
+    return LocalDate.of( year, month, day ).atStartOfDay( ZoneId.systemDefault());
+  }
+
+
+  /**
+   * Retrieve the system default offset right now.
+   * This matches what APIDate does when the zone can't be determined.
+   * @return offset
+   */
+  private static ZoneOffset systemOffset()
+  {
+    return ZoneId.systemDefault().getRules().getOffset( Instant.now());
+  }
+
+
+  /**
+   * Skip past a fraction of a second if one exists at position i.
+   * @param s value
+   * @param i position of the possible '.'
+   * @return the position after the fraction or i if there isn't one.
+   */
+  private static int skipFraction( final String s, int i )
+  {
+    if ( i < s.length() && s.charAt( i ) == '.' )
+    {
+      i++;
+      while ( i < s.length() && isDigit( s.charAt( i )))
+      {
+        i++;
+      }
+    }
+
+    return i;
+  }
+
+
+  /**
+   * Convert some run of digits to an int.
+   * @param s value
+   * @param start start position
+   * @param count number of digits
+   * @return value or -1 if any character isn't a digit
+   */
+  private static int digits( final String s, final int start, final int count )
+  {
+    int out = 0;
+    for ( int i = start; i < start + count; i++ )
+    {
+      final char c = s.charAt( i );
+      if ( !isDigit( c ))
+        return -1;
+
+      out = ( out * 10 ) + ( c - '0' );
+    }
+
+    return out;
+  }
+
+
+  private static boolean isDigit( final char c )
+  {
+    return c >= '0' && c <= '9';
+  }
+}
@@ -46,6 +46,20 @@ public interface IApi
    */
   public IAPIResponse get(final String url, final Map<String, String> headers) 
     throws APIException;
+  
+  
+  /**
+   * Perform a get-based request to some endpoint and stream the response 
+   * body to handler.  The body is not buffered, and maxDownloadSize does
+   * not apply.
+   * @param url The URL
+   * @param headers Extra headers to send
+   * @param handler Reads the response body 
+   * @throws APIException If the status code is not 2xx, or if something 
+   * goes wrong 
+   */
+  public void getStream( final String url, final Map<String,String> headers,
+    final IResponseStreamHandler handler ) throws APIException;
 
   
   /**
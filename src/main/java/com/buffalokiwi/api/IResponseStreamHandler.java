@@ -0,0 +1,35 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the 
+ * terms and conditions defined in file 'LICENSE', which is part 
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a response body as it is downloaded.
+ * @author John Quinn
+ * @see IApi#getStream(java.lang.String, java.util.Map, com.buffalokiwi.api.IResponseStreamHandler) 
+ */
+public interface IResponseStreamHandler 
+{
+  /**
+   * Read the response body.
+   * The stream is closed after this returns.
+   * @param content response body 
+   * @throws IOException if the stream can't be read 
+   * @throws APIException if the content is invalid 
+   */
+  public void handle( final InputStream content ) throws IOException, APIException;
+}
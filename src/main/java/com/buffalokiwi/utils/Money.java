@@ -62,6 +62,42 @@ public class Money implements Comparable<Money>
    */
   public static final String DEFAULT_COUNTRY = "US";
   
+  /**
+   * Default locale built from DEFAULT_LANGUAGE and DEFAULT_COUNTRY.
+   * Locale and Currency are immutable, so every instance shares these.
+   */
+  public static final Locale DEFAULT_LOCALE = new Locale( DEFAULT_LANGUAGE, DEFAULT_COUNTRY );
+  
+  /**
+   * Currency for DEFAULT_LOCALE 
+   */
+  public static final Currency DEFAULT_CURRENCY = Currency.getInstance( DEFAULT_LOCALE );
+  
+  /**
+   * A parser for Money( String ).
+   * NumberFormat is not thread safe, so there's one per thread.
+   */
+  private static final ThreadLocal<NumberFormat> PARSER = ThreadLocal.withInitial(() -> {
+    final NumberFormat fmt = NumberFormat.getNumberInstance( DEFAULT_LOCALE );
+    if ( fmt instanceof DecimalFormat )
+    {
+      ((DecimalFormat)fmt).setParseBigDecimal( true );
+    }
+    
+    return fmt;
+  });
+  
+  /**
+   * Currency formatter for DEFAULT_LOCALE used by toCurrencyString()
+   */
+  private static final ThreadLocal<NumberFormat> CURRENCY_FORMAT = 
+    ThreadLocal.withInitial(() -> NumberFormat.getCurrencyInstance( DEFAULT_LOCALE ));
+  
+  /**
+   * 100 
+   */
+  private static final BigDecimal ONE_HUNDRED = BigDecimal.valueOf( 100 );
+  
   /**
    * Internal amount 
    */
@@ -101,10 +137,7 @@ public class Money implements Comparable<Money>
   
   public static Money fromDBInt( final int val )
   {
-    BigDecimal bd = new BigDecimal( val );
-    bd.setScale( 2 );
-    
-    return new Money( bd.divide( new BigDecimal( 100 )));    
+    return new Money( BigDecimal.valueOf( val, 2 ));
   }
   
   
@@ -113,8 +146,8 @@ public class Money implements Comparable<Money>
    */
   public Money()
   {
-    fLocale = new Locale( DEFAULT_LANGUAGE, DEFAULT_COUNTRY );
-    fCurrency = Currency.getInstance( fLocale );
+    fLocale = DEFAULT_LOCALE;
+    fCurrency = DEFAULT_CURRENCY;
     fMode = DEFAULT_ROUNDING;
     fAmount = BigDecimal.ZERO.setScale( getDecimals(), fMode );
     checkAmount();
@@ -127,9 +160,10 @@ public class Money implements Comparable<Money>
    */
   public Money( final Money m )
   {
-    this.fAmount = new BigDecimal( m.fAmount.toPlainString());
-    this.fLocale = new Locale( m.fLocale.getLanguage(), m.fLocale.getCountry());
-    this.fCurrency = Currency.getInstance( this.fLocale );
+    //..BigDecimal, Locale and Currency are all immutable 
+    this.fAmount = m.fAmount;
+    this.fLocale = m.fLocale;
+    this.fCurrency = m.fCurrency;
     this.fMode = m.fMode;
     
   }
@@ -159,7 +193,7 @@ public class Money implements Comparable<Money>
    */
   public Money( BigDecimal aAmount, Currency aCurrency )
   {
-    this( aAmount, new Locale( DEFAULT_LANGUAGE, DEFAULT_COUNTRY ), aCurrency, DEFAULT_ROUNDING );
+    this( aAmount, DEFAULT_LOCALE, aCurrency, DEFAULT_ROUNDING );
   }
 
 
@@ -169,8 +203,8 @@ public class Money implements Comparable<Money>
    */
   public Money( BigDecimal aAmount )
   {
-    fLocale = new Locale( DEFAULT_LANGUAGE, DEFAULT_COUNTRY );
-    fCurrency = Currency.getInstance( fLocale );
+    fLocale = DEFAULT_LOCALE;
+    fCurrency = DEFAULT_CURRENCY;
     fMode = DEFAULT_ROUNDING;
     if ( !( aAmount instanceof BigDecimal ))
       fAmount = BigDecimal.ZERO.setScale( getDecimals(), fMode );
@@ -188,7 +222,7 @@ public class Money implements Comparable<Money>
    */
   public Money( int aAmount )
   {
-    this( new BigDecimal( aAmount ));
+    this( BigDecimal.valueOf( aAmount ));
   }
 
 
@@ -201,9 +235,9 @@ public class Money implements Comparable<Money>
     if ( aAmount == null || aAmount.trim().isEmpty())
       throw new ParseException( "Invalid Amount (null)", 0 );
     
-    final BigDecimal amt = (BigDecimal)getFormatter().parse(aAmount.trim().replaceAll("[^\\d.,]",""));
-    fLocale = new Locale( DEFAULT_LANGUAGE, DEFAULT_COUNTRY );
-    fCurrency = Currency.getInstance( fLocale );
+    final BigDecimal amt = parseAmount( aAmount );
+    fLocale = DEFAULT_LOCALE;
+    fCurrency = DEFAULT_CURRENCY;
     fMode = DEFAULT_ROUNDING;
     if ( !( amt instanceof BigDecimal ))
       fAmount = BigDecimal.ZERO.setScale( getDecimals(), fMode );
@@ -214,15 +248,45 @@ public class Money implements Comparable<Money>
   }
 
   
-  private NumberFormat getFormatter()
+  /**
+   * Strip everything except digits, '.' and ',' from some amount and parse it.
+   * Plain decimal strings (what the api sends) are handed straight to 
+   * BigDecimal, and anything else (grouping separators, etc) goes through
+   * the locale number parser.
+   * @param aAmount Amount 
+   * @return parsed amount 
+   * @throws ParseException if it isn't a number 
+   */
+  private static BigDecimal parseAmount( final String aAmount ) throws ParseException
   {
-    final NumberFormat fmt = NumberFormat.getNumberInstance( new Locale( DEFAULT_LANGUAGE, DEFAULT_COUNTRY ));
-    if ( fmt instanceof DecimalFormat )
+    final int len = aAmount.length();
+    final StringBuilder sb = new StringBuilder( len );
+    boolean plain = true;
+    int dots = 0;
+    
+    for ( int i = 0; i < len; i++ )
     {
-      ((DecimalFormat)fmt).setParseBigDecimal( true );
+      final char c = aAmount.charAt( i );
+      if ( c >= '0' && c <= '9' )
+        sb.append( c );
+      else if ( c == '.' )
+      {
+        dots++;
+        sb.append( c );
+      }
+      else if ( c == ',' )
+      {
+        plain = false;
+        sb.append( c );
+      }
     }
     
-    return fmt;
+    final String clean = sb.toString();
+    
+    if ( plain && dots <= 1 && clean.length() > dots )
+      return new BigDecimal( clean );
+    
+    return (BigDecimal)PARSER.get().parse( clean );
   }
   
 
@@ -334,7 +398,7 @@ public class Money implements Comparable<Money>
 
   public Money times( int factor ) 
   {
-    BigDecimal f = new BigDecimal( factor );
+    BigDecimal f = BigDecimal.valueOf( factor );
     return new Money( fAmount.multiply( f ), fLocale, fCurrency, fMode );
   }
 
@@ -349,7 +413,7 @@ public class Money implements Comparable<Money>
 
   public Money div( int divisor ) 
   {
-    BigDecimal d = new BigDecimal( divisor );
+    BigDecimal d = BigDecimal.valueOf( divisor );
     return new Money( fAmount.divide( d ), fLocale, fCurrency, fMode );
   }
 
@@ -369,7 +433,7 @@ public class Money implements Comparable<Money>
 
   public int mod( int divisor )
   {
-    BigDecimal d = new BigDecimal( divisor );
+    BigDecimal d = BigDecimal.valueOf( divisor );
     return fAmount.remainder( d ).intValue();
   }
 
@@ -429,6 +493,9 @@ public class Money implements Comparable<Money>
 
   public String toCurrencyString()
   {
+    if ( DEFAULT_LOCALE.equals( fLocale ))
+      return CURRENCY_FORMAT.get().format( fAmount.doubleValue());
+    
     return NumberFormat.getCurrencyInstance( fLocale ).format( fAmount.doubleValue());
   }
 
@@ -594,7 +661,7 @@ public class Money implements Comparable<Money>
    */
   public int asDBInteger()
   {
-    return times( 100 ).asBigDecimal().intValue();
+    return fAmount.multiply( ONE_HUNDRED ).intValue();
   }
 
 
@@ -0,0 +1,371 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.utils;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Currency;
+
+
+/**
+ * Money stored as a long number of minor units (cents for USD).
+ *
+ * Money is backed by a BigDecimal, and every operation creates a new
+ * BigDecimal and a new Money.  This is fine for a single order, but summing
+ * thousands of order totals, refunds or settlement lines creates a lot of
+ * garbage.  This stores the amount as a primitive long so those sums can
+ * be done with plain long math.
+ *
+ * The static methods work on raw long values and never allocate anything.
+ * Use them for tight aggregation loops, and convert back to Money when done.
+ *
+ * Conversion to and from Money is lossless since Money is always scaled to
+ * the number of fraction digits used by its currency.
+ *
+ * All arithmetic throws an ArithmeticException on overflow instead of
+ * silently wrapping.
+ *
+ * @author John Quinn
+ */
+public final class MoneyCents implements Comparable<MoneyCents>
+{
+  /**
+   * A zero amount in the default currency
+   */
+  public static final MoneyCents ZERO = new MoneyCents( 0L );
+
+  /**
+   * The amount in minor units
+   */
+  private final long cents;
+
+  /**
+   * Currency
+   */
+  private final Currency currency;
+
+
+  /**
+   * Convert some Money instance into minor units.
+   * @param m Money
+   * @return minor units (cents for USD)
+   * @throws ArithmeticException if the amount doesn't fit in a long
+   */
+  public static long toCents( final Money m ) throws ArithmeticException
+  {
+    if ( m == null )
+      throw new IllegalArgumentException( "m cannot be null" );
+
+    return m.asBigDecimal()
+      .movePointRight( m.getCurrency().getDefaultFractionDigits())
+      .longValueExact();
+  }
+
+
+  /**
+   * Convert some number of minor units in the default currency to Money
+   * @param cents amount in cents
+   * @return Money
+   */
+  public static Money toMoney( final long cents )
+  {
+    return toMoney( cents, Money.DEFAULT_CURRENCY );
+  }
+
+
+  /**
+   * Convert some number of minor units to Money
+   * @param cents amount in minor units
+   * @param currency currency
+   * @return Money
+   */
+  public static Money toMoney( final long cents, final Currency currency )
+  {
+    if ( currency == null )
+      throw new IllegalArgumentException( "currency cannot be null" );
+
+    return new Money( BigDecimal.valueOf( cents,
+      currency.getDefaultFractionDigits()), currency );
+  }
+
+
+  /**
+   * Add two amounts
+   * @param a amount
+   * @param b amount
+   * @return a + b
+   * @throws ArithmeticException on overflow
+   */
+  public static long add( final long a, final long b ) throws ArithmeticException
+  {
+    return Math.addExact( a, b );
+  }
+
+
+  /**
+   * Subtract two amounts
+   * @param a amount
+   * @param b amount
+   * @return a - b
+   * @throws ArithmeticException on overflow
+   */
+  public static long subtract( final long a, final long b ) throws ArithmeticException
+  {
+    return Math.subtractExact( a, b );
+  }
+
+
+  /**
+   * Multiply an amount by some quantity
+   * @param a amount
+   * @param qty quantity
+   * @return a * qty
+   * @throws ArithmeticException on overflow
+   */
+  public static long multiply( final long a, final long qty ) throws ArithmeticException
+  {
+    return Math.multiplyExact( a, qty );
+  }
+
+
+  /**
+   * Sum a collection of Money.
+   * This only converts each entry; the sum itself is done as a long.
+   * @param amounts amounts to sum
+   * @return sum in minor units
+   * @throws CurrencyMismatchException if currencies don't match
+   * @throws ArithmeticException on overflow
+   */
+  public static long sum( final Collection<Money> amounts )
+    throws CurrencyMismatchException, ArithmeticException
+  {
+    if ( amounts == null )
+      throw new IllegalArgumentException( "amounts cannot be null" );
+
+    long out = 0L;
+    Currency c = null;
+
+    for ( final Money m : amounts )
+    {
+      if ( c == null )
+        c = m.getCurrency();
+      else if ( !c.equals( m.getCurrency()))
+        throw new CurrencyMismatchException( m.getCurrency() + " does not match the expected currency " + c );
+
+      out = Math.addExact( out, toCents( m ));
+    }
+
+    return out;
+  }
+
+
+  /**
+   * Create an instance from some Money
+   * @param m money
+   * @return instance
+   * @throws ArithmeticException if the amount doesn't fit in a long
+   */
+  public static MoneyCents fromMoney( final Money m ) throws ArithmeticException
+  {
+    return new MoneyCents( toCents( m ), m.getCurrency());
+  }
+
+
+  /**
+   * Create a new instance in the default currency
+   * @param cents amount in cents
+   */
+  public MoneyCents( final long cents )
+  {
+    this( cents, Money.DEFAULT_CURRENCY );
+  }
+
+
+  /**
+   * Create a new instance
+   * @param cents amount in minor units
+   * @param currency currency
+   */
+  public MoneyCents( final long cents, final Currency currency )
+  {
+    if ( currency == null )
+      throw new IllegalArgumentException( "currency cannot be null" );
+
+    this.cents = cents;
+    this.currency = currency;
+  }
+
+
+  /**
+   * Retrieve the amount in minor units
+   * @return cents
+   */
+  public long getCents()
+  {
+    return cents;
+  }
+
+
+  /**
+   * Retrieve the currency
+   * @return currency
+   */
+  public Currency getCurrency()
+  {
+    return currency;
+  }
+
+
+  /**
+   * Convert this to Money
+   * @return money
+   */
+  public Money toMoney()
+  {
+    return toMoney( cents, currency );
+  }
+
+
+  /**
+   * Add some amount to this
+   * @param m amount
+   * @return this + m
+   * @throws CurrencyMismatchException if currencies don't match
+   * @throws ArithmeticException on overflow
+   */
+  public MoneyCents plus( final MoneyCents m )
+    throws CurrencyMismatchException, ArithmeticException
+  {
+    checkCurrencyMatch( m );
+    return new MoneyCents( Math.addExact( cents, m.cents ), currency );
+  }
+
+
+  /**
+   * Subtract some amount from this
+   * @param m amount
+   * @return this - m
+   * @throws CurrencyMismatchException if currencies don't match
+   * @throws ArithmeticException on overflow
+   */
+  public MoneyCents minus( final MoneyCents m )
+    throws CurrencyMismatchException, ArithmeticException
+  {
+    checkCurrencyMatch( m );
+    return new MoneyCents( Math.subtractExact( cents, m.cents ), currency );
+  }
+
+
+  /**
+   * Multiply this by some quantity
+   * @param qty quantity
+   * @return this * qty
+   * @throws ArithmeticException on overflow
+   */
+  public MoneyCents times( final long qty ) throws ArithmeticException
+  {
+    return new MoneyCents( Math.multiplyExact( cents, qty ), currency );
+  }
+
+
+  /**
+   * Negate this amount
+   * @return -this
+   * @throws ArithmeticException on overflow
+   */
+  public MoneyCents negate() throws ArithmeticException
+  {
+    return new MoneyCents( Math.negateExact( cents ), currency );
+  }
+
+
+  /**
+   * Check to see if the amount is zero
+   * @return is zero
+   */
+  public boolean isEmpty()
+  {
+    return cents == 0L;
+  }
+
+
+  /**
+   * Check to see if the amount is positive
+   * @return is positive
+   */
+  public boolean isPositive()
+  {
+    return cents > 0L;
+  }
+
+
+  /**
+   * Check to see if the amount is negative
+   * @return is negative
+   */
+  public boolean isNegative()
+  {
+    return cents < 0L;
+  }
+
+
+  private void checkCurrencyMatch( final MoneyCents that ) throws CurrencyMismatchException
+  {
+    if ( that == null )
+      throw new IllegalArgumentException( "amount cannot be null" );
+    else if ( !currency.equals( that.currency ))
+      throw new CurrencyMismatchException( that.currency + " does not match the expected currency " + currency );
+  }
+
+
+  @Override
+  public String toString()
+  {
+    return BigDecimal.valueOf( cents, currency.getDefaultFractionDigits()).toPlainString();
+  }
+
+
+  @Override
+  public boolean equals( final Object aThat )
+  {
+    if ( this == aThat ) return true;
+
+    if ( !( aThat instanceof MoneyCents )) return false;
+
+    final MoneyCents that = (MoneyCents)aThat;
+
+    return cents == that.cents && currency.equals( that.currency );
+  }
+
+
+  @Override
+  public int hashCode()
+  {
+    int res = HashCodeUtil.SEED;
+    res = HashCodeUtil.hash( res, cents );
+    res = HashCodeUtil.hash( res, currency );
+    return res;
+  }
+
+
+  @Override
+  public int compareTo( final MoneyCents aThat )
+  {
+    final int c = Long.compare( cents, aThat.cents );
+    if ( c != 0 ) return c;
+
+    return currency.getCurrencyCode().compareTo( aThat.currency.getCurrencyCode());
+  }
+}
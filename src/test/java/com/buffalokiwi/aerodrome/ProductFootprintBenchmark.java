@@ -0,0 +1,183 @@
+/**
+ * This file is part of the Aerodrome package, and is subject to the
+ * terms and conditions defined in file 'LICENSE', which is part
+ * of this source code package.
+ *
+ * Copyright (c) 2016 All Rights Reserved, John T. Quinn III,
+ * <johnquinn3@gmail.com>
+ *
+ * THIS CODE AND INFORMATION ARE PROVIDED "AS IS" WITHOUT WARRANTY OF ANY
+ * KIND, EITHER EXPRESSED OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND/OR FITNESS FOR A
+ * PARTICULAR PURPOSE.
+ */
+
+package com.buffalokiwi.aerodrome;
+
+import com.buffalokiwi.aerodrome.jet.products.CompactProductRec;
+import com.buffalokiwi.aerodrome.jet.products.FNodeInventoryRec;
+import com.buffalokiwi.aerodrome.jet.products.FNodePriceRec;
+import com.buffalokiwi.aerodrome.jet.products.ProductCodeRec;
+import com.buffalokiwi.aerodrome.jet.products.ProductCodeType;
+import com.buffalokiwi.aerodrome.jet.products.ProductDiff;
+import com.buffalokiwi.aerodrome.jet.products.ProductImageSlot;
+import com.buffalokiwi.aerodrome.jet.products.ProductRec;
+import com.buffalokiwi.aerodrome.jet.products.StringDictionary;
+import com.buffalokiwi.utils.Money;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * Compares the heap used by a catalog of ProductRec with the same catalog
+ * held as CompactProductRec.
+ *
+ * Usage: ProductFootprintBenchmark [product count]
+ *
+ * This is kept with the test sources so it is not packaged.  Build it with
+ * mvn test-compile and run it with target/classes and target/test-classes
+ * on the classpath.
+ *
+ * Run with a fixed heap (ie: -Xms2g -Xmx2g) for stable numbers.  The products
+ * are synthetic: a title, a few hundred characters of description, bullets,
+ * a UPC, dimensions, four fulfillment nodes and brand/category values drawn
+ * from small pools, which is roughly what a real catalog looks like.
+ *
+ * @author John Quinn
+ */
+public class ProductFootprintBenchmark
+{
+  /**
+   * Run the benchmark
+   * @param args [product count]
+   * @throws Exception
+   */
+  public static void main( final String[] args ) throws Exception
+  {
+    final int count = ( args.length > 0 ) ? Integer.parseInt( args[0] ) : 200000;
+
+    final long base = usedHeap();
+
+    final List<ProductRec> products = new ArrayList<>( count );
+    for ( int i = 0; i < count; i++ )
+    {
+      products.add( createProduct( i ));
+    }
+
+    final long full = usedHeap() - base;
+
+    final StringDictionary dict = new StringDictionary();
+    final List<CompactProductRec> compact = new ArrayList<>( count );
+    for ( final ProductRec p : products )
+    {
+      compact.add( CompactProductRec.fromProduct( p, dict ));
+    }
+
+    //..Spot check that nothing was lost
+    int mismatched = 0;
+    for ( int i = 0; i < count; i += Math.max( 1, count / 1000 ))
+    {
+      final ProductRec p = compact.get( i ).toProduct( dict );
+      if ( !new ProductDiff( products.get( i ), p ).getResult().isEmpty()
+        || !products.get( i ).toJSON().equals( p.toJSON()))
+      {
+        mismatched++;
+      }
+    }
+
+    products.clear();
+    final long small = usedHeap() - base;
+
+    long encoded = 0;
+    for ( final CompactProductRec c : compact )
+    {
+      encoded += c.getEncodedSize();
+    }
+
+    System.out.println( "Products:              " + count );
+    System.out.println( "ProductRec heap:       " + mb( full ) + " (" + ( full / count ) + " bytes each)" );
+    System.out.println( "CompactProductRec heap: " + mb( small ) + " (" + ( small / count ) + " bytes each)" );
+    System.out.println( "Encoded field data:    " + mb( encoded ) + " (" + ( encoded / count ) + " bytes each)" );
+    System.out.println( "Dictionary strings:    " + dict.size());
+    System.out.println( "Reduction:             " + String.format( "%.1fx", (double)full / Math.max( 1, small )));
+    System.out.println( "Round trip mismatches: " + mismatched );
+
+    //..Keep the compact set reachable until after the last measurement
+    if ( compact.size() != count )
+      throw new IllegalStateException();
+  }
+
+
+  /**
+   * Create a synthetic product
+   * @param i product number
+   * @return product
+   * @throws Exception
+   */
+  private static ProductRec createProduct( final int i ) throws Exception
+  {
+    final Random r = new Random( i );
+    final String sku = "SKU-" + i;
+
+    final List<FNodeInventoryRec> inv = new ArrayList<>();
+    final List<FNodePriceRec> prices = new ArrayList<>();
+    for ( int n = 0; n < 4; n++ )
+    {
+      inv.add( new FNodeInventoryRec( "fnode" + n, r.nextInt( 100 )));
+      prices.add( new FNodePriceRec( "fnode" + n, new Money( BigDecimal.valueOf( 500 + r.nextInt( 20000 ), 2 ))));
+    }
+
+    final StringBuilder desc = new StringBuilder();
+    while ( desc.length() < 400 )
+    {
+      desc.append( "Lorem ipsum dolor sit amet " ).append( r.nextInt( 100000 )).append( ". " );
+    }
+
+    return new ProductRec.Builder()
+      .setMerchantSku( sku )
+      .setTitle( "Product " + i + " in size " + ( 1 + r.nextInt( 12 )))
+      .setBrand( "Brand " + r.nextInt( 500 ))
+      .setManufacturer( "Manufacturer " + r.nextInt( 300 ))
+      .setCategoryPath( "Home/Category " + r.nextInt( 200 ))
+      .setBrowseNodeId( 1000000 + r.nextInt( 5000 ))
+      .setMfrPartNumber( "MPN-" + r.nextInt( 1000000 ))
+      .setProductDescription( desc.toString())
+      .setBullets( Arrays.asList( "Bullet one " + i, "Bullet two " + i, "Bullet three" ))
+      .setProductCode( new ProductCodeRec( String.format( "%012d", i ), ProductCodeType.UPC ))
+      .setCountryOfOrigin( "US" )
+      .setShippingWeightPounds( BigDecimal.valueOf( 1 + r.nextInt( 500 ), 1 ))
+      .setPackageLengthInches( BigDecimal.valueOf( 1 + r.nextInt( 300 ), 1 ))
+      .setPackageWidthInches( BigDecimal.valueOf( 1 + r.nextInt( 300 ), 1 ))
+      .setPackageHeightInches( BigDecimal.valueOf( 1 + r.nextInt( 300 ), 1 ))
+      .setFulfillmentTime( 1 + r.nextInt( 3 ))
+      .setMsrp( new Money( BigDecimal.valueOf( 1000 + r.nextInt( 30000 ), 2 )))
+      .setPrice( new Money( BigDecimal.valueOf( 500 + r.nextInt( 20000 ), 2 )))
+      .setfNodePrices( prices )
+      .setfNodeInventory( inv )
+      .setMainImageUrl( "https://images.example.com/" + sku + "/main.jpg" )
+      .setAlternateImage( ProductImageSlot.ONE, "https://images.example.com/" + sku + "/1.jpg" )
+      .build();
+  }
+
+
+  private static long usedHeap() throws InterruptedException
+  {
+    final Runtime rt = Runtime.getRuntime();
+    for ( int i = 0; i < 4; i++ )
+    {
+      System.gc();
+      Thread.sleep( 100 );
+    }
+
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+
+  private static String mb( final long bytes )
+  {
+    return String.format( "%.1f MB", bytes / 1048576.0 );
+  }
+}